@@ -47,10 +47,15 @@ public class Main extends Application {
     private GTFSDataIndexer dataIndexer;
     private GTFSRealtimeManager realtimeManager;
     private TilesManager tilesManager;
+    private GTFSRealtimeRecorder realtimeRecorder;
+    private GTFSRealtimeReplayServer replayServer;
 
     // Campi service.
     private ConnectivityService connectivityService;
     private FavoritesService favoritesService;
+    private FavoritesDashboardService dashboardService;
+    private AsyncSearchService searchService;
+    private RealtimeHistoryService historyService;
     private AuthService authService;
 
     // START -----------------------------------------------------------------------------------------------------------
@@ -78,8 +83,6 @@ public class Main extends Application {
 
         // OPERATOR LOADER ---------------------------------------------------------------------------------------------
 
-        GTFSStaticLoader dataLoader = new GTFSStaticLoader();               // Carica i dati GTFS da cache o resources.
-
         // CONTROLLO DELLA CONNESSIONE E AGGIORNAMENTO DELLA CACHE -----------------------------------------------------
 
         // Mostra la finestra di caricamento.
@@ -89,12 +92,39 @@ public class Main extends Application {
 
         new Thread(() -> {              // Nuovo thread per eseguire operazioni lente (rete, I/O) senza bloccare l’interfaccia grafica.
             try {
+                // 0. Sorgente dei feed realtime: URL predefiniti, URL configurati o archivio registrato.
+                String tripUpdatesUrl = System.getProperty("damose.realtime.tripUpdatesUrl", TRIPUPDATE_URL);
+                String vehiclePositionsUrl = System.getProperty("damose.realtime.vehiclePositionsUrl", VEHICLEPOS_URL);
+                String tripUpdatesMirrors = System.getProperty("damose.realtime.tripUpdatesMirrors");           // Mirror o proxy (opzionali, separati da virgole).
+                String vehiclePositionsMirrors = System.getProperty("damose.realtime.vehiclePositionsMirrors");
+                String alertsUrl = System.getProperty("damose.realtime.alertsUrl");                         // Feed degli avvisi di servizio (opzionale).
+                String alertsMirrors = System.getProperty("damose.realtime.alertsMirrors");
+                String replayArchive = System.getProperty("damose.realtime.replay");                       // Archivio da riprodurre (opzionale).
+                if (replayArchive != null && !replayArchive.isBlank()) {
+                    replayServer = new GTFSRealtimeReplayServer(java.nio.file.Path.of(replayArchive),
+                            Double.parseDouble(System.getProperty("damose.realtime.replaySpeed", "1")), 0);
+                    replayServer.start();                                                                   // Server locale su una porta libera.
+                    tripUpdatesUrl = replayServer.getTripUpdatesUrl();
+                    vehiclePositionsUrl = replayServer.getVehiclePositionsUrl();
+                    alertsUrl = replayServer.getServiceAlertsUrl();                                         // Null se l'archivio non contiene avvisi.
+                    tripUpdatesMirrors = null;                                                              // I mirror servono i dati dal vivo, non la registrazione.
+                    vehiclePositionsMirrors = null;
+                    alertsMirrors = null;
+                    NetworkService.setTestUrl(replayServer.getBaseUrl());                                   // La connessione si verifica sul server locale.
+                }
+
+                java.util.List<GTFSFeed> feeds = new java.util.ArrayList<>();                              // Feed delle agenzie: ATAC per primo, poi quelli configurati.
+                feeds.add(GTFSFeed.main(
+                        GTFSFeedEndpoints.withMirrors(tripUpdatesUrl, tripUpdatesMirrors),
+                        GTFSFeedEndpoints.withMirrors(vehiclePositionsUrl, vehiclePositionsMirrors),
+                        alertsUrl != null && !alertsUrl.isBlank()
+                                ? GTFSFeedEndpoints.withMirrors(alertsUrl, alertsMirrors) : java.util.List.of()));
+                feeds.addAll(GTFSFeed.fromSystemProperties());                                              // Cotral, treni regionali... (opzionali).
+
                 // 1. Controllo connessione e aggiornamento cache.
                 if (isOnline()) {                                                                           // Se il sistema è online...
                     loadingView.updateMessage("ONLINE\n");                                                  // ...La finestra di caricamento mostra il messaggio...
-                    if (!GTFSCacheManager.isCacheAvailable()) {                                             // Se non è stata ancora creata una cache con i dati GTFS statici...
-                        GTFSCacheManager.updateCacheIfOnline();                                             // ...La cache con i file GTFS viene aggiornata.
-                    }
+                    GTFSCacheManager.updateMissingCaches(feeds);                                            // ...Scarica in parallelo i feed statici non ancora in cache.
                 } else {                                                                                    // Se il sistema è offline...
                     loadingView.updateMessage("OFFLINE\n");                                                 // ...La finestra di caricamento mostra il messaggio.
                 }
@@ -102,9 +132,13 @@ public class Main extends Application {
                 // CARICAMENTO DATI GTFS -------------------------------------------------------------------------------
 
                 // 2. Caricamento effettivo dei dati.
+                GTFSStaticLoader dataLoader;                                                                 // Carica i dati GTFS dalla cache.
                 if (GTFSCacheManager.isCacheAvailable()) {                                                   // Se la cache è disponibile...
+                    feeds.removeIf(feed -> !feed.isMain() && !GTFSCacheManager.isCacheAvailable(feed.getCacheDirectory()));    // ...Salta le altre agenzie ancora senza cache...
                     loadingView.updateMessage("caricamento GTFS dalla cache locale...");                     // ...La finestra di caricamento mostra il messaggio...
-                    dataLoader.loadAllFromDirectory(GTFSCacheManager.getCacheDirectory());                   // ...il GTFSStaticLoader carica i dati dalla cache, situata nella home utente.
+                    dataLoader = GTFSStaticLoader.loadFeeds(feeds);                                          // ...il GTFSStaticLoader carica in parallelo i feed dalla cache, situata nella home utente...
+                    java.util.List<String> loaded = dataLoader.getNamespaces();
+                    feeds.removeIf(feed -> !loaded.contains(feed.getNamespace()));                           // ...Tralascia le agenzie il cui caricamento è fallito.
                 } else {                                                                                     // Se la cache non è disponibile (primo avvio)...
                     loadingView.updateMessage("CACHE NON TROVATA\naggiornamento della cache...");            // ...La finestra di caricamento mostra il messaggio...
                     throw new RuntimeException("Cache GTFS non disponibile e nessuna connessione");          // ...Genera l'eccezione.
@@ -112,12 +146,34 @@ public class Main extends Application {
 
                 // OPERATOR INDEXER ------------------------------------------------------------------------------------
 
-                dataIndexer = new GTFSDataIndexer(dataLoader);                                              // Crea le relazioni tra le varie entità GTFS.
-                realtimeManager = new GTFSRealtimeManager(dataIndexer, TRIPUPDATE_URL, VEHICLEPOS_URL);     // Si occupa della gestione dei dati realtime.
+                loadingView.updateMessage("indicizzazione della rete...");                                  // Orario compatto e trasbordi a piedi (salvati nella cache).
+                dataIndexer = new GTFSDataIndexer(dataLoader,
+                        feeds.size() == 1 ? GTFSCacheManager.getCacheDirectory() : GTFSCacheManager.getNetworkDirectory(),
+                        feeds.stream().map(GTFSFeed::getCacheDirectory).toList(),
+                        GTFSFootpathIndex.DEFAULT_RADIUS_METERS);                                           // Crea le relazioni tra le varie entità GTFS.
+                realtimeManager = new GTFSRealtimeManager(dataIndexer, feeds);                              // Si occupa della gestione dei dati realtime di tutte le agenzie.
+                realtimeManager.getMetrics().registerMBeans();                                              // Metriche realtime consultabili via JMX.
+                String recordDirectory = System.getProperty("damose.realtime.record");                      // Archivio dei feed scaricati (opzionale).
+                if (recordDirectory != null && !recordDirectory.isBlank()) {
+                    realtimeRecorder = new GTFSRealtimeRecorder(java.nio.file.Path.of(recordDirectory));
+                    realtimeManager.setRecorder(realtimeRecorder);
+                }
+                String realtimeRoutes = System.getProperty("damose.realtime.routes");                        // Linee realtime da decodificare (opzionale, separate da virgole).
+                if (realtimeRoutes != null && !realtimeRoutes.isBlank()) {
+                    realtimeManager.setRouteFilter(java.util.Arrays.stream(realtimeRoutes.split(","))
+                            .map(String::trim).filter(r -> !r.isEmpty()).collect(java.util.stream.Collectors.toSet()));
+                }
 
                 // SERVICE ---------------------------------------------------------------------------------------------
 
                 favoritesService = new FavoritesService();                                                  // Gestisce i preferiti.
+                dashboardService = new FavoritesDashboardService(dataIndexer);                              // Riepiloghi live dei preferiti.
+                searchService = new AsyncSearchService();                                                   // Ricerche testuali fuori dal thread JavaFX.
+                try {
+                    historyService = new RealtimeHistoryService(dataIndexer);                               // Storico realtime su SQLite.
+                } catch (java.sql.SQLException e) {
+                    e.printStackTrace();                                                                    // Senza storico l'applicazione funziona comunque.
+                }
                 authService = new AuthService();                                                            // Gestisce l'autenticazione.
                 lastUser = authService.loadSession();                                                       // Carica eventuale utente salvato.
                 connectivityService = new ConnectivityService(realtimeManager);                             // Gestisce la connessione.
@@ -127,11 +183,12 @@ public class Main extends Application {
 
                 LoginController loginController = new LoginController(authService);
                 MapsController mapsController = new MapsController(dataIndexer);
-                FindStopController findStopController = new FindStopController(dataIndexer);
+                FindStopController findStopController = new FindStopController(dataIndexer, searchService);
                 StopInfoController stopInfoController = new StopInfoController(dataIndexer, favoritesService);
-                FindLineController findLineController = new FindLineController(dataIndexer);
+                FindLineController findLineController = new FindLineController(dataIndexer, searchService);
                 LineInfoController lineInfoController = new LineInfoController(dataIndexer, favoritesService);
-                ToolBarController toolBarController = new ToolBarController(dataIndexer, favoritesService, connectivityService);
+                ToolBarController toolBarController = new ToolBarController(dataIndexer, favoritesService, connectivityService, dashboardService,
+                        realtimeManager.getMetrics());
 
                 // FINE DEL CARICAMENTO --------------------------------------------------------------------------------
 
@@ -160,13 +217,16 @@ public class Main extends Application {
                                 lineInfoController,
                                 toolBarController);
 
-                        dataIndexer.addRealtimeListener(() ->
-                                SwingUtilities.invokeLater(() ->
+                        Runnable unsubscribeVehicles = dataIndexer.addRealtimeChangeListener(    // Ridisegna i veicoli solo se cambia la linea mostrata.
+                                "map-vehicles",
+                                event -> event.affectsRoute(homeView.getMapsView().getCurrentRouteId()),
+                                _ -> SwingUtilities.invokeLater(() ->
                                         homeView.getMapsView().refreshVehiclesLayer()
                                 )
                         );
 
                         Runnable onLogout = () -> {
+                            unsubscribeVehicles.run();                              // La mappa di questa home non riceve più eventi.
                             currentUser = null;                                     // Cancella l'utente corrente.
                             authService.clearSession();                             // Cancella la sessione utente.
 
@@ -196,13 +256,16 @@ public class Main extends Application {
                                 lineInfoController,
                                 toolBarController);
 
-                        dataIndexer.addRealtimeListener(() ->
-                                SwingUtilities.invokeLater(() ->
+                        Runnable unsubscribeVehicles = dataIndexer.addRealtimeChangeListener(    // Ridisegna i veicoli solo se cambia la linea mostrata.
+                                "map-vehicles",
+                                event -> event.affectsRoute(homeView.getMapsView().getCurrentRouteId()),
+                                _ -> SwingUtilities.invokeLater(() ->
                                         homeView.getMapsView().refreshVehiclesLayer()
                                 )
                         );
 
                         Runnable onLogout = () -> {
+                            unsubscribeVehicles.run();                              // La mappa di questa home non riceve più eventi.
                             currentUser = null;                                     // Cancella l'utente corrente.
                             authService.clearSession();                             // Cancella la sessione utente.
 
@@ -246,12 +309,28 @@ public class Main extends Application {
             if (connectivityService != null) {
                 connectivityService.stop();
             }
+            if (dashboardService != null) {
+                dashboardService.stop();
+            }
+            if (searchService != null) {
+                searchService.stop();
+            }
+            if (historyService != null) {
+                historyService.stop();
+            }
             if (dataIndexer != null) {
                 dataIndexer.removeRealtimeListeners();
                 dataIndexer.clear();
             }
             if (realtimeManager != null) {
                 realtimeManager.stop();
+                realtimeManager.getMetrics().unregisterMBeans();
+            }
+            if (realtimeRecorder != null) {
+                realtimeRecorder.close();
+            }
+            if (replayServer != null) {
+                replayServer.stop();
             }
             if (tilesManager != null) {
                 tilesManager.shutdown();
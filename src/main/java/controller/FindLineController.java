@@ -8,70 +8,72 @@ import model.Trip;
 // Operator.
 import operator.GTFSDataIndexer;
 
+// Service.
+import service.AsyncSearchService;
+
 // Altre classi.
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Controller per la ricerca e gestione delle linee.
  */
-public class FindLineController {
+public final class FindLineController {
 
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;        // GTFS statici indicizzati.
 
+    // SERVICE ---------------------------------------------------------------------------------------------------------
+    private final AsyncSearchService.SearchChannel<List<String>> searchChannel;     // Ricerca asincrona del campo delle linee.
+
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
      * Costruttore.
      *
-     * @param dataIndexer operator contenente i dati GTFS indicizzati
+     * @param dataIndexer   operator contenente i dati GTFS indicizzati
+     * @param searchService service per l'esecuzione asincrona delle ricerche
      */
-    public FindLineController(GTFSDataIndexer dataIndexer) {
+    public FindLineController(GTFSDataIndexer dataIndexer, AsyncSearchService searchService) {
         this.dataIndexer = dataIndexer;
+        this.searchChannel = searchService.createChannel(this::searchLines);
+    }
+
+    // RICERCA ASINCRONA -----------------------------------------------------------------------------------------------
+    /**
+     * Avvia la ricerca fuori dal thread JavaFX, annullando quella precedente.
+     * <p>
+     * Il callback viene eseguito sul thread JavaFX solo se nel frattempo non è arrivata una query più recente.
+     * </p>
+     *
+     * @param query    stringa di ricerca dell'utente
+     * @param onResult callback con la lista di suggerimenti "NOME → CAPOLINEA [routeId|directionId]"
+     */
+    public void searchLinesAsync(String query, Consumer<List<String>> onResult) {
+        searchChannel.submit(query, onResult);
+    }
+
+    /**
+     * Annulla la ricerca in corso, ad esempio quando il campo viene svuotato.
+     */
+    public void cancelSearch() {
+        searchChannel.cancel();
     }
 
     // RICERCA LE LINEE IN BASE ALLA QUERY DELL'UTENTE -----------------------------------------------------------------
     /**
      * Cerca le linee in base a una query testuale dell'utente.
      * <p>
-     * La ricerca controlla se la query corrisponde al nome breve della linea.
-     * Per ogni linea corrispondente, vengono generate stringhe di suggerimento
-     * contenenti il nome breve, la destinazione e l'ID della route e della direzione.
+     * La ricerca controlla se la query corrisponde al nome breve della linea, usando il catalogo
+     * delle linee costruito al caricamento: le stringhe di suggerimento, contenenti il nome breve,
+     * la destinazione e l'ID della route e della direzione, sono già pronte e ordinate
+     * (corrispondenza esatta, poi prefisso, poi contenuto).
      * </p>
      *
      * @param query stringa di ricerca dell'utente
      * @return      lista di suggerimenti contenenti ID, nome e destinazione della corsa
      */
     public List<String> searchLines(String query) {
-
-        List<String> suggestions = new ArrayList<>();                                       // Lista di linee che vengono visualizzate come suggerimento.
-
-        for (String routeId : dataIndexer.getAllRouteIds()) {                               // Per ogni route_id...
-            Route route = dataIndexer.getRouteById(routeId);                                // ...Ottiene la route corrente...
-            if (route == null) continue;
-
-            String shortName = route.getRouteShortName();                                   // ...Ottiene il nome breve della route...
-            if (shortName == null) continue;
-            if (!shortName.toLowerCase().contains(query.toLowerCase())) continue;           // ...Se non corrisponde alla query salta la route...
-
-            List<Trip> tripsForRoute = dataIndexer.getTripsByRoute(routeId);                // ...Ottiene tutte le corse della linea corrente...
-            if (tripsForRoute.isEmpty()) continue;                                          // ...Se non ci sono corse salta la route...
-
-            Map<Integer, String> directions = new HashMap<>();                              // ...Costruisce la mappa direzione - capolinea...
-            for (Trip trip : tripsForRoute) {                                               // ...Per ogni corsa della linea...
-                if (trip.getTripHeadsign() != null) {                                       // ...Se la destinazione è valida...
-                    directions.putIfAbsent(trip.getDirectionId(), trip.getTripHeadsign());  // ...Inserisce nella mappa direzione - capolinea della corsa.
-                }
-            }
-
-            for (Map.Entry<Integer, String> dir : directions.entrySet()) {                   // Per ogni coppia della mappa direzione - capolinea...
-                String directionId = String.valueOf(dir.getKey());                           // ...Estrae l'id della direzione...
-                String directionName = dir.getValue();                                       // ...Estrae la destinazione...
-                String suggestion = shortName + " → " + directionName + " [" +
-                        route.getRouteId() + "|" + directionId + "]";                        // ...Formatta la riga di suggerimento...
-                suggestions.add(suggestion);                                                 // ...Aggiunge la riga alla lista dei suggerimenti.
-            }
-        }
-        return suggestions;                                                                  // Restituisce la lista di linee della tendina dei suggerimenti.
+        return dataIndexer.searchLineSuggestions(query);                                    // Restituisce la lista di linee della tendina dei suggerimenti.
     }
 
     // RESTITUISCE LA PRIMA CORSA DI UNA LINEA -------------------------------------------------------------------------
@@ -6,36 +6,68 @@ import model.*;
 // Operator.
 import operator.GTFSDataIndexer;
 
+// Service.
+import service.AsyncSearchService;
+
 // Altre classi.
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * Controller per la ricerca e gestione delle fermate.
  */
-public class FindStopController {
+public final class FindStopController {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int MAX_SUGGESTIONS = 50;      // Numero massimo di suggerimenti mostrati.
 
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;          // GTFS statici indicizzati.
 
+    // SERVICE ---------------------------------------------------------------------------------------------------------
+    private final AsyncSearchService.SearchChannel<List<String>> searchChannel;     // Ricerca asincrona del campo delle fermate.
+
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
      * Costruttore.
      *
-     * @param dataIndexer operator contenente i dati GTFS indicizzati
+     * @param dataIndexer   operator contenente i dati GTFS indicizzati
+     * @param searchService service per l'esecuzione asincrona delle ricerche
      */
-    public FindStopController(GTFSDataIndexer dataIndexer) {
+    public FindStopController(GTFSDataIndexer dataIndexer, AsyncSearchService searchService) {
         this.dataIndexer = dataIndexer;
+        this.searchChannel = searchService.createChannel(this::searchStops);
+    }
+
+    // RICERCA ASINCRONA -----------------------------------------------------------------------------------------------
+    /**
+     * Avvia la ricerca fuori dal thread JavaFX, annullando quella precedente.
+     * <p>
+     * Il callback viene eseguito sul thread JavaFX solo se nel frattempo non è arrivata una query più recente.
+     * </p>
+     *
+     * @param query    stringa di ricerca dell'utente
+     * @param onResult callback con la lista di suggerimenti "NOME FERMATA [ID]"
+     */
+    public void searchStopsAsync(String query, Consumer<List<String>> onResult) {
+        searchChannel.submit(query, onResult);
+    }
+
+    /**
+     * Annulla la ricerca in corso, ad esempio quando il campo viene svuotato.
+     */
+    public void cancelSearch() {
+        searchChannel.cancel();
     }
 
     // RICERCA LE FERMATE IN BASE ALLA QUERY DELL'UTENTE ---------------------------------------------------------------
     /**
      * Cerca le fermate in base a una query testuale dell'utente.
      * <p>
-     * La ricerca controlla se la query corrisponde al nome o all'ID della fermata.
-     * Per ogni fermata corrispondente, vengono generate stringhe di suggerimento
-     * contenenti il nome e l'ID della fermata.
+     * La ricerca usa l'indice testuale delle fermate, che confronta la query con nome, ID e codice
+     * ignorando maiuscole e accenti. Per le fermate più pertinenti vengono generate stringhe
+     * di suggerimento contenenti il nome e l'ID della fermata.
      * </p>
      *
      * @param query stringa di ricerca dell'utente
@@ -45,13 +77,9 @@ public class FindStopController {
 
         List<String> suggestions = new ArrayList<>();                                       // Lista di fermate che vengono visualizzate come suggerimento.
 
-        for (Stop stop : dataIndexer.getAllStops()) {                                       // Per ogni Stop...
-            if ((stop.getStopName() != null &&                                              // ...Controlla che il nome sia valido...
-                    stop.getStopName().toLowerCase().contains(query.toLowerCase())) ||      // ...Controlla se il nome corrisponde alla query...
-                    stop.getStopId().toLowerCase().contains(query.toLowerCase())) {         // ...Controlla se il codice corrisponde alla query.
-                String suggestion = stop.getStopName() + " [" + stop.getStopId() + "]";     // Se tutto corrisponde crea la riga di suggerimento...
-                suggestions.add(suggestion);                                                // ...E la aggiunge alla lista dei suggerimenti.
-            }
+        for (Stop stop : dataIndexer.searchStops(query, MAX_SUGGESTIONS)) {                 // Per ogni Stop trovata dall'indice...
+            String suggestion = stop.getStopName() + " [" + stop.getStopId() + "]";         // ...Crea la riga di suggerimento...
+            suggestions.add(suggestion);                                                    // ...E la aggiunge alla lista dei suggerimenti.
         }
         return suggestions;                                                                 // Restituisce la lista di fermate della tendina dei suggerimenti.
     }
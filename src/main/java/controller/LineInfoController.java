@@ -4,7 +4,9 @@ package controller;
 import model.*;
 
 // Operator.
+import operator.GTFSAlertIndex;
 import operator.GTFSDataIndexer;
+import operator.GTFSRealtimeSnapshot;
 
 // Service.
 import service.FavoritesService;
@@ -20,12 +22,16 @@ import java.time.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Controller per la gestione delle informazioni di una linea.
  */
 public class LineInfoController {
 
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");    // Fuso orario del feed.
+
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;              // GTFS statici indicizzati.
 
@@ -59,11 +65,13 @@ public class LineInfoController {
      * @param route         linea
      * @param trip          corsa
      * @param lineNameLabel label per il nome della linea
+     * @param alertsLabel   label per gli avvisi di servizio attivi
      * @param stopsList     listView per le fermate della corsa
      */
     public void selectLine(Route route,
                            Trip trip,
                            Label lineNameLabel,
+                           Label alertsLabel,
                            ListView<Arrival> stopsList) {
 
         this.currentRoute = route;                                                              // Linea selezionata nella barra di ricerca.
@@ -72,6 +80,26 @@ public class LineInfoController {
 
         List<Arrival> stops = getStopsForLine(trip);                                            // Recupera le fermate per quella linea come oggetti Arrival.
         stopsList.setItems(FXCollections.observableArrayList(stops));                           // Mostra le fermate nella listView.
+        alertsLabel.setText(getAlertsText(route, trip, stops));                                 // Mostra gli avvisi attivi (etichetta nascosta se vuota).
+    }
+
+    // RESTITUISCE GLI AVVISI DI SERVIZIO DELLA LINEA ------------------------------------------------------------------
+    /**
+     * Restituisce il testo degli avvisi di servizio attivi all'orario scelto: quelli della rete, della linea,
+     * della corsa e delle sue fermate, letti dall'indice per chiave senza scandire tutti gli avvisi del feed.
+     *
+     * @param route linea selezionata
+     * @param trip  corsa selezionata
+     * @param stops fermate mostrate nel pannello
+     * @return      un avviso per riga (vuoto se non ce ne sono)
+     */
+    private String getAlertsText(Route route, Trip trip, List<Arrival> stops) {
+        GTFSAlertIndex alerts = dataIndexer.getRealtimeSnapshot().getAlertIndex();                 // Avvisi letti da un solo snapshot.
+        if (alerts.size() == 0) return "";
+        long epochSec = LocalDateTime.of(LocalDate.now(), selectedTime).atZone(ZONE).toEpochSecond();
+        Set<ServiceAlert> active = new LinkedHashSet<>(alerts.getActive(route.getRouteId(), null, trip.getTripId(), epochSec));
+        for (Arrival stop : stops) active.addAll(alerts.getActiveForStop(stop.getStopId(), epochSec));
+        return active.stream().map(ServiceAlert::toString).collect(Collectors.joining("\n"));
     }
     // AGGIORNA LO STATO DI PREFERITO DELLA LINEA CORRENTE ------------------------------------------------------------
     /**
@@ -135,6 +163,10 @@ public class LineInfoController {
     /**
      * Restituisce tutte le fermate della corsa attuale della linea,
      * a partire dall'orario selezionato fino al capolinea.
+     * <p>
+     * Gli orari previsti e l'avanzamento vengono letti dal {@link TripState} di ogni corsa,
+     * tutti dallo stesso snapshot realtime, senza scandire gli arrivi previsti delle fermate.
+     * </p>
      *
      * @param selectedTrip corsa
      * @return             lista di fermate come oggetti {@link Arrival}
@@ -150,6 +182,7 @@ public class LineInfoController {
 
         currentTrip = null;                                                                                                 // Corsa attualmente selezionata.
         LocalDateTime minFutureStart = null;                                                                                // Orario della corsa futura più vicina all'orario selezionato.
+        GTFSRealtimeSnapshot snapshot = dataIndexer.getRealtimeSnapshot();                                                  // Stato realtime letto una sola volta.
 
         // Scelta della corsa da mostrare ------------------------------------------------------------------------------
         for (Trip trip : trips) {                                                                                           // Per ogni corsa con linea e direzione uguali...
@@ -164,42 +197,13 @@ public class LineInfoController {
             LocalDateTime firstEffective = firstStatic;                                                                     // Inizialmente:orario effettivo della prima fermata = orario statico della prima fermata.
             LocalDateTime lastEffective = lastStatic;                                                                       // Inizialmente: orario effettivo dell'ultima fermata = orario statico dell'ultima fermata.
 
-            // Tentativo di aggiornamento realtime per la prima fermata ------------------------------------------------
-            try {
-                String firstStopId = stopTimes.get(0).getStopId();                                                          // Recupera la prima fermata della corsa.
-                List<GTFSDataIndexer.PredictedArrival> predictionsFirst = dataIndexer
-                        .getPredictedArrivals(firstStopId, trip.getRouteId());                                              // Recupera tutte le predizioni di arrivo per fermata.
-                if (predictionsFirst != null) {                                                                             // Se ci sono predizioni...
-                    for (GTFSDataIndexer.PredictedArrival predictedArrival : predictionsFirst) {                            // ...Per ogni predizione...
-                        if (trip.getTripId().equals(predictedArrival.tripId)) {                                             // ...Se fa parte della corsa attuale...
-                            firstEffective = Instant.ofEpochSecond(predictedArrival.arrivalEpochSec)                        // ...Aggiornamento: orario effettivo della prima fermata = orario realtime della prima fermata.
-                                    .atZone(ZoneId.of("Europe/Rome"))
-                                    .toLocalDateTime();
-                            break;                                                                                          // Serve solo la predizione per la corsa scelta.
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            // Tentativo di aggiornamento realtime per l'ultima fermata ------------------------------------------------
-            try {
-                String lastStopId = stopTimes.get(stopTimes.size() - 1).getStopId();                                        // Recupera l'ultima fermata della corsa.
-                List<GTFSDataIndexer.PredictedArrival> predictionsLast = dataIndexer
-                        .getPredictedArrivals(lastStopId, trip.getRouteId());                                               // Recupera tutte le predizioni di arrivo per fermata.
-                if (predictionsLast != null) {                                                                              // Se ci sono predizioni...
-                    for (GTFSDataIndexer.PredictedArrival predictedArrival : predictionsLast) {                             // ...Per ogni predizione...
-                        if (trip.getTripId().equals(predictedArrival.tripId)) {                                             // ...Se fa parte della corsa attuale...
-                            lastEffective = Instant.ofEpochSecond(predictedArrival.arrivalEpochSec)                         // ...Aggiornamento: orario effettivo dell'ultima fermata = orario realtime dell'ultima fermata.
-                                    .atZone(ZoneId.of("Europe/Rome"))
-                                    .toLocalDateTime();
-                            break;                                                                                          // Serve solo la predizione per la corsa scelta.
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+            // Aggiornamento realtime di prima e ultima fermata --------------------------------------------------------
+            TripState state = snapshot.getTripState(trip.getTripId());                                                      // Stato realtime della corsa (null se non è nel feed).
+            if (state != null) {
+                int first = state.indexOfStop(0, stopTimes.get(0).getStopId());                                            // Posizione della prima fermata nello stato.
+                int last = state.indexOfStop(stopTimes.size() - 1, stopTimes.get(stopTimes.size() - 1).getStopId());      // Posizione dell'ultima fermata nello stato.
+                if (state.hasPrediction(first)) firstEffective = toLocalDateTime(state.getPredictedEpochSec(first));       // Orario effettivo della prima fermata = orario realtime.
+                if (state.hasPrediction(last)) lastEffective = toLocalDateTime(state.getPredictedEpochSec(last));          // Orario effettivo dell'ultima fermata = orario realtime.
             }
 
             if (firstEffective == null || lastEffective == null) continue;                                                  // Se le predizioni non sono valide salta la corsa.
@@ -219,34 +223,25 @@ public class LineInfoController {
                                                                                                                             // Se now è dopo l'ultima fermata della corsa la corsa viene ignorata e si passa alla successiva.
         if (currentTrip == null) return Collections.emptyList();                                                            // Se non è stata trovata alcuna corsa restituisce una lista vuota.
         List<StopTime> activeStopTimes = dataIndexer.getStopTimesByTrip(currentTrip.getTripId());                           // Altrimenti recupera gli stopTime della corsa attuale.
+        TripState activeState = snapshot.getTripState(currentTrip.getTripId());                                             // Stato realtime della corsa attuale.
+        boolean tracked = activeState != null && activeState.hasVehicle();                                                  // Con il veicolo l'avanzamento è quello reale.
 
         // Restituzione delle fermate con orari ------------------------------------------------------------------------
         AtomicBoolean foundNext = new AtomicBoolean(false);                                                       // Flag per marcare la prima fermata come NEXT (AtomicBoolean = boolean mutabile).
-        return activeStopTimes.stream()
-                .map(stopTime -> {                                                                                 // Mappa ogni stopTime con l'Arrival corrispondente.
+        return IntStream.range(0, activeStopTimes.size())
+                .mapToObj(i -> {                                                                                   // Mappa ogni stopTime con l'Arrival corrispondente.
+                    StopTime stopTime = activeStopTimes.get(i);
                     Stop stop = dataIndexer.getStopById(stopTime.getStopId());                                              // Recupera la fermata corrispondente allo stopTime tramite iD.
                     if (stop == null) return null;                                                                          // Se la fermata non è valida ignora questo record.
                     LocalDateTime scheduled = TimetableService.parseArrivalTimeSafe(stopTime.getArrivalTime());             // Orario statico alla fermata.
                     LocalDateTime predicted = null;                                                                         // Orario realtime alla fermata.
                     boolean realtime = false;                                                                               // Indicatore realtime.
 
-                    // Tentativo di aggiornamento realtime per la fermata ----------------------------------------------
-                    try {
-                        List<GTFSDataIndexer.PredictedArrival> predictions = dataIndexer
-                                .getPredictedArrivals(stopTime.getStopId(), currentTrip.getRouteId());                      // Recupera la lista di predizioni realtime per la fermata.
-                        if (predictions != null) {                                                                          // Se la lista è valida...
-                            for (GTFSDataIndexer.PredictedArrival predictedArrival : predictions) {                         // ...Per ogni predizione trovata...
-                                if (currentTrip.getTripId().equals(predictedArrival.tripId)) {                              // ...Se la corsa delle predizioni corrisponde alla corsa attuale...
-                                    predicted = Instant.ofEpochSecond(predictedArrival.arrivalEpochSec)                     // ...Aggiornamento: orario realtime = predizione realtime.
-                                            .atZone(ZoneId.of("Europe/Rome"))
-                                            .toLocalDateTime();
-                                    realtime = true;                                                                        // Indicatore realtime true.
-                                    break;                                                                                  // Serve solo la predizione corrispondente alla corsa corrente.
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                    // Aggiornamento realtime per la fermata -----------------------------------------------------------
+                    int index = activeState != null ? activeState.indexOfStop(i, stopTime.getStopId()) : -1;        // Posizione della fermata nello stato della corsa.
+                    if (activeState != null && activeState.hasPrediction(index)) {                                        // Se c'è una previsione per la fermata...
+                        predicted = toLocalDateTime(activeState.getPredictedEpochSec(index));                               // ...Orario realtime = predizione realtime...
+                        realtime = true;                                                                                    // ...Indicatore realtime true.
                     }
                     String formattedTime = scheduled == null ? "--:--" :
                             String.format("%02d:%02d", scheduled.getHour(), scheduled.getMinute());                         // Orario statico da mostrare: HH:mm o --:-- se non valido.
@@ -259,7 +254,16 @@ public class LineInfoController {
 
                     // Calcolo status.
                     Arrival.StopStatus status;                                                                              // Stato NEXT, FUTURE, PAST degli arrivi alle fermate
-                    if (!foundNext.get() && scheduled != null && !scheduled.isBefore(now)) {                                // Prossima fermata in arrivo...
+                    if (tracked && index >= 0) {                                                                            // Se il veicolo è noto lo stato segue la sua posizione...
+                        if (index <= activeState.getLastPassedStopIndex()) {
+                            status = Arrival.StopStatus.PAST;                                                               // ...Fermata già superata...
+                        } else if (!foundNext.get()) {
+                            status = Arrival.StopStatus.NEXT;                                                               // ...Prima fermata non superata...
+                            foundNext.set(true);
+                        } else {
+                            status = Arrival.StopStatus.FUTURE;                                                             // ...Fermate successive.
+                        }
+                    } else if (!foundNext.get() && scheduled != null && !scheduled.isBefore(now)) {                         // Prossima fermata in arrivo...
                         status = Arrival.StopStatus.NEXT;                                                                   // ...Stato = NEXT.
                         foundNext.set(true);                                                                                // Flag: NEXT gia trovato.
                     } else if (scheduled != null && scheduled.isBefore(now)) {                                              // Fermate passate...
@@ -283,6 +287,17 @@ public class LineInfoController {
                 .collect(Collectors.toList());                                                                              // Materializza lo stream in una lista.
     }
 
+    // CONVERTE UN ORARIO EPOCH ----------------------------------------------------------------------------------------
+    /**
+     * Converte un orario epoch nell'ora locale del feed.
+     *
+     * @param epochSec secondi epoch
+     * @return         data e ora locali
+     */
+    private static LocalDateTime toLocalDateTime(long epochSec) {
+        return Instant.ofEpochSecond(epochSec).atZone(ZONE).toLocalDateTime();
+    }
+
     // RESTITUISCE LA LINEA ATTUALMENTE VISUALIZZATA -------------------------------------------------------------------
     /**
      * Restituisce la linea attualmente mostrata nel pannello informativo.
@@ -7,7 +7,12 @@ import operator.GTFSDataIndexer;
 import model.Route;
 import model.ShapePoint;
 
+// Operator.
+import operator.GTFSIsochroneEngine;
+import operator.VehicleMotionModel;
+
 // Altre classi.
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -15,8 +20,12 @@ import java.util.List;
  */
 public class MapsController {
 
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int ISOCHRONE_WINDOW_MINUTES = 15;     // Finestra di partenze considerate per l'isocrona.
+
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;
+    private final VehicleMotionModel vehicleMotion;                 // Moto dei veicoli della linea mostrata.
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
@@ -26,6 +35,7 @@ public class MapsController {
      */
     public MapsController(GTFSDataIndexer dataIndexer) {
         this.dataIndexer = dataIndexer;
+        this.vehicleMotion = new VehicleMotionModel(dataIndexer);
     }
 
     // RESTITUISCE GLI SHAPEPOINT DI UNA LINEA -------------------------------------------------------------------------
@@ -59,5 +69,36 @@ public class MapsController {
     public List<operator.GTFSDataIndexer.VehiclePos> getVehiclesForRoute(String routeId) {
         return dataIndexer.getVehiclesForRoute(routeId);
     }
+
+    // AGGIORNA IL MOTO DEI VEICOLI DI UNA LINEA -----------------------------------------------------------------------
+    /**
+     * Aggiorna il modello di moto con le posizioni attuali dei veicoli di una linea.
+     * <p>
+     * Va chiamato dal thread di Swing, lo stesso che disegna i frame della mappa.
+     * </p>
+     *
+     * @param routeId ID della linea
+     * @return        modello di moto aggiornato
+     */
+    public VehicleMotionModel updateVehicleMotion(String routeId) {
+        vehicleMotion.update(dataIndexer.getVehiclesForRoute(routeId), System.currentTimeMillis());
+        return vehicleMotion;
+    }
+
+    // CALCOLA L'ISOCRONA DI UNA FERMATA -------------------------------------------------------------------------------
+    /**
+     * Calcola le zone raggiungibili entro un tempo massimo partendo da una fermata.
+     * <p>
+     * Il calcolo può richiedere centinaia di millisecondi: va eseguito fuori dal thread grafico.
+     * </p>
+     *
+     * @param stopId        ID della fermata di partenza
+     * @param departure     data e ora di partenza
+     * @param budgetMinutes tempo massimo di viaggio in minuti
+     * @return              risultato dell'isocrona, oppure null se la fermata non è servita
+     */
+    public GTFSIsochroneEngine.IsochroneResult computeIsochrone(String stopId, LocalDateTime departure, int budgetMinutes) {
+        return dataIndexer.computeIsochrone(stopId, departure, budgetMinutes, ISOCHRONE_WINDOW_MINUTES);
+    }
 }
 
@@ -4,7 +4,10 @@ package controller;
 import model.*;
 
 // Operator.
+import operator.GTFSAlertIndex;
 import operator.GTFSDataIndexer;
+import operator.GTFSNextDeparturesView;
+import operator.GTFSRealtimeSnapshot;
 
 // Service.
 import service.FavoritesService;
@@ -25,6 +28,10 @@ import java.util.stream.Collectors;
  */
 public class StopInfoController {
 
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");             // Fuso orario del feed.
+    private static final long NOW_TOLERANCE_MINUTES = 5;                      // Entro questo scarto l'orario scelto è considerato "adesso".
+
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;                // GTFS statici indicizzati.
 
@@ -56,16 +63,41 @@ public class StopInfoController {
      *
      * @param stop          fermata selezionata
      * @param stopNameLabel label per il nome della fermata
+     * @param alertsLabel   label per gli avvisi di servizio attivi
      * @param arrivalsList  listView per le linee in arrivo
      */
     public void selectStop(Stop stop,
                            Label stopNameLabel,
+                           Label alertsLabel,
                            ListView<Arrival> arrivalsList) {
 
         this.currentStop = stop;                                                // Fermata selezionata nella barra di ricerca.
         stopNameLabel.setText(stop.getStopName());                              // Imposta il nome della fermata sul pannello.
         List<Arrival> arrivals = getArrivalsForStop(stop);                      // Recupera le linee in arrivo per quella fermata.
         arrivalsList.setItems(FXCollections.observableArrayList(arrivals));     // Mostra gli arrivi nella listView.
+        alertsLabel.setText(getAlertsText(stop, arrivals));                     // Mostra gli avvisi attivi (etichetta nascosta se vuota).
+    }
+
+    // RESTITUISCE GLI AVVISI DI SERVIZIO DELLA FERMATA ----------------------------------------------------------------
+    /**
+     * Restituisce il testo degli avvisi di servizio attivi all'orario scelto: quelli della rete, della fermata
+     * e delle linee e corse presenti tra gli arrivi mostrati. Ogni avviso è letto dall'indice per chiave,
+     * senza scandire tutti gli avvisi del feed.
+     *
+     * @param stop     fermata selezionata
+     * @param arrivals arrivi mostrati nel pannello
+     * @return         un avviso per riga (vuoto se non ce ne sono)
+     */
+    private String getAlertsText(Stop stop, List<Arrival> arrivals) {
+        GTFSAlertIndex alerts = dataIndexer.getRealtimeSnapshot().getAlertIndex();                 // Avvisi letti da un solo snapshot.
+        if (alerts.size() == 0) return "";
+        long epochSec = LocalDateTime.of(LocalDate.now(), selectedTime).atZone(ZONE).toEpochSecond();
+        Set<ServiceAlert> active = new LinkedHashSet<>(alerts.getActive(null, stop.getStopId(), null, epochSec));
+        for (Arrival arrival : arrivals) {
+            active.addAll(alerts.getActiveForRoute(arrival.getRouteId(), epochSec));
+            active.addAll(alerts.getActiveForTrip(arrival.getTripId(), epochSec));
+        }
+        return active.stream().map(ServiceAlert::toString).collect(Collectors.joining("\n"));
     }
 
     // AGGIORNA LO STATO DI PREFERITO DELLA FERMATA CORRENTE -----------------------------------------------------------
@@ -101,6 +133,16 @@ public class StopInfoController {
         this.selectedTime = time;
     }
 
+    // RESTITUISCE L'ORARIO SCELTO DALL'UTENTE -------------------------------------------------------------------------
+    /**
+     * Restituisce l'orario scelto dall'utente.
+     *
+     * @return orario scelto
+     */
+    public LocalTime getSelectedTime() {
+        return selectedTime;
+    }
+
     // RESTITUISCE UNA LINEA TRAMITE ID --------------------------------------------------------------------------------
     /**
      * Restituisce la linea in base all'ID.
@@ -148,21 +190,24 @@ public class StopInfoController {
         LocalDateTime start = LocalDateTime.of(LocalDate.now(), selectedTime);                                              // Calcola l'orario di inizio del range di arrivi (seleione della fermata).
         LocalDateTime end = start.plusHours(1);                                                                             // Calcola l'orario di fine del range di arrivi (dopo 1 ora dalla selezione).
 
+        // Vista delle prossime partenze (solo per l'orario attuale) ---------------------------------------------------
+        long minutesAgo = Duration.between(selectedTime, LocalTime.now()).toMinutes();                                      // Distanza tra l'orario scelto e l'orario attuale.
+        if (minutesAgo >= 0 && minutesAgo <= NOW_TOLERANCE_MINUTES) {                                                       // Se l'utente guarda le partenze di adesso...
+            List<Arrival> boardList = getArrivalsFromNextDepartures(selectedStop, end);                                     // ...Legge la vista già calcolata, senza scandire gli stop times.
+            if (!boardList.isEmpty()) return boardList;
+        }
+
         // Tentativo realtime ------------------------------------------------------------------------------------------
         try {
-            List<GTFSDataIndexer.PredictedArrival> predictions = dataIndexer.getPredictedArrivals(stopId, null);     // Recupera tutte le predizioni di arrivo per la fermata
-            if (predictions != null && !predictions.isEmpty()) {                                                            // Se ci sono predizioni...
+            GTFSRealtimeSnapshot realtime = dataIndexer.getRealtimeSnapshot();                                              // Stato realtime letto una sola volta.
+            List<GTFSDataIndexer.PredictedArrival> predictions = realtime.getPredictedArrivals(stopId);                      // Recupera tutte le predizioni di arrivo per la fermata (già ordinate per orario).
+            if (!predictions.isEmpty()) {                                                                                   // Se ci sono predizioni...
+                long startEpoch = start.atZone(ZONE).toEpochSecond();                                                       // ...Estremi del range in epoch, per confrontare le predizioni senza convertirle...
+                long endEpoch = end.atZone(ZONE).toEpochSecond();
                 List<Arrival> realtimeList = predictions.stream()                                                           // ...Avvia la traformazione delle predizioni realtime in oggetti Arrival.
 
-                        .filter(predictedArrival -> {                                                         // Filtra le predizioni.
-                            LocalDateTime predicted = Instant.ofEpochSecond(predictedArrival.arrivalEpochSec)               // Converte l'epoch in LocaDateTime...
-                                    .atZone(ZoneId.of("Europe/Rome"))                                                // ...Con fuso orario di Roma.
-                                    .toLocalDateTime();
-                            return !predicted.isBefore(start) && !predicted.isAfter(end);                                   // Prende solo le predizioni nel range start - end (1 ora).
-                        })
-
-                        .sorted(Comparator.comparingLong(predictedArrival
-                                -> predictedArrival.arrivalEpochSec))                                                       // Ordina le predizioni in base al timestamp di arrivo in ordine crescente.
+                        .filter(predictedArrival -> predictedArrival.arrivalEpochSec >= startEpoch
+                                && predictedArrival.arrivalEpochSec <= endEpoch)                                            // Prende solo le predizioni nel range start - end (1 ora).
 
                         .map(predictedArrival -> {                                                            // Mappa ogni predizione realtime con l'Arrival corrispondente.
                             Trip trip = dataIndexer.getTripById(predictedArrival.tripId);                                   // Recupera la corsa corrispondente alla predizione tramite ID.
@@ -170,28 +215,23 @@ public class StopInfoController {
                             Route route = dataIndexer.getRouteById(trip.getRouteId());                                      // Recupera la linea corrispondente alla corsa tramite ID.
                             if (route == null) return null;                                                                 // Se la linea non è valida scarta il record per questa predizione.
                             if (trip.getTripHeadsign().equalsIgnoreCase(selectedStop.getStopName())) return null;           // Se la fermata corrisponde con il capolinea della corsa scarta il record per questa predizione.
-                            LocalDateTime predicted = Instant.ofEpochSecond(predictedArrival.arrivalEpochSec)               // Converte l'epoch in LocaDateTime...
-                                    .atZone(ZoneId.of("Europe/Rome"))                                                // ...Con fuso orario di Roma.
-                                    .toLocalDateTime();
-
-                            // Recupero orario statico.
-                            StopTime stopTime = dataIndexer.getStopTimesByTrip(trip.getTripId())                            // Recupera la lista di stopTimes statici per la corsa.
-                                    .stream()                                                                               // Trasforma la lista in uno stream.
-                                    .filter(st -> st.getStopId().equals(stopId))                                   // Filtra gli stopTime per ID della fermata.
-                                    .findFirst().orElse(null);                                                        // Prende il primo stopTime trovato per la fermata.
-                            LocalDateTime scheduled = null;                                                                 // Orario statico di arrivo alla fermata.
-                            if (stopTime != null) {                                                                         // Se lo stopTime è valido...
-                                scheduled = TimetableService.parseArrivalTimeSafe(stopTime.getArrivalTime());               // ...Orario statico = orario dello stopTime parsato con TimetableService.
+
+                            // Recupero orario statico: dallo stato della corsa, senza scandire gli stop times.
+                            TripState state = realtime.getTripState(predictedArrival.tripId);                               // Stato realtime della corsa.
+                            if (state != null && state.isCancelled()) return null;                                          // Le corse soppresse non arrivano.
+                            long scheduledEpoch = state != null ? state.getScheduledEpochSec(state.indexOfStop(stopId)) : TripState.NO_TIME;
+                            if (scheduledEpoch == TripState.NO_TIME && predictedArrival.delaySec != null) {                 // Senza stato usa il ritardo della predizione.
+                                scheduledEpoch = predictedArrival.arrivalEpochSec - predictedArrival.delaySec;
                             }
+                            LocalDateTime scheduled = scheduledEpoch != TripState.NO_TIME                                   // Orario statico di arrivo alla fermata...
+                                    ? Instant.ofEpochSecond(scheduledEpoch).atZone(ZONE).toLocalDateTime()
+                                    : scheduledFromStopTimes(trip.getTripId(), stopId);                                     // ...Oppure dagli stop times, se il ritardo non è noto.
+                            Long delayMinutes = scheduled == null ? null                                                    // Minuti di ritardo.
+                                    : (predictedArrival.arrivalEpochSec - scheduled.atZone(ZONE).toEpochSecond()) / 60;
+
                             String formattedTime = scheduled == null ? "--:--" :
                                     String.format("%02d:%02d", scheduled.getHour(), scheduled.getMinute());                 // Orario statico da mostrare: HH:mm o --:-- se non valido.
 
-                            // Calcolo delay.
-                            Long delayMinutes = null;                                                                       // Minuti di ritardo.
-                            if (scheduled != null && predicted != null) {                                                   // Se l'orario statico è valido e la predizione realtime è valida...
-                                delayMinutes = Duration.between(scheduled, predicted).toMinutes();                          // Calcola il delay tra i due orari.
-                            }
-
                             return new Arrival(                                                                             // Restituisce l'Arrival con...
                                     route.getRouteShortName(),                                                              // ...Nome linea...
                                     trip.getTripHeadsign(),                                                                 // ...Destinazione...
@@ -252,6 +292,60 @@ public class StopInfoController {
         return staticList;                                                                                                  // Restituisce la lista di Arrival statici.
     }
 
+    // RESTITUISCE LE CORSE IN ARRIVO DALLA VISTA DELLE PROSSIME PARTENZE ----------------------------------------------
+    /**
+     * Restituisce le corse in arrivo alla fermata fino all'orario indicato,
+     * lette dalla vista materializzata delle prossime partenze.
+     *
+     * @param selectedStop fermata
+     * @param end          orario limite
+     * @return             lista di corse come oggetti {@link Arrival}
+     */
+    private List<Arrival> getArrivalsFromNextDepartures(Stop selectedStop, LocalDateTime end) {
+        long endEpoch = end.atZone(ZONE).toEpochSecond();                                                                   // Orario limite in epoch second.
+        List<Arrival> result = new ArrayList<>();
+
+        for (GTFSNextDeparturesView.Departure departure : dataIndexer.getInterchangeDepartures(selectedStop.getStopId())) {    // Con più agenzie unisce le fermate vicine dell'interscambio.
+            if (departure.getEffectiveEpochSec() > endEpoch) break;                                                         // Lista ordinata: oltre il limite non serve proseguire.
+            Trip trip = dataIndexer.getTripById(departure.tripId);                                                          // Recupera la corsa della partenza.
+            if (trip == null) continue;
+            Route route = dataIndexer.getRouteById(trip.getRouteId());                                                      // Recupera la linea della corsa.
+            if (route == null) continue;
+            if (trip.getTripHeadsign().equalsIgnoreCase(selectedStop.getStopName())) continue;                             // Scarta le corse che terminano in questa fermata.
+
+            LocalDateTime scheduled = LocalDateTime.ofInstant(Instant.ofEpochSecond(departure.scheduledEpochSec), ZONE);  // Orario programmato.
+            Long delayMinutes = departure.hasPrediction()
+                    ? (departure.predictedEpochSec - departure.scheduledEpochSec) / 60 : null;                             // Ritardo/anticipo solo se c'è una previsione.
+
+            result.add(new Arrival(
+                    route.getRouteShortName(),
+                    trip.getTripHeadsign(),
+                    String.format("%02d:%02d", scheduled.getHour(), scheduled.getMinute()),
+                    departure.hasPrediction(),
+                    null,
+                    delayMinutes,
+                    departure.stopId,                                                                                       // Fermata della partenza (di un'altra agenzia all'interscambio).
+                    trip.getTripId()));
+        }
+        return result;
+    }
+
+    // ORARIO STATICO DA STOP TIMES ------------------------------------------------------------------------------------
+    /**
+     * Restituisce l'orario statico di una corsa a una fermata leggendo gli stop times,
+     * per le predizioni di cui non è noto il ritardo.
+     *
+     * @param tripId ID della corsa
+     * @param stopId ID della fermata
+     * @return       orario statico, oppure null se la corsa non passa dalla fermata
+     */
+    private LocalDateTime scheduledFromStopTimes(String tripId, String stopId) {
+        for (StopTime stopTime : dataIndexer.getStopTimesByTrip(tripId)) {
+            if (stopTime.getStopId().equals(stopId)) return TimetableService.parseArrivalTimeSafe(stopTime.getArrivalTime());
+        }
+        return null;
+    }
+
     // RESTITUISCE LA FERMATA ATTUALMENTE VISUALIZZATA -----------------------------------------------------------------
     /**
      * Restituisce la fermata attualmente visualizzata nel pannello informativo.
@@ -7,10 +7,12 @@ import model.Trip;
 
 // Operator.
 import operator.GTFSDataIndexer;
+import operator.GTFSRealtimeMetrics;
 
 // Service.
 import service.FavoritesService;
 import service.ConnectivityService;
+import service.FavoritesDashboardService;
 
 // Altre classi.
 import java.util.ArrayList;
@@ -26,9 +28,12 @@ public class ToolBarController {
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer dataIndexer;                 // GTFS statici indicizzati.
 
+    private final GTFSRealtimeMetrics realtimeMetrics;         // Metriche dei feed realtime (età dei dati).
+
     // SERVICE ---------------------------------------------------------------------------------------------------------
     private final FavoritesService favoritesService;           // Classe service per la gestione dei preferiti.
     private final ConnectivityService connectivityService;     // Classe service per il monitoraggio del servizio realtime.
+    private final FavoritesDashboardService dashboardService;  // Classe service per i riepiloghi live dei preferiti.
 
     // ALTRO -----------------------------------------------------------------------------------------------------------
     private String currentUser;                                // Utente attualmente loggato.
@@ -41,13 +46,19 @@ public class ToolBarController {
      * @param dataIndexer         operator contenente i dati GTFS indicizzati
      * @param favoritesService    service per la gestione dei preferiti
      * @param connectivityService service per il monitoraggio della connessione realtime
+     * @param dashboardService    service per i riepiloghi live dei preferiti
+     * @param realtimeMetrics     metriche dei feed realtime
      */
     public ToolBarController(GTFSDataIndexer dataIndexer,
                              FavoritesService favoritesService,
-                             ConnectivityService connectivityService) {
+                             ConnectivityService connectivityService,
+                             FavoritesDashboardService dashboardService,
+                             GTFSRealtimeMetrics realtimeMetrics) {
         this.dataIndexer = dataIndexer;
+        this.realtimeMetrics = realtimeMetrics;
         this.favoritesService = favoritesService;
         this.connectivityService = connectivityService;
+        this.dashboardService = dashboardService;
 
         // Registra un listener al connectivityService.
         connectivityService.setOnConnectionChange(this::onConnectionChange);
@@ -85,19 +96,69 @@ public class ToolBarController {
         void onConnectionChanged(boolean isOnline);
     }
 
+    // ETÀ DEI DATI REALTIME -------------------------------------------------------------------------------------------
+    /**
+     * Freschezza dei dati realtime mostrati.
+     */
+    public enum RealtimeFreshness {
+        /** Nessun feed ancora applicato. */
+        NONE,
+        /** Dati recenti. */
+        FRESH,
+        /** Dati più vecchi di {@link GTFSRealtimeMetrics#STALE_AFTER_SEC} secondi. */
+        STALE,
+        /** Dati più vecchi di {@link GTFSRealtimeMetrics#EXPIRED_AFTER_SEC} secondi. */
+        EXPIRED
+    }
+
+    /**
+     * Restituisce l'età dei dati realtime: secondi trascorsi dal timestamp del feed meno recente
+     * tra quelli che hanno già ricevuto dati (vedi {@link GTFSRealtimeMetrics#getDataAgeSec()}).
+     *
+     * @return età in secondi, oppure -1 se nessun feed ha ancora ricevuto dati
+     */
+    public long getRealtimeDataAgeSeconds() {
+        return realtimeMetrics.getDataAgeSec();
+    }
+
+    /**
+     * Classifica l'età dei dati realtime secondo le soglie di {@link GTFSRealtimeMetrics}.
+     *
+     * @param ageSeconds età in secondi (-1 se non disponibile)
+     * @return           freschezza dei dati
+     */
+    public RealtimeFreshness getRealtimeFreshness(long ageSeconds) {
+        if (ageSeconds < 0) return RealtimeFreshness.NONE;
+        if (ageSeconds < GTFSRealtimeMetrics.STALE_AFTER_SEC) return RealtimeFreshness.FRESH;
+        if (ageSeconds < GTFSRealtimeMetrics.EXPIRED_AFTER_SEC) return RealtimeFreshness.STALE;
+        return RealtimeFreshness.EXPIRED;
+    }
+
+    // REGISTRA IL LISTENER PER I RIEPILOGHI DEI PREFERITI -------------------------------------------------------------
+    /**
+     * Registra il listener della view, eseguito sul thread JavaFX quando i riepiloghi dei preferiti cambiano.
+     *
+     * @param listener callback della view
+     */
+    public void setOnFavoritesDashboardUpdate(Runnable listener) {
+        dashboardService.setOnUpdate(listener);
+    }
+
     // AGGIORNA LA LISTA ORDINATA DELLE FERMATE PREFERITE --------------------------------------------------------------
     /**
      * Restituisce la lista delle fermate preferite in base al nome.
      *
-     * @return lista di stringhe formattate "[stop_id] nome fermata"
+     * @return lista di stringhe formattate "[stop_id] nome fermata — prossime partenze"
      */
     public List<String> updateStopFavoritesList() {
         Set<String> favoriteStopIds = favoritesService.getFavoriteStops(currentUser);                   // Riceve l'insieme dei preferiti per l'utente.
+        syncDashboard();                                                                                // Allinea i preferiti monitorati dal cruscotto.
         List<String> sortedFavoritesList = new ArrayList<>();                                           // Crea la lista dei preferiti da mostrare.
         for (String stopId : favoriteStopIds) {                                                         // Per ogni stop_id dell'insieme...
             Stop stop = dataIndexer.getStopById(stopId);                                                // ...Recupera lo stop tramite indexer...
             if (stop != null) {
-                sortedFavoritesList.add("[" + stop.getStopId() + "] " + stop.getStopName());            // ...E aggiunge "[stop_id] nome fermata" alla lista.
+                sortedFavoritesList.add("[" + stop.getStopId() + "] " + stop.getStopName()
+                        + formatSummary(dashboardService.getStopSummary(stopId)));                      // ...E aggiunge "[stop_id] nome fermata" alla lista.
             }
         }
         Collections.sort(sortedFavoritesList);                                                          // Ordina la lista.
@@ -108,10 +169,11 @@ public class ToolBarController {
     /**
      * Restituisce la lista delle linee preferite ordinate.
      *
-     * @return lista di stringhe formattate "[route_id] destinazione (directionId)"
+     * @return lista di stringhe formattate "[route_id] destinazione (directionId) — corse in servizio"
      */
     public List<String> updateLineFavoritesList() {
         Set<String> favoriteLineIds = favoritesService.getFavoriteLines(currentUser);                   // Riceve l'insieme dei preferiti per l'utente.
+        syncDashboard();                                                                                // Allinea i preferiti monitorati dal cruscotto.
         List<String> sortedFavoritesList = new ArrayList<>();                                           // Crea la lista dei preferiti da mostrare.
 
         for (String lineId : favoriteLineIds) {                                                         // Per ogni entry dell'insieme...
@@ -124,7 +186,8 @@ public class ToolBarController {
             if (!trips.isEmpty()) {
                 Trip trip = trips.get(0);                                                               // Usa una corsa come rappresentativa.
                 sortedFavoritesList.add(
-                        "[" + trip.getRouteId() + "] " + trip.getTripHeadsign() + " (" + trip.getDirectionId() + ")" );
+                        "[" + trip.getRouteId() + "] " + trip.getTripHeadsign() + " (" + trip.getDirectionId() + ")"
+                        + formatSummary(dashboardService.getLineSummary(lineId)));
             }
         }
 
@@ -132,6 +195,26 @@ public class ToolBarController {
         return sortedFavoritesList;
     }
 
+    // ALLINEA IL CRUSCOTTO AI PREFERITI DELL'UTENTE -------------------------------------------------------------------
+    /**
+     * Passa al cruscotto una copia dei preferiti correnti, così che il calcolo in background
+     * non legga mai il {@link FavoritesService}, che non è thread-safe.
+     */
+    private void syncDashboard() {
+        dashboardService.setFavorites(
+                favoritesService.getFavoriteStops(currentUser), favoritesService.getFavoriteLines(currentUser));
+    }
+
+    // FORMATTA IL RIEPILOGO DI UN PREFERITO ---------------------------------------------------------------------------
+    /**
+     * Formatta il riepilogo da accodare alla voce della lista.
+     *
+     * @param summary riepilogo calcolato dal cruscotto, eventualmente null
+     * @return        suffisso da accodare, stringa vuota se il riepilogo non è ancora disponibile
+     */
+    private String formatSummary(String summary) {
+        return summary == null || summary.isEmpty() ? "" : " — " + summary;
+    }
 
     // SETTA L'UTENTE ATTUALMENTE LOGGATO -------------------------------------------------------------------------------
     /**
@@ -142,6 +225,7 @@ public class ToolBarController {
     public void setCurrentUser(String currentUser) {
         this.currentUser = currentUser;
         favoritesService.loadFavorites(currentUser);                                                    // Passa l'utente corrente al service.
+        syncDashboard();                                                                                // Avvia il calcolo dei riepiloghi.
     }
 
     // RESTITUISCE LA FERMATA TRAMITE ID -------------------------------------------------------------------------------
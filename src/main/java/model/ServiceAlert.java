@@ -0,0 +1,272 @@
+package model;
+
+// Altre classi.
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Avviso di servizio del feed GTFS-realtime (entità {@code Alert}): scioperi, deviazioni, fermate sospese.
+ * <p>
+ * Contiene i testi già scelti nella lingua preferita e gli elementi della rete a cui l'avviso si riferisce.
+ * </p>
+ * <ul>
+ *     <li>{@code alertId} - ID dell'entità nel feed</li>
+ *     <li>{@code cause}, {@code effect}, {@code severity} - nomi dei valori GTFS-realtime (es. {@code STRIKE}, {@code DETOUR})</li>
+ *     <li>{@code headerText}, {@code descriptionText}, {@code url} - testi dell'avviso (possono essere {@code null})</li>
+ *     <li>{@code periodStarts}, {@code periodEnds} - periodi di validità in epoch second (0 = illimitato); nessun periodo = sempre attivo</li>
+ *     <li>{@code routeIds}, {@code stopIds}, {@code tripIds} - linee, fermate e corse interessate</li>
+ *     <li>{@code networkWide} - l'avviso riguarda un'intera agenzia o un tipo di mezzo, senza linee, fermate o corse</li>
+ * </ul>
+ * <p>
+ * L'oggetto è immutabile: gli array non vengono copiati e non devono essere modificati.
+ * </p>
+ */
+public class ServiceAlert {
+
+    private final String alertId;
+    private final String cause;
+    private final String effect;
+    private final String severity;
+    private final String headerText;
+    private final String descriptionText;
+    private final String url;
+    private final long[] periodStarts;
+    private final long[] periodEnds;
+    private final String[] routeIds;
+    private final String[] stopIds;
+    private final String[] tripIds;
+    private final boolean networkWide;
+
+    /**
+     * Costruttore. Gli array non vengono copiati.
+     *
+     * @param alertId         ID dell'entità nel feed
+     * @param cause           causa (nome del valore GTFS-realtime)
+     * @param effect          effetto (nome del valore GTFS-realtime)
+     * @param severity        gravità (nome del valore GTFS-realtime)
+     * @param headerText      titolo dell'avviso (può essere {@code null})
+     * @param descriptionText descrizione dell'avviso (può essere {@code null})
+     * @param url             pagina con maggiori informazioni (può essere {@code null})
+     * @param periodStarts    inizio di ogni periodo di validità (epoch second, 0 se illimitato)
+     * @param periodEnds      fine di ogni periodo di validità (epoch second, 0 se illimitato)
+     * @param routeIds        linee interessate
+     * @param stopIds         fermate interessate
+     * @param tripIds         corse interessate
+     * @param networkWide     true se l'avviso riguarda un'agenzia o un tipo di mezzo nel complesso
+     */
+    public ServiceAlert(String alertId,
+                        String cause,
+                        String effect,
+                        String severity,
+                        String headerText,
+                        String descriptionText,
+                        String url,
+                        long[] periodStarts,
+                        long[] periodEnds,
+                        String[] routeIds,
+                        String[] stopIds,
+                        String[] tripIds,
+                        boolean networkWide) {
+        this.alertId = alertId;
+        this.cause = cause;
+        this.effect = effect;
+        this.severity = severity;
+        this.headerText = headerText;
+        this.descriptionText = descriptionText;
+        this.url = url;
+        this.periodStarts = periodStarts;
+        this.periodEnds = periodEnds;
+        this.routeIds = routeIds;
+        this.stopIds = stopIds;
+        this.tripIds = tripIds;
+        this.networkWide = networkWide;
+    }
+
+    /**
+     * Restituisce l'ID dell'avviso.
+     *
+     * @return ID dell'entità nel feed
+     */
+    public String getAlertId() {
+        return alertId;
+    }
+
+    /**
+     * Restituisce la causa dell'avviso.
+     *
+     * @return nome del valore GTFS-realtime (es. {@code STRIKE})
+     */
+    public String getCause() {
+        return cause;
+    }
+
+    /**
+     * Restituisce l'effetto dell'avviso.
+     *
+     * @return nome del valore GTFS-realtime (es. {@code DETOUR})
+     */
+    public String getEffect() {
+        return effect;
+    }
+
+    /**
+     * Restituisce la gravità dell'avviso.
+     *
+     * @return nome del valore GTFS-realtime (es. {@code WARNING})
+     */
+    public String getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Restituisce il titolo dell'avviso.
+     *
+     * @return titolo (può essere {@code null})
+     */
+    public String getHeaderText() {
+        return headerText;
+    }
+
+    /**
+     * Restituisce la descrizione dell'avviso.
+     *
+     * @return descrizione (può essere {@code null})
+     */
+    public String getDescriptionText() {
+        return descriptionText;
+    }
+
+    /**
+     * Restituisce la pagina con maggiori informazioni.
+     *
+     * @return URL (può essere {@code null})
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Restituisce il numero di periodi di validità.
+     *
+     * @return numero di periodi (0 se l'avviso è sempre attivo)
+     */
+    public int getPeriodCount() {
+        return periodStarts.length;
+    }
+
+    /**
+     * Restituisce l'inizio di un periodo di validità.
+     *
+     * @param index posizione del periodo
+     * @return      epoch second, oppure 0 se il periodo non ha inizio
+     */
+    public long getPeriodStart(int index) {
+        return periodStarts[index];
+    }
+
+    /**
+     * Restituisce la fine di un periodo di validità.
+     *
+     * @param index posizione del periodo
+     * @return      epoch second, oppure 0 se il periodo non ha fine
+     */
+    public long getPeriodEnd(int index) {
+        return periodEnds[index];
+    }
+
+    /**
+     * Indica se l'avviso è attivo in un istante: senza periodi sempre, altrimenti se l'istante cade in un periodo
+     * (estremi inclusi).
+     *
+     * @param epochSec istante (epoch second)
+     * @return         {@code true} se l'avviso è attivo
+     */
+    public boolean isActiveAt(long epochSec) {
+        if (periodStarts.length == 0) return true;
+        for (int i = 0; i < periodStarts.length; i++) {
+            if ((periodStarts[i] == 0 || epochSec >= periodStarts[i]) && (periodEnds[i] == 0 || epochSec <= periodEnds[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Restituisce le linee interessate.
+     *
+     * @return array di ID delle linee (da non modificare)
+     */
+    public String[] getRouteIds() {
+        return routeIds;
+    }
+
+    /**
+     * Restituisce le fermate interessate.
+     *
+     * @return array di ID delle fermate (da non modificare)
+     */
+    public String[] getStopIds() {
+        return stopIds;
+    }
+
+    /**
+     * Restituisce le corse interessate.
+     *
+     * @return array di ID delle corse (da non modificare)
+     */
+    public String[] getTripIds() {
+        return tripIds;
+    }
+
+    /**
+     * Indica se l'avviso riguarda un'intera agenzia o un tipo di mezzo, senza linee, fermate o corse.
+     *
+     * @return {@code true} se l'avviso vale per tutta la rete
+     */
+    public boolean isNetworkWide() {
+        return networkWide;
+    }
+
+    /**
+     * Confronta due avvisi per contenuto, per riconoscere quelli invariati tra due feed.
+     *
+     * @param o oggetto da confrontare
+     * @return  {@code true} se l'avviso è identico
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServiceAlert a)) return false;
+        return networkWide == a.networkWide
+                && Objects.equals(alertId, a.alertId)
+                && Objects.equals(cause, a.cause)
+                && Objects.equals(effect, a.effect)
+                && Objects.equals(severity, a.severity)
+                && Objects.equals(headerText, a.headerText)
+                && Objects.equals(descriptionText, a.descriptionText)
+                && Objects.equals(url, a.url)
+                && Arrays.equals(periodStarts, a.periodStarts)
+                && Arrays.equals(periodEnds, a.periodEnds)
+                && Arrays.equals(routeIds, a.routeIds)
+                && Arrays.equals(stopIds, a.stopIds)
+                && Arrays.equals(tripIds, a.tripIds);
+    }
+
+    /**
+     * Restituisce l'hash dell'avviso, coerente con {@link #equals(Object)}.
+     *
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(alertId, effect, headerText, Arrays.hashCode(periodStarts), Arrays.hashCode(routeIds), Arrays.hashCode(stopIds));
+    }
+
+    /**
+     * Restituisce una rappresentazione testuale dell'avviso: il titolo o, se manca, l'effetto.
+     *
+     * @return stringa rappresentativa dell'avviso
+     */
+    @Override
+    public String toString() {
+        return headerText != null && !headerText.isBlank() ? headerText : effect + " (" + cause + ")";
+    }
+}
@@ -0,0 +1,309 @@
+package model;
+
+/**
+ * Stato realtime di una corsa, costruito una volta ad ogni applicazione di un feed e condiviso da tutte le viste.
+ * <p>
+ * Le fermate sono nell'ordine della corsa (stop_sequence) e gli orari previsti sono vettori primitivi
+ * allineati alle fermate, così ogni lettura è O(1) e non richiede di scandire stop_times o le previsioni per fermata.
+ * </p>
+ * <ul>
+ *     <li>{@code tripId}, {@code routeId} - identificatori della corsa e della linea</li>
+ *     <li>{@code cancelled}, {@code added} - corsa soppressa o aggiunta rispetto all'orario</li>
+ *     <li>{@code stopIds} - fermate della corsa</li>
+ *     <li>{@code predictedEpochSec} - arrivo previsto per fermata ({@link #NO_TIME} se assente)</li>
+ *     <li>{@code delaySec} - ritardo per fermata in secondi ({@link #NO_DELAY} se assente)</li>
+ *     <li>{@code lastPassedStopIndex} - ultima fermata superata (-1 se la corsa non è partita o non è noto)</li>
+ *     <li>{@code currentDelaySec} - ritardo attuale: quello della prima fermata non ancora superata</li>
+ *     <li>posizione del veicolo che effettua la corsa, se presente nel feed</li>
+ * </ul>
+ * <p>
+ * L'oggetto è immutabile: gli array vengono condivisi tra gli stati successivi di una corsa e non devono essere modificati.
+ * </p>
+ */
+public class TripState {
+
+    /** Orario previsto non disponibile. */
+    public static final long NO_TIME = -1L;
+
+    /** Ritardo non disponibile. */
+    public static final int NO_DELAY = Integer.MIN_VALUE;
+
+    private final String tripId;
+    private final String routeId;
+    private final boolean cancelled;
+    private final boolean added;
+    private final String[] stopIds;
+    private final long[] predictedEpochSec;
+    private final int[] delaySec;
+    private final int lastPassedStopIndex;
+    private final int currentDelaySec;
+    private final boolean hasVehicle;
+    private final String vehicleId;
+    private final double vehicleLat;
+    private final double vehicleLon;
+    private final long vehicleTimestamp;
+
+    /**
+     * Costruttore. Gli array non vengono copiati.
+     *
+     * @param tripId              identificatore della corsa
+     * @param routeId             identificatore della linea (può essere {@code null})
+     * @param cancelled           true se la corsa è soppressa
+     * @param added               true se la corsa è aggiunta rispetto all'orario
+     * @param stopIds             fermate della corsa, in ordine
+     * @param predictedEpochSec   arrivo previsto per fermata (epoch second, {@link #NO_TIME} se assente)
+     * @param delaySec            ritardo per fermata in secondi ({@link #NO_DELAY} se assente)
+     * @param lastPassedStopIndex indice dell'ultima fermata superata (-1 se nessuna)
+     * @param currentDelaySec     ritardo attuale in secondi ({@link #NO_DELAY} se non noto)
+     * @param hasVehicle          true se il feed riporta la posizione del veicolo
+     * @param vehicleId           identificatore del veicolo (può essere {@code null})
+     * @param vehicleLat          latitudine del veicolo
+     * @param vehicleLon          longitudine del veicolo
+     * @param vehicleTimestamp    istante della posizione (epoch second)
+     */
+    public TripState(String tripId,
+                     String routeId,
+                     boolean cancelled,
+                     boolean added,
+                     String[] stopIds,
+                     long[] predictedEpochSec,
+                     int[] delaySec,
+                     int lastPassedStopIndex,
+                     int currentDelaySec,
+                     boolean hasVehicle,
+                     String vehicleId,
+                     double vehicleLat,
+                     double vehicleLon,
+                     long vehicleTimestamp) {
+        this.tripId = tripId;
+        this.routeId = routeId;
+        this.cancelled = cancelled;
+        this.added = added;
+        this.stopIds = stopIds;
+        this.predictedEpochSec = predictedEpochSec;
+        this.delaySec = delaySec;
+        this.lastPassedStopIndex = lastPassedStopIndex;
+        this.currentDelaySec = currentDelaySec;
+        this.hasVehicle = hasVehicle;
+        this.vehicleId = vehicleId;
+        this.vehicleLat = vehicleLat;
+        this.vehicleLon = vehicleLon;
+        this.vehicleTimestamp = vehicleTimestamp;
+    }
+
+    /**
+     * Restituisce lo stesso stato con una nuova posizione del veicolo e il relativo avanzamento;
+     * fermate e vettori delle previsioni vengono condivisi.
+     *
+     * @param hasVehicle          true se il feed riporta la posizione del veicolo
+     * @param vehicleId           identificatore del veicolo (può essere {@code null})
+     * @param vehicleLat          latitudine del veicolo
+     * @param vehicleLon          longitudine del veicolo
+     * @param vehicleTimestamp    istante della posizione (epoch second)
+     * @param lastPassedStopIndex indice dell'ultima fermata superata (-1 se nessuna)
+     * @param currentDelaySec     ritardo attuale in secondi ({@link #NO_DELAY} se non noto)
+     * @return                    nuovo stato della corsa
+     */
+    public TripState withVehicle(boolean hasVehicle, String vehicleId, double vehicleLat, double vehicleLon,
+                                 long vehicleTimestamp, int lastPassedStopIndex, int currentDelaySec) {
+        return new TripState(tripId, routeId, cancelled, added, stopIds, predictedEpochSec, delaySec,
+                lastPassedStopIndex, currentDelaySec, hasVehicle, vehicleId, vehicleLat, vehicleLon, vehicleTimestamp);
+    }
+
+    /**
+     * Restituisce l'identificatore della corsa.
+     *
+     * @return identificatore della corsa
+     */
+    public String getTripId() {
+        return tripId;
+    }
+
+    /**
+     * Restituisce l'identificatore della linea.
+     *
+     * @return identificatore della linea (può essere {@code null})
+     */
+    public String getRouteId() {
+        return routeId;
+    }
+
+    /**
+     * Indica se la corsa è soppressa.
+     *
+     * @return {@code true} se la corsa è soppressa
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Indica se la corsa è aggiunta rispetto all'orario programmato.
+     *
+     * @return {@code true} se la corsa è aggiunta
+     */
+    public boolean isAdded() {
+        return added;
+    }
+
+    /**
+     * Restituisce il numero di fermate della corsa.
+     *
+     * @return numero di fermate
+     */
+    public int getStopCount() {
+        return stopIds.length;
+    }
+
+    /**
+     * Restituisce l'identificatore di una fermata della corsa.
+     *
+     * @param index posizione della fermata nella corsa
+     * @return      identificatore della fermata
+     */
+    public String getStopId(int index) {
+        return stopIds[index];
+    }
+
+    /**
+     * Restituisce la posizione di una fermata nella corsa (il primo passaggio, per le fermate visitate più volte).
+     *
+     * @param stopId identificatore della fermata
+     * @return       posizione della fermata, oppure -1 se la corsa non vi passa
+     */
+    public int indexOfStop(String stopId) {
+        for (int i = 0; i < stopIds.length; i++) {
+            if (stopIds[i] != null && stopIds[i].equals(stopId)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Restituisce la posizione di una fermata nella corsa, verificando prima la posizione attesa.
+     *
+     * @param index  posizione attesa (ad esempio l'indice in stop_times)
+     * @param stopId identificatore della fermata
+     * @return       posizione della fermata, oppure -1 se la corsa non vi passa
+     */
+    public int indexOfStop(int index, String stopId) {
+        if (index >= 0 && index < stopIds.length && stopId != null && stopId.equals(stopIds[index])) return index;
+        return indexOfStop(stopId);
+    }
+
+    /**
+     * Indica se è disponibile una previsione per una fermata.
+     *
+     * @param index posizione della fermata nella corsa
+     * @return      {@code true} se la fermata ha un arrivo previsto
+     */
+    public boolean hasPrediction(int index) {
+        return index >= 0 && index < predictedEpochSec.length && predictedEpochSec[index] != NO_TIME;
+    }
+
+    /**
+     * Restituisce l'arrivo previsto a una fermata.
+     *
+     * @param index posizione della fermata nella corsa
+     * @return      epoch second, oppure {@link #NO_TIME}
+     */
+    public long getPredictedEpochSec(int index) {
+        return index >= 0 && index < predictedEpochSec.length ? predictedEpochSec[index] : NO_TIME;
+    }
+
+    /**
+     * Restituisce il ritardo previsto a una fermata.
+     *
+     * @param index posizione della fermata nella corsa
+     * @return      ritardo in secondi, oppure {@link #NO_DELAY}
+     */
+    public int getDelaySec(int index) {
+        return index >= 0 && index < delaySec.length ? delaySec[index] : NO_DELAY;
+    }
+
+    /**
+     * Restituisce l'arrivo programmato a una fermata, ricavato da previsione e ritardo.
+     *
+     * @param index posizione della fermata nella corsa
+     * @return      epoch second, oppure {@link #NO_TIME} se previsione o ritardo mancano
+     */
+    public long getScheduledEpochSec(int index) {
+        long predicted = getPredictedEpochSec(index);
+        int delay = getDelaySec(index);
+        return predicted != NO_TIME && delay != NO_DELAY ? predicted - delay : NO_TIME;
+    }
+
+    /**
+     * Restituisce l'indice dell'ultima fermata superata.
+     *
+     * @return indice della fermata, oppure -1 se la corsa non è partita o l'avanzamento non è noto
+     */
+    public int getLastPassedStopIndex() {
+        return lastPassedStopIndex;
+    }
+
+    /**
+     * Restituisce il ritardo attuale della corsa.
+     *
+     * @return ritardo in secondi, oppure {@link #NO_DELAY}
+     */
+    public int getCurrentDelaySec() {
+        return currentDelaySec;
+    }
+
+    /**
+     * Indica se il feed riporta la posizione del veicolo.
+     *
+     * @return {@code true} se la posizione è disponibile
+     */
+    public boolean hasVehicle() {
+        return hasVehicle;
+    }
+
+    /**
+     * Restituisce l'identificatore del veicolo.
+     *
+     * @return identificatore del veicolo (può essere {@code null})
+     */
+    public String getVehicleId() {
+        return vehicleId;
+    }
+
+    /**
+     * Restituisce la latitudine del veicolo.
+     *
+     * @return latitudine (0 se la posizione non è disponibile)
+     */
+    public double getVehicleLat() {
+        return vehicleLat;
+    }
+
+    /**
+     * Restituisce la longitudine del veicolo.
+     *
+     * @return longitudine (0 se la posizione non è disponibile)
+     */
+    public double getVehicleLon() {
+        return vehicleLon;
+    }
+
+    /**
+     * Restituisce l'istante della posizione del veicolo.
+     *
+     * @return epoch second (0 se la posizione non è disponibile)
+     */
+    public long getVehicleTimestamp() {
+        return vehicleTimestamp;
+    }
+
+    /**
+     * Restituisce una rappresentazione testuale dello stato.
+     *
+     * @return stringa rappresentativa dello stato
+     */
+    @Override
+    public String toString() {
+        return tripId + " (fermate superate: " + (lastPassedStopIndex + 1) + "/" + stopIds.length
+                + (currentDelaySec != NO_DELAY ? ", ritardo " + currentDelaySec + "s" : "")
+                + (cancelled ? ", soppressa" : "") + (added ? ", aggiunta" : "") + ")";
+    }
+}
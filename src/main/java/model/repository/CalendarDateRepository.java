@@ -53,6 +53,21 @@ public class CalendarDateRepository {
      * @throws IOException se si verifica un errore durante la lettura o il parsing del file
      */
     public void loadCalendarDatesFromStream(InputStream input) throws IOException {     // Eccezione propagata al chiamante (controller).
+        loadCalendarDatesFromStream(input, "");
+    }
+
+    /**
+     * Carica il file {@code calendar_dates.txt} di un feed aggiuntivo, anteponendo un prefisso a ogni {@code service_id}.
+     * <p>
+     * Il prefisso va applicato durante la lettura perché gli ID dei servizi sono anche le chiavi
+     * della mappa dei servizi attivi per data.
+     * </p>
+     *
+     * @param input    lo {@link InputStream} contenente il file {@code calendar_dates.txt}
+     * @param idPrefix prefisso dello spazio dei nomi del feed (vuoto per il feed principale)
+     * @throws IOException se si verifica un errore durante la lettura o il parsing del file
+     */
+    public void loadCalendarDatesFromStream(InputStream input, String idPrefix) throws IOException {
         try (CSVParser parser = CSVFormat.DEFAULT                                       // try-with-resources : chiude automaticamente InputStream e CSVParser.
                 .withFirstRecordAsHeader()                                              // Dice al parser che la prima riga contiene i nomi delle colonne.
                 .parse(new InputStreamReader(input))){                                  // Carica il file CSV da uno stream specificato.
@@ -65,6 +80,7 @@ public class CalendarDateRepository {
 
                 // Salta la riga se uno dei campi essenziali è mancante.
                 if (serviceId == null || date == null || exceptionType == null) continue;
+                if (!idPrefix.isEmpty()) serviceId = idPrefix + serviceId;
 
                 CalendarDate cd = new CalendarDate();   // Creazione dell'oggetto CalendarDate.
                 cd.setServiceId(serviceId);
@@ -82,6 +98,18 @@ public class CalendarDateRepository {
         }
     }
 
+    /**
+     * Aggiunge le date di un'altra repository, caricata da un altro feed con ID di servizio distinti.
+     *
+     * @param other repository da unire a questa
+     */
+    public void addAll(CalendarDateRepository other) {
+        calendarDates.addAll(other.calendarDates);
+        for (Map.Entry<LocalDate, Set<String>> en : other.activeServicesByDate.entrySet()) {
+            activeServicesByDate.computeIfAbsent(en.getKey(), d -> new HashSet<>()).addAll(en.getValue());
+        }
+    }
+
     /**
      * Converte in modo sicuro una stringa in un intero, gestendo i casi di campi vuoti o mancanti.
      * <p>
@@ -0,0 +1,221 @@
+package operator;
+
+// Model.
+import model.ServiceAlert;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Indice immutabile degli avvisi di servizio ({@link ServiceAlert}) di un feed, per linea, fermata e corsa.
+ * <p>
+ * Ogni avviso viene inserito una volta per ogni linea, fermata o corsa che cita; gli avvisi rivolti
+ * a un'intera agenzia o a un tipo di mezzo stanno in un gruppo a parte, valido ovunque.
+ * Per un pannello servono quindi al più quattro letture di mappa, indipendenti dal numero totale di avvisi.
+ * </p>
+ * <p>
+ * Gli avvisi attivi non vengono ricalcolati ad ogni lettura: ogni gruppo ricorda l'ultimo elenco di avvisi attivi
+ * e l'intervallo di tempo, delimitato dagli estremi dei periodi di validità, in cui l'elenco non cambia.
+ * Finché l'istante richiesto cade nell'intervallo la lettura restituisce l'elenco già pronto; solo quando
+ * l'intervallo è superato gli avvisi del gruppo vengono valutati di nuovo. La cache è l'unico stato modificabile
+ * e viene sostituita con un solo riferimento volatile, quindi l'indice può essere letto da più thread.
+ * </p>
+ */
+public final class GTFSAlertIndex {
+
+    // INDICE VUOTO ----------------------------------------------------------------------------------------------------
+    /** Indice senza avvisi. */
+    public static final GTFSAlertIndex EMPTY = new GTFSAlertIndex(List.of());
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final List<ServiceAlert> alerts;                                            // Tutti gli avvisi, nell'ordine del feed.
+    private final Map<String, ServiceAlert> byId;                                       // ID avviso -> avviso.
+    private final Map<String, Group> byRoute;                                           // ID linea -> avvisi della linea.
+    private final Map<String, Group> byStop;                                            // ID fermata -> avvisi della fermata.
+    private final Map<String, Group> byTrip;                                            // ID corsa -> avvisi della corsa.
+    private final Group networkWide;                                                    // Avvisi validi su tutta la rete.
+
+    // GRUPPO DI AVVISI ------------------------------------------------------------------------------------------------
+    /**
+     * Avvisi di una chiave con l'ultimo elenco di quelli attivi e l'intervallo in cui resta valido.
+     */
+    private static final class Group {
+        final ServiceAlert[] alerts;
+        volatile Active active;                                                         // Null finché il gruppo non viene letto.
+
+        Group(List<ServiceAlert> alerts) {
+            this.alerts = alerts.toArray(new ServiceAlert[0]);
+        }
+
+        /**
+         * Restituisce gli avvisi attivi nell'istante, ricalcolandoli solo fuori dall'intervallo memorizzato.
+         */
+        List<ServiceAlert> activeAt(long epochSec) {
+            Active a = active;
+            if (a != null && epochSec >= a.from && epochSec < a.until) return a.alerts;
+
+            long from = Long.MIN_VALUE;
+            long until = Long.MAX_VALUE;
+            List<ServiceAlert> list = new ArrayList<>();
+            for (ServiceAlert alert : alerts) {
+                if (alert.isActiveAt(epochSec)) list.add(alert);
+                for (int i = 0; i < alert.getPeriodCount(); i++) {                      // Estremi dei periodi: inizio e istante dopo la fine.
+                    long start = alert.getPeriodStart(i);
+                    long end = alert.getPeriodEnd(i) != 0 ? alert.getPeriodEnd(i) + 1 : 0L;
+                    for (long bound : new long[]{ start, end }) {
+                        if (bound == 0) continue;
+                        if (bound <= epochSec) from = Math.max(from, bound);
+                        else until = Math.min(until, bound);
+                    }
+                }
+            }
+            a = new Active(from, until, List.copyOf(list));
+            active = a;
+            return a.alerts;
+        }
+    }
+
+    /**
+     * Avvisi attivi in ogni istante di [from, until).
+     */
+    private static final class Active {
+        final long from;
+        final long until;
+        final List<ServiceAlert> alerts;
+
+        Active(long from, long until, List<ServiceAlert> alerts) {
+            this.from = from;
+            this.until = until;
+            this.alerts = alerts;
+        }
+    }
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param alerts avvisi del feed (un avviso con un ID già visto sostituisce il precedente)
+     */
+    public GTFSAlertIndex(List<ServiceAlert> alerts) {
+        Map<String, ServiceAlert> ids = new LinkedHashMap<>();
+        for (ServiceAlert alert : alerts) ids.put(alert.getAlertId(), alert);
+        this.alerts = List.copyOf(ids.values());
+        this.byId = Map.copyOf(ids);
+
+        Map<String, List<ServiceAlert>> routes = new HashMap<>();
+        Map<String, List<ServiceAlert>> stops = new HashMap<>();
+        Map<String, List<ServiceAlert>> trips = new HashMap<>();
+        List<ServiceAlert> network = new ArrayList<>();
+        for (ServiceAlert alert : this.alerts) {
+            addOnce(routes, alert.getRouteIds(), alert);
+            addOnce(stops, alert.getStopIds(), alert);
+            addOnce(trips, alert.getTripIds(), alert);
+            if (alert.isNetworkWide()) network.add(alert);
+        }
+        this.byRoute = groups(routes);
+        this.byStop = groups(stops);
+        this.byTrip = groups(trips);
+        this.networkWide = new Group(network);
+    }
+
+    /**
+     * Aggiunge l'avviso alla lista di ogni chiave, una sola volta anche se la chiave è ripetuta.
+     */
+    private static void addOnce(Map<String, List<ServiceAlert>> index, String[] keys, ServiceAlert alert) {
+        for (String key : keys) {
+            List<ServiceAlert> list = index.computeIfAbsent(key, k -> new ArrayList<>());
+            if (list.isEmpty() || list.get(list.size() - 1) != alert) list.add(alert);
+        }
+    }
+
+    private static Map<String, Group> groups(Map<String, List<ServiceAlert>> index) {
+        Map<String, Group> groups = new HashMap<>();
+        for (Map.Entry<String, List<ServiceAlert>> en : index.entrySet()) groups.put(en.getKey(), new Group(en.getValue()));
+        return Map.copyOf(groups);
+    }
+
+    // AVVISI ATTIVI ---------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce gli avvisi attivi di una linea.
+     *
+     * @param routeId  ID della linea
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista immutabile di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveForRoute(String routeId, long epochSec) {
+        return activeIn(byRoute, routeId, epochSec);
+    }
+
+    /**
+     * Restituisce gli avvisi attivi di una fermata.
+     *
+     * @param stopId   ID della fermata
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista immutabile di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveForStop(String stopId, long epochSec) {
+        return activeIn(byStop, stopId, epochSec);
+    }
+
+    /**
+     * Restituisce gli avvisi attivi di una corsa.
+     *
+     * @param tripId   ID della corsa
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista immutabile di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveForTrip(String tripId, long epochSec) {
+        return activeIn(byTrip, tripId, epochSec);
+    }
+
+    /**
+     * Restituisce gli avvisi attivi validi su tutta la rete (agenzia o tipo di mezzo).
+     *
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista immutabile di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveNetworkWide(long epochSec) {
+        return networkWide.activeAt(epochSec);
+    }
+
+    /**
+     * Restituisce gli avvisi attivi da mostrare in un pannello: quelli della rete, della linea,
+     * della fermata e della corsa indicate, senza duplicati e in quest'ordine.
+     *
+     * @param routeId  ID della linea (può essere null)
+     * @param stopId   ID della fermata (può essere null)
+     * @param tripId   ID della corsa (può essere null)
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActive(String routeId, String stopId, String tripId, long epochSec) {
+        if (alerts.isEmpty()) return List.of();
+        Set<ServiceAlert> result = new LinkedHashSet<>(getActiveNetworkWide(epochSec));
+        result.addAll(getActiveForRoute(routeId, epochSec));
+        result.addAll(getActiveForStop(stopId, epochSec));
+        result.addAll(getActiveForTrip(tripId, epochSec));
+        return result.isEmpty() ? List.of() : List.copyOf(result);
+    }
+
+    private static List<ServiceAlert> activeIn(Map<String, Group> index, String key, long epochSec) {
+        Group group = key != null ? index.get(key) : null;
+        return group != null ? group.activeAt(epochSec) : List.of();
+    }
+
+    // TUTTI GLI AVVISI ------------------------------------------------------------------------------------------------
+    /** @return tutti gli avvisi del feed, attivi o no */
+    public List<ServiceAlert> getAlerts() { return alerts; }
+
+    /**
+     * Restituisce un avviso dal suo ID.
+     *
+     * @param alertId ID dell'avviso
+     * @return        avviso, oppure null se non presente
+     */
+    public ServiceAlert getAlert(String alertId) {
+        return alertId != null ? byId.get(alertId) : null;
+    }
+
+    /** @return numero di avvisi */
+    public int size() { return alerts.size(); }
+}
@@ -7,6 +7,14 @@ import static service.NetworkService.isOnline;
 import java.net.URL;
 import java.io.*;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -17,14 +25,23 @@ import java.util.zip.ZipInputStream;
  * li salva in una directory locale (cache),
  * permette di accedere ai dati anche in modalità offline.
  * </p>
+ * <p>
+ * Ogni feed aggiuntivo ({@link GTFSFeed}) ha la propria directory sotto {@code feeds/<namespace>};
+ * i dati calcolati sull'intera rete di più feed (ad esempio i trasbordi) stanno in {@code network}.
+ * </p>
  */
 public class GTFSCacheManager {
 
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSCacheManager.class.getName());        // Messaggi debug.
+
     // URL UFFICIALE DEL FEED STATICO ATAC (GTFS) ----------------------------------------------------------------------
-    private static final String GTFS_URL = "https://romamobilita.it/sites/default/files/rome_static_gtfs.zip";
+    static final String GTFS_URL = "https://romamobilita.it/sites/default/files/rome_static_gtfs.zip";
 
     // DIRECTORY PER MEMORIZZAZIONE DELLA CACHE IN LOCALE (HOME UTENTE) ------------------------------------------------
     private static final Path CACHE_DIR = Paths.get(System.getProperty("user.home"), ".damose_dionisi", "cache", "staticGTFS");
+    private static final Path FEEDS_DIR = CACHE_DIR.resolveSibling("feeds");            // Una sottocartella per feed aggiuntivo.
+    private static final Path NETWORK_DIR = CACHE_DIR.resolveSibling("network");        // Dati derivati dall'insieme dei feed.
 
     // VERIFICA CHE ESISTA UNA CACHE VALIDA IN LOCALE ------------------------------------------------------------------
     /**
@@ -33,8 +50,18 @@ public class GTFSCacheManager {
      * @return true se la cache esiste ed è valida, false altrimenti
      */
     public static boolean isCacheAvailable() {
-        return Files.exists(CACHE_DIR) && Files.isDirectory(CACHE_DIR)        // Controlla se il percorso esiste, se punta a una directory e...
-                && Files.exists(CACHE_DIR.resolve("stops.txt"));        // ...Se contiene almeno il file stops.txt (presente in ogni feed GTFS).
+        return isCacheAvailable(CACHE_DIR);
+    }
+
+    /**
+     * Controlla se la cache di un feed esiste e contiene almeno il file stops.txt.
+     *
+     * @param cacheDir directory della cache del feed
+     * @return         true se la cache esiste ed è valida, false altrimenti
+     */
+    public static boolean isCacheAvailable(Path cacheDir) {
+        return Files.exists(cacheDir) && Files.isDirectory(cacheDir)          // Controlla se il percorso esiste, se punta a una directory e...
+                && Files.exists(cacheDir.resolve("stops.txt"));          // ...Se contiene almeno il file stops.txt (presente in ogni feed GTFS).
     }
 
     // RESTITUISCE IL PATH DELLA DIRECTORY DI CACHE --------------------------------------------------------------------
@@ -47,6 +74,26 @@ public class GTFSCacheManager {
         return CACHE_DIR;
     }
 
+    /**
+     * Restituisce la directory della cache di un feed.
+     *
+     * @param namespace spazio dei nomi del feed (vuoto per il feed principale)
+     * @return          Path della directory di cache del feed
+     */
+    public static Path getCacheDirectory(String namespace) {
+        return namespace.isEmpty() ? CACHE_DIR : FEEDS_DIR.resolve(namespace);
+    }
+
+    /**
+     * Restituisce, creandola se serve, la directory dei dati calcolati sull'insieme di più feed.
+     *
+     * @return             Path della directory
+     * @throws IOException se la directory non può essere creata
+     */
+    public static Path getNetworkDirectory() throws IOException {
+        return Files.createDirectories(NETWORK_DIR);
+    }
+
     // SE ONLINE SCARICA I FILE DAL FEED E AGGIORNA LA CACHE -----------------------------------------------------------
     /**
      * Se il dispositivo è online, scarica il feed GTFS dal sito ATAC,
@@ -55,18 +102,75 @@ public class GTFSCacheManager {
      * @throws IOException in caso di errori di I/O durante il download o l'estrazione
      */
     public static void updateCacheIfOnline() throws IOException {
+        updateCacheIfOnline(GTFS_URL, CACHE_DIR);
+    }
+
+    /**
+     * Se il dispositivo è online, scarica un feed GTFS e ne aggiorna la cache.
+     *
+     * @param url          URL dello ZIP del feed
+     * @param cacheDir     directory della cache del feed
+     * @throws IOException in caso di errori di I/O durante il download o l'estrazione
+     */
+    public static void updateCacheIfOnline(String url, Path cacheDir) throws IOException {
 
         if (!isOnline()) return;                                                // Se non online esce subito, altrimenti...
 
-        Files.createDirectories(CACHE_DIR);                                     // ...Crea la cartella della cache (e tutte le sottocartelle necessarie).
-        Path zipFile = CACHE_DIR.resolve("rome_gtfs.zip");                // Definisce dove salvare il file ZIP scaricato.
-        try (InputStream in = new URL(GTFS_URL).openStream()) {                 // Apre uno stream dall’URL e...
-            Files.copy(in, zipFile, StandardCopyOption.REPLACE_EXISTING);       // ...Copia il contenuto nel file rome_gtfs.zip sovrascrivendolo se gia esiste.
+        Files.createDirectories(cacheDir);                                      // ...Crea la cartella della cache (e tutte le sottocartelle necessarie).
+        Path zipFile = cacheDir.resolve("gtfs.zip");                      // Definisce dove salvare il file ZIP scaricato.
+        try (InputStream in = new URL(url).openStream()) {                      // Apre uno stream dall’URL e...
+            Files.copy(in, zipFile, StandardCopyOption.REPLACE_EXISTING);       // ...Copia il contenuto nel file gtfs.zip sovrascrivendolo se gia esiste.
         }
-        unZip(zipFile, CACHE_DIR);                                              // Estrae i file nella cartella CACHE_DIR.
+        unZip(zipFile, cacheDir);                                               // Estrae i file nella cartella della cache.
         Files.deleteIfExists(zipFile);                                          // Elimina lo ZIP dopo l'estrazione.
     }
 
+    // SCARICA IN PARALLELO LE CACHE MANCANTI DEI FEED -----------------------------------------------------------------
+    /**
+     * Scarica in parallelo, un thread per feed, i feed la cui cache non è ancora disponibile.
+     * <p>
+     * Un errore sul feed principale viene propagato; quello di un feed aggiuntivo viene solo registrato nel log,
+     * perché l'applicazione funziona anche senza di esso.
+     * </p>
+     *
+     * @param feeds        feed da verificare (il principale per primo)
+     * @throws IOException se il download del feed principale fallisce
+     */
+    public static void updateMissingCaches(List<GTFSFeed> feeds) throws IOException {
+        List<GTFSFeed> missing = new ArrayList<>();
+        for (GTFSFeed feed : feeds) {
+            if (feed.getStaticUrl() != null && !isCacheAvailable(feed.getCacheDirectory())) missing.add(feed);
+        }
+        if (missing.isEmpty()) return;
+
+        ExecutorService pool = Executors.newFixedThreadPool(missing.size());
+        try {
+            List<Future<?>> downloads = new ArrayList<>();
+            for (GTFSFeed feed : missing) {
+                downloads.add(pool.submit(() -> {
+                    updateCacheIfOnline(feed.getStaticUrl(), feed.getCacheDirectory());
+                    return null;
+                }));
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                try {
+                    downloads.get(i).get();
+                } catch (ExecutionException e) {
+                    if (missing.get(i).isMain()) {
+                        throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    }
+                    LOG.log(Level.WARNING, "Download del feed '" + missing.get(i).getNamespace()
+                            + "' fallito: il feed resta senza cache", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Download dei feed interrotto", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     // ESTRAE I FILE .TXT DAL FILE ZIP NELLA CARTELLA DI CACHE ---------------------------------------------------------
     /**
      * Estrae i file .txt dal file ZIP e li salva nella directory di cache locale.
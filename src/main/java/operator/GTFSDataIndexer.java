@@ -4,7 +4,11 @@ package operator;
 import model.*;
 
 // Altre classi.
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 
 /**
@@ -17,16 +21,34 @@ import com.google.transit.realtime.GtfsRealtime.FeedMessage;
  */
 public class GTFSDataIndexer {
 
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    /** Cammino massimo tra le fermate di agenzie diverse unite nel tabellone di un nodo di interscambio (secondi). */
+    public static final int INTERCHANGE_WALK_SECONDS = 180;
+
     // INDEXER DELEGATI ------------------------------------------------------------------------------------------------
     private final GTFSStaticIndexer staticIndexer;
     private final GTFSRealtimeIndexer realtimeIndexer;
 
+    // MOTORI DI RICERCA SULLA RETE ------------------------------------------------------------------------------------
+    private final GTFSTimetableIndex timetableIndex;
+    private final GTFSFootpathIndex footpathIndex;
+    private final GTFSIsochroneEngine isochroneEngine;
+    private final GTFSNextDeparturesView nextDeparturesView;
+    private final GTFSStopSearchIndex stopSearchIndex;
+    private final GTFSLineCatalogue lineCatalogue;
+
+    // FEED ------------------------------------------------------------------------------------------------------------
+    private final List<String> namespaces;                                              // Spazi dei nomi dei feed caricati.
+
     // NESTED TYPES ---------------------------------------------------------------------------------------------------
     /**
      * Classe che rappresenta la posizione di un veicolo in tempo reale.
      */
     public static class VehiclePos {
 
+        /** Identificatore della corsa effettuata. */
+        public final String tripId;
+
         /** Identificatore del veicolo. */
         public final String vehicleId;
 
@@ -45,9 +67,25 @@ public class GTFSDataIndexer {
         /** Tipo di mezzo associato alla linea. */
         public final Integer routeType;
 
+        /** Distanza in metri lungo la shape della corsa (NaN se la posizione non è associata alla shape). */
+        public final double distanceAlongShape;
+
+        /** shape_dist_traveled nel punto associato, nelle unità del feed (NaN se assente). */
+        public final double shapeDistTraveled;
+
+        /** Latitudine del punto associato sulla shape (uguale a lat se non associata). */
+        public final double snappedLat;
+
+        /** Longitudine del punto associato sulla shape (uguale a lon se non associata). */
+        public final double snappedLon;
+
+        /** Identificatore della prossima fermata lungo la shape (null se non nota). */
+        public final String nextStopId;
+
         /**
          * Costruttore.
          *
+         * @param tripId    identificatore della corsa effettuata
          * @param vehicleId identificatore del veicolo
          * @param lat       latitudine
          * @param lon       longitudine
@@ -55,19 +93,63 @@ public class GTFSDataIndexer {
          * @param routeId   identificatore della linea associata
          * @param routeType tipo di mezzo
          */
-        public VehiclePos(String vehicleId,
+        public VehiclePos(String tripId,
+                          String vehicleId,
                           double lat,
                           double lon,
                           long ts,
                           String routeId,
                           Integer routeType) {
+            this(tripId, vehicleId, lat, lon, ts, routeId, routeType, Double.NaN, Double.NaN, lat, lon, null);
+        }
+
+        private VehiclePos(String tripId,
+                           String vehicleId,
+                           double lat,
+                           double lon,
+                           long ts,
+                           String routeId,
+                           Integer routeType,
+                           double distanceAlongShape,
+                           double shapeDistTraveled,
+                           double snappedLat,
+                           double snappedLon,
+                           String nextStopId) {
+            this.tripId = tripId;
             this.vehicleId = vehicleId;
             this.lat = lat;
             this.lon = lon;
             this.ts = ts;
             this.routeId = routeId;
             this.routeType = routeType;
+            this.distanceAlongShape = distanceAlongShape;
+            this.shapeDistTraveled = shapeDistTraveled;
+            this.snappedLat = snappedLat;
+            this.snappedLon = snappedLon;
+            this.nextStopId = nextStopId;
         }
+
+        /**
+         * Restituisce una copia della posizione associata alla shape della corsa.
+         *
+         * @param distanceAlongShape distanza in metri lungo la shape
+         * @param shapeDistTraveled  shape_dist_traveled nel punto associato (NaN se assente)
+         * @param snappedLat         latitudine del punto associato
+         * @param snappedLon         longitudine del punto associato
+         * @param nextStopId         prossima fermata, eventualmente null
+         * @return                   nuova posizione
+         */
+        public VehiclePos withMatch(double distanceAlongShape,
+                                    double shapeDistTraveled,
+                                    double snappedLat,
+                                    double snappedLon,
+                                    String nextStopId) {
+            return new VehiclePos(tripId, vehicleId, lat, lon, ts, routeId, routeType,
+                    distanceAlongShape, shapeDistTraveled, snappedLat, snappedLon, nextStopId);
+        }
+
+        /** @return true se la posizione è stata associata alla shape della corsa */
+        public boolean isMatched() { return !Double.isNaN(distanceAlongShape); }
     }
 
     /**
@@ -81,6 +163,9 @@ public class GTFSDataIndexer {
         /** Orario di arrivo previsto (epoch second). */
         public final long arrivalEpochSec;
 
+        /** Ritardo rispetto all'orario programmato in secondi (null se la corsa non è nell'orario statico). */
+        public final Integer delaySec;
+
         /**
          * Costruttore.
          *
@@ -88,20 +173,102 @@ public class GTFSDataIndexer {
          * @param arrivalEpochSec orario di arrivo previsto (epoch second)
          */
         public PredictedArrival(String tripId, long arrivalEpochSec) {
+            this(tripId, arrivalEpochSec, null);
+        }
+
+        /**
+         * Costruttore con ritardo.
+         *
+         * @param tripId          identificatore della corsa
+         * @param arrivalEpochSec orario di arrivo previsto (epoch second)
+         * @param delaySec        ritardo in secondi, eventualmente null
+         */
+        public PredictedArrival(String tripId, long arrivalEpochSec, Integer delaySec) {
             this.tripId = tripId;
             this.arrivalEpochSec = arrivalEpochSec;
+            this.delaySec = delaySec;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PredictedArrival other)) return false;
+            return arrivalEpochSec == other.arrivalEpochSec && tripId.equals(other.tripId)
+                    && Objects.equals(delaySec, other.delaySec);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tripId, arrivalEpochSec, delaySec);
+        }
+    }
+
+    /**
+     * Classe che rappresenta una fermata raggiungibile a piedi.
+     */
+    public static class NearbyStop {
+
+        /** Fermata vicina. */
+        public final Stop stop;
+
+        /** Tempo di cammino stimato (secondi). */
+        public final int walkSeconds;
+
+        /**
+         * Costruttore.
+         *
+         * @param stop        fermata vicina
+         * @param walkSeconds tempo di cammino stimato (secondi)
+         */
+        public NearbyStop(Stop stop, int walkSeconds) {
+            this.stop = stop;
+            this.walkSeconds = walkSeconds;
         }
     }
 
     // COSTRUTTORE ---------------------------------------------------------------------------------------------------
     /**
      * Costruttore.
+     * <p>
+     * I trasbordi a piedi vengono calcolati con il raggio predefinito e non vengono salvati su disco.
+     * </p>
      *
      * @param loader loader per i dati statici GTFS
      */
     public GTFSDataIndexer(GTFSStaticLoader loader) {
+        this(loader, null, GTFSFootpathIndex.DEFAULT_RADIUS_METERS);
+    }
+
+    /**
+     * Costruttore.
+     *
+     * @param loader               loader per i dati statici GTFS
+     * @param cacheDirectory       directory della cache GTFS in cui salvare i trasbordi (null per non salvarli)
+     * @param footpathRadiusMeters raggio massimo dei trasbordi a piedi in metri
+     */
+    public GTFSDataIndexer(GTFSStaticLoader loader, Path cacheDirectory, double footpathRadiusMeters) {
+        this(loader, cacheDirectory, cacheDirectory != null ? List.of(cacheDirectory) : List.of(), footpathRadiusMeters);
+    }
+
+    /**
+     * Costruttore per una rete composta da più feed, caricati insieme da {@link GTFSStaticLoader#loadFeeds(List)}.
+     *
+     * @param loader               loader con i dati statici di tutti i feed
+     * @param cacheDirectory       directory in cui salvare i trasbordi (null per non salvarli)
+     * @param feedDirectories      directory della cache di ciascun feed, per riconoscere quando i trasbordi vanno ricalcolati
+     * @param footpathRadiusMeters raggio massimo dei trasbordi a piedi in metri
+     */
+    public GTFSDataIndexer(GTFSStaticLoader loader, Path cacheDirectory, List<Path> feedDirectories, double footpathRadiusMeters) {
+        this.namespaces = loader.getNamespaces();
         this.staticIndexer = new GTFSStaticIndexer(loader);
-        this.realtimeIndexer = new GTFSRealtimeIndexer(this.staticIndexer);
+        this.timetableIndex = new GTFSTimetableIndex(this.staticIndexer);
+        this.realtimeIndexer = new GTFSRealtimeIndexer(this.staticIndexer, this.timetableIndex);
+        this.footpathIndex = GTFSFootpathIndex.loadOrBuild(this.timetableIndex, cacheDirectory, feedDirectories, footpathRadiusMeters);
+        this.isochroneEngine = new GTFSIsochroneEngine(this.timetableIndex, this.footpathIndex);
+        this.nextDeparturesView = new GTFSNextDeparturesView(this.timetableIndex, this.realtimeIndexer,
+                GTFSNextDeparturesView.DEFAULT_HORIZON_MINUTES);
+        this.stopSearchIndex = GTFSStopSearchIndex.build(this.staticIndexer, this.timetableIndex);
+        this.lineCatalogue = new GTFSLineCatalogue(this.staticIndexer);
     }
 
     // CLEAR LISTENERS DELEGATI ----------------------------------------------------------------------------------------
@@ -117,6 +284,7 @@ public class GTFSDataIndexer {
      * Svuota tutte le mappe statiche e realtime.
      */
     public void clear() {
+        nextDeparturesView.stop();   // Ferma l'avanzamento della vista delle partenze.
         staticIndexer.clear();       // Svuota mappe statiche.
         realtimeIndexer.clear();     // Svuota mappe realtime.
     }
@@ -133,6 +301,81 @@ public class GTFSDataIndexer {
         realtimeIndexer.applyRealtimeUpdates(tripUpdates, vehiclePositions);
     }
 
+    /**
+     * Applica il solo feed dei trip updates, senza toccare le posizioni dei veicoli.
+     *
+     * @param tripUpdates Feed dei trip updates
+     */
+    public void applyTripUpdates(FeedMessage tripUpdates) {
+        realtimeIndexer.applyTripUpdates(tripUpdates);
+    }
+
+    /**
+     * Applica gli aggiornamenti delle corse già decodificati dal feed.
+     *
+     * @param tripUpdates Aggiornamenti delle corse decodificati
+     */
+    public void applyTripUpdates(GTFSRealtimeStreamDecoder.TripUpdates tripUpdates) {
+        realtimeIndexer.applyTripUpdates(tripUpdates);
+    }
+
+    /**
+     * Applica gli aggiornamenti delle corse di un feed, lasciando invariate le corse degli altri feed.
+     *
+     * @param namespace   spazio dei nomi del feed
+     * @param tripUpdates Aggiornamenti delle corse decodificati
+     */
+    public void applyTripUpdates(String namespace, GTFSRealtimeStreamDecoder.TripUpdates tripUpdates) {
+        realtimeIndexer.applyTripUpdates(namespace, tripUpdates);
+    }
+
+    /**
+     * Applica il solo feed delle posizioni dei veicoli, senza toccare le previsioni di arrivo.
+     *
+     * @param vehiclePositions Feed delle posizioni dei veicoli
+     */
+    public void applyVehiclePositions(FeedMessage vehiclePositions) {
+        realtimeIndexer.applyVehiclePositions(vehiclePositions);
+    }
+
+    /**
+     * Applica le posizioni dei veicoli già decodificate dal feed.
+     *
+     * @param vehiclePositions Posizioni dei veicoli decodificate
+     */
+    public void applyVehiclePositions(GTFSRealtimeStreamDecoder.VehiclePositions vehiclePositions) {
+        realtimeIndexer.applyVehiclePositions(vehiclePositions);
+    }
+
+    /**
+     * Applica le posizioni dei veicoli di un feed, lasciando invariati i veicoli degli altri feed.
+     *
+     * @param namespace        spazio dei nomi del feed
+     * @param vehiclePositions Posizioni dei veicoli decodificate
+     */
+    public void applyVehiclePositions(String namespace, GTFSRealtimeStreamDecoder.VehiclePositions vehiclePositions) {
+        realtimeIndexer.applyVehiclePositions(namespace, vehiclePositions);
+    }
+
+    /**
+     * Applica gli avvisi di servizio già decodificati dal feed.
+     *
+     * @param alerts Avvisi di servizio decodificati
+     */
+    public void applyAlerts(GTFSRealtimeStreamDecoder.Alerts alerts) {
+        realtimeIndexer.applyAlerts(alerts);
+    }
+
+    /**
+     * Applica gli avvisi di servizio di un feed, lasciando invariati gli avvisi degli altri feed.
+     *
+     * @param namespace spazio dei nomi del feed
+     * @param alerts    Avvisi di servizio decodificati
+     */
+    public void applyAlerts(String namespace, GTFSRealtimeStreamDecoder.Alerts alerts) {
+        realtimeIndexer.applyAlerts(namespace, alerts);
+    }
+
     /**
      * Aggiunge un listener che viene notificato ad ogni aggiornamento realtime.
      *
@@ -142,6 +385,89 @@ public class GTFSDataIndexer {
         realtimeIndexer.addRealtimeListener(listener);
     }
 
+    /**
+     * Aggiunge un listener che riceve le modifiche realtime accettate dal filtro.
+     *
+     * @param filter   condizione sull'evento (ad esempio per linea o fermata)
+     * @param listener consumer dell'evento
+     * @return         azione che annulla l'iscrizione del listener
+     */
+    public Runnable addRealtimeChangeListener(Predicate<GTFSRealtimeChangeEvent> filter,
+                                              Consumer<GTFSRealtimeChangeEvent> listener) {
+        return realtimeIndexer.addChangeListener(null, filter, listener);
+    }
+
+    /**
+     * Aggiunge un listener con nome che riceve le modifiche realtime accettate dal filtro.
+     *
+     * @param name     nome del listener (per statistiche e log)
+     * @param filter   condizione sull'evento (ad esempio per linea o fermata)
+     * @param listener consumer dell'evento
+     * @return         azione che annulla l'iscrizione del listener (ad esempio quando la vista viene chiusa)
+     */
+    public Runnable addRealtimeChangeListener(String name,
+                                              Predicate<GTFSRealtimeChangeEvent> filter,
+                                              Consumer<GTFSRealtimeChangeEvent> listener) {
+        return realtimeIndexer.addChangeListener(name, filter, listener);
+    }
+
+    /**
+     * Aggiunge un listener eseguito in linea sul thread che applica il feed, per ogni versione dello stato realtime.
+     * <p>
+     * Gli eventi non vengono fusi e portano lo snapshot e il timestamp del feed che li ha prodotti;
+     * il listener deve essere veloce (vedi {@link GTFSRealtimeIndexer#addIndexListener}).
+     * </p>
+     *
+     * @param name     nome del listener (per i log)
+     * @param listener consumer dell'evento
+     * @return         azione che rimuove il listener
+     */
+    public Runnable addRealtimeIndexListener(String name, Consumer<GTFSRealtimeChangeEvent> listener) {
+        return realtimeIndexer.addIndexListener(name, listener);
+    }
+
+    /**
+     * Restituisce le statistiche di consegna dei listener realtime.
+     *
+     * @return lista di {@link GTFSRealtimeDispatcher.ListenerStats}
+     */
+    public List<GTFSRealtimeDispatcher.ListenerStats> getRealtimeListenerStats() {
+        return realtimeIndexer.getListenerStats();
+    }
+
+    /**
+     * Restituisce lo snapshot realtime corrente: veicoli e previsioni dello stesso istante, letti senza lock.
+     * La sua versione può essere usata come chiave di cache.
+     *
+     * @return snapshot immutabile corrente
+     */
+    public GTFSRealtimeSnapshot getRealtimeSnapshot() {
+        return realtimeIndexer.getSnapshot();
+    }
+
+    /**
+     * Restituisce lo stato realtime consolidato di una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       {@link TripState} della corsa, oppure null se non ha né previsioni né veicolo
+     */
+    public TripState getTripState(String tripId) {
+        return realtimeIndexer.getSnapshot().getTripState(tripId);
+    }
+
+    /**
+     * Restituisce gli avvisi di servizio attivi da mostrare in un pannello.
+     *
+     * @param routeId  ID della linea (può essere null)
+     * @param stopId   ID della fermata (può essere null)
+     * @param tripId   ID della corsa (può essere null)
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista di avvisi (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveAlerts(String routeId, String stopId, String tripId, long epochSec) {
+        return realtimeIndexer.getActiveAlerts(routeId, stopId, tripId, epochSec);
+    }
+
     /**
      * Restituisce le posizioni dei veicoli in base alla route.
      *
@@ -152,6 +478,26 @@ public class GTFSDataIndexer {
         return realtimeIndexer.getVehiclesForRoute(routeId);
     }
 
+    /**
+     * Restituisce la posizione del veicolo che effettua una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       posizione del veicolo, oppure null se assente
+     */
+    public VehiclePos getVehicleForTrip(String tripId) {
+        return realtimeIndexer.getVehicleForTrip(tripId);
+    }
+
+    /**
+     * Restituisce le previsioni di arrivo di una corsa per fermata.
+     *
+     * @param tripId ID della corsa
+     * @return       mappa immutabile ID fermata → arrivo previsto
+     */
+    public Map<String, PredictedArrival> getTripPredictions(String tripId) {
+        return realtimeIndexer.getTripPredictions(tripId);
+    }
+
     /**
      * Restituisce gli arrivi previsti in base a fermata e linea.
      *
@@ -165,6 +511,118 @@ public class GTFSDataIndexer {
         return preds;
     }
 
+    // METODI DI RICERCA SULLA RETE ------------------------------------------------------------------------------------
+    /**
+     * Calcola l'isocrona a partire da una fermata.
+     *
+     * @param stopId        ID della fermata di partenza
+     * @param departure     data e ora di partenza
+     * @param budgetMinutes tempo massimo di viaggio in minuti
+     * @param windowMinutes ampiezza della finestra di partenze considerate
+     * @return              risultato dell'isocrona, oppure null se la fermata non è servita
+     */
+    public GTFSIsochroneEngine.IsochroneResult computeIsochrone(String stopId, LocalDateTime departure,
+                                                                int budgetMinutes, int windowMinutes) {
+        return isochroneEngine.computeIsochrone(stopId, departure, budgetMinutes, windowMinutes);
+    }
+
+    /**
+     * Restituisce le prossime partenze di una fermata dalla vista materializzata.
+     * <p>
+     * La lettura è O(1): la vista viene aggiornata ogni minuto e ad ogni feed realtime.
+     * </p>
+     *
+     * @param stopId ID della fermata
+     * @return       lista immutabile di partenze ordinate per orario effettivo
+     */
+    public List<GTFSNextDeparturesView.Departure> getNextDepartures(String stopId) {
+        return nextDeparturesView.getDepartures(stopId);
+    }
+
+    /**
+     * Restituisce le prossime partenze di un nodo di interscambio: quelle della fermata e delle fermate
+     * di altri feed raggiungibili a piedi entro {@link #INTERCHANGE_WALK_SECONDS}, in un'unica lista.
+     * <p>
+     * Le liste delle fermate, già ordinate, vengono fuse con un merge a k vie; con un solo feed,
+     * o senza fermate di altre agenzie vicine, il risultato è quello di {@link #getNextDepartures(String)}.
+     * </p>
+     *
+     * @param stopId ID della fermata
+     * @return       lista immutabile di partenze ordinate per orario effettivo
+     */
+    public List<GTFSNextDeparturesView.Departure> getInterchangeDepartures(String stopId) {
+        int s = timetableIndex.getStopIndex(stopId);
+        if (namespaces.size() < 2 || s < 0) return getNextDepartures(stopId);
+
+        String namespace = GTFSFeed.namespaceOf(stopId, namespaces);
+        List<String> stopIds = new ArrayList<>();
+        stopIds.add(stopId);
+        for (int i = footpathIndex.getStart(s), end = footpathIndex.getEnd(s); i < end; i++) {
+            if (footpathIndex.getWalkSeconds(i) > INTERCHANGE_WALK_SECONDS) continue;
+            String other = timetableIndex.getStopId(footpathIndex.getTarget(i));
+            if (!GTFSFeed.namespaceOf(other, namespaces).equals(namespace)) stopIds.add(other);     // Solo fermate di altre agenzie.
+        }
+        return stopIds.size() == 1 ? getNextDepartures(stopId) : nextDeparturesView.getMergedDepartures(stopIds);
+    }
+
+    /**
+     * Restituisce le corse di una linea e direzione in viaggio in un dato istante secondo l'orario.
+     *
+     * @param routeId     ID della linea
+     * @param directionId ID della direzione
+     * @param at          istante di riferimento
+     * @return            lista di {@link Trip} in viaggio
+     */
+    public List<Trip> getRunningTrips(String routeId, int directionId, LocalDateTime at) {
+        List<Trip> result = new ArrayList<>();
+        int secOfDay = at.toLocalTime().toSecondOfDay();
+        for (Trip trip : staticIndexer.getTripsByRouteAndDirection(routeId, directionId)) {
+            int t = timetableIndex.getTripIndex(trip.getTripId());
+            if (t >= 0 && timetableIndex.isTripRunning(t, at.toLocalDate(), secOfDay)) result.add(trip);
+        }
+        return result;
+    }
+
+    /**
+     * Cerca le fermate per nome, ID o codice, ordinate per pertinenza.
+     *
+     * @param query testo digitato dall'utente
+     * @param limit numero massimo di risultati
+     * @return      lista di {@link Stop} trovate
+     */
+    public List<Stop> searchStops(String query, int limit) {
+        return stopSearchIndex.search(query, limit);
+    }
+
+    /**
+     * Restituisce i suggerimenti delle linee il cui nome breve contiene la query, ordinati per pertinenza.
+     *
+     * @param query testo digitato dall'utente
+     * @return      lista immutabile di suggerimenti "NOME → CAPOLINEA [routeId|directionId]"
+     */
+    public List<String> searchLineSuggestions(String query) {
+        return lineCatalogue.getSuggestions(query);
+    }
+
+    /**
+     * Restituisce le fermate raggiungibili a piedi da una fermata, ordinate per tempo di cammino.
+     *
+     * @param stopId ID della fermata
+     * @return       lista di fermate vicine (vuota se la fermata non è presente)
+     */
+    public List<NearbyStop> getNearbyStops(String stopId) {
+        int s = timetableIndex.getStopIndex(stopId);
+        if (s < 0) return Collections.emptyList();
+
+        List<NearbyStop> result = new ArrayList<>();
+        for (int i = footpathIndex.getStart(s), end = footpathIndex.getEnd(s); i < end; i++) {
+            Stop stop = staticIndexer.getStopById(timetableIndex.getStopId(footpathIndex.getTarget(i)));
+            if (stop != null) result.add(new NearbyStop(stop, footpathIndex.getWalkSeconds(i)));
+        }
+        result.sort(Comparator.comparingInt(n -> n.walkSeconds));
+        return result;
+    }
+
     // METODI STATICI DELEGATI --------------------------------------------------------------------------------------
     /**
      * Restituisce tutte le fermate.
@@ -213,6 +671,31 @@ public class GTFSDataIndexer {
      */
     public List<ShapePoint> getBestShapeForRouteAndDirection(String routeId, int directionId) { return staticIndexer.getBestShapeForRouteAndDirection(routeId, directionId); }
 
+    /**
+     * Restituisce la geometria dello shape percorso da una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       {@link GTFSShapeGeometry}, oppure null se la corsa non ha shape
+     */
+    public GTFSShapeGeometry getShapeGeometryForTrip(String tripId) {
+        Trip trip = tripId != null ? staticIndexer.getTripById(tripId) : null;
+        return trip != null ? staticIndexer.getShapeGeometry(trip.getShapeId()) : null;
+    }
+
+    /**
+     * Restituisce la durata programmata di una corsa, dalla prima partenza all'ultimo arrivo.
+     *
+     * @param tripId ID della corsa
+     * @return       durata in secondi, oppure -1 se la corsa non è nell'orario
+     */
+    public int getScheduledTripDurationSec(String tripId) {
+        int t = timetableIndex.getTripIndex(tripId);
+        if (t < 0) return -1;
+        int start = timetableIndex.getEventDeparture(timetableIndex.getTripFirstEvent(t));
+        int end = timetableIndex.getEventArrival(timetableIndex.getTripEndEvent(t) - 1);
+        return start >= 0 && end > start ? end - start : -1;
+    }
+
     /**
      * Restituisce tutte le corse in base alla linea.
      *
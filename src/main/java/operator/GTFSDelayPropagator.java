@@ -0,0 +1,208 @@
+package operator;
+
+// Protobuf GTFS-realtime.
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+
+// Altre classi.
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Espande un TripUpdate GTFS-realtime (decodificato da {@link GTFSRealtimeStreamDecoder}) nelle previsioni di arrivo di tutte le fermate rimanenti della corsa.
+ * <p>
+ * Gli orari statici dell'{@link GTFSTimetableIndex} fanno da base: ogni StopTimeUpdate viene associato
+ * a un evento della corsa tramite stop_sequence o, in mancanza, stop_id, e il ritardo che ne risulta
+ * (da orario assoluto o da delay, di arrivo o di partenza) si propaga alle fermate successive
+ * fino al prossimo aggiornamento, come previsto dalla specifica GTFS-realtime.
+ * Le fermate SKIPPED non ricevono previsioni, NO_DATA interrompe la propagazione.
+ * </p>
+ * <p>
+ * Il calcolo è una sola passata lineare sugli eventi della corsa, con un buffer di interi riutilizzato
+ * tra le chiamate; per questo i metodi pubblici sono sincronizzati.
+ * Le corse assenti dai dati statici usano solo gli orari assoluti presenti nel feed.
+ * </p>
+ */
+public class GTFSDelayPropagator {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");                        // Fuso orario del feed.
+    private static final long UNKNOWN = Long.MIN_VALUE;                                 // Ritardo o orario non noto.
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final GTFSTimetableIndex timetable;
+    private int[] updateAt = new int[64];                                               // Evento della corsa → indice dello StopTimeUpdate (-1 se assente).
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param timetable indice compatto dell'orario
+     */
+    public GTFSDelayPropagator(GTFSTimetableIndex timetable) {
+        this.timetable = timetable;
+    }
+
+    // PREVISIONI DI UNA CORSA -----------------------------------------------------------------------------------------
+    /**
+     * Calcola gli arrivi previsti di una corsa del feed.
+     *
+     * @param updates     aggiornamenti delle corse decodificati
+     * @param k           indice della corsa in updates
+     * @param nowEpochSec istante del feed (epoch second), usato per scegliere il giorno di servizio
+     * @return           ID fermata → arrivo previsto con ritardo; per le fermate visitate più volte vale il primo passaggio
+     */
+    public synchronized Map<String, GTFSDataIndexer.PredictedArrival> predictArrivals(GTFSRealtimeStreamDecoder.TripUpdates updates,
+                                                                                      int k, long nowEpochSec) {
+        String tripId = updates.getTripId(k);
+        int t = timetable.getTripIndex(tripId);
+        if (t < 0) return absoluteArrivals(updates, k);                                 // Corsa non presente nell'orario statico.
+
+        int first = timetable.getTripFirstEvent(t);
+        int n = timetable.getTripEndEvent(t) - first;
+        if (updateAt.length < n) updateAt = new int[Math.max(n, updateAt.length * 2)];
+        Arrays.fill(updateAt, 0, n, -1);
+
+        // Associa ogni aggiornamento a un evento: sono ordinati per sequenza, quindi il cursore avanza soltanto.
+        int cursor = 0;
+        for (int u = updates.getFirstUpdate(k); u < updates.getEndUpdate(k); u++) {
+            int i = match(updates, u, first, n, cursor);
+            if (i < 0) continue;
+            updateAt[i] = u;
+            cursor = i + 1;
+        }
+
+        long midnight = serviceMidnight(updates.getStartDate(k), t, nowEpochSec);
+        int tripDelay = updates.getDelay(k);                                            // Ritardo di corsa: vale finché un aggiornamento non lo sostituisce.
+        long delay = tripDelay != GTFSRealtimeStreamDecoder.NO_VALUE ? tripDelay : UNKNOWN;
+        long previousDeparture = UNKNOWN;
+        Map<String, GTFSDataIndexer.PredictedArrival> result = new HashMap<>();
+
+        for (int i = 0; i < n; i++) {
+            int e = first + i;
+            if (timetable.getEventArrival(e) < 0) continue;                             // Orario statico mancante.
+            long scheduledArrival = midnight + timetable.getEventArrival(e);
+            long scheduledDeparture = midnight + timetable.getEventDeparture(e);
+            long dwell = scheduledDeparture - scheduledArrival;
+            long arrival;
+            long departure;
+
+            if (updateAt[i] >= 0) {
+                int u = updateAt[i];
+                int relationship = updates.getUpdateRelationship(u);
+                if (relationship == StopTimeUpdate.ScheduleRelationship.SKIPPED_VALUE) continue;
+                if (relationship == StopTimeUpdate.ScheduleRelationship.NO_DATA_VALUE) {
+                    delay = UNKNOWN;                                                    // Nessuna previsione fino al prossimo aggiornamento.
+                    continue;
+                }
+                arrival = eventTime(updates.getArrivalTime(u), updates.getArrivalDelay(u), scheduledArrival);
+                departure = eventTime(updates.getDepartureTime(u), updates.getDepartureDelay(u), scheduledDeparture);
+                if (arrival == UNKNOWN && departure == UNKNOWN) {
+                    if (delay == UNKNOWN) continue;
+                    arrival = scheduledArrival + delay;
+                }
+                if (arrival == UNKNOWN) arrival = departure - dwell;                    // Solo partenza: mantiene la sosta programmata.
+                if (departure == UNKNOWN) departure = arrival + dwell;                  // Solo arrivo: il ritardo di arrivo prosegue in partenza.
+            } else if (delay != UNKNOWN) {
+                arrival = scheduledArrival + delay;
+                departure = scheduledDeparture + delay;
+            } else {
+                continue;                                                               // Fermata precedente al primo aggiornamento.
+            }
+
+            if (previousDeparture != UNKNOWN && arrival < previousDeparture) arrival = previousDeparture;
+            if (departure < arrival) departure = arrival;
+            previousDeparture = departure;
+            delay = departure - scheduledDeparture;                                     // Il ritardo si propaga alle fermate successive.
+
+            int s = timetable.getEventStop(e);
+            if (s >= 0) {
+                result.putIfAbsent(timetable.getStopId(s),
+                        new GTFSDataIndexer.PredictedArrival(tripId, arrival, (int) (arrival - scheduledArrival)));
+            }
+        }
+        return result;
+    }
+
+    // ASSOCIAZIONE AGGIORNAMENTO → EVENTO -----------------------------------------------------------------------------
+    /**
+     * Cerca l'evento della corsa a cui si riferisce un aggiornamento, partendo dal cursore
+     * e ricominciando dall'inizio solo se l'aggiornamento è fuori ordine.
+     *
+     * @return posizione dell'evento nella corsa, oppure -1
+     */
+    private int match(GTFSRealtimeStreamDecoder.TripUpdates updates, int u, int first, int n, int cursor) {
+        int sequence = updates.getStopSequence(u);
+        if (sequence >= 0) {
+            for (int i = cursor; i < n; i++) if (timetable.getEventSequence(first + i) == sequence) return i;
+            for (int i = 0; i < cursor; i++) if (timetable.getEventSequence(first + i) == sequence) return i;
+        }
+        if (updates.getStopId(u) != null) {
+            int s = timetable.getStopIndex(updates.getStopId(u));
+            if (s < 0) return -1;
+            for (int i = cursor; i < n; i++) if (timetable.getEventStop(first + i) == s) return i;
+            for (int i = 0; i < cursor; i++) if (timetable.getEventStop(first + i) == s) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Restituisce l'orario di un evento: assoluto se presente, altrimenti orario programmato più delay.
+     */
+    private static long eventTime(long time, int delay, long scheduled) {
+        if (time > 0) return time;
+        if (delay != GTFSRealtimeStreamDecoder.NO_VALUE) return scheduled + delay;
+        return UNKNOWN;
+    }
+
+    // GIORNO DI SERVIZIO ----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce la mezzanotte del giorno di servizio della corsa.
+     * <p>
+     * Usa start_date se presente; altrimenti sceglie, tra ieri e oggi, il giorno in cui la corsa
+     * è attiva e il cui intervallo programmato è più vicino all'istante del feed.
+     * </p>
+     */
+    private long serviceMidnight(int startDate, int t, long nowEpochSec) {
+        if (startDate > 0) {
+            try {
+                return LocalDate.of(startDate / 10000, startDate / 100 % 100, startDate % 100).atStartOfDay(ZONE).toEpochSecond();
+            } catch (DateTimeException ignored) {
+                // Data non valida: si usa la stima.
+            }
+        }
+
+        LocalDate today = Instant.ofEpochSecond(nowEpochSec).atZone(ZONE).toLocalDate();
+        int start = timetable.getEventDeparture(timetable.getTripFirstEvent(t));
+        int end = timetable.getEventArrival(timetable.getTripEndEvent(t) - 1);
+        long best = today.atStartOfDay(ZONE).toEpochSecond();
+        long bestDistance = Long.MAX_VALUE;
+        for (LocalDate date : new LocalDate[]{ today, today.minusDays(1) }) {
+            if (!timetable.getActiveTrips(date)[t]) continue;
+            long midnight = date.atStartOfDay(ZONE).toEpochSecond();
+            long distance = Math.max(0, Math.max(midnight + start - nowEpochSec, nowEpochSec - midnight - end));
+            if (distance < bestDistance) {
+                best = midnight;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    // CORSE NON PRESENTI NELL'ORARIO ----------------------------------------------------------------------------------
+    /**
+     * Restituisce gli orari assoluti del feed per una corsa senza orario statico.
+     */
+    private static Map<String, GTFSDataIndexer.PredictedArrival> absoluteArrivals(GTFSRealtimeStreamDecoder.TripUpdates updates, int k) {
+        String tripId = updates.getTripId(k);
+        Map<String, GTFSDataIndexer.PredictedArrival> result = new HashMap<>();
+        for (int u = updates.getFirstUpdate(k); u < updates.getEndUpdate(k); u++) {
+            if (updates.getStopId(u) == null) continue;
+            long time = updates.getArrivalTime(u) > 0 ? updates.getArrivalTime(u) : updates.getDepartureTime(u);
+            if (time > 0) result.putIfAbsent(updates.getStopId(u), new GTFSDataIndexer.PredictedArrival(tripId, time));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+package operator;
+
+// Altre classi.
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Feed GTFS di un'agenzia: URL del feed statico, directory della cache e URL dei feed realtime,
+ * con lo spazio dei nomi che ne separa gli ID da quelli degli altri feed.
+ * <p>
+ * Agenzie diverse (ATAC, Cotral, treni regionali) assegnano gli ID in modo indipendente e possono usare
+ * gli stessi valori: gli ID di ogni feed aggiuntivo vengono quindi prefissati con {@code <namespace>:}
+ * già al caricamento ({@link GTFSStaticLoader}) e alla decodifica dei feed realtime
+ * ({@link GTFSRealtimeStreamDecoder}), così indici, previsioni e avvisi non si sovrappongono.
+ * Il feed principale ha lo spazio dei nomi vuoto: i suoi ID, e i preferiti salvati, restano invariati.
+ * </p>
+ * <p>
+ * I feed aggiuntivi si configurano con proprietà di sistema ({@link #fromSystemProperties()}):
+ * {@code damose.feeds} elenca gli spazi dei nomi separati da virgole e per ciascuno si indicano
+ * {@code damose.feed.<namespace>.staticUrl} (obbligatoria) e, se l'agenzia li pubblica,
+ * {@code .tripUpdatesUrl}, {@code .vehiclePositionsUrl} e {@code .alertsUrl}, con i relativi {@code ...Mirrors}.
+ * </p>
+ */
+public final class GTFSFeed {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final String SEPARATOR = ":";                                         // Tra spazio dei nomi e ID originale.
+    private static final Pattern NAMESPACE = Pattern.compile("[A-Za-z0-9_-]+");         // Senza separatore: il prefisso è univoco.
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final String namespace;                                                     // Vuoto per il feed principale.
+    private final String idPrefix;                                                      // "<namespace>:" oppure vuoto.
+    private final String staticUrl;                                                     // Null per un feed solo realtime.
+    private final Path cacheDirectory;                                                  // Null per un feed solo realtime.
+    private final List<String> tripUpdatesUrls;                                         // Principale e mirror (vuota se assente).
+    private final List<String> vehiclePositionsUrls;
+    private final List<String> alertsUrls;
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param namespace            spazio dei nomi (vuoto per il feed principale)
+     * @param staticUrl            URL dello ZIP GTFS statico (null per un feed solo realtime)
+     * @param cacheDirectory       directory della cache dei file statici (null per un feed solo realtime)
+     * @param tripUpdatesUrls      URL del feed TripUpdates, principale e mirror (vuota se assente)
+     * @param vehiclePositionsUrls URL del feed VehiclePositions, principale e mirror (vuota se assente)
+     * @param alertsUrls           URL del feed degli avvisi, principale e mirror (vuota se assente)
+     * @throws IllegalArgumentException se lo spazio dei nomi contiene caratteri diversi da lettere, cifre, '_' e '-'
+     */
+    public GTFSFeed(String namespace, String staticUrl, Path cacheDirectory, List<String> tripUpdatesUrls,
+                    List<String> vehiclePositionsUrls, List<String> alertsUrls) {
+        if (!namespace.isEmpty() && !NAMESPACE.matcher(namespace).matches()) {
+            throw new IllegalArgumentException("Spazio dei nomi non valido: " + namespace);
+        }
+        this.namespace = namespace;
+        this.idPrefix = namespace.isEmpty() ? "" : namespace + SEPARATOR;
+        this.staticUrl = staticUrl;
+        this.cacheDirectory = cacheDirectory;
+        this.tripUpdatesUrls = List.copyOf(tripUpdatesUrls);
+        this.vehiclePositionsUrls = List.copyOf(vehiclePositionsUrls);
+        this.alertsUrls = List.copyOf(alertsUrls);
+    }
+
+    /**
+     * Crea il feed principale (ATAC), con la cache statica predefinita e gli URL realtime indicati.
+     *
+     * @param tripUpdatesUrls      URL del feed TripUpdates, principale e mirror
+     * @param vehiclePositionsUrls URL del feed VehiclePositions, principale e mirror
+     * @param alertsUrls           URL del feed degli avvisi, principale e mirror (vuota se assente)
+     * @return                     feed principale
+     */
+    public static GTFSFeed main(List<String> tripUpdatesUrls, List<String> vehiclePositionsUrls, List<String> alertsUrls) {
+        return new GTFSFeed("", GTFSCacheManager.GTFS_URL, GTFSCacheManager.getCacheDirectory(),
+                tripUpdatesUrls, vehiclePositionsUrls, alertsUrls);
+    }
+
+    // CONFIGURAZIONE --------------------------------------------------------------------------------------------------
+    /**
+     * Legge i feed aggiuntivi dalle proprietà di sistema. Gli spazi dei nomi ripetuti vengono ignorati.
+     *
+     * @return feed aggiuntivi nell'ordine di {@code damose.feeds} (vuota se la proprietà non è impostata)
+     * @throws IllegalArgumentException se uno spazio dei nomi non è valido o manca il suo URL statico
+     */
+    public static List<GTFSFeed> fromSystemProperties() {
+        String names = System.getProperty("damose.feeds");
+        if (names == null || names.isBlank()) return List.of();
+
+        List<GTFSFeed> feeds = new ArrayList<>();
+        for (String namespace : new LinkedHashSet<>(Arrays.asList(names.split(",")))) {
+            namespace = namespace.trim();
+            if (namespace.isEmpty()) continue;
+            String key = "damose.feed." + namespace + ".";
+            String staticUrl = System.getProperty(key + "staticUrl");
+            if (staticUrl == null || staticUrl.isBlank()) {
+                throw new IllegalArgumentException("Manca " + key + "staticUrl");
+            }
+            feeds.add(new GTFSFeed(namespace, staticUrl.trim(), GTFSCacheManager.getCacheDirectory(namespace),
+                    urls(key, "tripUpdates"), urls(key, "vehiclePositions"), urls(key, "alerts")));
+        }
+        return feeds;
+    }
+
+    /**
+     * URL di un feed realtime dalla configurazione: il principale seguito dai mirror, vuota se non configurato.
+     */
+    private static List<String> urls(String key, String feed) {
+        String url = System.getProperty(key + feed + "Url");
+        if (url == null || url.isBlank()) return List.of();
+        return GTFSFeedEndpoints.withMirrors(url.trim(), System.getProperty(key + feed + "Mirrors"));
+    }
+
+    // ID --------------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce l'ID con il prefisso del feed. Gli ID vuoti o null restano invariati.
+     *
+     * @param id ID originale del feed
+     * @return   ID univoco tra tutti i feed
+     */
+    public String qualify(String id) {
+        return id == null || id.isEmpty() || idPrefix.isEmpty() ? id : idPrefix + id;
+    }
+
+    /**
+     * Restituisce lo spazio dei nomi di un ID tra quelli indicati.
+     *
+     * @param id         ID (già prefissato)
+     * @param namespaces spazi dei nomi dei feed caricati
+     * @return           spazio dei nomi del feed dell'ID, vuoto se appartiene al feed principale
+     */
+    public static String namespaceOf(String id, Collection<String> namespaces) {
+        for (String namespace : namespaces) {
+            if (!namespace.isEmpty() && id.length() > namespace.length()
+                    && id.startsWith(namespace) && id.startsWith(SEPARATOR, namespace.length())) return namespace;
+        }
+        return "";
+    }
+
+    // GETTER ----------------------------------------------------------------------------------------------------------
+    /** @return spazio dei nomi (vuoto per il feed principale) */
+    public String getNamespace() { return namespace; }
+
+    /** @return prefisso degli ID ("&lt;namespace&gt;:" oppure vuoto) */
+    public String getIdPrefix() { return idPrefix; }
+
+    /** @return true per il feed principale, i cui ID non hanno prefisso */
+    public boolean isMain() { return namespace.isEmpty(); }
+
+    /** @return URL dello ZIP GTFS statico (null per un feed solo realtime) */
+    public String getStaticUrl() { return staticUrl; }
+
+    /** @return directory della cache dei file statici (null per un feed solo realtime) */
+    public Path getCacheDirectory() { return cacheDirectory; }
+
+    /** @return URL del feed TripUpdates (vuota se assente) */
+    public List<String> getTripUpdatesUrls() { return tripUpdatesUrls; }
+
+    /** @return URL del feed VehiclePositions (vuota se assente) */
+    public List<String> getVehiclePositionsUrls() { return vehiclePositionsUrls; }
+
+    /** @return URL del feed degli avvisi (vuota se assente) */
+    public List<String> getAlertsUrls() { return alertsUrls; }
+
+    @Override
+    public String toString() {
+        return namespace.isEmpty() ? "main" : namespace;
+    }
+}
@@ -0,0 +1,144 @@
+package operator;
+
+// Altre classi.
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stima la cadenza di pubblicazione di un feed GTFS-realtime e calcola quando interrogarlo di nuovo.
+ * <p>
+ * La cadenza è la media esponenziale degli intervalli tra i timestamp dell'header di feed successivi;
+ * nei primi poll il feed viene interrogato a intervalli brevi, così da misurare anche cadenze
+ * più rapide dell'intervallo iniziale.
+ * Lo scarto tra pubblicazione e orologio locale (ritardo del fornitore più differenza tra gli orologi)
+ * parte dall'età minima osservata dei feed: ad ogni feed nuovo viene anticipato di poco e, quando
+ * un poll trova il feed ancora invariato, viene posticipato, così da restare appena dopo la pubblicazione.
+ * Il poll successivo viene pianificato subito dopo la pubblicazione attesa, con un piccolo margine
+ * e un jitter casuale; se il feed risulta ancora invariato il nuovo tentativo arriva dopo pochi secondi,
+ * con attesa che raddoppia fino alla cadenza. In caso di errore si applica il backoff esponenziale.
+ * </p>
+ * <p>
+ * I metodi ricevono l'istante corrente come parametro e restituiscono il ritardo del prossimo poll
+ * in millisecondi; sono sincronizzati perché le risposte arrivano su thread diversi.
+ * </p>
+ */
+public class GTFSFeedCadence {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final double SMOOTHING = 0.3;                                        // Peso del nuovo intervallo nella media.
+    private static final double MIN_CADENCE_SEC = 5.0;                                  // Cadenza minima plausibile.
+    private static final double PUBLISH_MARGIN_SEC = 1.0;                               // Attesa dopo la pubblicazione prevista.
+    private static final double MAX_JITTER_SEC = 1.5;                                   // Jitter massimo aggiunto ad ogni poll.
+    private static final double PROBE_SEC = 0.2;                                        // Anticipo dello scarto ad ogni nuovo feed.
+    private static final double EARLY_PENALTY_SEC = 1.0;                                // Ritardo dello scarto per ogni poll in anticipo.
+    private static final int LEARNING_SAMPLES = 2;                                      // Intervalli misurati con poll ravvicinati.
+    private static final double RETRY_SEC = 2.0;                                        // Primo nuovo tentativo dopo un feed invariato.
+    private static final double MIN_DELAY_SEC = 1.0;
+
+    // PARAMETRI -------------------------------------------------------------------------------------------------------
+    private final double baseIntervalSec;                                               // Cadenza iniziale e base del backoff.
+    private final double maxIntervalSec;                                                // Attesa massima tra due poll.
+
+    // STATO -----------------------------------------------------------------------------------------------------------
+    private double cadenceSec;                                                          // Cadenza stimata.
+    private double offsetSec = Double.NaN;                                              // Scarto stimato tra pubblicazione e orologio locale.
+    private long lastPublishTs;                                                         // Timestamp dell'ultimo feed nuovo (epoch second).
+    private int samples;                                                                // Intervalli tra pubblicazioni misurati.
+    private int unchangedStreak;                                                        // Poll consecutivi con feed invariato.
+    private int consecutiveFailures;                                                    // Poll consecutivi falliti.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param baseIntervalSec intervallo iniziale, usato anche per i feed senza timestamp e come base del backoff
+     * @param maxIntervalSec  attesa massima tra due poll
+     */
+    public GTFSFeedCadence(double baseIntervalSec, double maxIntervalSec) {
+        this.baseIntervalSec = baseIntervalSec;
+        this.maxIntervalSec = maxIntervalSec;
+        this.cadenceSec = baseIntervalSec;
+    }
+
+    // ESITI DEL POLL --------------------------------------------------------------------------------------------------
+    /**
+     * Registra un feed nuovo e pianifica il poll dopo la prossima pubblicazione attesa.
+     *
+     * @param headerTs timestamp dell'header del feed (0 se assente)
+     * @param nowSec   istante corrente (epoch second, con frazione)
+     * @return         ritardo del prossimo poll in millisecondi
+     */
+    public synchronized long onNewFeed(long headerTs, double nowSec) {
+        consecutiveFailures = 0;
+        unchangedStreak = 0;
+        if (headerTs <= 0) return toMillis(baseIntervalSec + jitter());                // Senza timestamp non c'è cadenza da imparare.
+
+        if (lastPublishTs > 0 && headerTs > lastPublishTs) {
+            double delta = headerTs - lastPublishTs;
+            double estimate = samples == 0 ? delta                                      // Dopo un'interruzione la stima cresce gradualmente.
+                    : (1 - SMOOTHING) * cadenceSec + SMOOTHING * Math.min(delta, 2 * cadenceSec);
+            cadenceSec = clamp(estimate, MIN_CADENCE_SEC, maxIntervalSec);
+            samples++;
+        }
+        lastPublishTs = Math.max(lastPublishTs, headerTs);
+
+        double age = nowSec - headerTs;
+        offsetSec = (Double.isNaN(offsetSec) ? age : Math.min(age, offsetSec)) - PROBE_SEC;
+        if (samples < LEARNING_SAMPLES) return toMillis(RETRY_SEC + jitter());          // Fase iniziale: misura la cadenza.
+        return nextAfterPublish(nowSec);
+    }
+
+    /**
+     * Registra un feed invariato (risposta 304 o stesso timestamp): il poll è arrivato in anticipo.
+     *
+     * @param nowSec istante corrente (epoch second, con frazione)
+     * @return       ritardo del prossimo poll in millisecondi
+     */
+    public synchronized long onUnchanged(double nowSec) {
+        consecutiveFailures = 0;
+        if (lastPublishTs <= 0) return toMillis(baseIntervalSec + jitter());
+        if (unchangedStreak == 0 && samples >= LEARNING_SAMPLES) offsetSec += EARLY_PENALTY_SEC;
+        double retry = Math.min(cadenceSec, RETRY_SEC * (1L << Math.min(unchangedStreak, 6)));
+        unchangedStreak++;
+        return toMillis(retry + jitter());
+    }
+
+    /**
+     * Registra un poll fallito e applica il backoff esponenziale.
+     *
+     * @return ritardo del prossimo poll in millisecondi
+     */
+    public synchronized long onFailure() {
+        consecutiveFailures++;
+        double backoff = Math.min(maxIntervalSec, baseIntervalSec * (1L << Math.min(consecutiveFailures, 6)));
+        return toMillis(backoff + jitter());
+    }
+
+    // GETTER ----------------------------------------------------------------------------------------------------------
+    /** @return cadenza di pubblicazione stimata in secondi */
+    public synchronized double getCadenceSec() { return cadenceSec; }
+
+    /** @return numero di poll consecutivi falliti */
+    public synchronized int getConsecutiveFailures() { return consecutiveFailures; }
+
+    // HELPER ----------------------------------------------------------------------------------------------------------
+    /**
+     * Ritardo fino alla prima pubblicazione attesa nel futuro, più margine e jitter.
+     */
+    private long nextAfterPublish(double nowSec) {
+        double expected = lastPublishTs + offsetSec + cadenceSec;
+        while (expected < nowSec + MIN_DELAY_SEC) expected += cadenceSec;              // Pubblicazione già passata: si punta alla successiva.
+        return toMillis(Math.min(maxIntervalSec, expected - nowSec + PUBLISH_MARGIN_SEC + jitter()));
+    }
+
+    private static double jitter() {
+        return ThreadLocalRandom.current().nextDouble(MAX_JITTER_SEC);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long toMillis(double seconds) {
+        return Math.round(seconds * 1000.0);
+    }
+}
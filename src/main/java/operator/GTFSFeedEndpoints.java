@@ -0,0 +1,203 @@
+package operator;
+
+// Altre classi.
+import java.net.URI;
+import java.util.*;
+
+/**
+ * Endpoint di un feed GTFS-realtime (URL principale, mirror e proxy) con un punteggio di salute per ciascuno.
+ * <p>
+ * Il punteggio è la latenza mediana delle risposte recenti, poco sensibile ai singoli ritardi, moltiplicata per
+ * una penalità che cresce con gli errori consecutivi: a ogni poll il {@link GTFSRealtimeManager} interroga per
+ * primo l'endpoint con il punteggio più basso. Un endpoint mai interrogato parte da una latenza iniziale
+ * ipotetica, così un principale lento cede il posto a un mirror ancora sconosciuto e questo viene misurato.
+ * Ogni {@link #EXPLORE_EVERY} poll il secondo endpoint viene interrogato per primo, così il punteggio di un
+ * endpoint scartato si aggiorna e, se è tornato veloce, riprende il suo posto.
+ * </p>
+ * <p>
+ * Se il primo endpoint non risponde entro il 95° percentile delle sue latenze recenti, il manager invia
+ * una seconda richiesta (hedged request) all'endpoint successivo e usa la risposta che arriva prima.
+ * Le richieste aggiuntive sono limitate da un budget: ogni poll accumula {@link #HEDGE_BUDGET_RATIO}
+ * gettoni fino a {@link #HEDGE_BUDGET_BURST}, e ogni richiesta aggiuntiva ne consuma uno, così un
+ * fornitore lento non riceve più del 10% di richieste in più.
+ * </p>
+ * <p>
+ * I metodi sono sincronizzati: le risposte arrivano sui thread del client HTTP.
+ * </p>
+ */
+public class GTFSFeedEndpoints {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final double HEDGE_BUDGET_RATIO = 0.1;                                // Gettoni accumulati per poll.
+    public static final double HEDGE_BUDGET_BURST = 2.0;                                // Gettoni massimi accumulabili.
+    public static final int EXPLORE_EVERY = 20;                                         // Poll tra due interrogazioni del secondo endpoint.
+    private static final double INITIAL_LATENCY_MS = 1000.0;                            // Latenza ipotetica di un endpoint mai interrogato.
+    private static final double FAILURE_PENALTY = 4.0;                                  // Moltiplicatore del punteggio per ogni errore consecutivo.
+    private static final int MAX_PENALTY_FAILURES = 5;
+    private static final int WINDOW = 64;                                               // Latenze recenti per il percentile.
+    private static final int MIN_SAMPLES = 8;                                           // Latenze necessarie per stimare il percentile.
+    private static final long DEFAULT_HEDGE_DELAY_MS = 2000L;                           // Ritardo dell'hedge senza abbastanza latenze.
+    private static final long MIN_HEDGE_DELAY_MS = 200L;
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final List<Endpoint> endpoints;                                             // Nell'ordine di configurazione.
+    private final long maxHedgeDelayMs;                                                 // Oltre questo ritardo l'hedge non serve più.
+    private double hedgeTokens = HEDGE_BUDGET_BURST;                                    // Budget delle richieste aggiuntive.
+    private long polls;                                                                 // Poll eseguiti.
+
+    // ENDPOINT --------------------------------------------------------------------------------------------------------
+    /**
+     * Un URL del feed con le sue latenze recenti ed errori consecutivi (protetti dal lock di {@link GTFSFeedEndpoints}).
+     */
+    public static final class Endpoint {
+        public final URI uri;
+        private double medianLatencyMs = INITIAL_LATENCY_MS;
+        private final double[] recentMs = new double[WINDOW];                          // Buffer circolare delle latenze.
+        private int samples;
+        private int consecutiveFailures;
+        private long successes, failures;
+
+        private Endpoint(URI uri) {
+            this.uri = uri;
+        }
+
+        private double score() {
+            return medianLatencyMs * Math.pow(FAILURE_PENALTY, Math.min(consecutiveFailures, MAX_PENALTY_FAILURES));
+        }
+
+        private double percentileMs(double p) {
+            int n = Math.min(samples, WINDOW);
+            double[] sorted = Arrays.copyOf(recentMs, n);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(n * p) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param urls             URL del feed: il primo è il principale, gli altri mirror o proxy (duplicati ignorati)
+     * @param requestTimeoutMs timeout di una richiesta, che limita il ritardo dell'hedge alla sua metà
+     * @throws IllegalArgumentException se non è indicato alcun URL
+     */
+    public GTFSFeedEndpoints(List<String> urls, long requestTimeoutMs) {
+        List<Endpoint> list = new ArrayList<>();
+        for (String url : new LinkedHashSet<>(urls)) {
+            if (url != null && !url.isBlank()) list.add(new Endpoint(URI.create(url.trim())));
+        }
+        if (list.isEmpty()) throw new IllegalArgumentException("Nessun URL per il feed");
+        this.endpoints = List.copyOf(list);
+        this.maxHedgeDelayMs = Math.max(MIN_HEDGE_DELAY_MS, requestTimeoutMs / 2);
+    }
+
+    /**
+     * Compone la lista degli URL di un feed: il principale seguito dai mirror indicati in configurazione.
+     *
+     * @param primaryUrl URL principale
+     * @param mirrors    URL dei mirror o proxy separati da virgole (null o vuoto se assenti)
+     * @return           lista degli URL, il principale per primo
+     */
+    public static List<String> withMirrors(String primaryUrl, String mirrors) {
+        List<String> urls = new ArrayList<>();
+        urls.add(primaryUrl);
+        if (mirrors != null) {
+            for (String url : mirrors.split(",")) {
+                if (!url.isBlank()) urls.add(url.trim());
+            }
+        }
+        return urls;
+    }
+
+    // SCELTA DEGLI ENDPOINT -------------------------------------------------------------------------------------------
+    /**
+     * Restituisce gli endpoint in ordine di punteggio, il migliore per primo, e accredita il budget degli hedge.
+     * Da chiamare una volta per poll; ogni {@link #EXPLORE_EVERY} poll i primi due sono scambiati.
+     *
+     * @return endpoint ordinati (a parità di punteggio nell'ordine di configurazione)
+     */
+    public synchronized List<Endpoint> rankForPoll() {
+        hedgeTokens = Math.min(HEDGE_BUDGET_BURST, hedgeTokens + HEDGE_BUDGET_RATIO);
+        List<Endpoint> ranked = new ArrayList<>(endpoints);
+        ranked.sort(Comparator.comparingDouble(Endpoint::score));                       // Ordinamento stabile.
+        if (++polls % EXPLORE_EVERY == 0 && ranked.size() > 1) Collections.swap(ranked, 0, 1);    // Misura di nuovo il secondo.
+        return ranked;
+    }
+
+    /**
+     * Restituisce dopo quanto inviare la richiesta aggiuntiva se l'endpoint non ha ancora risposto:
+     * il 95° percentile delle sue latenze recenti.
+     *
+     * @param endpoint endpoint interrogato per primo
+     * @return         ritardo in millisecondi
+     */
+    public synchronized long hedgeDelayMs(Endpoint endpoint) {
+        if (endpoint.samples < MIN_SAMPLES) return Math.min(DEFAULT_HEDGE_DELAY_MS, maxHedgeDelayMs);
+        return Math.clamp((long) Math.ceil(endpoint.percentileMs(0.95)), MIN_HEDGE_DELAY_MS, maxHedgeDelayMs);
+    }
+
+    /**
+     * Consuma un gettone del budget per una richiesta aggiuntiva.
+     *
+     * @return true se la richiesta aggiuntiva può partire
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if (hedgeTokens < 1.0) return false;
+        hedgeTokens -= 1.0;
+        return true;
+    }
+
+    // ESITI -----------------------------------------------------------------------------------------------------------
+    /**
+     * Registra una risposta valida (200 o 304) e la sua latenza fino agli header.
+     *
+     * @param endpoint     endpoint che ha risposto
+     * @param latencyNanos latenza della risposta
+     */
+    public synchronized void onSuccess(Endpoint endpoint, long latencyNanos) {
+        endpoint.recentMs[endpoint.samples % WINDOW] = latencyNanos / 1e6;
+        endpoint.samples++;
+        endpoint.medianLatencyMs = endpoint.percentileMs(0.5);
+        endpoint.consecutiveFailures = 0;
+        endpoint.successes++;
+    }
+
+    /**
+     * Registra un errore (eccezione, timeout o stato HTTP diverso da 200 e 304).
+     *
+     * @param endpoint endpoint che ha fallito
+     */
+    public synchronized void onFailure(Endpoint endpoint) {
+        endpoint.consecutiveFailures++;
+        endpoint.failures++;
+    }
+
+    // STATO -----------------------------------------------------------------------------------------------------------
+    /** @return numero di endpoint configurati */
+    public int size() { return endpoints.size(); }
+
+    /** @return endpoint con il punteggio migliore */
+    public synchronized Endpoint getPreferred() {
+        return Collections.min(endpoints, Comparator.comparingDouble(Endpoint::score));
+    }
+
+    /**
+     * Restituisce una descrizione dello stato di ogni endpoint, per i log e JMX.
+     *
+     * @return una riga per endpoint: URL, latenza mediana, errori consecutivi, risposte ed errori
+     */
+    public synchronized String[] describe() {
+        String[] lines = new String[endpoints.size()];
+        for (int i = 0; i < lines.length; i++) {
+            Endpoint e = endpoints.get(i);
+            lines[i] = String.format(Locale.ROOT, "%s median=%.0fms failures=%d ok=%d ko=%d",
+                    e.uri, e.medianLatencyMs, e.consecutiveFailures, e.successes, e.failures);
+        }
+        return lines;
+    }
+}
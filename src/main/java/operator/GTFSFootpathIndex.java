@@ -0,0 +1,346 @@
+package operator;
+
+// Altre classi.
+import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Grafo dei trasbordi a piedi tra fermate vicine.
+ * <p>
+ * Per ogni fermata conserva le fermate raggiungibili a piedi entro un raggio configurabile
+ * e il relativo tempo di cammino, stimato dalla distanza haversine moltiplicata per un
+ * fattore di deviazione (le strade non sono in linea d'aria).
+ * </p>
+ * <p>
+ * Il calcolo avviene al caricamento, in parallelo, con un join a celle spaziali:
+ * ogni fermata viene confrontata solo con quelle delle celle adiacenti alla propria, evitando
+ * il confronto di tutte le coppie. Il risultato è memorizzato in formato CSR
+ * (offset per fermata + array contigui di destinazioni e tempi) e salvato su file accanto
+ * alla cache GTFS, così da non essere ricalcolato ad ogni avvio finché il feed non cambia.
+ * </p>
+ */
+public class GTFSFootpathIndex {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    /** Raggio predefinito per i trasbordi a piedi (metri). */
+    public static final double DEFAULT_RADIUS_METERS = 400.0;
+
+    private static final Logger LOG = Logger.getLogger(GTFSFootpathIndex.class.getName());     // Messaggi debug.
+
+    private static final double DETOUR_FACTOR = 1.3;                                    // Percorso reale rispetto alla linea d'aria.
+    private static final double WALK_SPEED_MPS = 1.2;                                   // Velocità a piedi (m/s).
+    private static final double EARTH_RADIUS_METERS = 6_371_000.0;
+    private static final double METERS_PER_DEGREE_LAT = 111_320.0;
+
+    private static final int FILE_MAGIC = 0x46505448;                                   // "FPTH".
+    private static final int FILE_VERSION = 1;
+
+    // STRUTTURA CSR ---------------------------------------------------------------------------------------------------
+    private final int[] offsets;                                                        // Trasbordi della fermata s: [offsets[s], offsets[s+1]).
+    private final int[] targets;                                                        // Indice della fermata di destinazione.
+    private final int[] walkSeconds;                                                    // Tempo di cammino in secondi.
+    private final double radiusMeters;
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    private GTFSFootpathIndex(int[] offsets, int[] targets, int[] walkSeconds, double radiusMeters) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.walkSeconds = walkSeconds;
+        this.radiusMeters = radiusMeters;
+    }
+
+    // CARICAMENTO O CALCOLO -------------------------------------------------------------------------------------------
+    /**
+     * Carica il grafo dal file di cache se ancora valido, altrimenti lo calcola e lo salva.
+     * <p>
+     * Il file è considerato valido se è stato calcolato con gli stessi parametri e a partire
+     * dallo stesso {@code stops.txt} (stessa dimensione e data di modifica).
+     * Eventuali errori di lettura o scrittura non sono bloccanti: il grafo viene comunque calcolato.
+     * </p>
+     *
+     * @param timetable      indice compatto dell'orario (fornisce indici e coordinate delle fermate)
+     * @param cacheDirectory directory della cache GTFS (null per non usare la cache)
+     * @param radiusMeters   raggio massimo dei trasbordi in metri
+     * @return               grafo dei trasbordi
+     */
+    public static GTFSFootpathIndex loadOrBuild(GTFSTimetableIndex timetable, Path cacheDirectory, double radiusMeters) {
+        return loadOrBuild(timetable, cacheDirectory, cacheDirectory != null ? List.of(cacheDirectory) : List.of(), radiusMeters);
+    }
+
+    /**
+     * Carica il grafo di una rete composta da più feed dal file di cache se ancora valido, altrimenti lo calcola e lo salva.
+     * <p>
+     * Il file è valido se nessuno dei {@code stops.txt} dei feed è cambiato: la firma combina dimensione
+     * e data di modifica di tutti, nell'ordine dei feed. Con un solo feed coincide con quella di
+     * {@link #loadOrBuild(GTFSTimetableIndex, Path, double)}.
+     * </p>
+     *
+     * @param timetable       indice compatto dell'orario
+     * @param cacheDirectory  directory in cui salvare il grafo (null per non usare la cache)
+     * @param feedDirectories directory della cache di ciascun feed, con il rispettivo {@code stops.txt}
+     * @param radiusMeters    raggio massimo dei trasbordi in metri
+     * @return                grafo dei trasbordi
+     */
+    public static GTFSFootpathIndex loadOrBuild(GTFSTimetableIndex timetable, Path cacheDirectory,
+                                                List<Path> feedDirectories, double radiusMeters) {
+        Path cacheFile = cacheDirectory != null ? cacheDirectory.resolve("footpaths.bin") : null;
+        long[] signature = cacheDirectory != null ? stopsSignature(feedDirectories) : null;
+
+        if (cacheFile != null && signature != null && Files.exists(cacheFile)) {
+            try {
+                GTFSFootpathIndex cached = read(cacheFile, timetable, signature, radiusMeters);
+                if (cached != null) return cached;
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Lettura trasbordi fallita: " + e.getMessage(), e);                // LOG: cache illeggibile, si ricalcola.
+            }
+        }
+
+        GTFSFootpathIndex built = build(timetable, radiusMeters);
+        if (cacheFile != null && signature != null) {
+            try {
+                built.write(cacheFile, timetable, signature);
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Scrittura trasbordi fallita: " + e.getMessage(), e);              // LOG: la cache verrà ricreata al prossimo avvio.
+            }
+        }
+        return built;
+    }
+
+    // CALCOLO PARALLELO -----------------------------------------------------------------------------------------------
+    /**
+     * Calcola i trasbordi tra tutte le fermate entro il raggio indicato.
+     *
+     * @param timetable    indice compatto dell'orario
+     * @param radiusMeters raggio massimo in metri
+     * @return             grafo dei trasbordi
+     */
+    public static GTFSFootpathIndex build(GTFSTimetableIndex timetable, double radiusMeters) {
+        int n = timetable.getStopCount();
+
+        // latitudine media per la larghezza delle celle in longitudine
+        double latSum = 0;
+        int located = 0;
+        for (int s = 0; s < n; s++) {
+            if (Double.isNaN(timetable.getStopLat(s))) continue;
+            latSum += timetable.getStopLat(s);
+            located++;
+        }
+        double cosLat = Math.cos(Math.toRadians(located > 0 ? latSum / located : 0));
+        double cellLat = radiusMeters / METERS_PER_DEGREE_LAT;
+        double cellLon = radiusMeters / (METERS_PER_DEGREE_LAT * Math.max(0.01, cosLat));
+
+        // chiave di cella per ogni fermata, poi fermate ordinate per cella
+        long[] cellOfStop = new long[n];
+        Integer[] order = new Integer[n];
+        for (int s = 0; s < n; s++) {
+            order[s] = s;
+            cellOfStop[s] = Double.isNaN(timetable.getStopLat(s)) ? Long.MAX_VALUE
+                    : cellKey((int) Math.floor(timetable.getStopLat(s) / cellLat),
+                              (int) Math.floor(timetable.getStopLon(s) / cellLon));
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(cellOfStop[a], cellOfStop[b]));
+        int[] sortedStops = new int[n];
+        long[] sortedKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            sortedStops[i] = order[i];
+            sortedKeys[i] = cellOfStop[order[i]];
+        }
+
+        // join sulle 9 celle adiacenti, in parallelo per fermata
+        int[][] nbTargets = new int[n][];
+        int[][] nbSeconds = new int[n][];
+        IntStream.range(0, n).parallel().forEach(s -> {
+            if (cellOfStop[s] == Long.MAX_VALUE) {
+                nbTargets[s] = new int[0];
+                nbSeconds[s] = new int[0];
+                return;
+            }
+            double lat = timetable.getStopLat(s);
+            double lon = timetable.getStopLon(s);
+            int row = (int) Math.floor(lat / cellLat);
+            int col = (int) Math.floor(lon / cellLon);
+
+            int[] t = new int[8];
+            int[] w = new int[8];
+            int count = 0;
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    long key = cellKey(row + dr, col + dc);
+                    for (int i = lowerBound(sortedKeys, key); i < n && sortedKeys[i] == key; i++) {
+                        int other = sortedStops[i];
+                        if (other == s) continue;
+                        double meters = haversineMeters(lat, lon, timetable.getStopLat(other), timetable.getStopLon(other));
+                        if (meters > radiusMeters) continue;
+                        if (count == t.length) {
+                            t = Arrays.copyOf(t, count * 2);
+                            w = Arrays.copyOf(w, count * 2);
+                        }
+                        t[count] = other;
+                        w[count] = (int) Math.ceil(meters * DETOUR_FACTOR / WALK_SPEED_MPS);
+                        count++;
+                    }
+                }
+            }
+            nbTargets[s] = Arrays.copyOf(t, count);
+            nbSeconds[s] = Arrays.copyOf(w, count);
+        });
+
+        // compattazione in CSR
+        int[] offsets = new int[n + 1];
+        for (int s = 0; s < n; s++) offsets[s + 1] = offsets[s] + nbTargets[s].length;
+        int[] targets = new int[offsets[n]];
+        int[] seconds = new int[offsets[n]];
+        for (int s = 0; s < n; s++) {
+            System.arraycopy(nbTargets[s], 0, targets, offsets[s], nbTargets[s].length);
+            System.arraycopy(nbSeconds[s], 0, seconds, offsets[s], nbSeconds[s].length);
+        }
+        return new GTFSFootpathIndex(offsets, targets, seconds, radiusMeters);
+    }
+
+    // ACCESSO AI TRASBORDI --------------------------------------------------------------------------------------------
+    /** @return raggio usato per il calcolo (metri) */
+    public double getRadiusMeters() { return radiusMeters; }
+
+    /** @param stopIndex indice fermata @return inizio dei trasbordi della fermata */
+    public int getStart(int stopIndex) { return offsets[stopIndex]; }
+
+    /** @param stopIndex indice fermata @return fine (esclusa) dei trasbordi della fermata */
+    public int getEnd(int stopIndex) { return offsets[stopIndex + 1]; }
+
+    /** @param i posizione del trasbordo @return indice della fermata di destinazione */
+    public int getTarget(int i) { return targets[i]; }
+
+    /** @param i posizione del trasbordo @return tempo di cammino in secondi */
+    public int getWalkSeconds(int i) { return walkSeconds[i]; }
+
+    // PERSISTENZA -----------------------------------------------------------------------------------------------------
+    /**
+     * Scrive il grafo su file (prima su un file temporaneo, poi con spostamento atomico).
+     * Gli ID delle fermate vengono salvati per poter rimappare gli indici al caricamento successivo.
+     */
+    private void write(Path file, GTFSTimetableIndex timetable, long[] signature) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(signature[0]);
+            out.writeLong(signature[1]);
+            out.writeDouble(radiusMeters);
+            out.writeDouble(DETOUR_FACTOR);
+            out.writeDouble(WALK_SPEED_MPS);
+
+            int n = offsets.length - 1;
+            out.writeInt(n);
+            for (int s = 0; s < n; s++) out.writeUTF(timetable.getStopId(s));
+            out.writeInt(targets.length);
+            for (int s = 0; s < n; s++) {
+                out.writeInt(offsets[s + 1] - offsets[s]);
+                for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                    out.writeInt(targets[i]);
+                    out.writeInt(walkSeconds[i]);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Legge il grafo da file, rimappando gli indici delle fermate su quelli dell'orario corrente.
+     *
+     * @return grafo letto, oppure null se il file non corrisponde al feed o ai parametri attuali
+     */
+    private static GTFSFootpathIndex read(Path file, GTFSTimetableIndex timetable, long[] signature,
+                                          double radiusMeters) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) return null;
+            if (in.readLong() != signature[0] || in.readLong() != signature[1]) return null;
+            if (in.readDouble() != radiusMeters || in.readDouble() != DETOUR_FACTOR
+                    || in.readDouble() != WALK_SPEED_MPS) return null;
+
+            int n = in.readInt();
+            if (n != timetable.getStopCount()) return null;
+            int[] remap = new int[n];                                                   // Indice su file → indice corrente.
+            for (int s = 0; s < n; s++) {
+                remap[s] = timetable.getStopIndex(in.readUTF());
+                if (remap[s] < 0) return null;
+            }
+
+            int total = in.readInt();
+            int[][] nbTargets = new int[n][];
+            int[][] nbSeconds = new int[n][];
+            for (int s = 0; s < n; s++) {
+                int count = in.readInt();
+                int[] t = new int[count];
+                int[] w = new int[count];
+                for (int i = 0; i < count; i++) {
+                    t[i] = remap[in.readInt()];
+                    w[i] = in.readInt();
+                }
+                nbTargets[remap[s]] = t;
+                nbSeconds[remap[s]] = w;
+            }
+
+            int[] offsets = new int[n + 1];
+            for (int s = 0; s < n; s++) offsets[s + 1] = offsets[s] + nbTargets[s].length;
+            if (offsets[n] != total) return null;
+            int[] targets = new int[total];
+            int[] seconds = new int[total];
+            for (int s = 0; s < n; s++) {
+                System.arraycopy(nbTargets[s], 0, targets, offsets[s], nbTargets[s].length);
+                System.arraycopy(nbSeconds[s], 0, seconds, offsets[s], nbSeconds[s].length);
+            }
+            return new GTFSFootpathIndex(offsets, targets, seconds, radiusMeters);
+        }
+    }
+
+    // FIRMA DEL FILE STOPS.TXT ----------------------------------------------------------------------------------------
+    private static long[] stopsSignature(List<Path> feedDirectories) {
+        if (feedDirectories.isEmpty()) return null;
+        long[] signature = new long[2];
+        for (Path dir : feedDirectories) {
+            long[] s = stopsSignature(dir.resolve("stops.txt"));
+            if (s == null) return null;
+            signature[0] = 31 * signature[0] + s[0];
+            signature[1] = 31 * signature[1] + s[1];
+        }
+        return signature;
+    }
+
+    private static long[] stopsSignature(Path stopsFile) {
+        try {
+            return new long[] { Files.size(stopsFile), Files.getLastModifiedTime(stopsFile).toMillis() };
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // UTILITY SPAZIALI ------------------------------------------------------------------------------------------------
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double sinDlat = Math.sin(dLat / 2);
+        double sinDlon = Math.sin(dLon / 2);
+        double a = sinDlat * sinDlat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinDlon * sinDlon;
+        return 2 * EARTH_RADIUS_METERS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,198 @@
+package operator;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Ricerca approssimata di termini tramite BK-tree (Burkhard-Keller).
+ * <p>
+ * L'albero viene costruito una sola volta sul vocabolario dei nomi (parole delle fermate,
+ * nomi delle linee, capolinea). Ogni nodo contiene un termine e i figli sono indicizzati per
+ * distanza di Levenshtein dal padre: grazie alla disuguaglianza triangolare, una ricerca con
+ * distanza massima k visita solo i figli a distanza compresa in [d - k, d + k].
+ * Ad ogni termine è associata la collezione di elementi (fermate, linee) che lo contengono.
+ * La struttura è immutabile dopo la costruzione e può essere letta da più thread contemporaneamente.
+ * </p>
+ *
+ * @param <T> tipo degli elementi associati ai termini
+ */
+public class GTFSFuzzyMatcher<T> {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    /** Distanza massima ammessa in assoluto. */
+    public static final int MAX_DISTANCE = 2;
+
+    // RISULTATO -------------------------------------------------------------------------------------------------------
+    /**
+     * Termine del vocabolario trovato da una ricerca approssimata.
+     *
+     * @param <T> tipo degli elementi associati
+     */
+    public static final class Match<T> {
+
+        /** Termine del vocabolario. */
+        public final String term;
+
+        /** Distanza di Levenshtein dalla query. */
+        public final int distance;
+
+        /** Elementi associati al termine. */
+        public final List<T> items;
+
+        Match(String term, int distance, List<T> items) {
+            this.term = term;
+            this.distance = distance;
+            this.items = items;
+        }
+    }
+
+    // NODO DELL'ALBERO ------------------------------------------------------------------------------------------------
+    private static final class Node<T> {
+        final String term;
+        final List<T> items;
+        int[] childDistances = new int[0];                                              // Distanze dei figli dal nodo.
+        Node<T>[] children = newArray(0);                                               // Figli, paralleli a childDistances.
+
+        Node(String term, List<T> items) {
+            this.term = term;
+            this.items = items;
+        }
+
+        Node<T> child(int distance) {
+            for (int i = 0; i < childDistances.length; i++) {
+                if (childDistances[i] == distance) return children[i];
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node<T> node) {
+            int n = childDistances.length;
+            childDistances = Arrays.copyOf(childDistances, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            childDistances[n] = distance;
+            children[n] = node;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int size) { return (Node<T>[]) new Node<?>[size]; }
+    }
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final Node<T> root;                                                         // Radice (null se vocabolario vuoto).
+    private final int size;                                                             // Numero di termini.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     * <p>
+     * I termini vengono inseriti in ordine alfabetico, così l'albero non dipende
+     * dall'ordine di iterazione della mappa.
+     * </p>
+     *
+     * @param itemsByTerm elementi associati a ciascun termine (termini già normalizzati)
+     */
+    public GTFSFuzzyMatcher(Map<String, ? extends Collection<T>> itemsByTerm) {
+        Node<T> r = null;
+        int count = 0;
+        for (String term : new TreeSet<>(itemsByTerm.keySet())) {
+            if (term.isEmpty()) continue;
+            Node<T> node = new Node<>(term, List.copyOf(itemsByTerm.get(term)));
+            count++;
+            if (r == null) { r = node; continue; }
+
+            Node<T> current = r;
+            while (true) {
+                int d = distance(term, current.term, Integer.MAX_VALUE);
+                Node<T> next = current.child(d);
+                if (next == null) { current.addChild(d, node); break; }
+                current = next;
+            }
+        }
+        this.root = r;
+        this.size = count;
+    }
+
+    // RICERCA ---------------------------------------------------------------------------------------------------------
+    /**
+     * Cerca i termini entro la distanza indicata, ordinati per distanza e poi alfabeticamente.
+     *
+     * @param term        termine cercato (già normalizzato)
+     * @param maxDistance distanza di Levenshtein massima (limitata a {@link #MAX_DISTANCE})
+     * @return            lista dei termini trovati
+     */
+    public List<Match<T>> search(String term, int maxDistance) {
+        int k = Math.min(maxDistance, MAX_DISTANCE);
+        if (root == null || term == null || term.isEmpty() || k < 0) return List.of();
+
+        List<Match<T>> result = new ArrayList<>();
+        ArrayDeque<Node<T>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            int d = distance(term, node.term, Integer.MAX_VALUE);
+            if (d <= k) result.add(new Match<>(node.term, d, node.items));
+            for (int i = 0; i < node.childDistances.length; i++) {
+                int cd = node.childDistances[i];
+                if (cd >= d - k && cd <= d + k) stack.push(node.children[i]);             // Disuguaglianza triangolare.
+            }
+        }
+        result.sort(Comparator.<Match<T>>comparingInt(m -> m.distance).thenComparing(m -> m.term));
+        return result;
+    }
+
+    /**
+     * Restituisce il numero di termini del vocabolario.
+     *
+     * @return numero di termini
+     */
+    public int size() {
+        return size;
+    }
+
+    // DISTANZA CONSIGLIATA --------------------------------------------------------------------------------------------
+    /**
+     * Restituisce la distanza massima ragionevole per un termine: le parole corte tollerano meno errori.
+     *
+     * @param term termine cercato
+     * @return     0 sotto i 4 caratteri, 1 fino a 5, altrimenti {@link #MAX_DISTANCE}
+     */
+    public static int maxDistanceFor(String term) {
+        int length = term.length();
+        if (length < 4) return 0;
+        if (length < 6) return 1;
+        return MAX_DISTANCE;
+    }
+
+    // DISTANZA DI LEVENSHTEIN -----------------------------------------------------------------------------------------
+    /**
+     * Calcola la distanza di Levenshtein tra due stringhe, interrompendo il calcolo appena supera il limite.
+     *
+     * @param a     prima stringa
+     * @param b     seconda stringa
+     * @param limit limite oltre il quale il valore esatto non interessa
+     * @return      distanza, oppure {@code limit + 1} se la supera
+     */
+    static int distance(String a, String b, int limit) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > limit) return limit + 1;
+
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) previous[j] = j;
+
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) return limit + 1;                                        // Nessun percorso può rientrare nel limite.
+            int[] swap = previous; previous = current; current = swap;
+        }
+        return previous[m] > limit ? limit + 1 : previous[m];
+    }
+}
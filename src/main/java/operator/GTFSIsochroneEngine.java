@@ -0,0 +1,372 @@
+package operator;
+
+// Altre classi.
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Motore per il calcolo delle isocrone a partire da una fermata.
+ * <p>
+ * Risponde alla domanda "dove posso arrivare entro N minuti partendo da questa fermata a quest'ora".
+ * Il calcolo usa una Connection Scan sull'orario compatto di {@link GTFSTimetableIndex}:
+ * <ul>
+ *     <li>una scansione dall'orario richiesto fornisce gli arrivi più precoci per ogni fermata</li>
+ *     <li>una ricerca a profilo ripete la scansione per ogni partenza dalla fermata nella finestra
+ *     indicata e conserva il tempo di viaggio migliore; le partenze sono suddivise tra i thread
+ *     del {@link ForkJoinPool} comune</li>
+ *     <li>dopo ogni arrivo si applicano i trasbordi a piedi di {@link GTFSFootpathIndex}
+ *     (un solo tratto a piedi per volta, il grafo non è chiuso transitivamente)</li>
+ *     <li>i tempi per fermata vengono infine estesi a piedi su una griglia per la mappa</li>
+ * </ul>
+ * Le corse oltre la mezzanotte del giorno precedente non vengono considerate.
+ * </p>
+ */
+public class GTFSIsochroneEngine {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    /** Valore usato per le fermate non raggiunte. */
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    private static final int LEAF_DEPARTURES = 2;                                       // Partenze per task foglia.
+    private static final double WALK_SPEED_MPS = 1.2;                                   // Velocità a piedi (m/s).
+    private static final double MAX_WALK_METERS = 1000.0;                               // Raggio massimo a piedi dalla fermata.
+    private static final double CELL_METERS = 150.0;                                    // Lato delle celle della griglia.
+    private static final double METERS_PER_DEGREE_LAT = 111_320.0;
+
+    // DIPENDENZE ------------------------------------------------------------------------------------------------------
+    private final GTFSTimetableIndex timetable;
+    private final GTFSFootpathIndex footpaths;
+    private final ForkJoinPool pool;
+
+    // NESTED TYPES ----------------------------------------------------------------------------------------------------
+    /**
+     * Griglia raster dell'isocrona.
+     * <p>
+     * Ogni cella contiene i minuti necessari per raggiungerla (mezzi più tratto a piedi),
+     * oppure {@code NaN} se non raggiungibile entro il budget. La riga 0 è quella più a nord.
+     * </p>
+     */
+    public static final class IsochroneRaster {
+
+        /** Limiti geografici della griglia. */
+        public final double minLat, maxLat, minLon, maxLon;
+
+        /** Dimensioni della griglia. */
+        public final int rows, cols;
+
+        /** Minuti per cella in ordine riga per riga. */
+        public final float[] minutes;
+
+        /** Budget in minuti usato per il calcolo. */
+        public final int budgetMinutes;
+
+        IsochroneRaster(double minLat, double maxLat, double minLon, double maxLon,
+                        int rows, int cols, float[] minutes, int budgetMinutes) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+            this.rows = rows;
+            this.cols = cols;
+            this.minutes = minutes;
+            this.budgetMinutes = budgetMinutes;
+        }
+    }
+
+    /**
+     * Risultato del calcolo di un'isocrona.
+     */
+    public static final class IsochroneResult {
+
+        /** Fermata di partenza. */
+        public final String sourceStopId;
+
+        /** Orario di partenza richiesto. */
+        public final LocalDateTime departure;
+
+        /** Budget in minuti. */
+        public final int budgetMinutes;
+
+        /** Griglia per la visualizzazione sulla mappa (null se nessuna fermata raggiunta). */
+        public final IsochroneRaster raster;
+
+        private final GTFSTimetableIndex timetable;
+        private final int departureSec;
+        private final int[] earliestArrival;                                            // Secondi dalla mezzanotte, per fermata.
+        private final int[] bestTravel;                                                 // Secondi di viaggio migliori, per fermata.
+
+        IsochroneResult(String sourceStopId, LocalDateTime departure, int budgetMinutes, IsochroneRaster raster,
+                        GTFSTimetableIndex timetable, int departureSec, int[] earliestArrival, int[] bestTravel) {
+            this.sourceStopId = sourceStopId;
+            this.departure = departure;
+            this.budgetMinutes = budgetMinutes;
+            this.raster = raster;
+            this.timetable = timetable;
+            this.departureSec = departureSec;
+            this.earliestArrival = earliestArrival;
+            this.bestTravel = bestTravel;
+        }
+
+        /**
+         * Restituisce l'arrivo più precoce a una fermata partendo all'orario richiesto.
+         *
+         * @param stopId ID della fermata
+         * @return       orario di arrivo, oppure null se non raggiunta entro il budget
+         */
+        public LocalDateTime getEarliestArrival(String stopId) {
+            int s = timetable.getStopIndex(stopId);
+            if (s < 0 || earliestArrival[s] == UNREACHED) return null;
+            return departure.plusSeconds(earliestArrival[s] - departureSec);
+        }
+
+        /**
+         * Restituisce il miglior tempo di viaggio verso ogni fermata raggiunta,
+         * considerando tutte le partenze nella finestra.
+         *
+         * @return mappa ID fermata → minuti di viaggio
+         */
+        public Map<String, Integer> getTravelMinutesByStop() {
+            Map<String, Integer> result = new HashMap<>();
+            for (int s = 0; s < bestTravel.length; s++) {
+                if (bestTravel[s] != UNREACHED) result.put(timetable.getStopId(s), bestTravel[s] / 60);
+            }
+            return result;
+        }
+    }
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param timetable indice compatto dell'orario
+     * @param footpaths grafo dei trasbordi a piedi (può essere null)
+     */
+    public GTFSIsochroneEngine(GTFSTimetableIndex timetable, GTFSFootpathIndex footpaths) {
+        this.timetable = timetable;
+        this.footpaths = footpaths;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    // CALCOLO ISOCRONA ------------------------------------------------------------------------------------------------
+    /**
+     * Calcola l'isocrona a partire da una fermata.
+     *
+     * @param stopId        ID della fermata di partenza
+     * @param departure     data e ora di partenza
+     * @param budgetMinutes tempo massimo di viaggio in minuti
+     * @param windowMinutes ampiezza della finestra di partenze considerate dalla ricerca a profilo
+     * @return              risultato dell'isocrona, oppure null se la fermata non è presente nell'orario
+     */
+    public IsochroneResult computeIsochrone(String stopId, LocalDateTime departure, int budgetMinutes, int windowMinutes) {
+        int source = timetable.getStopIndex(stopId);
+        if (source < 0 || departure == null || budgetMinutes <= 0) return null;
+
+        int departureSec = departure.toLocalTime().toSecondOfDay();
+        int budgetSec = budgetMinutes * 60;
+        boolean[] activeTrips = timetable.getActiveTrips(departure.toLocalDate());
+
+        // partenze distinte dalla fermata nella finestra (la prima è l'orario richiesto)
+        int[] departures = collectDepartures(source, departureSec, Math.max(0, windowMinutes) * 60, activeTrips);
+
+        // ricerca a profilo in parallelo, mentre questo thread calcola gli arrivi più precoci
+        ForkJoinTask<int[]> profile = pool.submit(
+                new ProfileTask(source, departures, 0, departures.length, budgetSec, activeTrips));
+        int[] earliestArrival = new int[timetable.getStopCount()];
+        scan(source, departureSec, departureSec + budgetSec, activeTrips,
+                earliestArrival, new boolean[timetable.getTripCount()]);
+        int[] bestTravel = profile.join();
+
+        IsochroneRaster raster = buildRaster(bestTravel, budgetSec, budgetMinutes);
+        return new IsochroneResult(stopId, departure, budgetMinutes, raster,
+                timetable, departureSec, earliestArrival, bestTravel);
+    }
+
+    // PARTENZE NELLA FINESTRA -----------------------------------------------------------------------------------------
+    /**
+     * Raccoglie gli orari distinti di partenza delle corse attive dalla fermata nella finestra.
+     */
+    private int[] collectDepartures(int source, int fromSec, int windowSec, boolean[] activeTrips) {
+        int end = timetable.getStopDeparturesEnd(source);
+        int[] result = new int[16];
+        int n = 0;
+        result[n++] = fromSec;
+        for (int i = timetable.firstStopDepartureAtOrAfter(source, fromSec); i < end; i++) {
+            int event = timetable.getStopDepartureEvent(i);
+            int dep = timetable.getEventDeparture(event);
+            if (dep > fromSec + windowSec) break;
+            if (!activeTrips[timetable.getEventTrip(event)] || dep == result[n - 1]) continue;
+            if (n == result.length) result = Arrays.copyOf(result, n * 2);
+            result[n++] = dep;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // CONNECTION SCAN -------------------------------------------------------------------------------------------------
+    /**
+     * Esegue una Connection Scan a partire dalla fermata sorgente.
+     *
+     * @param source       indice della fermata di partenza
+     * @param departureSec orario di partenza
+     * @param limitSec     orario oltre il quale interrompere la scansione
+     * @param activeTrips  corse attive nel giorno di servizio
+     * @param arrival      array di output con gli arrivi per fermata (sovrascritto)
+     * @param onTrip       array di lavoro per le corse già salite (sovrascritto)
+     */
+    private void scan(int source, int departureSec, int limitSec, boolean[] activeTrips,
+                      int[] arrival, boolean[] onTrip) {
+        Arrays.fill(arrival, UNREACHED);
+        Arrays.fill(onTrip, false);
+        arrival[source] = departureSec;
+        relaxFootpaths(source, departureSec, limitSec, arrival);
+
+        int count = timetable.getConnectionCount();
+        for (int i = timetable.firstConnectionAtOrAfter(departureSec); i < count; i++) {
+            int event = timetable.getConnectionEvent(i);
+            int dep = timetable.getEventDeparture(event);
+            if (dep > limitSec) break;                                                  // Connessioni ordinate: oltre il limite non serve proseguire.
+
+            int trip = timetable.getEventTrip(event);
+            if (!activeTrips[trip]) continue;
+            if (!onTrip[trip] && arrival[timetable.getEventStop(event)] > dep) continue; // Non ancora raggiungibile.
+
+            onTrip[trip] = true;
+            int to = timetable.getEventStop(event + 1);
+            int arr = timetable.getEventArrival(event + 1);
+            if (arr < arrival[to] && arr <= limitSec) {
+                arrival[to] = arr;
+                relaxFootpaths(to, arr, limitSec, arrival);
+            }
+        }
+    }
+
+    /**
+     * Propaga un arrivo alle fermate raggiungibili a piedi.
+     */
+    private void relaxFootpaths(int stop, int time, int limitSec, int[] arrival) {
+        if (footpaths == null) return;
+        for (int i = footpaths.getStart(stop), end = footpaths.getEnd(stop); i < end; i++) {
+            int walked = time + footpaths.getWalkSeconds(i);
+            int target = footpaths.getTarget(i);
+            if (walked < arrival[target] && walked <= limitSec) arrival[target] = walked;
+        }
+    }
+
+    // RICERCA A PROFILO -----------------------------------------------------------------------------------------------
+    /**
+     * Task fork-join che calcola il miglior tempo di viaggio per fermata su un sottoinsieme di partenze.
+     * Non viene mai serializzato: ForkJoinTask è Serializable solo per ereditarietà.
+     */
+    @SuppressWarnings("serial")
+    private final class ProfileTask extends RecursiveTask<int[]> {
+
+        private final int source;
+        private final int[] departures;
+        private final int from, to;
+        private final int budgetSec;
+        private final boolean[] activeTrips;
+
+        ProfileTask(int source, int[] departures, int from, int to, int budgetSec, boolean[] activeTrips) {
+            this.source = source;
+            this.departures = departures;
+            this.from = from;
+            this.to = to;
+            this.budgetSec = budgetSec;
+            this.activeTrips = activeTrips;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= LEAF_DEPARTURES) return computeLeaf();
+
+            int mid = (from + to) >>> 1;
+            ProfileTask left = new ProfileTask(source, departures, from, mid, budgetSec, activeTrips);
+            ProfileTask right = new ProfileTask(source, departures, mid, to, budgetSec, activeTrips);
+            left.fork();
+            int[] best = right.compute();
+            int[] other = left.join();
+            for (int s = 0; s < best.length; s++) {                                     // Unione: minimo per fermata.
+                if (other[s] < best[s]) best[s] = other[s];
+            }
+            return best;
+        }
+
+        private int[] computeLeaf() {
+            int stopCount = timetable.getStopCount();
+            int[] best = new int[stopCount];
+            int[] arrival = new int[stopCount];
+            boolean[] onTrip = new boolean[timetable.getTripCount()];
+            Arrays.fill(best, UNREACHED);
+
+            for (int d = from; d < to; d++) {
+                int dep = departures[d];
+                scan(source, dep, dep + budgetSec, activeTrips, arrival, onTrip);
+                for (int s = 0; s < stopCount; s++) {
+                    if (arrival[s] == UNREACHED) continue;
+                    int travel = arrival[s] - dep;
+                    if (travel < best[s]) best[s] = travel;
+                }
+            }
+            return best;
+        }
+    }
+
+    // RASTER ----------------------------------------------------------------------------------------------------------
+    /**
+     * Estende i tempi per fermata a piedi su una griglia regolare.
+     */
+    private IsochroneRaster buildRaster(int[] travel, int budgetSec, int budgetMinutes) {
+
+        // bounding box delle fermate raggiunte
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (int s = 0; s < travel.length; s++) {
+            if (travel[s] > budgetSec || Double.isNaN(timetable.getStopLat(s))) continue;
+            minLat = Math.min(minLat, timetable.getStopLat(s));
+            maxLat = Math.max(maxLat, timetable.getStopLat(s));
+            minLon = Math.min(minLon, timetable.getStopLon(s));
+            maxLon = Math.max(maxLon, timetable.getStopLon(s));
+        }
+        if (minLat > maxLat) return null;
+
+        // margine pari al raggio massimo a piedi
+        double cosLat = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        double metersPerDegreeLon = METERS_PER_DEGREE_LAT * cosLat;
+        minLat -= MAX_WALK_METERS / METERS_PER_DEGREE_LAT;
+        maxLat += MAX_WALK_METERS / METERS_PER_DEGREE_LAT;
+        minLon -= MAX_WALK_METERS / metersPerDegreeLon;
+        maxLon += MAX_WALK_METERS / metersPerDegreeLon;
+
+        double cellLat = CELL_METERS / METERS_PER_DEGREE_LAT;
+        double cellLon = CELL_METERS / metersPerDegreeLon;
+        int rows = Math.max(1, (int) Math.ceil((maxLat - minLat) / cellLat));
+        int cols = Math.max(1, (int) Math.ceil((maxLon - minLon) / cellLon));
+        float[] minutes = new float[rows * cols];
+        Arrays.fill(minutes, Float.NaN);
+
+        for (int s = 0; s < travel.length; s++) {
+            if (travel[s] > budgetSec || Double.isNaN(timetable.getStopLat(s))) continue;
+            double lat = timetable.getStopLat(s);
+            double lon = timetable.getStopLon(s);
+            double radius = Math.min(MAX_WALK_METERS, (budgetSec - travel[s]) * WALK_SPEED_MPS);
+
+            int centerRow = (int) ((maxLat - lat) / cellLat);
+            int centerCol = (int) ((lon - minLon) / cellLon);
+            int span = (int) Math.ceil(radius / CELL_METERS);
+            for (int r = Math.max(0, centerRow - span); r <= Math.min(rows - 1, centerRow + span); r++) {
+                double dy = (maxLat - (r + 0.5) * cellLat - lat) * METERS_PER_DEGREE_LAT;
+                for (int c = Math.max(0, centerCol - span); c <= Math.min(cols - 1, centerCol + span); c++) {
+                    double dx = (minLon + (c + 0.5) * cellLon - lon) * metersPerDegreeLon;
+                    double dist = Math.sqrt(dx * dx + dy * dy);
+                    if (dist > radius) continue;
+                    float value = (float) ((travel[s] + dist / WALK_SPEED_MPS) / 60.0);
+                    int idx = r * cols + c;
+                    if (Float.isNaN(minutes[idx]) || value < minutes[idx]) minutes[idx] = value;
+                }
+            }
+        }
+        return new IsochroneRaster(minLat, maxLat, minLon, maxLon, rows, cols, minutes, budgetMinutes);
+    }
+}
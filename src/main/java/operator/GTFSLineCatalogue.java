@@ -0,0 +1,226 @@
+package operator;
+
+// Model.
+import model.Route;
+import model.Trip;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Catalogo precalcolato delle linee, usato dalla ricerca testuale.
+ * <p>
+ * Viene costruito una sola volta al caricamento dei dati statici: per ogni linea e direzione
+ * memorizza nome breve, tipo di mezzo, capolinea rappresentativo (il più frequente tra le corse)
+ * e la stringa di suggerimento già formattata.
+ * </p>
+ * <p>
+ * I nomi brevi delle linee sono corti, quindi l'indice associa direttamente ogni loro sottostringa
+ * normalizzata alla lista ordinata dei suggerimenti (prima corrispondenza esatta, poi prefisso,
+ * poi contenuto): una ricerca è una sola lettura in mappa e non alloca nuove stringhe.
+ * Se le corrispondenze esatte sono poche, vengono aggiunte in coda quelle approssimate
+ * ({@link GTFSFuzzyMatcher}) su nomi brevi e capolinea, che tollerano errori di battitura.
+ * Il catalogo è immutabile dopo la costruzione e può essere letto da più thread contemporaneamente.
+ * </p>
+ */
+public class GTFSLineCatalogue {
+
+    // VOCE DEL CATALOGO -----------------------------------------------------------------------------------------------
+    /**
+     * Linea in una direzione, con i dati mostrati nei suggerimenti.
+     */
+    public static final class LineEntry {
+
+        /** ID della linea. */
+        public final String routeId;
+
+        /** Nome breve della linea. */
+        public final String shortName;
+
+        /** Tipo di mezzo GTFS (null se assente). */
+        public final Integer routeType;
+
+        /** ID della direzione. */
+        public final int directionId;
+
+        /** Capolinea rappresentativo della direzione. */
+        public final String headsign;
+
+        /** Suggerimento formattato "NOME → CAPOLINEA [routeId|directionId]". */
+        public final String suggestion;
+
+        /** Nome breve normalizzato. */
+        final String key;
+
+        LineEntry(String routeId, String shortName, Integer routeType, int directionId, String headsign) {
+            this.routeId = routeId;
+            this.shortName = shortName;
+            this.routeType = routeType;
+            this.directionId = directionId;
+            this.headsign = headsign;
+            this.suggestion = shortName + " → " + headsign + " [" + routeId + "|" + directionId + "]";
+            this.key = GTFSStopSearchIndex.normalize(shortName);
+        }
+    }
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int MIN_RESULTS = 10;                                          // Sotto questa soglia si aggiunge la ricerca approssimata.
+    private static final Comparator<LineEntry> ORDER = Comparator.<LineEntry>comparingInt(e -> e.key.length())
+            .thenComparing(e -> e.key)
+            .thenComparing(e -> e.routeId)
+            .thenComparingInt(e -> e.directionId);                                      // Nomi più corti prima, poi alfabetico.
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final List<LineEntry> entries;                                              // Voci ordinate per nome breve.
+    private final Map<String, List<LineEntry>> entriesBySubstring;                      // Sottostringa → voci ordinate per pertinenza.
+    private final Map<String, List<String>> suggestionsBySubstring;                     // Sottostringa → suggerimenti già formattati.
+    private final GTFSFuzzyMatcher<LineEntry> fuzzyMatcher;                             // Nome breve o parola del capolinea → voci.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     * <p>
+     * Scorre una sola volta tutte le corse di ogni linea per ricavare i capolinea per direzione.
+     * </p>
+     *
+     * @param staticIndexer indicizzatore statico già costruito
+     */
+    public GTFSLineCatalogue(GTFSStaticIndexer staticIndexer) {
+        List<LineEntry> all = new ArrayList<>();
+        for (String routeId : staticIndexer.getAllRouteIds()) {
+            Route route = staticIndexer.getRouteById(routeId);
+            if (route == null || route.getRouteShortName() == null) continue;
+
+            Map<Integer, Map<String, Integer>> headsignCounts = new TreeMap<>();        // Direzione → capolinea → numero di corse.
+            for (Trip trip : staticIndexer.getTripsByRoute(routeId)) {
+                if (trip.getTripHeadsign() == null) continue;
+                int directionId = trip.getDirectionId() != null ? trip.getDirectionId() : 0;    // direction_id è facoltativo: senza, una sola direzione.
+                headsignCounts.computeIfAbsent(directionId, _ -> new LinkedHashMap<>())
+                        .merge(trip.getTripHeadsign(), 1, Integer::sum);
+            }
+
+            for (Map.Entry<Integer, Map<String, Integer>> dir : headsignCounts.entrySet()) {
+                String headsign = Collections.max(dir.getValue().entrySet(), Map.Entry.comparingByValue()).getKey();
+                all.add(new LineEntry(route.getRouteId(), route.getRouteShortName(), route.getRouteType(),
+                        dir.getKey(), headsign));
+            }
+        }
+        all.sort(ORDER);
+        this.entries = List.copyOf(all);
+
+        // Ogni sottostringa del nome breve punta alle voci che la contengono.
+        Map<String, List<LineEntry>> exact = new HashMap<>();
+        Map<String, List<LineEntry>> prefix = new HashMap<>();
+        Map<String, List<LineEntry>> contains = new HashMap<>();
+        for (LineEntry entry : entries) {
+            Set<String> seen = new HashSet<>();
+            for (int from = 0; from < entry.key.length(); from++) {
+                for (int to = from + 1; to <= entry.key.length(); to++) {
+                    String sub = entry.key.substring(from, to);
+                    if (!seen.add(sub)) continue;
+                    Map<String, List<LineEntry>> bucket =
+                            sub.length() == entry.key.length() ? exact : from == 0 ? prefix : contains;
+                    bucket.computeIfAbsent(sub, _ -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+
+        Set<String> keys = new HashSet<>(exact.keySet());
+        keys.addAll(prefix.keySet());
+        keys.addAll(contains.keySet());
+        Map<String, List<LineEntry>> byEntries = new HashMap<>(keys.size() * 2);
+        Map<String, List<String>> bySuggestions = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            List<LineEntry> ranked = new ArrayList<>();
+            ranked.addAll(exact.getOrDefault(key, List.of()));
+            ranked.addAll(prefix.getOrDefault(key, List.of()));
+            ranked.addAll(contains.getOrDefault(key, List.of()));
+            byEntries.put(key, List.copyOf(ranked));
+            bySuggestions.put(key, ranked.stream().map(e -> e.suggestion).toList());
+        }
+        this.entriesBySubstring = byEntries;
+        this.suggestionsBySubstring = bySuggestions;
+
+        // Vocabolario della ricerca approssimata: nomi brevi e parole dei capolinea.
+        Map<String, Set<LineEntry>> entriesByTerm = new HashMap<>();
+        for (LineEntry entry : entries) {
+            entriesByTerm.computeIfAbsent(entry.key, _ -> new LinkedHashSet<>()).add(entry);
+            for (String word : GTFSStopSearchIndex.normalize(entry.headsign).split(" ")) {
+                if (GTFSFuzzyMatcher.maxDistanceFor(word) > 0) {
+                    entriesByTerm.computeIfAbsent(word, _ -> new LinkedHashSet<>()).add(entry);
+                }
+            }
+        }
+        this.fuzzyMatcher = new GTFSFuzzyMatcher<>(entriesByTerm);
+    }
+
+    // RICERCA ---------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce le linee il cui nome breve contiene la query, ordinate per pertinenza.
+     *
+     * @param query testo digitato dall'utente
+     * @return      lista immutabile di voci
+     */
+    public List<LineEntry> search(String query) {
+        return entriesBySubstring.getOrDefault(GTFSStopSearchIndex.normalize(query), List.of());
+    }
+
+    /**
+     * Restituisce i suggerimenti già formattati per la query, ordinati per pertinenza.
+     *
+     * @param query testo digitato dall'utente
+     * @return      lista immutabile di suggerimenti
+     */
+    public List<String> getSuggestions(String query) {
+        String q = GTFSStopSearchIndex.normalize(query);
+        List<String> exact = suggestionsBySubstring.getOrDefault(q, List.of());
+        if (exact.size() >= MIN_RESULTS || GTFSFuzzyMatcher.maxDistanceFor(q) == 0) return exact;  // Percorso veloce.
+
+        List<LineEntry> fuzzy = fuzzySearch(q);
+        if (fuzzy.isEmpty()) return exact;
+        List<String> result = new ArrayList<>(exact);
+        Set<String> seen = new HashSet<>(exact);
+        for (LineEntry entry : fuzzy) {
+            if (seen.add(entry.suggestion)) result.add(entry.suggestion);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Cerca le linee tollerando errori di battitura: ogni parola della query deve corrispondere,
+     * entro la distanza consentita, al nome breve o a una parola del capolinea.
+     *
+     * @param q query normalizzata
+     * @return  voci ordinate per somma delle distanze
+     */
+    private List<LineEntry> fuzzySearch(String q) {
+        Map<LineEntry, Integer> totalDistance = null;
+        for (String word : q.split(" ")) {
+            Map<LineEntry, Integer> distances = new HashMap<>();
+            for (GTFSFuzzyMatcher.Match<LineEntry> match : fuzzyMatcher.search(word, GTFSFuzzyMatcher.maxDistanceFor(word))) {
+                for (LineEntry entry : match.items) distances.merge(entry, match.distance, Math::min);
+            }
+            if (totalDistance != null) {
+                Map<LineEntry, Integer> previous = totalDistance;
+                distances.keySet().retainAll(previous.keySet());
+                distances.replaceAll((entry, d) -> d + previous.get(entry));
+            }
+            totalDistance = distances;
+            if (totalDistance.isEmpty()) return List.of();
+        }
+
+        Map<LineEntry, Integer> distanceByEntry = totalDistance;
+        return distanceByEntry.keySet().stream()
+                .sorted(Comparator.<LineEntry>comparingInt(distanceByEntry::get).thenComparing(ORDER))
+                .toList();
+    }
+
+    /**
+     * Restituisce tutte le voci del catalogo, ordinate per nome breve.
+     *
+     * @return lista immutabile di voci
+     */
+    public List<LineEntry> getAllEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,409 @@
+package operator;
+
+// Model.
+import model.TripState;
+
+// Altre classi.
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Vista materializzata delle prossime partenze per ogni fermata.
+ * <p>
+ * Per ogni fermata mantiene una lista immutabile delle partenze dei prossimi minuti (orario
+ * programmato ed eventuale previsione realtime), leggibile in O(1) da qualsiasi thread.
+ * La lista copre una finestra di tempo, non un numero di partenze: anche una fermata molto servita
+ * ha tutte le partenze dell'ora richiesta dal pannello della fermata.
+ * La vista viene mantenuta in modo incrementale:
+ * <ul>
+ *     <li>ogni minuto vengono scartate le partenze passate e aggiunte quelle che entrano
+ *     nella finestra, leggendo dall'indice delle partenze per fermata di {@link GTFSTimetableIndex}</li>
+ *     <li>ad ogni aggiornamento realtime vengono aggiornate solo le fermate servite dalle corse modificate</li>
+ * </ul>
+ * Una partenza resta nella lista finché non è passato il suo orario effettivo (previsto se disponibile,
+ * altrimenti programmato). Una corsa già scartata perché in ritardo senza previsione torna nella lista
+ * quando arriva una previsione ancora futura.
+ * Vengono considerate sia le corse del giorno di servizio corrente sia quelle del giorno
+ * precedente che proseguono dopo la mezzanotte (orari oltre le 24).
+ * Le corse soppresse secondo lo stato consolidato ({@link TripState}) non compaiono nelle liste
+ * e tornano, se il loro orario non è passato, quando la soppressione viene revocata.
+ * </p>
+ */
+public final class GTFSNextDeparturesView {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    /** Finestra predefinita delle partenze mantenute per fermata (minuti): l'ora del pannello più un margine. */
+    public static final int DEFAULT_HORIZON_MINUTES = 90;
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");                        // Fuso orario del feed.
+    private static final long GRACE_SEC = 60;                                           // Una partenza resta visibile per un minuto.
+
+    // NESTED TYPES ----------------------------------------------------------------------------------------------------
+    /**
+     * Classe che rappresenta una partenza da una fermata.
+     */
+    public static final class Departure {
+
+        /** Identificatore della corsa. */
+        public final String tripId;
+
+        /** Identificatore della fermata. */
+        public final String stopId;
+
+        /** Orario programmato di arrivo in fermata (epoch second). */
+        public final long scheduledEpochSec;
+
+        /** Orario previsto dal realtime (epoch second), -1 se non disponibile. */
+        public final long predictedEpochSec;
+
+        /**
+         * Costruttore.
+         *
+         * @param tripId            identificatore della corsa
+         * @param stopId            identificatore della fermata
+         * @param scheduledEpochSec orario programmato (epoch second)
+         * @param predictedEpochSec orario previsto (epoch second), -1 se non disponibile
+         */
+        public Departure(String tripId, String stopId, long scheduledEpochSec, long predictedEpochSec) {
+            this.tripId = tripId;
+            this.stopId = stopId;
+            this.scheduledEpochSec = scheduledEpochSec;
+            this.predictedEpochSec = predictedEpochSec;
+        }
+
+        /** @return true se è disponibile una previsione realtime */
+        public boolean hasPrediction() { return predictedEpochSec > 0; }
+
+        /** @return orario previsto se disponibile, altrimenti quello programmato */
+        public long getEffectiveEpochSec() { return hasPrediction() ? predictedEpochSec : scheduledEpochSec; }
+    }
+
+    /**
+     * Giorno di servizio con il relativo cursore per fermata nell'indice delle partenze.
+     */
+    private static final class ServiceDay {
+        final LocalDate date;
+        final long midnightEpochSec;
+        final boolean[] activeTrips;
+        final int[] cursor;                                                             // Prossima partenza non ancora inserita, per fermata.
+
+        ServiceDay(LocalDate date, long midnightEpochSec, boolean[] activeTrips, int[] cursor) {
+            this.date = date;
+            this.midnightEpochSec = midnightEpochSec;
+            this.activeTrips = activeTrips;
+            this.cursor = cursor;
+        }
+    }
+
+    // DIPENDENZE ------------------------------------------------------------------------------------------------------
+    private final GTFSTimetableIndex timetable;
+    private final GTFSRealtimeIndexer realtimeIndexer;
+    private final long horizonSec;                                                      // Ampiezza della finestra delle partenze.
+
+    // STATO -----------------------------------------------------------------------------------------------------------
+    private final AtomicReferenceArray<List<Departure>> boards;                         // Fermata -> prossime partenze (immutabile).
+    private ServiceDay yesterday;                                                       // Protetti dal lock della vista.
+    private ServiceDay today;
+    private long filledUntil;                                                           // Le partenze fino a questo istante sono già state lette dai cursori.
+    private final ScheduledExecutorService ticker;
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     * <p>
+     * Costruisce subito la vista per l'istante corrente, si registra sull'indicizzatore
+     * realtime per le corse modificate e avvia l'avanzamento ad ogni minuto.
+     * </p>
+     *
+     * @param timetable       indice compatto dell'orario
+     * @param realtimeIndexer indicizzatore realtime
+     * @param horizonMinutes  finestra delle partenze mantenute per fermata (minuti)
+     */
+    public GTFSNextDeparturesView(GTFSTimetableIndex timetable, GTFSRealtimeIndexer realtimeIndexer, int horizonMinutes) {
+        this.timetable = timetable;
+        this.realtimeIndexer = realtimeIndexer;
+        this.horizonSec = horizonMinutes * 60L;
+        this.boards = new AtomicReferenceArray<>(timetable.getStopCount());
+        for (int s = 0; s < timetable.getStopCount(); s++) boards.set(s, Collections.emptyList());
+
+        advance(System.currentTimeMillis() / 1000L);
+        realtimeIndexer.addIndexListener("next-departures", event -> {
+            if (!event.getChangedTripIds().isEmpty()) patchTrips(event.getChangedTripIds());
+        });
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "GTFSNextDeparturesView-Ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        long delayMs = 60_000L - System.currentTimeMillis() % 60_000L;                  // Allinea l'avanzamento all'inizio del minuto.
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                advance(System.currentTimeMillis() / 1000L);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, delayMs, 60_000L, TimeUnit.MILLISECONDS);
+    }
+
+    // LETTURA ---------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce le prossime partenze di una fermata, ordinate per orario effettivo.
+     *
+     * @param stopId ID della fermata
+     * @return       lista immutabile di {@link Departure} (vuota se la fermata non è presente)
+     */
+    public List<Departure> getDepartures(String stopId) {
+        int s = timetable.getStopIndex(stopId);
+        return s < 0 ? Collections.emptyList() : boards.get(s);
+    }
+
+    /**
+     * Restituisce le prossime partenze di più fermate (ad esempio quelle di agenzie diverse in un nodo di
+     * interscambio) in un'unica lista ordinata per orario effettivo.
+     * <p>
+     * Le liste delle fermate sono già ordinate: vengono fuse con un merge a k vie, tenendo in una coda
+     * di priorità la prossima partenza di ciascuna lista, in O(n log k) per n partenze e k fermate.
+     * A parità di orario precede la fermata indicata prima.
+     * </p>
+     *
+     * @param stopIds ID delle fermate
+     * @return        lista immutabile di {@link Departure} (vuota se nessuna fermata è presente)
+     */
+    public List<Departure> getMergedDepartures(List<String> stopIds) {
+        List<List<Departure>> lists = new ArrayList<>(stopIds.size());
+        int total = 0;
+        for (String stopId : stopIds) {
+            List<Departure> board = getDepartures(stopId);                              // Ogni lista è letta una sola volta.
+            lists.add(board);
+            total += board.size();
+        }
+
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, lists.size()),   // {lista, posizione} della prossima partenza.
+                Comparator.<int[]>comparingLong(h -> lists.get(h[0]).get(h[1]).getEffectiveEpochSec()).thenComparingInt(h -> h[0]));
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) heads.add(new int[]{ i, 0 });
+        }
+        List<Departure> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<Departure> list = lists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) heads.add(head);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    // ARRESTO ---------------------------------------------------------------------------------------------------------
+    /**
+     * Arresta l'avanzamento periodico della vista.
+     */
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    // AVANZAMENTO PERIODICO -------------------------------------------------------------------------------------------
+    /**
+     * Porta la vista all'istante indicato: scarta le partenze passate e completa le liste fino alla fine della finestra.
+     *
+     * @param nowEpochSec istante corrente (epoch second)
+     */
+    synchronized void advance(long nowEpochSec) {
+        LocalDate date = Instant.ofEpochSecond(nowEpochSec).atZone(ZONE).toLocalDate();
+        if (today == null || !today.date.equals(date)) rollServiceDays(date, nowEpochSec);
+        filledUntil = Math.max(filledUntil, nowEpochSec + horizonSec);
+
+        GTFSRealtimeSnapshot realtime = realtimeIndexer.getSnapshot();                  // Stesse previsioni per tutte le fermate.
+        for (int s = 0; s < boards.length(); s++) {
+            List<Departure> current = boards.get(s);
+            List<Departure> updated = refill(s, current, nowEpochSec, current, realtime);
+            if (updated != current) boards.set(s, updated);
+        }
+    }
+
+    /**
+     * Aggiorna i giorni di servizio al cambio di data.
+     * <p>
+     * Se il nuovo giorno segue quello corrente, i cursori del giorno corrente diventano quelli
+     * del giorno precedente e le liste restano valide; altrimenti la vista viene ricostruita.
+     * </p>
+     */
+    private void rollServiceDays(LocalDate date, long nowEpochSec) {
+        if (today != null && today.date.plusDays(1).equals(date)) {
+            yesterday = today;
+        } else {
+            yesterday = newServiceDay(date.minusDays(1), nowEpochSec);
+            for (int s = 0; s < boards.length(); s++) boards.set(s, Collections.emptyList());
+        }
+        today = newServiceDay(date, nowEpochSec);
+    }
+
+    private ServiceDay newServiceDay(LocalDate date, long nowEpochSec) {
+        long midnight = date.atStartOfDay(ZONE).toEpochSecond();
+        int fromSec = (int) Math.max(0, nowEpochSec - GRACE_SEC - midnight);
+        int[] cursor = new int[timetable.getStopCount()];
+        for (int s = 0; s < cursor.length; s++) cursor[s] = timetable.firstStopDepartureAtOrAfter(s, fromSec);
+        return new ServiceDay(date, midnight, timetable.getActiveTrips(date), cursor);
+    }
+
+    // AGGIORNAMENTO REALTIME ------------------------------------------------------------------------------------------
+    /**
+     * Aggiorna le previsioni delle sole fermate servite dalle corse modificate.
+     * <p>
+     * Le partenze già lette dai cursori ma non più nella lista (ad esempio una corsa in ritardo scartata
+     * all'orario programmato, prima che arrivasse la previsione, o una corsa la cui soppressione è stata revocata)
+     * vengono aggiunte di nuovo se il loro orario effettivo non è ancora passato.
+     * </p>
+     *
+     * @param tripIds ID delle corse le cui previsioni sono cambiate
+     */
+    synchronized void patchTrips(Set<String> tripIds) {
+        patchTrips(tripIds, System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * Come {@link #patchTrips(Set)}, all'istante indicato.
+     */
+    synchronized void patchTrips(Set<String> tripIds, long now) {
+        if (today == null) return;
+        now = Math.max(now, filledUntil - horizonSec);                                 // La vista non torna prima dell'ultimo avanzamento.
+        GTFSRealtimeSnapshot realtime = realtimeIndexer.getSnapshot();                  // Snapshot che contiene già le modifiche.
+
+        Map<Integer, List<Departure>> late = new HashMap<>();                           // Fermata -> partenze da aggiungere di nuovo.
+        for (String tripId : tripIds) {
+            int t = timetable.getTripIndex(tripId);
+            if (t < 0) continue;                                                        // Corse non presenti nell'orario statico.
+            boolean cancelled = isCancelled(realtime, tripId);
+            for (int e = timetable.getTripFirstEvent(t); e < timetable.getTripEndEvent(t); e++) {
+                int s = timetable.getEventStop(e);
+                if (s < 0) continue;
+                late.computeIfAbsent(s, k -> new ArrayList<>());
+                String stopId = timetable.getStopId(s);
+                if (cancelled) continue;                                                // Soppressa: resta fuori dalla lista.
+                long predicted = realtime.getPredictedArrivalEpoch(tripId, stopId);
+                if (predicted > 0 && predicted < now - GRACE_SEC) continue;             // Previsione già passata: non torna nella lista.
+                long reference = predicted > 0 ? predicted : now;
+                long scheduled = -1;                                                    // Orario del giorno di servizio più vicino alla previsione o, senza, all'istante corrente.
+                for (ServiceDay day : new ServiceDay[]{ yesterday, today }) {
+                    if (!day.activeTrips[t] || day.midnightEpochSec + timetable.getEventDeparture(e) > filledUntil) continue;  // Non ancora letta: la aggiunge il cursore.
+                    long candidate = day.midnightEpochSec + timetable.getEventArrival(e);
+                    if (scheduled < 0 || Math.abs(reference - candidate) < Math.abs(reference - scheduled)) scheduled = candidate;
+                }
+                if (scheduled >= 0) late.get(s).add(new Departure(tripId, stopId, scheduled, predicted));
+            }
+        }
+
+        for (Map.Entry<Integer, List<Departure>> en : late.entrySet()) {
+            int s = en.getKey();
+            List<Departure> current = boards.get(s);
+            List<Departure> patched = new ArrayList<>(current.size() + en.getValue().size());
+            for (Departure d : current) {
+                patched.add(tripIds.contains(d.tripId)
+                        ? new Departure(d.tripId, d.stopId, d.scheduledEpochSec,
+                                        realtime.getPredictedArrivalEpoch(d.tripId, d.stopId))
+                        : d);
+            }
+            for (Departure d : en.getValue()) {
+                if (!contains(current, d)) patched.add(d);                              // Corsa in ritardo scartata in precedenza.
+            }
+            boards.set(s, refill(s, patched, now, null, realtime));
+        }
+    }
+
+    /**
+     * Indica se la lista contiene già la partenza della stessa corsa allo stesso orario programmato.
+     */
+    private static boolean contains(List<Departure> board, Departure d) {
+        for (Departure other : board) {
+            if (other.scheduledEpochSec == d.scheduledEpochSec && other.tripId.equals(d.tripId)) return true;
+        }
+        return false;
+    }
+
+    // COMPLETAMENTO DELLE LISTE ---------------------------------------------------------------------------------------
+    /**
+     * Scarta le partenze passate o delle corse soppresse e aggiunge le successive fino alla fine della finestra.
+     *
+     * @param original lista da restituire invariata se non cambia nulla (null per forzare la copia)
+     * @param realtime snapshot realtime da cui leggere le previsioni
+     * @return         lista immutabile ordinata per orario effettivo
+     */
+    private List<Departure> refill(int stop, List<Departure> entries, long now, List<Departure> original,
+                                   GTFSRealtimeSnapshot realtime) {
+        List<Departure> kept = new ArrayList<>(entries.size());
+        for (Departure d : entries) {
+            if (d.getEffectiveEpochSec() >= now - GRACE_SEC                            // Resta finché l'orario effettivo non è passato...
+                    && !isCancelled(realtime, d.tripId)) kept.add(d);                   // ...e la corsa non è soppressa.
+        }
+        boolean changed = kept.size() != entries.size();
+
+        while (true) {
+            Departure next = pollNext(stop, now, realtime);
+            if (next == null) break;
+            kept.add(next);
+            changed = true;
+        }
+
+        if (!changed && original != null) return original;
+        kept.sort(Comparator.comparingLong(Departure::getEffectiveEpochSec));
+        return Collections.unmodifiableList(kept);
+    }
+
+    /**
+     * Estrae la prossima partenza programmata della fermata unendo i due giorni di servizio.
+     * Le partenze oltre la fine della finestra restano nei cursori.
+     *
+     * @return prossima partenza, oppure null se non ce ne sono altre nella finestra
+     */
+    private Departure pollNext(int stop, long now, GTFSRealtimeSnapshot realtime) {
+        while (true) {
+            int eventYesterday = head(yesterday, stop);
+            int eventToday = head(today, stop);
+            if (eventYesterday < 0 && eventToday < 0) return null;
+
+            ServiceDay best;
+            if (eventYesterday < 0) best = today;
+            else if (eventToday < 0) best = yesterday;
+            else best = yesterday.midnightEpochSec + timetable.getEventDeparture(eventYesterday)
+                    <= today.midnightEpochSec + timetable.getEventDeparture(eventToday) ? yesterday : today;
+
+            int event = timetable.getStopDepartureEvent(best.cursor[stop]);
+            if (best.midnightEpochSec + timetable.getEventDeparture(event) > filledUntil) return null;    // Oltre la finestra.
+            best.cursor[stop]++;
+            String tripId = timetable.getTripId(timetable.getEventTrip(event));
+            String stopId = timetable.getStopId(stop);
+            long scheduled = best.midnightEpochSec + timetable.getEventArrival(event);
+            Departure d = new Departure(tripId, stopId, scheduled,
+                    realtime.getPredictedArrivalEpoch(tripId, stopId));
+            if (d.getEffectiveEpochSec() >= now - GRACE_SEC                            // Corse in anticipo già passate o soppresse: si salta.
+                    && !isCancelled(realtime, tripId)) return d;
+        }
+    }
+
+    /**
+     * Indica se lo stato consolidato della corsa nello snapshot la segna come soppressa.
+     */
+    private static boolean isCancelled(GTFSRealtimeSnapshot realtime, String tripId) {
+        TripState state = realtime.getTripState(tripId);
+        return state != null && state.isCancelled();
+    }
+
+    /**
+     * Restituisce il primo evento attivo dal cursore del giorno, avanzando oltre le corse non attive.
+     */
+    private int head(ServiceDay day, int stop) {
+        int end = timetable.getStopDeparturesEnd(stop);
+        while (day.cursor[stop] < end) {
+            int event = timetable.getStopDepartureEvent(day.cursor[stop]);
+            if (day.activeTrips[timetable.getEventTrip(event)]) return event;
+            day.cursor[stop]++;
+        }
+        return -1;
+    }
+}
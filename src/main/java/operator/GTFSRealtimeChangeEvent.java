@@ -0,0 +1,264 @@
+package operator;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Insieme delle modifiche prodotte dall'applicazione di un feed realtime.
+ * <p>
+ * Ogni feed viene confrontato con lo stato precedente corsa per corsa, veicolo per veicolo e avviso per avviso:
+ * l'evento contiene solo le differenze, ciascuna con la linea e le fermate interessate,
+ * così che i listener possano filtrare e ricalcolare solo ciò che li riguarda.
+ * Ogni evento ha una versione crescente; più eventi non ancora consegnati a un listener lento
+ * vengono fusi in uno solo con la versione più recente (vedi {@link GTFSRealtimeDispatcher}).
+ * L'oggetto è immutabile.
+ * </p>
+ */
+public final class GTFSRealtimeChangeEvent {
+
+    // TIPO DI MODIFICA ------------------------------------------------------------------------------------------------
+    /**
+     * Tipo di modifica.
+     */
+    public enum Type {
+        /** Nuova corsa con previsioni nel feed. */
+        TRIP_ADDED,
+        /** Previsioni di una corsa modificate (ritardo cambiato). */
+        TRIP_DELAY_CHANGED,
+        /** Corsa soppressa (schedule_relationship = CANCELED). */
+        TRIP_CANCELLED,
+        /** Corsa non più presente nel feed. */
+        TRIP_REMOVED,
+        /** Nuovo veicolo nel feed. */
+        VEHICLE_ADDED,
+        /** Veicolo con posizione cambiata. */
+        VEHICLE_MOVED,
+        /** Veicolo non più presente nel feed. */
+        VEHICLE_REMOVED,
+        /** Avviso di servizio nuovo, modificato o rimosso: {@code tripId} contiene l'ID dell'avviso. */
+        ALERT_CHANGED
+    }
+
+    // SINGOLA MODIFICA ------------------------------------------------------------------------------------------------
+    /**
+     * Modifica relativa a una singola corsa, al veicolo che la effettua o a un avviso di servizio.
+     * Un avviso che cita più linee produce una modifica per linea.
+     */
+    public static final class Change {
+
+        /** Tipo di modifica. */
+        public final Type type;
+
+        /** ID della corsa (dell'avviso per {@link Type#ALERT_CHANGED}). */
+        public final String tripId;
+
+        /** ID della linea (null se la corsa non è nei dati statici). */
+        public final String routeId;
+
+        /** ID delle fermate le cui previsioni sono cambiate. */
+        public final Set<String> stopIds;
+
+        /**
+         * Costruttore.
+         *
+         * @param type    tipo di modifica
+         * @param tripId  ID della corsa
+         * @param routeId ID della linea, eventualmente null
+         * @param stopIds fermate interessate
+         */
+        public Change(Type type, String tripId, String routeId, Set<String> stopIds) {
+            this.type = type;
+            this.tripId = tripId;
+            this.routeId = routeId;
+            this.stopIds = Set.copyOf(stopIds);
+        }
+
+        /**
+         * Indica se la modifica riguarda le previsioni di una corsa (e non la posizione di un veicolo).
+         *
+         * @return true per le modifiche di tipo TRIP_*
+         */
+        public boolean isTripChange() {
+            return type.ordinal() <= Type.TRIP_REMOVED.ordinal();
+        }
+
+        /**
+         * Indica se la modifica riguarda un avviso di servizio.
+         *
+         * @return true per le modifiche di tipo ALERT_CHANGED
+         */
+        public boolean isAlertChange() {
+            return type == Type.ALERT_CHANGED;
+        }
+    }
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final List<Change> changes;                                                 // Modifiche del feed.
+    private final Set<String> routeIds;                                                 // Linee interessate.
+    private final Set<String> stopIds;                                                  // Fermate interessate.
+    private final Set<String> changedTripIds;                                           // Corse con previsioni modificate.
+    private final long version;                                                         // Versione dello stato realtime prodotto.
+    private final GTFSRealtimeSnapshot snapshot;                                        // Snapshot pubblicato dalle modifiche (eventualmente null).
+    private final long feedTimestamp;                                                   // Timestamp dell'header del feed (epoch second).
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param changes modifiche prodotte dal feed
+     */
+    public GTFSRealtimeChangeEvent(List<Change> changes) {
+        this(changes, 0L);
+    }
+
+    /**
+     * Costruttore con versione.
+     *
+     * @param changes modifiche prodotte dal feed
+     * @param version versione dello stato realtime dopo le modifiche
+     */
+    public GTFSRealtimeChangeEvent(List<Change> changes, long version) {
+        this(changes, version, null, 0L);
+    }
+
+    /**
+     * Costruttore con lo snapshot prodotto e il timestamp del feed.
+     *
+     * @param changes       modifiche prodotte dal feed
+     * @param snapshot      snapshot pubblicato dopo le modifiche
+     * @param feedTimestamp timestamp dell'header del feed (epoch second)
+     */
+    public GTFSRealtimeChangeEvent(List<Change> changes, GTFSRealtimeSnapshot snapshot, long feedTimestamp) {
+        this(changes, snapshot.getVersion(), snapshot, feedTimestamp);
+    }
+
+    private GTFSRealtimeChangeEvent(List<Change> changes, long version, GTFSRealtimeSnapshot snapshot, long feedTimestamp) {
+        this.version = version;
+        this.snapshot = snapshot;
+        this.feedTimestamp = feedTimestamp;
+        this.changes = List.copyOf(changes);
+        Set<String> routes = new HashSet<>();
+        Set<String> stops = new HashSet<>();
+        Set<String> trips = new HashSet<>();
+        for (Change c : this.changes) {
+            if (c.routeId != null) routes.add(c.routeId);
+            stops.addAll(c.stopIds);
+            if (c.isTripChange()) trips.add(c.tripId);
+        }
+        this.routeIds = Collections.unmodifiableSet(routes);
+        this.stopIds = Collections.unmodifiableSet(stops);
+        this.changedTripIds = Collections.unmodifiableSet(trips);
+    }
+
+    // GETTER ----------------------------------------------------------------------------------------------------------
+    /** @return lista immutabile delle modifiche */
+    public List<Change> getChanges() { return changes; }
+
+    /** @return ID delle linee interessate */
+    public Set<String> getRouteIds() { return routeIds; }
+
+    /** @return ID delle fermate interessate */
+    public Set<String> getStopIds() { return stopIds; }
+
+    /** @return ID delle corse con previsioni aggiunte, modificate, soppresse o rimosse */
+    public Set<String> getChangedTripIds() { return changedTripIds; }
+
+    /** @return true se il feed non ha prodotto modifiche */
+    public boolean isEmpty() { return changes.isEmpty(); }
+
+    /** @return versione dello stato realtime dopo le modifiche */
+    public long getVersion() { return version; }
+
+    /** @return snapshot pubblicato dopo le modifiche, con i valori di questa versione (null se non noto) */
+    public GTFSRealtimeSnapshot getSnapshot() { return snapshot; }
+
+    /** @return timestamp dell'header del feed che ha prodotto le modifiche (epoch second, 0 se non noto) */
+    public long getFeedTimestamp() { return feedTimestamp; }
+
+    // FUSIONE ---------------------------------------------------------------------------------------------------------
+    /**
+     * Fonde due eventi consecutivi in uno equivalente alla loro sequenza.
+     * <p>
+     * Per ogni corsa (e per ogni veicolo) resta la modifica più recente, con l'unione delle fermate interessate
+     * da entrambe: un listener che riceve solo l'evento fuso ricalcola comunque tutto ciò che è cambiato.
+     * </p>
+     *
+     * @param older evento precedente
+     * @param newer evento successivo
+     * @return      evento fuso, con la versione e lo snapshot del più recente
+     */
+    public static GTFSRealtimeChangeEvent coalesce(GTFSRealtimeChangeEvent older, GTFSRealtimeChangeEvent newer) {
+        Map<String, Change> byKey = new LinkedHashMap<>();
+        for (Change c : older.changes) byKey.put(keyOf(c), c);
+        for (Change c : newer.changes) byKey.merge(keyOf(c), c, GTFSRealtimeChangeEvent::mergeChanges);
+        GTFSRealtimeChangeEvent latest = newer.version >= older.version ? newer : older;
+        return new GTFSRealtimeChangeEvent(new ArrayList<>(byKey.values()), latest.version, latest.snapshot,
+                Math.max(older.feedTimestamp, newer.feedTimestamp));
+    }
+
+    private static String keyOf(Change c) {
+        if (c.isAlertChange()) return "A:" + c.tripId + "@" + c.routeId;
+        return (c.isTripChange() ? "T:" : "V:") + c.tripId;
+    }
+
+    private static Change mergeChanges(Change older, Change newer) {
+        if (older.stopIds.isEmpty() || newer.stopIds.containsAll(older.stopIds)) return newer;
+        Set<String> stops = new HashSet<>(older.stopIds);
+        stops.addAll(newer.stopIds);
+        return new Change(newer.type, newer.tripId, newer.routeId != null ? newer.routeId : older.routeId, stops);
+    }
+
+    // FILTRI ----------------------------------------------------------------------------------------------------------
+    /**
+     * Indica se l'evento riguarda una linea.
+     *
+     * @param routeId ID della linea (null restituisce false)
+     * @return        true se almeno una modifica riguarda la linea
+     */
+    public boolean affectsRoute(String routeId) {
+        return routeId != null && routeIds.contains(routeId);
+    }
+
+    /**
+     * Indica se l'evento riguarda una fermata.
+     *
+     * @param stopId ID della fermata (null restituisce false)
+     * @return       true se almeno una modifica riguarda la fermata
+     */
+    public boolean affectsStop(String stopId) {
+        return stopId != null && stopIds.contains(stopId);
+    }
+
+    /**
+     * Indica se l'evento riguarda almeno una delle linee indicate.
+     *
+     * @param ids ID delle linee
+     * @return    true se almeno una modifica riguarda una delle linee
+     */
+    public boolean affectsAnyRoute(Collection<String> ids) {
+        for (String id : ids) if (routeIds.contains(id)) return true;
+        return false;
+    }
+
+    /**
+     * Indica se l'evento riguarda almeno una delle fermate indicate.
+     *
+     * @param ids ID delle fermate
+     * @return    true se almeno una modifica riguarda una delle fermate
+     */
+    public boolean affectsAnyStop(Collection<String> ids) {
+        for (String id : ids) if (stopIds.contains(id)) return true;
+        return false;
+    }
+
+    /**
+     * Indica se l'evento contiene almeno una modifica di uno dei tipi indicati.
+     *
+     * @param types tipi cercati
+     * @return      true se presente almeno una modifica di quei tipi
+     */
+    public boolean hasAny(Set<Type> types) {
+        for (Change c : changes) if (types.contains(c.type)) return true;
+        return false;
+    }
+}
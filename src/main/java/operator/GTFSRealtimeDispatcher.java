@@ -0,0 +1,250 @@
+package operator;
+
+// Altre classi.
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consegna gli eventi realtime ai listener su un executor dedicato, fuori dal thread che applica i feed.
+ * <p>
+ * Ogni listener ha una propria casella con al massimo un evento in attesa: se ne arriva un altro prima
+ * della consegna, i due vengono fusi ({@link GTFSRealtimeChangeEvent#coalesce}) e il listener riceve
+ * un solo evento con la versione più recente. Un listener lento non rallenta quindi né l'applicazione
+ * dei feed né gli altri listener, e non accumula arretrato: la coda è limitata per costruzione
+ * e l'evento fuso contiene al più una modifica per corsa e una per veicolo.
+ * Ogni listener riceve gli eventi uno alla volta, nell'ordine delle versioni; i thread vengono creati
+ * su richiesta, al più uno per listener, così un listener bloccato non ritarda gli altri.
+ * </p>
+ * <p>
+ * Per ogni listener vengono raccolte statistiche di consegna ({@link ListenerStats}):
+ * eventi consegnati e fusi, errori, latenza tra pubblicazione e fine della consegna, durata del listener.
+ * </p>
+ */
+public class GTFSRealtimeDispatcher {
+
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSRealtimeDispatcher.class.getName());
+
+    // EXECUTOR --------------------------------------------------------------------------------------------------------
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();              // Numerazione dei thread.
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "GTFSRealtimeDispatcher-" + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;                                                                       // Esegue i listener senza bloccare chi applica i feed.
+    });
+
+    // CASELLE DEI LISTENER --------------------------------------------------------------------------------------------
+    private final CopyOnWriteArrayList<Mailbox> mailboxes = new CopyOnWriteArrayList<>();
+
+    // STATISTICHE DI UN LISTENER --------------------------------------------------------------------------------------
+    /**
+     * Statistiche di consegna di un listener, fotografate al momento della richiesta.
+     */
+    public static final class ListenerStats {
+
+        /** Nome del listener. */
+        public final String name;
+
+        /** Eventi consegnati. */
+        public final long delivered;
+
+        /** Eventi fusi con uno già in attesa invece di essere consegnati singolarmente. */
+        public final long coalesced;
+
+        /** Consegne terminate con un'eccezione. */
+        public final long errors;
+
+        /** Latenza media tra pubblicazione e fine della consegna, in millisecondi. */
+        public final double meanLatencyMs;
+
+        /** Latenza massima tra pubblicazione e fine della consegna, in millisecondi. */
+        public final double maxLatencyMs;
+
+        /** Durata media dell'esecuzione del listener, in millisecondi. */
+        public final double meanHandlingMs;
+
+        ListenerStats(String name, long delivered, long coalesced, long errors,
+                      double meanLatencyMs, double maxLatencyMs, double meanHandlingMs) {
+            this.name = name;
+            this.delivered = delivered;
+            this.coalesced = coalesced;
+            this.errors = errors;
+            this.meanLatencyMs = meanLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+            this.meanHandlingMs = meanHandlingMs;
+        }
+    }
+
+    // ISCRIZIONE ------------------------------------------------------------------------------------------------------
+    /**
+     * Iscrive un listener.
+     *
+     * @param name     nome del listener (per statistiche e log)
+     * @param filter   condizione sull'evento, valutata alla pubblicazione
+     * @param listener consumer dell'evento, eseguito sull'executor del dispatcher
+     * @param simple   true per i listener senza filtro registrati come Runnable
+     * @return         azione che annulla l'iscrizione (l'evento eventualmente in attesa viene scartato)
+     */
+    public Runnable subscribe(String name, Predicate<GTFSRealtimeChangeEvent> filter,
+                              Consumer<GTFSRealtimeChangeEvent> listener, boolean simple) {
+        Mailbox mailbox = new Mailbox(name, filter, listener, simple);
+        mailboxes.add(mailbox);
+        return () -> {
+            mailboxes.remove(mailbox);
+            mailbox.close();
+        };
+    }
+
+    /**
+     * Rimuove i listener registrati come Runnable; come per la singola iscrizione, gli eventi
+     * in attesa e le consegne già accodate vengono scartati.
+     */
+    public void unsubscribeSimple() {
+        for (Mailbox mailbox : mailboxes) {
+            if (!mailbox.simple) continue;
+            mailboxes.remove(mailbox);
+            mailbox.close();
+        }
+    }
+
+    /** @return numero di listener iscritti */
+    public int size() { return mailboxes.size(); }
+
+    // PUBBLICAZIONE ---------------------------------------------------------------------------------------------------
+    /**
+     * Pubblica un evento ai listener il cui filtro lo accetta, senza attendere la consegna.
+     *
+     * @param event evento da pubblicare
+     */
+    public void publish(GTFSRealtimeChangeEvent event) {
+        long now = System.nanoTime();
+        for (Mailbox mailbox : mailboxes) {
+            try {
+                if (mailbox.filter.test(event)) mailbox.offer(event, now);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Filtro del listener " + mailbox.name + " fallito: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // STATISTICHE -----------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce le statistiche di consegna di tutti i listener.
+     *
+     * @return lista di {@link ListenerStats}, nell'ordine di iscrizione
+     */
+    public List<ListenerStats> getStats() {
+        List<ListenerStats> stats = new ArrayList<>();
+        for (Mailbox mailbox : mailboxes) stats.add(mailbox.stats());
+        return stats;
+    }
+
+    // CASELLA DI UN LISTENER ------------------------------------------------------------------------------------------
+    /**
+     * Casella di un listener: al più un evento in attesa e al più una consegna in corso.
+     */
+    private final class Mailbox {
+        final String name;
+        final Predicate<GTFSRealtimeChangeEvent> filter;
+        final Consumer<GTFSRealtimeChangeEvent> listener;
+        final boolean simple;
+
+        // stato protetto dal lock della casella
+        private GTFSRealtimeChangeEvent pending;                                        // Evento in attesa (già fuso).
+        private long pendingSinceNanos;                                                 // Pubblicazione del più vecchio evento fuso.
+        private boolean draining;                                                       // Consegna pianificata o in corso.
+        private boolean closed;                                                         // Iscrizione annullata: nessuna altra consegna.
+        private long delivered, coalesced, errors;
+        private long totalLatencyNanos, maxLatencyNanos, totalHandlingNanos;
+
+        Mailbox(String name, Predicate<GTFSRealtimeChangeEvent> filter,
+                Consumer<GTFSRealtimeChangeEvent> listener, boolean simple) {
+            this.name = name;
+            this.filter = filter;
+            this.listener = listener;
+            this.simple = simple;
+        }
+
+        /**
+         * Mette in attesa l'evento, fondendolo con quello già presente, e pianifica la consegna se necessario.
+         */
+        void offer(GTFSRealtimeChangeEvent event, long nowNanos) {
+            boolean schedule;
+            synchronized (this) {
+                if (closed) return;
+                if (pending == null) {
+                    pending = event;
+                    pendingSinceNanos = nowNanos;
+                } else {
+                    pending = GTFSRealtimeChangeEvent.coalesce(pending, event);
+                    coalesced++;
+                }
+                schedule = !draining;
+                draining = true;
+            }
+            if (schedule) executor.execute(this::deliverOne);
+        }
+
+        /**
+         * Consegna l'evento in attesa e, se nel frattempo ne è arrivato un altro, ripianifica:
+         * un evento per volta, così i listener veloci non aspettano quelli lenti.
+         */
+        void deliverOne() {
+            GTFSRealtimeChangeEvent event;
+            long since;
+            synchronized (this) {
+                event = closed ? null : pending;
+                since = pendingSinceNanos;
+                pending = null;
+                if (event == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                listener.accept(event);
+            } catch (Exception ex) {
+                failed = true;
+                LOG.log(Level.WARNING, "Listener realtime " + name + " fallito: " + ex.getMessage(), ex);
+            }
+            long end = System.nanoTime();
+
+            boolean again;
+            synchronized (this) {
+                delivered++;
+                if (failed) errors++;
+                totalLatencyNanos += end - since;
+                maxLatencyNanos = Math.max(maxLatencyNanos, end - since);
+                totalHandlingNanos += end - start;
+                again = pending != null;
+                if (!again) draining = false;
+            }
+            if (again) executor.execute(this::deliverOne);
+        }
+
+        /**
+         * Annulla l'iscrizione: scarta l'evento in attesa e impedisce le consegne successive.
+         */
+        synchronized void close() {
+            closed = true;
+            pending = null;
+        }
+
+        synchronized ListenerStats stats() {
+            double n = Math.max(1, delivered);
+            return new ListenerStats(name, delivered, coalesced, errors,
+                    totalLatencyNanos / n / 1e6, maxLatencyNanos / 1e6, totalHandlingNanos / n / 1e6);
+        }
+    }
+}
@@ -4,41 +4,91 @@ package operator;
 import model.*;
 
 // Altre classi.
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 // Protobuf GTFS-realtime.
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 
 /**
  * Classe responsabile della costruzione dell'indice dei dati GTFS realtime in memoria.
  * <p>
- * Ricostruisce mappe temporanee e fa lo swap atomico delle reference volatile,
- * notifica listener registrati quando arrivano nuovi dati.
+ * Lo stato realtime è un {@link GTFSRealtimeSnapshot} immutabile, sostituito con un solo scambio atomico
+ * ad ogni feed: le letture non prendono lock e vedono sempre veicoli e previsioni dello stesso istante.
+ * Ogni feed viene confrontato con lo snapshot corrente corsa per corsa, veicolo per veicolo e avviso per avviso:
+ * le voci invariate vengono riusate e, per gli arrivi per fermata, solo le fermate toccate dalle corse
+ * cambiate vengono ricalcolate. Le differenze vengono pubblicate come {@link GTFSRealtimeChangeEvent},
+ * con linee e fermate interessate e la versione dello snapshot che le contiene, ai listener registrati.
+ * </p>
+ * <p>
+ * Gli indici derivati (ad esempio la vista delle prossime partenze) vengono aggiornati in linea,
+ * prima della pubblicazione; tutti gli altri listener ricevono gli eventi tramite un
+ * {@link GTFSRealtimeDispatcher}, su thread propri e con fusione degli eventi per i listener lenti,
+ * così il lavoro della UI non ritarda l'applicazione dei feed successivi.
+ * </p>
+ * <p>
+ * In una rete con più agenzie ogni feed realtime aggiorna solo la propria parte dello snapshot: l'indicizzatore
+ * ricorda, per spazio dei nomi ({@link GTFSFeed}), le corse, i veicoli e gli avvisi dell'ultimo feed applicato,
+ * e una corsa o un veicolo assente dal feed viene rimosso solo se apparteneva a quel feed.
+ * Gli ID dei feed diversi sono distinti dal prefisso, quindi le parti non si sovrappongono.
  * </p>
  */
 public class GTFSRealtimeIndexer {
 
-    // MAPPE TEMPORANEE (SWAP ATOMICO) ---------------------------------------------------------------------------------
-    private volatile ConcurrentMap<String, GTFSDataIndexer.VehiclePos> tripVehiclePositions = new ConcurrentHashMap<>();
-    private volatile ConcurrentMap<String, List<GTFSDataIndexer.PredictedArrival>> predictedArrivalsByStop = new ConcurrentHashMap<>();
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSRealtimeIndexer.class.getName());
+
+    // SNAPSHOT --------------------------------------------------------------------------------------------------------
+    private final AtomicReference<GTFSRealtimeSnapshot> snapshot = new AtomicReference<>(GTFSRealtimeSnapshot.EMPTY);    // Stato realtime corrente.
+    private final Object writeLock = new Object();                                      // Serializza la costruzione degli snapshot.
+
+    // PARTI DEI FEED (PROTETTE DA WRITELOCK) --------------------------------------------------------------------------
+    private final Map<String, Set<String>> tripsByFeed = new HashMap<>();              // Spazio dei nomi -> corse dell'ultimo feed applicato.
+    private final Map<String, Set<String>> vehiclesByFeed = new HashMap<>();           // Spazio dei nomi -> corse con veicolo.
+    private final Map<String, List<ServiceAlert>> alertsByFeed = new LinkedHashMap<>();  // Spazio dei nomi -> avvisi.
 
     // LISTENER --------------------------------------------------------------------------------------------------------
-    private final CopyOnWriteArrayList<Runnable> realtimeListeners = new CopyOnWriteArrayList<>();  // Lista di oggetti runnable.
+    private final CopyOnWriteArrayList<IndexListener> indexListeners = new CopyOnWriteArrayList<>();   // Indici derivati, aggiornati in linea.
+    private final GTFSRealtimeDispatcher dispatcher = new GTFSRealtimeDispatcher();    // Consegna gli eventi agli altri listener.
+
+    /**
+     * Listener di un indice derivato, con il nome usato nei log.
+     */
+    private static final class IndexListener {
+        final String name;
+        final Consumer<GTFSRealtimeChangeEvent> consumer;
+
+        IndexListener(String name, Consumer<GTFSRealtimeChangeEvent> consumer) {
+            this.name = name;
+            this.consumer = consumer;
+        }
+    }
 
     // RIFERIMENTI STATICI ---------------------------------------------------------------------------------------------
     private final GTFSStaticIndexer staticIndexer;
+    private final GTFSDelayPropagator delayPropagator;                                  // Espande i TripUpdate sulle fermate rimanenti.
+    private final GTFSVehicleMatcher vehicleMatcher;                                    // Associa le posizioni alla shape della corsa.
+    private final GTFSTripStateBuilder tripStateBuilder;                                // Costruisce lo stato consolidato delle corse.
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
      * Costruttore.
      *
      * @param staticIndexer riferimento all'indicizzatore statico GTFS
+     * @param timetable     indice compatto dell'orario, base della propagazione dei ritardi
      */
-    public GTFSRealtimeIndexer(GTFSStaticIndexer staticIndexer) {
+    public GTFSRealtimeIndexer(GTFSStaticIndexer staticIndexer, GTFSTimetableIndex timetable) {
         this.staticIndexer = staticIndexer;
+        this.delayPropagator = new GTFSDelayPropagator(timetable);
+        this.vehicleMatcher = new GTFSVehicleMatcher(staticIndexer);
+        this.tripStateBuilder = new GTFSTripStateBuilder(timetable);
     }
 
     // CLEAR LISTENER --------------------------------------------------------------------------------------------------
@@ -46,116 +96,691 @@ public class GTFSRealtimeIndexer {
      * Rimuove tutti i listener realtime registrati.
      */
     public void clearRealtimeListeners() {
-        realtimeListeners.clear();
+        dispatcher.unsubscribeSimple();
     }
 
     // CLEAR RISORSE ---------------------------------------------------------------------------------------------------
     /**
-     * Svuota tutte le mappe realtime per liberare memoria.
+     * Pubblica uno snapshot vuoto per liberare memoria; chi legge ancora il precedente non ne è toccato.
      */
     public void clear() {
-        tripVehiclePositions.clear();
-        predictedArrivalsByStop.clear();
+        synchronized (writeLock) {
+            snapshot.set(snapshot.get().cleared());
+            vehicleMatcher.clear();
+            tripsByFeed.clear();
+            vehiclesByFeed.clear();
+            alertsByFeed.clear();
+        }
     }
 
     // APPLICA I FEED REALTIME -----------------------------------------------------------------------------------------
     /**
-     * Applica gli aggiornamenti realtime dai feed GTFS.
+     * Applica insieme gli aggiornamenti realtime dai feed GTFS e notifica i listener una sola volta.
+     * <p>
+     * Un feed null svuota i dati corrispondenti.
+     * </p>
      *
      * @param tripUpdatesFeed      feed con aggiornamenti dei trip
      * @param vehiclePositionsFeed feed con posizioni dei veicoli
      */
     public void applyRealtimeUpdates(FeedMessage tripUpdatesFeed, FeedMessage vehiclePositionsFeed) {
         try {
-            // ----------------- trip id -> vehicle positions ----------------------------------------------------------
-            ConcurrentMap<String, GTFSDataIndexer.VehiclePos> newVehiclePos = new ConcurrentHashMap<>();                    // Mappa temporanea per le nuove posizioni.
-
-            if (vehiclePositionsFeed != null) {                                                                             // Se il feed delle posizioni non è nullo...
-                long headerTs = (vehiclePositionsFeed.hasHeader() && vehiclePositionsFeed.getHeader().hasTimestamp())       // ...Recupera il timestamp dall'header del feed, se presente...
-                        ? vehiclePositionsFeed.getHeader().getTimestamp() : (System.currentTimeMillis() / 1000L);           // ...Altrimenti utilizza l'orario corrente.
-
-                for (FeedEntity e : vehiclePositionsFeed.getEntityList()) {                                                 // Per ogni entità del feed...
-                    if (!e.hasVehicle()) continue;                                                                          // ...Ignora le entità senza informazioni di veicolo...
-                    com.google.transit.realtime.GtfsRealtime.VehiclePosition vp = e.getVehicle();                           // ...Altrimenti (se presenti) salva le informazioni di veicolo...
-                    if (!vp.hasTrip()) continue;                                                                            // ...Ignora le entità senza informazioni sulla corsa...
-                    String tripId = vp.getTrip().getTripId();                                                               // ...Altrimenti (se presenti) salva le informazioni sulla corsa...
-                    if (tripId == null || tripId.isEmpty()) continue;                                                       // ...Controlla che l'ID della corsa associata sia valido...
-                    if (!vp.hasPosition()) continue;                                                                        // ...Ignora le entità senza informazioni di posizione...
-
-                    double lat = vp.getPosition().getLatitude();                                                            // ...Recupera la latitudine del veicolo...
-                    double lon = vp.getPosition().getLongitude();                                                           // ...Recupera la longitudine del veicolo...
-                    long ts = headerTs;                                                                                     // ...Recupera la timestamp (data e ora) del veicolo...
-                    String vehId = vp.hasVehicle() ? vp.getVehicle().getId() : null;                                        // ...Recupera l'id del veicolo...
-
-                    Trip t = staticIndexer.getTripById(tripId);                                                             // ...Recupera la corsa associata tramite l'ID (staticIndexer)...
-                    String routeId = (t != null) ? t.getRouteId() : null;                                                   // ...Recupera l'ID della linea tramite la corsa...
-                    Integer routeType = null;                                                                               // ...Definsce la variabile del tipo di linea...
-                    if (routeId != null) {                                                                                  // ...Se l'ID della linea è valido...
-                        Route r = staticIndexer.getRouteById(routeId);                                                      // ...Recupera la linea associata tramite l'ID (staticIndexer)...
-                        if (r != null) routeType = r.getRouteType();                                                        // ...Recupera il tipo di linea...
-                    }
-                    newVehiclePos.put(tripId, new GTFSDataIndexer.VehiclePos(vehId, lat, lon, ts, routeId, routeType));     // ...Aggiunge (ID corsa: oggetto VehiclePos) alla mappa temporanea.
+            GTFSRealtimeChangeEvent vehicles = updateVehiclePositions("", vehiclePositionsFeed != null ? decode(vehiclePositionsFeed).getVehiclePositions() : null);
+            GTFSRealtimeChangeEvent trips = updateTripUpdates("", tripUpdatesFeed != null ? decode(tripUpdatesFeed).getTripUpdates() : null);
+            if (vehicles == null) notifyListeners(trips);
+            else if (trips == null) notifyListeners(vehicles);
+            else {
+                notifyIndexListeners(vehicles);                                                         // Gli indici vedono ogni versione...
+                notifyIndexListeners(trips);
+                dispatcher.publish(GTFSRealtimeChangeEvent.coalesce(vehicles, trips));                  // ...gli altri listener un solo evento per i due feed.
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Applica il solo feed degli aggiornamenti delle corse, lasciando invariate le posizioni dei veicoli.
+     * <p>
+     * Permette di applicare ciascun feed appena arriva, senza attendere l'altro.
+     * </p>
+     *
+     * @param tripUpdatesFeed feed con aggiornamenti dei trip
+     */
+    public void applyTripUpdates(FeedMessage tripUpdatesFeed) {
+        try {
+            applyTripUpdates(tripUpdatesFeed != null ? decode(tripUpdatesFeed).getTripUpdates() : null);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Applica gli aggiornamenti delle corse già decodificati da {@link GTFSRealtimeStreamDecoder}.
+     * <p>
+     * I buffer vengono letti solo durante la chiamata e possono essere riutilizzati subito dopo.
+     * </p>
+     *
+     * @param tripUpdates aggiornamenti delle corse (null per svuotare)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyTripUpdates(GTFSRealtimeStreamDecoder.TripUpdates tripUpdates) {
+        applyTripUpdates("", tripUpdates);
+    }
+
+    /**
+     * Applica gli aggiornamenti delle corse di un feed: le corse degli altri feed restano invariate.
+     *
+     * @param namespace   spazio dei nomi del feed (vuoto per il feed principale)
+     * @param tripUpdates aggiornamenti delle corse (null per svuotare la parte del feed)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyTripUpdates(String namespace, GTFSRealtimeStreamDecoder.TripUpdates tripUpdates) {
+        notifyListeners(updateTripUpdates(namespace, tripUpdates));                     // Gli errori arrivano al chiamante, che non considera il feed applicato.
+    }
+
+    /**
+     * Applica il solo feed delle posizioni dei veicoli, lasciando invariate le previsioni di arrivo.
+     *
+     * @param vehiclePositionsFeed feed con posizioni dei veicoli
+     */
+    public void applyVehiclePositions(FeedMessage vehiclePositionsFeed) {
+        try {
+            applyVehiclePositions(vehiclePositionsFeed != null ? decode(vehiclePositionsFeed).getVehiclePositions() : null);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Applica le posizioni dei veicoli già decodificate da {@link GTFSRealtimeStreamDecoder}.
+     *
+     * @param vehiclePositions posizioni dei veicoli (null per svuotare)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyVehiclePositions(GTFSRealtimeStreamDecoder.VehiclePositions vehiclePositions) {
+        applyVehiclePositions("", vehiclePositions);
+    }
+
+    /**
+     * Applica le posizioni dei veicoli di un feed: i veicoli degli altri feed restano invariati.
+     *
+     * @param namespace        spazio dei nomi del feed (vuoto per il feed principale)
+     * @param vehiclePositions posizioni dei veicoli (null per svuotare la parte del feed)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyVehiclePositions(String namespace, GTFSRealtimeStreamDecoder.VehiclePositions vehiclePositions) {
+        notifyListeners(updateVehiclePositions(namespace, vehiclePositions));           // Gli errori arrivano al chiamante, che non considera il feed applicato.
+    }
+
+    /**
+     * Applica gli avvisi di servizio già decodificati da {@link GTFSRealtimeStreamDecoder}, lasciando invariati
+     * veicoli e previsioni.
+     *
+     * @param alerts avvisi di servizio (null per svuotare)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyAlerts(GTFSRealtimeStreamDecoder.Alerts alerts) {
+        applyAlerts("", alerts);
+    }
+
+    /**
+     * Applica gli avvisi di servizio di un feed: gli avvisi degli altri feed restano invariati.
+     *
+     * @param namespace spazio dei nomi del feed (vuoto per il feed principale)
+     * @param alerts    avvisi di servizio (null per svuotare la parte del feed)
+     * @throws RuntimeException se l'applicazione fallisce; lo snapshot resta quello precedente
+     */
+    public void applyAlerts(String namespace, GTFSRealtimeStreamDecoder.Alerts alerts) {
+        notifyListeners(updateAlerts(namespace, alerts));                               // Gli errori arrivano al chiamante, che non considera il feed applicato.
+    }
+
+    /**
+     * Decodifica un FeedMessage già costruito con un decoder temporaneo.
+     */
+    private static GTFSRealtimeStreamDecoder decode(FeedMessage feed) throws IOException {
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(feed.toByteArray());
+        return decoder;
+    }
+
+    // AGGIORNA LE POSIZIONI DEI VEICOLI -------------------------------------------------------------------------------
+    /**
+     * Confronta le posizioni del feed con quelle dello snapshot corrente e pubblica il nuovo snapshot.
+     * <p>
+     * Ogni posizione viene prima associata alla shape della corsa (punto sulla strada, distanza
+     * lungo il percorso e prossima fermata), usando la posizione precedente nei tratti ambigui.
+     * </p>
+     *
+     * @param namespace        spazio dei nomi del feed, di cui vengono sostituiti i veicoli
+     * @param vehiclePositions posizioni dei veicoli decodificate (null per svuotare)
+     * @return                 modifiche rispetto al feed precedente, oppure null se non ce ne sono
+     */
+    private GTFSRealtimeChangeEvent updateVehiclePositions(String namespace, GTFSRealtimeStreamDecoder.VehiclePositions vehiclePositions) {
+        // ----------------- trip id -> vehicle positions --------------------------------------------------------------
+        Map<String, GTFSDataIndexer.VehiclePos> newVehiclePos = new HashMap<>();                                            // Mappa temporanea per le nuove posizioni.
+        long headerTs = vehiclePositions != null && vehiclePositions.getHeaderTimestamp() > 0                               // Recupera il timestamp dall'header del feed, se presente...
+                ? vehiclePositions.getHeaderTimestamp() : (System.currentTimeMillis() / 1000L);                             // ...Altrimenti utilizza l'orario corrente.
+
+        if (vehiclePositions != null) {                                                                                     // Se il feed delle posizioni non è nullo...
+            for (int k = 0; k < vehiclePositions.size(); k++) {                                                             // Per ogni veicolo con corsa e posizione...
+                String tripId = vehiclePositions.getTripId(k);                                                              // ...Recupera l'ID della corsa associata...
+                double lat = vehiclePositions.getLatitude(k);                                                               // ...Recupera la latitudine del veicolo...
+                double lon = vehiclePositions.getLongitude(k);                                                              // ...Recupera la longitudine del veicolo...
+                long ts = vehiclePositions.getTimestamp(k) > 0 ? vehiclePositions.getTimestamp(k) : headerTs;               // ...Recupera la timestamp (data e ora) del veicolo...
+                String vehId = vehiclePositions.getVehicleId(k);                                                            // ...Recupera l'id del veicolo...
+
+                String routeId = routeIdOf(tripId, vehiclePositions.getRouteId(k));                                         // ...Recupera l'ID della linea tramite la corsa...
+                Integer routeType = null;                                                                                   // ...Definsce la variabile del tipo di linea...
+                if (routeId != null) {                                                                                      // ...Se l'ID della linea è valido...
+                    Route r = staticIndexer.getRouteById(routeId);                                                          // ...Recupera la linea associata tramite l'ID (staticIndexer)...
+                    if (r != null) routeType = r.getRouteType();                                                            // ...Recupera il tipo di linea...
+                }
+                GTFSDataIndexer.VehiclePos pos = new GTFSDataIndexer.VehiclePos(tripId, vehId, lat, lon, ts, routeId, routeType);
+                newVehiclePos.put(tripId, vehicleMatcher.match(pos, snapshot.get().getVehicleForTrip(tripId)));             // ...Associa la posizione alla shape e la aggiunge alla mappa temporanea.
+            }
+        }
+
+        // Confronta con lo snapshot corrente: veicoli nuovi, spostati o spariti.
+        List<GTFSRealtimeChangeEvent.Change> changes = new ArrayList<>();
+        GTFSRealtimeSnapshot next;
+        synchronized (writeLock) {
+            GTFSRealtimeSnapshot current = snapshot.get();
+            Map<String, GTFSDataIndexer.VehiclePos> oldVehiclePos = current.vehicles.byTrip;
+            Set<String> feedTrips = vehiclesByFeed.getOrDefault(namespace, Set.of());                                      // Veicoli del feed nello snapshot.
+            Map<String, TripState> nextStates = new HashMap<>(current.tripStates);                                          // Stati delle corse, aggiornati solo per i veicoli cambiati.
+            boolean refreshed = false;                                                                                      // Qualche veicolo ha solo un timestamp nuovo.
+            for (Map.Entry<String, GTFSDataIndexer.VehiclePos> en : newVehiclePos.entrySet()) {
+                GTFSDataIndexer.VehiclePos old = oldVehiclePos.get(en.getKey());
+                GTFSDataIndexer.VehiclePos pos = en.getValue();
+                if (old == null) {
+                    changes.add(new GTFSRealtimeChangeEvent.Change(
+                            GTFSRealtimeChangeEvent.Type.VEHICLE_ADDED, en.getKey(), pos.routeId, Set.of()));
+                } else if (old.lat != pos.lat || old.lon != pos.lon) {
+                    changes.add(new GTFSRealtimeChangeEvent.Change(
+                            GTFSRealtimeChangeEvent.Type.VEHICLE_MOVED, en.getKey(), pos.routeId, Set.of()));
+                } else if (old.ts != pos.ts) {
+                    refreshed = true;                                                                                       // Stessa posizione: cambia solo il timestamp.
+                } else {
+                    continue;                                                                                               // Veicolo invariato: lo stato resta valido.
                 }
+                TripState state = nextStates.get(en.getKey());
+                nextStates.put(en.getKey(), state != null
+                        ? tripStateBuilder.withVehicle(state, pos, headerTs)                                                // Riusa fermate e previsioni della corsa.
+                        : tripStateBuilder.build(en.getKey(), pos.routeId, current.getTripPredictions(en.getKey()),
+                            current.isTripCancelled(en.getKey()), current.isTripAdded(en.getKey()), pos, headerTs));
             }
-            this.tripVehiclePositions = newVehiclePos;                                                                      // Salva la mappa in tripVehiclePositions.
-
-            // ----------------- trip updates -> predicted arrivals per stop -------------------------------------------
-            ConcurrentMap<String, List<GTFSDataIndexer.PredictedArrival>> newPredicted = new ConcurrentHashMap<>();         // Mappa temporanea per i nuovi arrivi previsti.
-
-            if (tripUpdatesFeed != null) {                                                                                  // Se il feed degli arrivi previsti non è nullo...
-                for (FeedEntity e : tripUpdatesFeed.getEntityList()) {                                                      // Per ogni entità del feed...
-                    if (!e.hasTripUpdate()) continue;                                                                       // ...Ignora le entità senza informazioni sugli orari della corsa...
-                    com.google.transit.realtime.GtfsRealtime.TripUpdate tu = e.getTripUpdate();                             // ...Altrimenti (se presenti) salva le informazioni sugli orari della corsa...
-                    if (!tu.hasTrip()) continue;                                                                            // ...Ignora le entità senza informazioni sulla corsa associata...
-                    String tripId = tu.getTrip().getTripId();                                                               // ...Altrimenti (se presenti) salva le informazioni sulla corsa associata...
-                    if (tripId == null || tripId.isEmpty()) continue;                                                       // ...Controlla che l'ID della corsa associata sia valido...
-
-                    for (com.google.transit.realtime.GtfsRealtime.TripUpdate.
-                            StopTimeUpdate stu : tu.getStopTimeUpdateList()) {                                              // ...Per ogni stopTimeUpdate in tripUpdate (aggiornamenti degli arrivi alle fermate)...
-                        if (!stu.hasStopId()) continue;                                                                     // ...Ignora gli stopTimeUpdate senza informazioni sulla fermata...
-                        String stopId = stu.getStopId();                                                                    // ...Altrimenti (se presenti) salva le informazioni sull'ID della fermata...
-                        long arrivalTime = -1L;                                                                             // -1 = valore sentinella (epoch seconds), indica nessun orario valido trovato.
-                        if (stu.hasArrival() && stu.getArrival().hasTime()) {                                               // ...Recupera l'orario di arrivo in fermata...
-                            arrivalTime = stu.getArrival().getTime();
-                        }
-                        if (arrivalTime <= 0) continue;                                                                     // ...Ignora se non è disponibile alcun orario (arrivalTime = -1)...
-
-                        newPredicted.computeIfAbsent(stopId, k -> new ArrayList<>())
-                                .add(new GTFSDataIndexer.PredictedArrival(tripId, arrivalTime));                            // ...Aggiunge (ID stop: lista di oggetti PredictedArrival) alla mappa temporanea.
-                    }
+            for (String tripId : feedTrips) {                                                                               // Solo i veicoli di questo feed possono sparire.
+                GTFSDataIndexer.VehiclePos old = oldVehiclePos.get(tripId);
+                if (old == null || newVehiclePos.containsKey(tripId)) continue;
+                changes.add(new GTFSRealtimeChangeEvent.Change(
+                        GTFSRealtimeChangeEvent.Type.VEHICLE_REMOVED, tripId, old.routeId, Set.of()));
+                TripState state = nextStates.get(tripId);
+                if (state != null && current.predictions.byTrip.containsKey(tripId)) {
+                    nextStates.put(tripId, tripStateBuilder.withVehicle(state, null, headerTs));                            // Restano le previsioni.
+                } else {
+                    nextStates.remove(tripId);
                 }
             }
+            Map<String, GTFSDataIndexer.VehiclePos> nextVehiclePos = replaceFeed(oldVehiclePos, feedTrips, newVehiclePos);
+            vehicleMatcher.retainTrips(nextVehiclePos.keySet());
+            vehiclesByFeed.put(namespace, Set.copyOf(newVehiclePos.keySet()));                                             // Parte del feed aggiornata insieme allo snapshot.
+            if (changes.isEmpty() && !refreshed) return null;                                                               // Snapshot invariato.
 
-            // Normalizza le liste nella mappa temporanea (ordina per tempo e rende immutabili), poi swap atomico.
-            for (Map.Entry<String, List<GTFSDataIndexer.PredictedArrival>> en : newPredicted.entrySet()) {
-                List<GTFSDataIndexer.PredictedArrival> list = en.getValue();
-                list.sort(Comparator.comparingLong(pa -> pa.arrivalEpochSec));
-                en.setValue(Collections.unmodifiableList(list));
+            next = current.withVehicles(new GTFSRealtimeSnapshot.Vehicles(nextVehiclePos), nextStates);
+            snapshot.set(next);                                                                                             // Pubblicazione: un solo scambio atomico.
+        }
+        return changes.isEmpty() ? null : new GTFSRealtimeChangeEvent(changes, next, headerTs);
+    }
+
+    // AGGIORNA LE PREVISIONI DI ARRIVO --------------------------------------------------------------------------------
+    /**
+     * Confronta le previsioni del feed con quelle dello snapshot corrente e pubblica il nuovo snapshot.
+     * <p>
+     * Per le corse cambiate vengono sostituite le previsioni per corsa e ricalcolate le liste
+     * degli arrivi delle sole fermate in cui la corsa passava o passa; le altre vengono riusate.
+     * </p>
+     *
+     * @param namespace   spazio dei nomi del feed, di cui vengono sostituite le corse
+     * @param tripUpdates aggiornamenti delle corse decodificati (null per svuotare)
+     * @return            modifiche rispetto al feed precedente, oppure null se non ce ne sono
+     */
+    private GTFSRealtimeChangeEvent updateTripUpdates(String namespace, GTFSRealtimeStreamDecoder.TripUpdates tripUpdates) {
+        // ----------------- trip updates -> predicted arrivals per trip -----------------------------------------------
+        Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> newByTrip = new HashMap<>();                             // Mappa temporanea degli arrivi previsti per corsa.
+        Map<String, String> newRouteByTrip = new HashMap<>();                                                               // Linea di ogni corsa del feed.
+        Set<String> newCancelled = new HashSet<>();                                                                         // Corse soppresse nel feed.
+        Set<String> newAdded = new HashSet<>();                                                                             // Corse aggiunte nel feed.
+        long headerTs = tripUpdates != null && tripUpdates.getHeaderTimestamp() > 0                                         // Recupera il timestamp dall'header del feed, se presente...
+                ? tripUpdates.getHeaderTimestamp() : (System.currentTimeMillis() / 1000L);                                  // ...Altrimenti utilizza l'orario corrente.
+
+        if (tripUpdates != null) {                                                                                          // Se il feed degli arrivi previsti non è nullo...
+            for (int k = 0; k < tripUpdates.size(); k++) {                                                                  // Per ogni corsa aggiornata nel feed...
+                String tripId = tripUpdates.getTripId(k);                                                                   // ...Recupera l'ID della corsa associata...
+
+                String routeId = routeIdOf(tripId, tripUpdates.getRouteId(k));
+                if (routeId != null) newRouteByTrip.put(tripId, routeId);                                                   // ...Ricorda la linea della corsa...
+                if (tripUpdates.getRelationship(k) == TripDescriptor.ScheduleRelationship.CANCELED_VALUE) {                 // ...Se la corsa è soppressa...
+                    newCancelled.add(tripId);                                                                               // ...La segna senza previsioni...
+                    newByTrip.put(tripId, Map.of());
+                    continue;
+                }
+                if (isAddedRelationship(tripUpdates.getRelationship(k))) newAdded.add(tripId);                              // ...Ricorda le corse aggiunte...
+                newByTrip.put(tripId, delayPropagator.predictArrivals(tripUpdates, k, headerTs));                           // ...Altrimenti propaga il ritardo a tutte le fermate rimanenti.
+            }
+        }
+
+        List<GTFSRealtimeChangeEvent.Change> changes = new ArrayList<>();
+        GTFSRealtimeSnapshot next;
+        synchronized (writeLock) {
+            GTFSRealtimeSnapshot current = snapshot.get();
+            Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> predictionsByTrip = current.predictions.byTrip;
+            Set<String> cancelledTrips = current.predictions.cancelledTrips;
+            Set<String> addedTrips = current.predictions.addedTrips;
+            Map<String, String> routeByTrip = current.predictions.routeByTrip;
+            Set<String> feedTrips = tripsByFeed.getOrDefault(namespace, Set.of());                                         // Corse del feed nello snapshot.
+
+            // Corse nuove, modificate, soppresse o sparite rispetto al feed precedente.
+            Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> changedTrips = new HashMap<>();                      // ID corsa -> nuove previsioni (vuote se sparita).
+            Set<String> touchedStops = new HashSet<>();                                                                     // Fermate con lista di arrivi da ricalcolare.
+            for (Map.Entry<String, Map<String, GTFSDataIndexer.PredictedArrival>> en : newByTrip.entrySet()) {
+                String tripId = en.getKey();
+                Map<String, GTFSDataIndexer.PredictedArrival> oldStops = predictionsByTrip.get(tripId);
+                Map<String, GTFSDataIndexer.PredictedArrival> newStops = en.getValue();
+                boolean cancelled = newCancelled.contains(tripId);
+                boolean wasCancelled = cancelledTrips.contains(tripId);
+                boolean flagsChanged = cancelled != wasCancelled || newAdded.contains(tripId) != addedTrips.contains(tripId);
+                if (newStops.equals(oldStops) && !flagsChanged) continue;                                                   // Corsa invariata.
+
+                Set<String> stops = differentStops(oldStops, newStops);
+                GTFSRealtimeChangeEvent.Type type;
+                if (cancelled) {
+                    type = GTFSRealtimeChangeEvent.Type.TRIP_CANCELLED;
+                    stops.addAll(scheduledStops(tripId));                                                                   // Una soppressione riguarda tutte le fermate della corsa.
+                } else {
+                    type = oldStops == null ? GTFSRealtimeChangeEvent.Type.TRIP_ADDED : GTFSRealtimeChangeEvent.Type.TRIP_DELAY_CHANGED;
+                }
+                changes.add(new GTFSRealtimeChangeEvent.Change(type, tripId, newRouteByTrip.get(tripId), stops));
+                changedTrips.put(tripId, newStops);
+                if (oldStops != null) touchedStops.addAll(oldStops.keySet());
+                touchedStops.addAll(newStops.keySet());
+            }
+            for (String tripId : feedTrips) {                                                                               // Solo le corse di questo feed possono sparire.
+                Map<String, GTFSDataIndexer.PredictedArrival> oldStops = predictionsByTrip.get(tripId);
+                if (oldStops == null || newByTrip.containsKey(tripId)) continue;
+                changes.add(new GTFSRealtimeChangeEvent.Change(GTFSRealtimeChangeEvent.Type.TRIP_REMOVED, tripId,
+                        routeByTrip.get(tripId), oldStops.keySet()));
+                changedTrips.put(tripId, Map.of());
+                touchedStops.addAll(oldStops.keySet());
+            }
+
+            Set<String> nextFeedTrips = new HashSet<>(newByTrip.keySet());                                                  // Tutte le corse citate dal feed.
+            nextFeedTrips.addAll(newRouteByTrip.keySet());
+            nextFeedTrips.addAll(newCancelled);
+            nextFeedTrips.addAll(newAdded);
+            Map<String, String> nextRouteByTrip = replaceFeed(routeByTrip, feedTrips, newRouteByTrip);                      // Le parti degli altri feed restano invariate.
+            if (changes.isEmpty() && nextRouteByTrip.equals(routeByTrip)) {                                                 // Snapshot invariato.
+                tripsByFeed.put(namespace, nextFeedTrips);
+                return null;
+            }
+            Set<String> nextCancelled = replaceFeed(cancelledTrips, feedTrips, newCancelled);
+            Set<String> nextAdded = replaceFeed(addedTrips, feedTrips, newAdded);
+
+            // Nuove previsioni per corsa: quelle delle corse invariate vengono riusate.
+            Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> nextByTrip = new HashMap<>(predictionsByTrip);
+            for (Map.Entry<String, Map<String, GTFSDataIndexer.PredictedArrival>> en : changedTrips.entrySet()) {
+                if (newByTrip.containsKey(en.getKey())) nextByTrip.put(en.getKey(), Map.copyOf(en.getValue()));
+                else nextByTrip.remove(en.getKey());
             }
-            this.predictedArrivalsByStop = new ConcurrentHashMap<>(newPredicted);                                           // Salva la mappa in predictedArrivalsByStop.
 
-            // Notifica listener per UI.
-            for (Runnable r : realtimeListeners) {      // Per ogni runnable (callback)...
-                try {
-                    r.run();                            // ...Avvia la callback (aggiorna la UI).
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+            // Nuovi arrivi delle corse cambiate, raggruppati per fermata.
+            Map<String, List<GTFSDataIndexer.PredictedArrival>> addedByStop = new HashMap<>();
+            for (Map.Entry<String, Map<String, GTFSDataIndexer.PredictedArrival>> en : changedTrips.entrySet()) {
+                for (Map.Entry<String, GTFSDataIndexer.PredictedArrival> stop : en.getValue().entrySet()) {
+                    addedByStop.computeIfAbsent(stop.getKey(), k -> new ArrayList<>()).add(stop.getValue());
                 }
             }
 
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            // Ricalcola solo le liste degli arrivi delle fermate toccate (ordinate per tempo e immutabili).
+            Map<String, List<GTFSDataIndexer.PredictedArrival>> nextByStop = new HashMap<>(current.predictions.byStop);
+            for (String stopId : touchedStops) {
+                List<GTFSDataIndexer.PredictedArrival> list = new ArrayList<>();
+                for (GTFSDataIndexer.PredictedArrival pa : nextByStop.getOrDefault(stopId, List.of())) {
+                    if (!changedTrips.containsKey(pa.tripId)) list.add(pa);                                                 // Mantiene le corse invariate.
+                }
+                list.addAll(addedByStop.getOrDefault(stopId, List.of()));
+                if (list.isEmpty()) {
+                    nextByStop.remove(stopId);
+                } else {
+                    list.sort(Comparator.comparingLong(pa -> pa.arrivalEpochSec));
+                    nextByStop.put(stopId, List.copyOf(list));
+                }
+            }
+
+            // Stato consolidato delle sole corse cambiate, con il veicolo corrente.
+            Map<String, TripState> nextStates = new HashMap<>(current.tripStates);
+            for (String tripId : changedTrips.keySet()) {
+                GTFSDataIndexer.VehiclePos vehicle = current.vehicles.byTrip.get(tripId);
+                if (nextByTrip.containsKey(tripId)) {
+                    String routeId = newRouteByTrip.get(tripId);
+                    nextStates.put(tripId, tripStateBuilder.build(tripId, routeId != null ? routeId : (vehicle != null ? vehicle.routeId : null),
+                            nextByTrip.get(tripId), newCancelled.contains(tripId), newAdded.contains(tripId), vehicle, headerTs));
+                } else if (vehicle != null) {
+                    nextStates.put(tripId, tripStateBuilder.build(tripId, vehicle.routeId, Map.of(), false, false, vehicle, headerTs));
+                } else {
+                    nextStates.remove(tripId);                                                                              // Né previsioni né veicolo.
+                }
+            }
+
+            next = current.withPredictions(new GTFSRealtimeSnapshot.Predictions(nextByTrip, nextByStop, nextCancelled, nextAdded, nextRouteByTrip), nextStates);
+            tripsByFeed.put(namespace, nextFeedTrips);                                                                      // Parte del feed aggiornata insieme allo snapshot.
+            snapshot.set(next);                                                                                             // Pubblicazione: un solo scambio atomico.
+        }
+        return changes.isEmpty() ? null : new GTFSRealtimeChangeEvent(changes, next, headerTs);
+    }
+
+    /**
+     * Indica se la relazione di una corsa la descrive come aggiunta all'orario statico.
+     * <p>
+     * La specifica ha deprecato ADDED a favore di NEW, ma molti produttori usano ancora ADDED:
+     * vanno riconosciuti entrambi, quindi l'avviso di deprecazione è soppresso solo qui.
+     * </p>
+     *
+     * @param relationship valore di {@link TripDescriptor.ScheduleRelationship}
+     * @return             true se la corsa è aggiunta
+     */
+    @SuppressWarnings("deprecation")
+    private static boolean isAddedRelationship(int relationship) {
+        return relationship == TripDescriptor.ScheduleRelationship.ADDED_VALUE
+                || relationship == TripDescriptor.ScheduleRelationship.NEW_VALUE;
+    }
+
+    // AGGIORNA GLI AVVISI DI SERVIZIO ---------------------------------------------------------------------------------
+    /**
+     * Confronta gli avvisi del feed con quelli dello snapshot corrente e, se qualcuno è cambiato,
+     * pubblica un nuovo snapshot con un nuovo indice degli avvisi.
+     * <p>
+     * L'indice non valuta quali avvisi sono attivi: lo fa al momento della lettura, così un avviso
+     * che entra o esce dal suo periodo di validità non richiede un nuovo feed né un nuovo snapshot.
+     * </p>
+     *
+     * @param namespace spazio dei nomi del feed, di cui vengono sostituiti gli avvisi
+     * @param alerts    avvisi di servizio decodificati (null per svuotare)
+     * @return          modifiche rispetto al feed precedente, oppure null se non ce ne sono
+     */
+    private GTFSRealtimeChangeEvent updateAlerts(String namespace, GTFSRealtimeStreamDecoder.Alerts alerts) {
+        List<ServiceAlert> feedAlerts = alerts != null ? List.copyOf(alerts.asList()) : List.of();                        // I buffer del decoder vengono riusati.
+        long headerTs = alerts != null && alerts.getHeaderTimestamp() > 0                                                   // Recupera il timestamp dall'header del feed, se presente...
+                ? alerts.getHeaderTimestamp() : (System.currentTimeMillis() / 1000L);                                       // ...Altrimenti utilizza l'orario corrente.
+
+        List<GTFSRealtimeChangeEvent.Change> changes = new ArrayList<>();
+        GTFSRealtimeSnapshot next;
+        synchronized (writeLock) {
+            GTFSRealtimeSnapshot current = snapshot.get();
+            Map<String, List<ServiceAlert>> nextAlertsByFeed = new LinkedHashMap<>(alertsByFeed);
+            nextAlertsByFeed.put(namespace, feedAlerts);
+            List<ServiceAlert> all = new ArrayList<>();                                                                     // Avvisi di tutti i feed, ID già distinti.
+            for (List<ServiceAlert> list : nextAlertsByFeed.values()) all.addAll(list);
+            GTFSAlertIndex newIndex = all.isEmpty() ? GTFSAlertIndex.EMPTY : new GTFSAlertIndex(all);
+            GTFSAlertIndex oldIndex = current.alerts;
+            for (ServiceAlert alert : newIndex.getAlerts()) {                                                              // Avvisi nuovi o modificati.
+                ServiceAlert old = oldIndex.getAlert(alert.getAlertId());
+                if (!alert.equals(old)) addAlertChanges(changes, alert, old);
+            }
+            for (ServiceAlert old : oldIndex.getAlerts()) {                                                                 // Avvisi spariti dal feed.
+                if (newIndex.getAlert(old.getAlertId()) == null) addAlertChanges(changes, old, null);
+            }
+            alertsByFeed.put(namespace, feedAlerts);                                                                        // Parte del feed aggiornata insieme allo snapshot.
+            if (changes.isEmpty()) return null;                                                                             // Snapshot invariato.
+
+            next = current.withAlerts(newIndex);
+            snapshot.set(next);                                                                                             // Pubblicazione: un solo scambio atomico.
+        }
+        return new GTFSRealtimeChangeEvent(changes, next, headerTs);
+    }
+
+    /**
+     * Aggiunge le modifiche di un avviso: una per linea citata (prima o dopo la modifica), con le fermate citate
+     * e quelle delle corse citate.
+     */
+    private void addAlertChanges(List<GTFSRealtimeChangeEvent.Change> changes, ServiceAlert alert, ServiceAlert old) {
+        Set<String> routes = new LinkedHashSet<>();
+        Set<String> stops = new HashSet<>();
+        for (ServiceAlert a : old != null ? List.of(alert, old) : List.of(alert)) {
+            routes.addAll(Arrays.asList(a.getRouteIds()));
+            stops.addAll(Arrays.asList(a.getStopIds()));
+            for (String tripId : a.getTripIds()) {
+                String routeId = routeIdOf(tripId, null);
+                if (routeId != null) routes.add(routeId);
+                stops.addAll(scheduledStops(tripId));
+            }
+        }
+        if (routes.isEmpty()) routes.add(null);                                                                             // Avviso di sole fermate o di tutta la rete.
+        for (String routeId : routes) {
+            changes.add(new GTFSRealtimeChangeEvent.Change(GTFSRealtimeChangeEvent.Type.ALERT_CHANGED, alert.getAlertId(), routeId, stops));
+        }
+    }
+
+    /**
+     * Sostituisce in un insieme dello snapshot le chiavi di un feed con quelle del suo nuovo feed.
+     * Con un solo feed tutte le chiavi sono sue e viene restituito direttamente il nuovo insieme.
+     */
+    private static Set<String> replaceFeed(Set<String> current, Set<String> feedKeys, Set<String> feedValues) {
+        if (feedKeys.size() >= current.size() && feedKeys.containsAll(current)) return feedValues;
+        Set<String> next = new HashSet<>(current);
+        next.removeAll(feedKeys);
+        next.addAll(feedValues);
+        return next;
+    }
+
+    /**
+     * Sostituisce in una mappa dello snapshot le voci di un feed con quelle del suo nuovo feed.
+     * Con un solo feed tutte le voci sono sue e viene restituita direttamente la nuova mappa.
+     */
+    private static <V> Map<String, V> replaceFeed(Map<String, V> current, Set<String> feedKeys, Map<String, V> feedValues) {
+        if (feedKeys.size() >= current.size() && feedKeys.containsAll(current.keySet())) return feedValues;
+        Map<String, V> next = new HashMap<>(current);
+        next.keySet().removeAll(feedKeys);
+        next.putAll(feedValues);
+        return next;
+    }
+
+    /**
+     * Restituisce le fermate il cui arrivo previsto è diverso tra le due mappe.
+     */
+    private static Set<String> differentStops(Map<String, GTFSDataIndexer.PredictedArrival> oldStops, Map<String, GTFSDataIndexer.PredictedArrival> newStops) {
+        Set<String> stops = new HashSet<>();
+        if (oldStops == null) oldStops = Map.of();
+        for (Map.Entry<String, GTFSDataIndexer.PredictedArrival> en : newStops.entrySet()) {
+            if (!en.getValue().equals(oldStops.get(en.getKey()))) stops.add(en.getKey());
+        }
+        for (String stopId : oldStops.keySet()) {
+            if (!newStops.containsKey(stopId)) stops.add(stopId);
+        }
+        return stops;
+    }
+
+    /**
+     * Restituisce le fermate programmate di una corsa (vuoto se la corsa non è nei dati statici).
+     */
+    private Set<String> scheduledStops(String tripId) {
+        Set<String> stops = new HashSet<>();
+        for (StopTime st : staticIndexer.getStopTimesByTrip(tripId)) stops.add(st.getStopId());
+        return stops;
+    }
+
+    /**
+     * Restituisce la linea di una corsa: dai dati statici se presente, altrimenti il route_id del feed.
+     */
+    private String routeIdOf(String tripId, String feedRouteId) {
+        Trip t = staticIndexer.getTripById(tripId);
+        return t != null ? t.getRouteId() : feedRouteId;
+    }
+
+    // NOTIFICA I LISTENER ---------------------------------------------------------------------------------------------
+    /**
+     * Notifica i listener dopo un aggiornamento, quando lo snapshot che lo contiene è già pubblicato.
+     * <p>
+     * Se il feed non ha prodotto modifiche (evento null) non viene notificato nessuno.
+     * </p>
+     *
+     * @param event modifiche prodotte dal feed, con la versione dello snapshot
+     */
+    private void notifyListeners(GTFSRealtimeChangeEvent event) {
+        if (event == null) return;
+
+        // Aggiorna prima gli indici derivati, così i listener leggono dati già aggiornati.
+        notifyIndexListeners(event);
+
+        // Consegna asincrona agli altri listener (UI, servizi).
+        dispatcher.publish(event);
+    }
+
+    /**
+     * Esegue in linea i listener degli indici derivati: ricevono ogni evento, senza fusioni.
+     *
+     * @param event modifiche prodotte dal feed, con lo snapshot pubblicato
+     */
+    private void notifyIndexListeners(GTFSRealtimeChangeEvent event) {
+        for (IndexListener listener : indexListeners) {
+            try {
+                listener.consumer.accept(event);
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Indice realtime " + listener.name + " fallito: " + ex.getMessage(), ex);
+            }
         }
     }
 
     // REGISTRA UN LISTENER ESEGUITO QUANDO ARRIVANO I DATI REALTIME ---------------------------------------------------
     /**
-     * Aggiunge un listener eseguito ad ogni aggiornamento dei dati realtime.
+     * Aggiunge un listener eseguito ad ogni aggiornamento dei dati realtime che produce modifiche.
      *
      * @param listener Runnable da eseguire all'arrivo dei dati
      */
     public void addRealtimeListener(Runnable listener) {
-        if (listener != null) realtimeListeners.add(listener);
+        if (listener != null) {
+            dispatcher.subscribe("runnable-" + (dispatcher.size() + 1), _ -> true, _ -> listener.run(), true);
+        }
+    }
+
+    // REGISTRA UN LISTENER DELLE MODIFICHE ----------------------------------------------------------------------------
+    /**
+     * Aggiunge un listener che riceve le modifiche di ogni aggiornamento, solo se accettate dal filtro.
+     * <p>
+     * Il filtro viene valutato ad ogni evento, quindi può dipendere da uno stato che cambia
+     * (ad esempio la linea mostrata sulla mappa). Il listener viene eseguito sui thread del
+     * {@link GTFSRealtimeDispatcher}: se è più lento degli aggiornamenti riceve eventi fusi.
+     * </p>
+     *
+     * @param name     nome del listener (per statistiche e log)
+     * @param filter   condizione sull'evento (ad esempio {@code e -> e.affectsRoute(routeId)})
+     * @param listener consumer dell'evento
+     * @return         azione che annulla l'iscrizione del listener
+     */
+    public Runnable addChangeListener(String name, Predicate<GTFSRealtimeChangeEvent> filter,
+                                      Consumer<GTFSRealtimeChangeEvent> listener) {
+        if (filter == null || listener == null) return () -> { };
+        return dispatcher.subscribe(name != null ? name : "listener-" + (dispatcher.size() + 1), filter, listener, false);
+    }
+
+    // REGISTRA UN INDICE DERIVATO -------------------------------------------------------------------------------------
+    /**
+     * Aggiunge un listener eseguito in linea, sul thread che applica il feed, prima della consegna agli altri listener.
+     * <p>
+     * Riservato agli indici derivati dai dati realtime, che devono essere aggiornati quando gli altri
+     * listener li leggono, e a chi deve vedere ogni versione (ad esempio lo storico): gli eventi non vengono
+     * fusi e {@link GTFSRealtimeChangeEvent#getSnapshot()} contiene i valori di quella versione.
+     * Deve essere veloce perché ritarda l'applicazione del feed successivo.
+     * </p>
+     *
+     * @param name     nome del listener (per i log)
+     * @param listener consumer dell'evento
+     * @return         azione che rimuove il listener
+     */
+    public Runnable addIndexListener(String name, Consumer<GTFSRealtimeChangeEvent> listener) {
+        if (listener == null) return () -> { };
+        IndexListener entry = new IndexListener(name != null ? name : "index-" + (indexListeners.size() + 1), listener);
+        indexListeners.add(entry);
+        return () -> indexListeners.remove(entry);
+    }
+
+    // STATISTICHE DEI LISTENER ----------------------------------------------------------------------------------------
+    /**
+     * Restituisce le statistiche di consegna dei listener asincroni.
+     *
+     * @return lista di {@link GTFSRealtimeDispatcher.ListenerStats}
+     */
+    public List<GTFSRealtimeDispatcher.ListenerStats> getListenerStats() {
+        return dispatcher.getStats();
+    }
+
+    // SNAPSHOT --------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce lo snapshot realtime corrente, immutabile: più letture sullo stesso snapshot sono coerenti tra loro.
+     *
+     * @return snapshot corrente
+     */
+    public GTFSRealtimeSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    // AVVISI DI SERVIZIO ----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce gli avvisi di servizio attivi per un pannello (rete, linea, fermata e corsa indicate).
+     *
+     * @param routeId  ID della linea (può essere null)
+     * @param stopId   ID della fermata (può essere null)
+     * @param tripId   ID della corsa (può essere null)
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista di avvisi senza duplicati (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveAlerts(String routeId, String stopId, String tripId, long epochSec) {
+        return snapshot.get().getActiveAlerts(routeId, stopId, tripId, epochSec);
+    }
+
+    // CORSE SOPPRESSE -------------------------------------------------------------------------------------------------
+    /**
+     * Indica se una corsa è segnalata come soppressa nel feed corrente.
+     *
+     * @param tripId ID della corsa
+     * @return       true se la corsa è soppressa
+     */
+    public boolean isTripCancelled(String tripId) {
+        return snapshot.get().isTripCancelled(tripId);
+    }
+
+    // RESTITUISCE L'ARRIVO PREVISTO DI UNA CORSA A UNA FERMATA --------------------------------------------------------
+    /**
+     * Restituisce l'arrivo previsto di una corsa a una fermata.
+     *
+     * @param tripId ID della corsa
+     * @param stopId ID della fermata
+     * @return       arrivo previsto (epoch second), oppure -1 se non disponibile
+     */
+    public long getPredictedArrivalEpoch(String tripId, String stopId) {
+        return snapshot.get().getPredictedArrivalEpoch(tripId, stopId);
+    }
+
+    // RESTITUISCE LE PREVISIONI DI UNA CORSA --------------------------------------------------------------------------
+    /**
+     * Restituisce le previsioni di arrivo di una corsa per fermata.
+     *
+     * @param tripId ID della corsa
+     * @return       mappa immutabile ID fermata → arrivo previsto (vuota se assenti)
+     */
+    public Map<String, GTFSDataIndexer.PredictedArrival> getTripPredictions(String tripId) {
+        return snapshot.get().getTripPredictions(tripId);
+    }
+
+    // RESTITUISCE LA POSIZIONE DEL VEICOLO DI UNA CORSA ---------------------------------------------------------------
+    /**
+     * Restituisce la posizione attuale del veicolo che effettua una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       posizione del veicolo, oppure null se assente
+     */
+    public GTFSDataIndexer.VehiclePos getVehicleForTrip(String tripId) {
+        return snapshot.get().getVehicleForTrip(tripId);
     }
 
     // GETTER PER POSIZIONI ATTUALI DEI VEICOLI SU UNA LINEA -----------------------------------------------------------
@@ -166,10 +791,7 @@ public class GTFSRealtimeIndexer {
      * @return        lista di {@link operator.GTFSDataIndexer.VehiclePos}
      */
     public List<GTFSDataIndexer.VehiclePos> getVehiclesForRoute(String routeId) {
-        if (routeId == null) return Collections.emptyList();
-        return tripVehiclePositions.values().stream()
-                .filter(vp -> routeId.equals(vp.routeId))
-                .collect(Collectors.toUnmodifiableList());
+        return snapshot.get().getVehiclesForRoute(routeId);
     }
 
     // RESTITUISCE GLI ARRIVI PREVISTI (PREDICTED) PER UNA FERMATA (OPZIONALMENTE FILTRATI PER ROUTE) ------------------
@@ -181,8 +803,7 @@ public class GTFSRealtimeIndexer {
      * @return        lista di {@link operator.GTFSDataIndexer.PredictedArrival}
      */
     public List<GTFSDataIndexer.PredictedArrival> getPredictedArrivals(String stopId, String routeId) {
-        if (stopId == null) return Collections.emptyList();
-        List<GTFSDataIndexer.PredictedArrival> list = predictedArrivalsByStop.getOrDefault(stopId, Collections.emptyList());
+        List<GTFSDataIndexer.PredictedArrival> list = snapshot.get().getPredictedArrivals(stopId);
         if (list.isEmpty()) return Collections.emptyList();
         if (routeId == null) return list;
 
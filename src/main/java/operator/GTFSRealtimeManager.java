@@ -1,23 +1,74 @@
 package operator;
 
 // Altre classi.
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import java.util.zip.GZIPInputStream;
+import model.Trip;
 
 /**
  * Classe responsabile della gestione dei dati realtime.
  * <p>
- * Effettua il polling dei feed GTFS-realtime con retry/backoff semplice,
+ * Effettua il polling dei feed GTFS-realtime con retry/backoff,
  * applicazione parziale dei feed quando possibile, e tracking della freschezza.
  * </p>
+ * <p>
+ * I feed (trip updates, posizioni dei veicoli e, se configurato, avvisi di servizio) sono pianificati separatamente:
+ * per ciascuno un {@link GTFSFeedCadence} impara la cadenza di pubblicazione dal timestamp dell'header e fissa
+ * il poll successivo subito dopo la pubblicazione attesa, con jitter e backoff esponenziale propri.
+ * Le richieste sono asincrone e ogni feed viene decodificato e applicato appena disponibile:
+ * un feed lento non ritarda gli altri.
+ * </p>
+ * <p>
+ * La decodifica non costruisce il FeedMessage: ogni feed ha un {@link GTFSRealtimeStreamDecoder} che estrae
+ * solo i campi usati in buffer riutilizzati tra i poll, eventualmente limitati alle linee
+ * indicate con {@link #setRouteFilter(Set)}.
+ * </p>
+ * <p>
+ * Per evitare lavoro inutile quando un feed non è stato rigenerato dall'ultimo poll:
+ * <ul>
+ *     <li>le richieste sono condizionali (If-None-Match / If-Modified-Since) e accettano gzip;
+ *         una risposta 304 salta download, parsing e notifica</li>
+ *     <li>prima della decodifica viene letto il solo timestamp dell'header del feed: se è uguale
+ *         a quello dell'ultimo feed applicato, decodifica, ricostruzione delle mappe e notifica ai listener
+ *         vengono saltati</li>
+ * </ul>
+ * I contatori dei feed applicati e saltati sono disponibili tramite getter.
+ * </p>
+ * <p>
+ * Ogni feed può avere più URL: il principale e i mirror o proxy configurati ({@link GTFSFeedEndpoints}).
+ * A ogni poll la richiesta va all'endpoint con la latenza migliore; se non risponde entro il 95° percentile
+ * delle sue latenze ne parte una seconda verso il successivo (hedged request, entro un budget) e vince
+ * la prima risposta valida, mentre un errore passa subito all'endpoint successivo invece di attendere
+ * il poll seguente con backoff.
+ * </p>
+ * <p>
+ * Con un {@link GTFSRealtimeRecorder} ({@link #setRecorder}) ogni feed scaricato viene anche archiviato,
+ * per riprodurlo in seguito con {@link GTFSRealtimeReplayServer} passando al costruttore i suoi URL.
+ * </p>
+ * <p>
+ * Ogni poll aggiorna le metriche del feed ({@link #getMetrics()}): latenza del download, byte, entità,
+ * durate di decodifica e applicazione, esito ed età dei dati.
+ * </p>
+ * <p>
+ * Con più agenzie ({@link GTFSFeed}) ogni feed realtime di ognuna ha il proprio stato, cadenza e decoder,
+ * che prefissa gli ID con lo spazio dei nomi dell'agenzia; l'indicizzatore sostituisce ad ogni applicazione
+ * solo la parte di quell'agenzia. L'archivio registra i soli feed dell'agenzia principale.
+ * </p>
  */
 public class GTFSRealtimeManager {
 
@@ -37,24 +88,34 @@ public class GTFSRealtimeManager {
         return t;                                                                               // Esegue il polling in background, senza bloccare il main thread.
     });
 
+    private final ExecutorService parser;                                                       // Decodifica e applica i feed, uno per thread.
+
     // OPERATOR --------------------------------------------------------------------------------------------------------
     private final GTFSDataIndexer indexer;
 
-    // URL DEI FEED REALTIME -------------------------------------------------------------------------------------------
-    private final URI tripUpdatesUri;
-    private final URI vehiclePositionsUri;
+    // FEED REALTIME ---------------------------------------------------------------------------------------------------
+    private final FeedState tripFeed;                                                           // Stato del feed TripUpdates principale (null se assente).
+    private final FeedState vehicleFeed;                                                        // Stato del feed VehiclePositions principale (null se assente).
+    private final FeedState alertFeed;                                                          // Stato del feed degli avvisi principale (null se non configurato).
+    private final List<FeedState> feeds;                                                        // Feed interrogati dal poller.
+
+    // CONTATORI -------------------------------------------------------------------------------------------------------
+    private final AtomicLong appliedCount = new AtomicLong();                                   // Feed decodificati e applicati.
+    private final AtomicLong notModifiedCount = new AtomicLong();                               // Feed saltati per risposta 304.
+    private final AtomicLong sameTimestampCount = new AtomicLong();                             // Feed saltati per timestamp dell'header invariato.
 
     // PARAMETRI PER POLLING -------------------------------------------------------------------------------------------
-    private final long baseIntervalSeconds = 30L;                                               // Intervallo normale: 30 secondi.
+    private final long baseIntervalSeconds = 30L;                                               // Intervallo iniziale e base del backoff: 30 secondi.
     private final long maxIntervalSeconds = 300L;                                               // Intervallo massimo (backoff): 5 minuti.
-    private volatile long currentIntervalSeconds = baseIntervalSeconds;                         // Intervallo attuale, aggiornato in caso di failure.
-    private ScheduledFuture<?> scheduledTask;                                                   // Future che rappresenta il task schedulato, utile per cancellarlo.
+    private final long requestTimeoutSeconds = 10L;                                             // Timeout di ogni richiesta HTTP.
+    private boolean running;                                                                    // Polling attivo (protetto dal lock dell'oggetto).
+    private int generation;                                                                     // Incrementato ad ogni avvio: i poll di un avvio precedente non ripianificano.
 
-    // FAILURE TRACKING ------------------------------------------------------------------------------------------------
-    private volatile int consecutiveFailures = 0;                                               // Tiene traccia di quante volte consecutive il polling non ha avuto successo.
+    // METRICHE --------------------------------------------------------------------------------------------------------
+    private final GTFSRealtimeMetrics metrics;                                                  // Metriche dei poll, pubblicate via JMX e JFR.
 
-    // FRESHNESS -------------------------------------------------------------------------------------------------------
-    private volatile long lastSuccessfulEpochSec = 0L;                                          // Memorizza l’epoch-second dell’ultimo update riuscito (serve per sapere se i dati online sono freschi).
+    // REGISTRAZIONE ---------------------------------------------------------------------------------------------------
+    private volatile GTFSRealtimeRecorder recorder;                                             // Archivio dei feed scaricati (null se disattivato).
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
@@ -65,9 +126,130 @@ public class GTFSRealtimeManager {
      * @param vehiclePositionsUrl URL feed GTFS VehiclePositions
      */
     public GTFSRealtimeManager(GTFSDataIndexer indexer, String tripUpdatesUrl, String vehiclePositionsUrl) {
+        this(indexer, List.of(tripUpdatesUrl), List.of(vehiclePositionsUrl));
+    }
+
+    /**
+     * Costruttore con mirror o proxy per ciascun feed.
+     *
+     * @param indexer              riferimento al GTFSDataIndexer
+     * @param tripUpdatesUrls      URL del feed TripUpdates: il principale seguito dai mirror
+     * @param vehiclePositionsUrls URL del feed VehiclePositions: il principale seguito dai mirror
+     */
+    public GTFSRealtimeManager(GTFSDataIndexer indexer, List<String> tripUpdatesUrls, List<String> vehiclePositionsUrls) {
+        this(indexer, tripUpdatesUrls, vehiclePositionsUrls, List.of());
+    }
+
+    /**
+     * Costruttore con il feed degli avvisi di servizio, interrogato dallo stesso poller degli altri due.
+     *
+     * @param indexer              riferimento al GTFSDataIndexer
+     * @param tripUpdatesUrls      URL del feed TripUpdates: il principale seguito dai mirror
+     * @param vehiclePositionsUrls URL del feed VehiclePositions: il principale seguito dai mirror
+     * @param alertsUrls           URL del feed degli avvisi: il principale seguito dai mirror (vuota se assente)
+     */
+    public GTFSRealtimeManager(GTFSDataIndexer indexer, List<String> tripUpdatesUrls, List<String> vehiclePositionsUrls,
+                               List<String> alertsUrls) {
+        this(indexer, List.of(new GTFSFeed("", null, null, tripUpdatesUrls, vehiclePositionsUrls, alertsUrls)));
+    }
+
+    /**
+     * Costruttore per più agenzie: interroga i feed realtime configurati di ciascuna.
+     *
+     * @param indexer riferimento al GTFSDataIndexer, costruito sugli stessi feed
+     * @param feeds   feed delle agenzie; quelli senza URL realtime vengono ignorati
+     */
+    public GTFSRealtimeManager(GTFSDataIndexer indexer, List<GTFSFeed> feeds) {
         this.indexer = indexer;
-        this.tripUpdatesUri = URI.create(tripUpdatesUrl);
-        this.vehiclePositionsUri = URI.create(vehiclePositionsUrl);
+        this.metrics = new GTFSRealtimeMetrics(indexer::getRealtimeListenerStats);
+
+        List<FeedState> states = new ArrayList<>();
+        FeedState mainTrips = null, mainVehicles = null, mainAlerts = null;
+        for (GTFSFeed feed : feeds) {
+            String ns = feed.getNamespace();
+            String prefix = feed.getIdPrefix();
+            FeedState trips = feed.getTripUpdatesUrls().isEmpty() ? null : newFeedState(feed, GTFSRealtimeRecorder.TRIP_UPDATES,
+                    feed.getTripUpdatesUrls(),
+                    decoder -> indexer.applyTripUpdates(ns, decoder.getTripUpdates()),
+                    decoder -> decoder.getTripUpdates().size(),
+                    new GTFSRealtimeStreamDecoder(this::routeOfTrip, prefix));
+            FeedState vehicles = feed.getVehiclePositionsUrls().isEmpty() ? null : newFeedState(feed, GTFSRealtimeRecorder.VEHICLE_POSITIONS,
+                    feed.getVehiclePositionsUrls(),
+                    decoder -> indexer.applyVehiclePositions(ns, decoder.getVehiclePositions()),
+                    decoder -> decoder.getVehiclePositions().size(),
+                    new GTFSRealtimeStreamDecoder(this::routeOfTrip, prefix));
+            FeedState alerts = feed.getAlertsUrls().isEmpty() ? null : newFeedState(feed, GTFSRealtimeRecorder.SERVICE_ALERTS,
+                    feed.getAlertsUrls(),
+                    decoder -> indexer.applyAlerts(ns, decoder.getAlerts()),
+                    decoder -> decoder.getAlerts().size(),
+                    new GTFSRealtimeStreamDecoder(null, prefix));
+            for (FeedState state : new FeedState[]{ trips, vehicles, alerts }) {
+                if (state != null) states.add(state);
+            }
+            if (feed.isMain()) {
+                mainTrips = trips;
+                mainVehicles = vehicles;
+                mainAlerts = alerts;
+            }
+        }
+        this.tripFeed = mainTrips;
+        this.vehicleFeed = mainVehicles;
+        this.alertFeed = mainAlerts;
+        this.feeds = List.copyOf(states);
+        this.parser = Executors.newFixedThreadPool(Math.max(1, this.feeds.size()), r -> {    // Un thread per feed: nessun feed attende gli altri.
+            Thread t = new Thread(r, "GTFSRealtimeManager-Parser");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Crea lo stato di un feed realtime di un'agenzia, con le sue metriche.
+     * Il nome è il tipo del feed per l'agenzia principale, "namespace/tipo" per le altre.
+     */
+    private FeedState newFeedState(GTFSFeed feed, String type, List<String> urls, Consumer<GTFSRealtimeStreamDecoder> apply,
+                                   ToIntFunction<GTFSRealtimeStreamDecoder> entities, GTFSRealtimeStreamDecoder decoder) {
+        String name = feed.isMain() ? type : feed.getNamespace() + "/" + type;
+        return new FeedState(name, type, feed.isMain(),
+                new GTFSFeedEndpoints(urls, requestTimeoutSeconds * 1000L), apply, entities,
+                new GTFSFeedCadence(baseIntervalSeconds, maxIntervalSeconds), decoder, metrics.addFeed(name));
+    }
+
+    // FILTRO DELLE LINEE ----------------------------------------------------------------------------------------------
+    /**
+     * Limita i dati realtime alle linee indicate: le entità delle altre linee vengono scartate già in decodifica.
+     * <p>
+     * Il filtro vale dal poll successivo, che applica di nuovo i feed anche se non sono cambiati.
+     * </p>
+     *
+     * @param routeIds ID delle linee da mantenere; null o vuoto per tutte le linee
+     */
+    public void setRouteFilter(Set<String> routeIds) {
+        for (FeedState feed : feeds) {
+            if (feed.type.equals(GTFSRealtimeRecorder.SERVICE_ALERTS)) continue;                // Gli avvisi non vengono filtrati.
+            feed.decoder.setRouteFilter(routeIds);
+            feed.etag = null;                                                                   // Forza una nuova applicazione.
+            feed.lastModified = null;
+            feed.lastAppliedTimestamp = 0L;
+        }
+    }
+
+    // REGISTRAZIONE DEI FEED ------------------------------------------------------------------------------------------
+    /**
+     * Attiva o disattiva l'archiviazione dei feed scaricati.
+     *
+     * @param recorder archivio in cui scrivere ogni feed scaricato; null per disattivare
+     */
+    public void setRecorder(GTFSRealtimeRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Restituisce la linea di una corsa dai dati statici, per il filtro dei decoder.
+     */
+    private String routeOfTrip(String tripId) {
+        Trip trip = indexer.getTripById(tripId);
+        return trip != null ? trip.getRouteId() : null;
     }
 
     // AVVIA IL POLLING ------------------------------------------------------------------------------------------------
@@ -75,9 +257,11 @@ public class GTFSRealtimeManager {
      * Avvia il polling dei feed realtime. Se già in esecuzione non fa nulla.
      */
     public synchronized void start() {
-        if (scheduledTask != null && !scheduledTask.isDone()) return;                                   // Sincronizzato: un task di polling alla volta.
-        scheduleAtInterval(0, currentIntervalSeconds);                                  // Pianifica il prossimo task con intervallo corrente e 0 secondi di delay.
-        LOG.info("GTFSRealtimeManager started (interval=" + currentIntervalSeconds + "s)");        // LOG: stampa l'intervallo attivo.
+        if (running) return;                                                                    // Sincronizzato: una catena di poll per feed.
+        running = true;
+        generation++;
+        for (FeedState feed : feeds) schedule(feed, 0L, generation);                            // Primo poll immediato per tutti i feed.
+        LOG.info("GTFSRealtimeManager started (adaptive, base interval=" + baseIntervalSeconds + "s)");    // LOG: avvio.
     }
 
     // ARRESTA IL POLLING ----------------------------------------------------------------------------------------------
@@ -85,115 +269,390 @@ public class GTFSRealtimeManager {
      * Ferma il polling dei feed realtime.
      */
     public synchronized void stop() {
-        if (scheduledTask != null) {                                        // Se il task è in corso...
-            scheduledTask.cancel(false);                  // ...Cancella il task senza interrompere il thread in corso...
-            scheduledTask = null;                                           // ...E elimina il riferimento del task.
+        running = false;
+        for (FeedState feed : feeds) {                                                          // Per ogni feed...
+            if (feed.task != null) feed.task.cancel(false);                                     // ...Cancella il poll pianificato senza interrompere quello in corso...
+            feed.task = null;                                                                   // ...E elimina il riferimento del task.
         }
-        LOG.info("GTFSRealtimeManager stopped");                       // LOG: stampa la conferma d'arresto.
+        LOG.info("GTFSRealtimeManager stopped");                                                // LOG: stampa la conferma d'arresto.
     }
 
-    // PIANIFICA UN NUOVO TASK DI POLLING ------------------------------------------------------------------------------
+    // PIANIFICA IL PROSSIMO POLL DI UN FEED ---------------------------------------------------------------------------
     /**
-     * Pianifica un nuovo task di polling con intervallo specificato.
+     * Pianifica il prossimo poll di un feed, se il polling è ancora attivo nello stesso avvio.
      *
-     * @param initialDelaySeconds delay iniziale in secondi
-     * @param intervalSeconds     intervallo tra poll in secondi
+     * @param feed       stato del feed
+     * @param delayMs    ritardo in millisecondi
+     * @param generation avvio che ha originato la catena di poll
      */
-    private synchronized void scheduleAtInterval(long initialDelaySeconds, long intervalSeconds) {
-        if (scheduledTask != null) scheduledTask.cancel(false);                               // Cancella il task precedente (thread-safe)
-        currentIntervalSeconds = intervalSeconds;                                                               // Aggiorna l'intervallo scelto.
-        scheduledTask = scheduler.scheduleAtFixedRate(                                                          // Pianifica il prossimo task.
-                this::pollOnce,                                                                                 // Inizializza un singolo ciclo di polling.
-                initialDelaySeconds,                                                                            // Delay iniziale.
-                intervalSeconds,                                                                                // Intervallo scelto.
-                TimeUnit.SECONDS);                                                                              // Unità di misura per intervalli e delay (secondi).
+    private synchronized void schedule(FeedState feed, long delayMs, int generation) {
+        if (!running || generation != this.generation) return;                                 // Polling fermato o riavviato nel frattempo.
+        feed.task = scheduler.schedule(() -> pollAndReschedule(feed, generation), delayMs, TimeUnit.MILLISECONDS);
     }
 
-    // INIZIALIZZA UN SINGOLO CICLO DI POLLING -------------------------------------------------------------------------
+    // SINGOLO POLL DI UN FEED -----------------------------------------------------------------------------------------
     /**
-     * Esegue un singolo ciclo di polling: scarica i feed, li applica all'indicizzatore e aggiorna lo stato di freschezza.
+     * Esegue un poll del feed e, alla conclusione, pianifica il successivo in base all'esito:
+     * dopo la prossima pubblicazione attesa se il feed era nuovo, a breve se era invariato, con backoff se è fallito.
      */
-    private void pollOnce() {
+    private void pollAndReschedule(FeedState feed, int generation) {
+        CompletableFuture<PollOutcome> done;
+        feed.metrics.beginPoll();
         try {
-            FeedMessage tripFeed = null;                                                                                    // Accumulatore per tripUpdates.
-            FeedMessage vehicleFeed = null;                                                                                 // Accumulatore per vehiclePosition.
-            boolean anySuccess = false;                                                                                     // Flag di successo.
-
-            // Fetch aggiornamenti sulle corse.
-            byte[] tripBytes = fetchBytes(tripUpdatesUri);                                                                  // Tenta la richiesta HTTP sull’URI di tripUpdates.
-            if (tripBytes != null) {                                                                                        // Se bytes non null (la richiesta ha avuto successo)...
-                try {
-                    tripFeed = FeedMessage.parseFrom(tripBytes);                                                            // ...Prova il parsing dei GTFS realtime scaricati.
-                    anySuccess = true;                                                                                      // ...Marca flag di successo = true.
-                } catch (Exception e) {
-                    LOG.log(Level.FINE, "Parsing tripFeed fallito: " + e.getMessage(), e);                             // LOG: Parsing fallito.
-                }
+            done = pollFeed(feed);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Errore durante polling realtime (eccezione): " + e.getMessage(), e);   // LOG: errore generico nel polling dei dati GTFS realtime.
+            long delayMs = feed.cadence.onFailure();
+            feed.metrics.endPoll(PollOutcome.FAILED.name(), feed.cadence.getConsecutiveFailures());
+            schedule(feed, delayMs, generation);
+            return;
+        }
+        done.whenComplete((outcome, ex) -> {
+            double nowSec = System.currentTimeMillis() / 1000.0;
+            long delayMs;
+            if (outcome == PollOutcome.APPLIED) {
+                delayMs = feed.cadence.onNewFeed(feed.lastAppliedTimestamp, nowSec);
+            } else if (outcome == PollOutcome.UNCHANGED) {
+                delayMs = feed.cadence.onUnchanged(nowSec);
+            } else {
+                delayMs = feed.cadence.onFailure();
+                LOG.fine("Polling " + feed.name + " fallito (consecutiveFailures="
+                        + feed.cadence.getConsecutiveFailures() + "), prossimo tentativo tra " + delayMs + "ms");     // LOG: backoff.
             }
+            feed.metrics.endPoll((outcome != null ? outcome : PollOutcome.FAILED).name(),
+                    feed.cadence.getConsecutiveFailures());                                    // Metriche ed evento JFR del poll.
+            LOG.fine("Polling " + feed.name + ": cadenza stimata=" + feed.cadence.getCadenceSec() + "s, applicati="
+                    + appliedCount.get() + ", non modificati=" + notModifiedCount.get()
+                    + ", timestamp invariato=" + sameTimestampCount.get());                     // LOG: contatori dei feed.
+            schedule(feed, delayMs, generation);
+        });
+    }
 
-            // Fetch posizione dei veicoli.
-            byte[] vehicleBytes = fetchBytes(vehiclePositionsUri);                                                          // Tenta la richiesta HTTP sull’URI di vehiclePosition.
-            if (vehicleBytes != null) {                                                                                     // Se bytes non null (la richiesta ha avuto successo)...
-                try {
-                    vehicleFeed = FeedMessage.parseFrom(vehicleBytes);                                                      // ...Prova il parsing dei GTFS realtime scaricati.
-                    anySuccess = true;                                                                                      // ...Marca flag di successo = true.
-                } catch (Exception e) {
-                    LOG.log(Level.FINE, "Parsing vehicleFeed fallito: " + e.getMessage(), e);                          // LOG: Parsing fallito.
-                }
-            }
+    // POLLING DI UN SINGOLO FEED --------------------------------------------------------------------------------------
+    /**
+     * Scarica un feed con una richiesta condizionale e, se è cambiato, lo decodifica e lo applica.
+     *
+     * @param feed stato del feed
+     * @return     future con l'esito del poll
+     */
+    private CompletableFuture<PollOutcome> pollFeed(FeedState feed) {
+        return new HedgedFetch(feed).start()                                                                // Richiesta all'endpoint migliore, con hedge e failover.
+                .thenApplyAsync(fetched -> handleResponse(feed, fetched.response, fetched.startNanos), parser)  // Legge, decodifica e applica sul thread dei parser.
+                .exceptionally(e -> {
+                    LOG.log(Level.FINE, "fetch fallita per " + feed.name + ": " + e.getMessage());         // LOG: richiesta fallita su tutti gli endpoint.
+                    return PollOutcome.FAILED;                                                              // Backoff.
+                });
+    }
 
-            // Se nessuno dei due fetch/parse ha avuto successo -> incrementa failure e applica backoff.
-            if (!anySuccess) {                                                                                              // Se nessun fetch ha avuto successo...
-                consecutiveFailures++;                                                                                      // ...Incrementa il contatore dei fallimenti consecutivi...
-                long nextInterval = Math.min(                                                                               // ...Calcola un nuovo intervallo...
-                        maxIntervalSeconds,                                                                                 // ...Intervallo massimo (5 minuti)...
-                        baseIntervalSeconds * (1L << Math.min(consecutiveFailures, 6)));                                    // ...Nuovo intervallo: baseIntervalSeconds * 2^k con k = consecutiveFailures <= 6...
-                if (nextInterval != currentIntervalSeconds) {                                                               // ...Se è stato cambiato intervallo (fetch fallito)...
-                    LOG.info("Nessun feed valido, aumento interval da " +
-                            currentIntervalSeconds + "s a " + nextInterval +
-                            "s (failure count=" + consecutiveFailures + ")");                                               // ...LOG: nessun feed valido, aumento intervallo.
-                    scheduleAtInterval(nextInterval, nextInterval);
-                }
-                LOG.fine("Polling realtime: nessun feed valido (consecutiveFailures=" + consecutiveFailures + ")");    // ...LOG: nessun feed valido, incremento fallimenti.
-                return;
+    /**
+     * Costruisce la richiesta condizionale di un feed verso un endpoint.
+     */
+    private HttpRequest request(FeedState feed, URI uri) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()                                              // Costruzione della richiesta.
+                .uri(uri)                                                                                   // Imposta l'URI.
+                .timeout(Duration.ofSeconds(requestTimeoutSeconds))                                         // Timeout massimo di 10 secondi (altrimenti genera eccezione).
+                .header("Accept-Encoding", "gzip")                                                          // Accetta la risposta compressa.
+                .GET();                                                                                     // GET: scaricare risorse.
+        if (feed.etag != null) builder.header("If-None-Match", feed.etag);                                  // Richiesta condizionale sull'ETag...
+        if (feed.lastModified != null) builder.header("If-Modified-Since", feed.lastModified);              // ...E sulla data di ultima modifica.
+        return builder.build();
+    }
+
+    /**
+     * Gestisce la risposta di un feed: salta i feed non modificati, altrimenti decodifica e applica.
+     */
+    private PollOutcome handleResponse(FeedState feed, HttpResponse<InputStream> resp, long startNanos) {
+        try (InputStream body = resp.body()) {                                                              // Chiude lo stream anche senza leggerlo.
+            if (resp.statusCode() == 304) {                                                                 // Feed non rigenerato dall'ultimo poll.
+                feed.metrics.onFetched(System.nanoTime() - startNanos, 0);
+                notModifiedCount.incrementAndGet();
+                return PollOutcome.UNCHANGED;
+            }
+            if (resp.statusCode() != 200) {
+                LOG.fine("HTTP status non-ok per " + feed.name + ": " + resp.statusCode());                // LOG: status code della risposta.
+                return PollOutcome.FAILED;
             }
 
-            // Se almeno un feed è stato parsato con successo.
-            consecutiveFailures = 0;                                                                                        // Azzera il numero di fallimenti consecutivi.
-            if (currentIntervalSeconds != baseIntervalSeconds) {                                                            // Se l'intervallo non è più quello di base (fallimenti precedenti)...
-                scheduleAtInterval(baseIntervalSeconds, baseIntervalSeconds);                                               // ...Ripristina l'intervallo di base...
-                LOG.info("Feed tornati validi: ripristino interval base " + baseIntervalSeconds + "s");                // ...LOG: feed validi, ripristino intervallo.
+            long headerTs;
+            if (resp.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip")) {
+                headerTs = feed.decoder.readFrom(new GZIPInputStream(body, 1 << 16));                       // Decompressione durante la lettura.
+            } else {
+                headerTs = feed.decoder.readFrom(body);                                                     // Legge il corpo e il solo header del feed.
+            }
+            feed.metrics.onFetched(System.nanoTime() - startNanos, feed.decoder.getBodyLength());          // Latenza fino alla lettura completa del corpo.
+            GTFSRealtimeRecorder rec = recorder;
+            if (rec != null && feed.archived) rec.record(feed.type, System.currentTimeMillis(), headerTs, feed.decoder.copyBody());    // Archivia ogni feed scaricato.
+            if (headerTs > 0 && headerTs == feed.lastAppliedTimestamp) {                                    // Stesso feed già applicato...
+                sameTimestampCount.incrementAndGet();                                                       // ...Salta decodifica, ricostruzione e notifica.
+                rememberValidators(feed, resp);
+                return PollOutcome.UNCHANGED;
             }
-            indexer.applyRealtimeUpdates(tripFeed, vehicleFeed);                                                            // Applica i feed (anche se solo uno è disponibile, applyRealtimeUpdates gestisce null).
-            lastSuccessfulEpochSec = Instant.now().getEpochSecond();                                                        // Aggiorna timestamp di successo (monitoraggio della freschezza).
 
+            long decodeStart = System.nanoTime();
+            feed.decoder.decode();                                                                          // Decodifica dei soli campi usati.
+            long applyStart = System.nanoTime();
+            feed.apply.accept(feed.decoder);                                                                // Applica il feed all'indicizzatore (gli errori arrivano al catch).
+            feed.metrics.onApplied(applyStart - decodeStart, System.nanoTime() - applyStart,
+                    feed.entities.applyAsInt(feed.decoder), headerTs);
+            feed.lastAppliedTimestamp = headerTs;
+            rememberValidators(feed, resp);                                                                 // Validatori salvati solo dopo un'applicazione riuscita.
+            appliedCount.incrementAndGet();
+            return PollOutcome.APPLIED;
         } catch (Exception e) {
-            LOG.log(Level.WARNING, "Errore durante polling realtime (eccezione): " + e.getMessage(), e);               // LOG: errore generico nel polling dei dati GTFS realtime.
-            consecutiveFailures++;                                                                                          // Incrementa i fallimenti consecutivi.
+            LOG.log(Level.WARNING, "Decodifica o applicazione di " + feed.name + " fallita: " + e.getMessage(), e);    // LOG: feed non applicato.
+            return PollOutcome.FAILED;                                                                      // Validatori e timestamp invariati: il poll successivo lo riprova.
         }
     }
 
-    // HELPER PER SCARICARE BYTE DA UN URI -----------------------------------------------------------------------------
     /**
-     * Scarica i byte da un URI tramite HttpClient.
+     * Memorizza ETag e Last-Modified della risposta per la richiesta condizionale successiva.
+     */
+    private static void rememberValidators(FeedState feed, HttpResponse<?> resp) {
+        feed.etag = resp.headers().firstValue("ETag").orElse(null);
+        feed.lastModified = resp.headers().firstValue("Last-Modified").orElse(null);
+    }
+
+    // CONTATORI -------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce il numero di feed decodificati e applicati.
      *
-     * @param uri URI da cui scaricare i dati
-     * @return    array di byte scaricati o null in caso di errore
+     * @return numero di feed applicati
      */
-    private byte[] fetchBytes(URI uri) {
-        try {
-            HttpRequest req = HttpRequest.newBuilder()                                                      // Costruzione della richiesta.
-                    .uri(uri)                                                                               // Imposta l'URI.
-                    .timeout(Duration.ofSeconds(10))                                                        // Timeout massimo di 10 secondi (altrimenti genera eccezione).
-                    .GET()                                                                                  // GET: scaricare risorse.
-                    .build();                                                                               // Costriusce l'oggetto HttpRequest finale.
-            HttpResponse<byte[]> resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());            // Invia la richiesta e legge la risposta come array di bytes.
-            if (resp.statusCode() == 200) return resp.body();                                               // Se status code = 200 = OK (es. 404 = not found) torna il contenut della risposta.
-            LOG.fine("HTTP status non-ok per " + uri + ": " + resp.statusCode());                      // LOG: status code e corpo della risposta.
-        } catch (Exception e) {
-            LOG.log(Level.FINE, "fetchBytes fallita per " + uri + ": " + e.getMessage());              // LOG: richiesta fallita.
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+
+    /**
+     * Restituisce il numero di feed saltati perché invariati (risposta 304 o timestamp dell'header uguale).
+     *
+     * @return numero di feed saltati
+     */
+    public long getSkippedCount() {
+        return notModifiedCount.get() + sameTimestampCount.get();
+    }
+
+    /**
+     * Restituisce il numero di feed saltati grazie alla richiesta condizionale (risposta 304).
+     *
+     * @return numero di risposte 304
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    // METRICHE --------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce le metriche dei poll dei feed.
+     *
+     * @return metriche della pipeline realtime
+     */
+    public GTFSRealtimeMetrics getMetrics() {
+        return metrics;
+    }
+
+    // CADENZA DEI FEED ------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce la cadenza di pubblicazione stimata del feed TripUpdates.
+     *
+     * @return cadenza in secondi, oppure 0 se l'agenzia principale non ha il feed
+     */
+    public double getTripFeedCadenceSeconds() {
+        return tripFeed != null ? tripFeed.cadence.getCadenceSec() : 0.0;
+    }
+
+    /**
+     * Restituisce la cadenza di pubblicazione stimata del feed VehiclePositions.
+     *
+     * @return cadenza in secondi, oppure 0 se l'agenzia principale non ha il feed
+     */
+    public double getVehicleFeedCadenceSeconds() {
+        return vehicleFeed != null ? vehicleFeed.cadence.getCadenceSec() : 0.0;
+    }
+
+    // ENDPOINT DEI FEED -----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce gli endpoint del feed TripUpdates con il loro stato di salute.
+     *
+     * @return endpoint del feed, oppure null se l'agenzia principale non ha il feed
+     */
+    public GTFSFeedEndpoints getTripFeedEndpoints() {
+        return tripFeed != null ? tripFeed.endpoints : null;
+    }
+
+    /**
+     * Restituisce gli endpoint del feed VehiclePositions con il loro stato di salute.
+     *
+     * @return endpoint del feed, oppure null se l'agenzia principale non ha il feed
+     */
+    public GTFSFeedEndpoints getVehicleFeedEndpoints() {
+        return vehicleFeed != null ? vehicleFeed.endpoints : null;
+    }
+
+    /**
+     * Restituisce gli endpoint del feed degli avvisi con il loro stato di salute.
+     *
+     * @return endpoint del feed, oppure null se il feed degli avvisi non è configurato
+     */
+    public GTFSFeedEndpoints getAlertFeedEndpoints() {
+        return alertFeed != null ? alertFeed.endpoints : null;
+    }
+
+    // RICHIESTE DI UN POLL --------------------------------------------------------------------------------------------
+    /**
+     * Richieste di un poll. La prima parte verso l'endpoint con il punteggio migliore; se non risponde entro
+     * il 95° percentile delle sue latenze e il budget lo consente, ne parte una seconda verso il successivo.
+     * Un errore passa subito all'endpoint successivo non ancora interrogato. Vince la prima risposta valida
+     * (200 o 304), le richieste ancora in corso vengono annullate e i loro corpi chiusi; il poll fallisce
+     * solo quando tutte le richieste inviate sono fallite.
+     */
+    private final class HedgedFetch {
+        private final FeedState feed;
+        private final List<GTFSFeedEndpoints.Endpoint> ranked;                                     // Endpoint in ordine di punteggio.
+        private final CompletableFuture<Fetched> result = new CompletableFuture<>();
+
+        // stato protetto dal lock dell'oggetto
+        private final List<CompletableFuture<HttpResponse<InputStream>>> requests = new ArrayList<>();
+        private int launched, failed;
+        private ScheduledFuture<?> hedgeTask;
+
+        HedgedFetch(FeedState feed) {
+            this.feed = feed;
+            this.ranked = feed.endpoints.rankForPoll();
+            GTFSFeedEndpoints.Endpoint preferred = feed.endpoints.getPreferred();                   // Esclude i poll di esplorazione.
+            if (feed.preferred != preferred) {                                                      // L'endpoint principale è cambiato.
+                if (feed.preferred != null) LOG.info("Feed " + feed.name + ": endpoint principale ora " + preferred);  // LOG: cambio di endpoint.
+                feed.preferred = preferred;
+            }
+        }
+
+        synchronized CompletableFuture<Fetched> start() {
+            launchNext(false);
+            if (ranked.size() > 1 && !result.isDone()) {
+                hedgeTask = scheduler.schedule(this::hedge, feed.endpoints.hedgeDelayMs(ranked.get(0)), TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+
+        /**
+         * Invia la richiesta aggiuntiva se la prima non ha ancora risposto e il budget lo consente.
+         */
+        private synchronized void hedge() {
+            if (result.isDone() || launched != 1 || !feed.endpoints.tryAcquireHedge()) return;
+            feed.metrics.onHedged();
+            launchNext(true);
+        }
+
+        private void launchNext(boolean hedge) {
+            GTFSFeedEndpoints.Endpoint endpoint = ranked.get(launched++);
+            long startNanos = System.nanoTime();
+            CompletableFuture<HttpResponse<InputStream>> request;
+            try {
+                request = http.sendAsync(request(feed, endpoint.uri), HttpResponse.BodyHandlers.ofInputStream());
+            } catch (RuntimeException e) {
+                request = CompletableFuture.failedFuture(e);                                            // Errore immediato: trattato come risposta fallita.
+            }
+            requests.add(request);
+            request.whenComplete((resp, ex) -> onResponse(endpoint, hedge, startNanos, resp, ex));
+        }
+
+        private synchronized void onResponse(GTFSFeedEndpoints.Endpoint endpoint, boolean hedge, long startNanos,
+                                             HttpResponse<InputStream> resp, Throwable ex) {
+            if (result.isDone()) {                                                                      // Ha già risposto un altro endpoint.
+                discard(resp);
+                return;
+            }
+            if (ex == null && (resp.statusCode() == 200 || resp.statusCode() == 304)) {
+                feed.endpoints.onSuccess(endpoint, System.nanoTime() - startNanos);
+                feed.metrics.onServedBy(endpoint.uri.toString(), hedge);
+                if (hedgeTask != null) hedgeTask.cancel(false);
+                result.complete(new Fetched(resp, startNanos));
+                for (CompletableFuture<HttpResponse<InputStream>> other : requests) other.cancel(true);  // Annulla le richieste perdenti.
+                return;
+            }
+            feed.endpoints.onFailure(endpoint);
+            discard(resp);
+            LOG.fine("Richiesta " + feed.name + " fallita su " + endpoint + ": "
+                    + (ex != null ? ex.getMessage() : "HTTP " + resp.statusCode()));                   // LOG: errore di un endpoint.
+            failed++;
+            if (launched < ranked.size()) {                                                             // Failover sull'endpoint successivo.
+                if (hedgeTask != null) hedgeTask.cancel(false);
+                launchNext(false);
+            } else if (failed == launched) {                                                            // Tutti gli endpoint sono falliti.
+                result.completeExceptionally(ex != null ? ex : new IOException("HTTP " + resp.statusCode() + " da " + endpoint));
+            }
+        }
+
+        private static void discard(HttpResponse<InputStream> resp) {
+            if (resp == null) return;
+            try {
+                resp.body().close();
+            } catch (IOException ignored) {
+                // Corpo di una risposta scartata.
+            }
         }
-        return null;                                                                                        // Backoff.
     }
-}
 
+    /**
+     * Risposta vincente di un poll, con l'istante di invio della sua richiesta.
+     */
+    private static final class Fetched {
+        final HttpResponse<InputStream> response;
+        final long startNanos;
+
+        Fetched(HttpResponse<InputStream> response, long startNanos) {
+            this.response = response;
+            this.startNanos = startNanos;
+        }
+    }
 
+    // ESITO DI UN POLL ------------------------------------------------------------------------------------------------
+    /**
+     * Esito di un poll, da cui dipende quando avviene il successivo.
+     */
+    private enum PollOutcome {
+        /** Feed nuovo, decodificato e applicato. */
+        APPLIED,
+        /** Feed invariato (risposta 304 o stesso timestamp dell'header). */
+        UNCHANGED,
+        /** Richiesta o decodifica fallita. */
+        FAILED
+    }
+
+    // STATO DI UN FEED ------------------------------------------------------------------------------------------------
+    /**
+     * Stato di un feed tra un poll e il successivo: validatori HTTP, timestamp dell'ultimo feed applicato,
+     * stima della cadenza, decoder e poll pianificato. Ogni feed ha una sola catena di poll alla volta,
+     * quindi il decoder viene usato da un thread per volta.
+     */
+    private static final class FeedState {
+        final String name;                                                                          // Nome del feed per i log e le metriche.
+        final String type;                                                                          // Tipo del feed, come nell'archivio.
+        final boolean archived;                                                                     // Feed dell'agenzia principale, archiviato dal recorder.
+        final GTFSFeedEndpoints endpoints;                                                          // URL del feed e loro salute.
+        final Consumer<GTFSRealtimeStreamDecoder> apply;                                            // Applica i buffer decodificati all'indicizzatore.
+        final ToIntFunction<GTFSRealtimeStreamDecoder> entities;                                    // Entità decodificate (per le metriche).
+        final GTFSFeedCadence cadence;                                                              // Cadenza stimata e backoff del feed.
+        final GTFSRealtimeStreamDecoder decoder;                                                    // Decoder con i buffer riutilizzati tra i poll.
+        final GTFSRealtimeMetrics.FeedMetrics metrics;                                              // Metriche dei poll del feed.
+        volatile String etag;                                                                       // ETag dell'ultima risposta applicata.
+        volatile String lastModified;                                                               // Last-Modified dell'ultima risposta applicata.
+        volatile long lastAppliedTimestamp;                                                         // Timestamp dell'header dell'ultimo feed applicato.
+        ScheduledFuture<?> task;                                                                    // Prossimo poll pianificato (protetto dal lock del manager).
+        GTFSFeedEndpoints.Endpoint preferred;                                                       // Endpoint principale dell'ultimo poll.
+
+        FeedState(String name, String type, boolean archived, GTFSFeedEndpoints endpoints, Consumer<GTFSRealtimeStreamDecoder> apply,
+                  ToIntFunction<GTFSRealtimeStreamDecoder> entities, GTFSFeedCadence cadence,
+                  GTFSRealtimeStreamDecoder decoder, GTFSRealtimeMetrics.FeedMetrics metrics) {
+            this.name = name;
+            this.type = type;
+            this.archived = archived;
+            this.endpoints = endpoints;
+            this.apply = apply;
+            this.entities = entities;
+            this.cadence = cadence;
+            this.decoder = decoder;
+            this.metrics = metrics;
+            metrics.setEndpoints(endpoints::describe);
+        }
+    }
+}
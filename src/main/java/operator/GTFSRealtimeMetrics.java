@@ -0,0 +1,474 @@
+package operator;
+
+// JFR.
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Altre classi.
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Metriche della pipeline realtime: download, decodifica, applicazione, consegna ai listener ed età dei dati.
+ * <p>
+ * Ogni feed ha un {@link FeedMetrics} aggiornato dal {@link GTFSRealtimeManager} ad ogni poll
+ * (latenza HTTP con istogramma a bucket fissi, byte, entità, durate di decodifica e applicazione, esiti,
+ * richieste aggiuntive verso i mirror ed endpoint che ha servito il feed)
+ * e la consegna ai listener viene letta dalle statistiche del {@link GTFSRealtimeDispatcher}.
+ * Le metriche sono pubblicate come MXBean JMX ({@link #registerMBeans()}) sotto il dominio {@code damose}
+ * e ogni poll emette un evento JFR {@code damose.RealtimePoll}; {@link #STALE_AFTER_SEC} e
+ * {@link #EXPIRED_AFTER_SEC} sono le soglie di età usate dall'interfaccia.
+ * </p>
+ */
+public class GTFSRealtimeMetrics {
+
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSRealtimeMetrics.class.getName());
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final long[] LATENCY_BUCKETS_MS = { 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000 };    // Limiti superiori dei bucket.
+    public static final int STALE_AFTER_SEC = 90;                                       // Oltre questa età i dati sono vecchi.
+    public static final int EXPIRED_AFTER_SEC = 300;                                    // Oltre questa età i dati non sono più attendibili.
+    private static final String DOMAIN = "damose";
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final List<FeedMetrics> feeds = new ArrayList<>();
+    private final Listeners listeners;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param listenerStats fornisce le statistiche di consegna dei listener realtime
+     */
+    public GTFSRealtimeMetrics(Supplier<List<GTFSRealtimeDispatcher.ListenerStats>> listenerStats) {
+        this.listeners = new Listeners(listenerStats);
+    }
+
+    /**
+     * Crea le metriche di un feed.
+     *
+     * @param name nome del feed
+     * @return     metriche del feed
+     */
+    public synchronized FeedMetrics addFeed(String name) {
+        FeedMetrics feed = new FeedMetrics(name);
+        feeds.add(feed);
+        return feed;
+    }
+
+    /** @return metriche dei feed, nell'ordine di creazione */
+    public synchronized List<FeedMetrics> getFeeds() { return List.copyOf(feeds); }
+
+    /** @return metriche di consegna ai listener */
+    public ListenersMXBean getListeners() { return listeners; }
+
+    /**
+     * Restituisce l'età dei dati realtime: secondi trascorsi dal timestamp del feed meno recente
+     * tra quelli che hanno già ricevuto dati (la maggiore delle loro età).
+     *
+     * @return età in secondi, oppure -1 se nessun feed ha ancora ricevuto dati
+     */
+    public synchronized long getDataAgeSec() {
+        long age = -1;
+        for (FeedMetrics feed : feeds) age = Math.max(age, feed.getDataAgeSec());
+        return age;
+    }
+
+    // JMX -------------------------------------------------------------------------------------------------------------
+    /**
+     * Registra gli MXBean nel server MBean della piattaforma: {@code damose:type=RealtimeFeed,name=<feed>}
+     * per ogni feed e {@code damose:type=RealtimeListeners}. Gli errori vengono solo registrati nel log.
+     */
+    public synchronized void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (FeedMetrics feed : feeds) {
+                register(server, new ObjectName(DOMAIN + ":type=RealtimeFeed,name=" + ObjectName.quote(feed.name)), feed);
+            }
+            register(server, new ObjectName(DOMAIN + ":type=RealtimeListeners"), listeners);
+        } catch (JMException ex) {
+            LOG.log(Level.WARNING, "Registrazione delle metriche JMX fallita: " + ex.getMessage(), ex);
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (server.isRegistered(name)) server.unregisterMBean(name);                    // Un'istanza precedente (riavvio) viene sostituita.
+        server.registerMBean(bean, name);
+        registered.add(name);
+    }
+
+    /**
+     * Rimuove gli MXBean registrati.
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+            } catch (JMException ex) {
+                LOG.log(Level.FINE, "Rimozione di " + name + " fallita", ex);
+            }
+        }
+        registered.clear();
+    }
+
+    // INTERFACCE JMX --------------------------------------------------------------------------------------------------
+    /**
+     * Metriche di un feed esposte via JMX.
+     */
+    public interface FeedMXBean {
+        String getName();
+        long getAppliedCount();
+        long getUnchangedCount();
+        long getFailedCount();
+        int getConsecutiveFailures();
+        long getLastSuccessEpochSec();
+        long getLastHeaderTimestamp();
+        long getDataAgeSec();
+        double getLastFetchMs();
+        double getMeanFetchMs();
+        double getMaxFetchMs();
+        double getFetchP95Ms();
+        long[] getFetchLatencyBucketsMs();
+        long[] getFetchLatencyHistogram();
+        long getLastPayloadBytes();
+        long getTotalPayloadBytes();
+        int getLastEntityCount();
+        double getLastDecodeMs();
+        double getMeanDecodeMs();
+        double getLastApplyMs();
+        double getMeanApplyMs();
+        long getHedgedCount();
+        long getHedgeWinCount();
+        String getServingEndpoint();
+        String[] getEndpoints();
+    }
+
+    /**
+     * Consegna degli eventi ai listener esposta via JMX.
+     */
+    public interface ListenersMXBean {
+        int getListenerCount();
+        double getMeanFanOutMs();
+        double getMaxFanOutMs();
+        String getSlowestListener();
+        long getDeliveryErrors();
+        String[] getListenerSummaries();
+    }
+
+    // METRICHE DI UN FEED ---------------------------------------------------------------------------------------------
+    /**
+     * Metriche di un feed. Ogni poll è una sequenza {@link #beginPoll()}, {@link #onFetched}, {@link #onApplied},
+     * {@link #endPoll}: i poll di uno stesso feed non si sovrappongono, le letture possono arrivare da qualsiasi thread.
+     */
+    public static final class FeedMetrics implements FeedMXBean {
+        private final String name;
+
+        // stato protetto dal lock dell'oggetto
+        private long applied, unchanged, failed;
+        private int consecutiveFailures;
+        private long lastSuccessEpochSec;
+        private long lastHeaderTs;                                                      // Timestamp dell'header dell'ultimo feed applicato.
+        private long lastAppliedEpochSec;                                               // Istante dell'ultima applicazione (feed senza timestamp).
+        private final long[] histogram = new long[LATENCY_BUCKETS_MS.length + 1];       // L'ultimo bucket raccoglie le risposte oltre l'ultimo limite.
+        private long fetches;
+        private long lastFetchNanos, totalFetchNanos, maxFetchNanos;
+        private long lastBytes, totalBytes;
+        private int lastEntities;
+        private long decodes;
+        private long lastDecodeNanos, totalDecodeNanos, lastApplyNanos, totalApplyNanos;
+        private long hedged, hedgeWins;                                                 // Richieste aggiuntive inviate e vinte.
+        private String servingEndpoint;                                                 // Endpoint dell'ultima risposta valida.
+        private volatile Supplier<String[]> endpoints = () -> new String[0];           // Stato degli endpoint del feed.
+
+        // poll in corso
+        private long pollFetchNanos, pollBytes, pollDecodeNanos, pollApplyNanos;
+        private int pollEntities;
+        private String pollEndpoint;
+        private boolean pollHedged;
+
+        FeedMetrics(String name) {
+            this.name = name;
+        }
+
+        // ---- registrazione dei poll (GTFSRealtimeManager) -----------------------------------------------------------
+
+        /** Inizia un poll. */
+        public synchronized void beginPoll() {
+            pollFetchNanos = -1;
+            pollBytes = 0;
+            pollEntities = 0;
+            pollDecodeNanos = -1;
+            pollApplyNanos = -1;
+            pollEndpoint = null;
+            pollHedged = false;
+        }
+
+        /** Registra l'invio di una richiesta aggiuntiva a un mirror. */
+        public synchronized void onHedged() {
+            hedged++;
+            pollHedged = true;
+        }
+
+        /**
+         * Registra l'endpoint che ha fornito la risposta valida del poll.
+         *
+         * @param endpoint URL dell'endpoint
+         * @param hedge    true se ha vinto la richiesta aggiuntiva
+         */
+        public synchronized void onServedBy(String endpoint, boolean hedge) {
+            servingEndpoint = endpoint;
+            pollEndpoint = endpoint;
+            if (hedge) hedgeWins++;
+        }
+
+        /**
+         * Collega lo stato degli endpoint del feed, esposto via JMX.
+         *
+         * @param endpoints descrizione degli endpoint, una riga ciascuno
+         */
+        public void setEndpoints(Supplier<String[]> endpoints) {
+            this.endpoints = endpoints;
+        }
+
+        /**
+         * Registra la risposta HTTP.
+         *
+         * @param fetchNanos tempo dalla richiesta alla lettura completa del corpo
+         * @param bytes      byte del feed decompresso (0 per una risposta 304)
+         */
+        public synchronized void onFetched(long fetchNanos, long bytes) {
+            pollFetchNanos = fetchNanos;
+            pollBytes = bytes;
+            fetches++;
+            lastFetchNanos = fetchNanos;
+            totalFetchNanos += fetchNanos;
+            maxFetchNanos = Math.max(maxFetchNanos, fetchNanos);
+            histogram[bucket(fetchNanos)]++;
+            lastBytes = bytes;
+            totalBytes += bytes;
+        }
+
+        /**
+         * Registra decodifica e applicazione di un feed nuovo.
+         *
+         * @param decodeNanos durata della decodifica
+         * @param applyNanos  durata dell'applicazione all'indice, compresa la pubblicazione ai listener
+         * @param entities    entità decodificate
+         * @param headerTs    timestamp dell'header del feed (0 se assente)
+         */
+        public synchronized void onApplied(long decodeNanos, long applyNanos, int entities, long headerTs) {
+            pollDecodeNanos = decodeNanos;
+            pollApplyNanos = applyNanos;
+            pollEntities = entities;
+            decodes++;
+            lastDecodeNanos = decodeNanos;
+            totalDecodeNanos += decodeNanos;
+            lastApplyNanos = applyNanos;
+            totalApplyNanos += applyNanos;
+            lastEntities = entities;
+            lastHeaderTs = headerTs;
+            lastAppliedEpochSec = System.currentTimeMillis() / 1000L;
+        }
+
+        /**
+         * Conclude il poll, aggiorna i contatori ed emette l'evento JFR.
+         *
+         * @param outcome             esito: {@code APPLIED}, {@code UNCHANGED} o {@code FAILED}
+         * @param consecutiveFailures poll falliti consecutivi dopo questo poll
+         */
+        public void endPoll(String outcome, int consecutiveFailures) {
+            PollEvent event = new PollEvent();
+            synchronized (this) {
+                switch (outcome) {
+                    case "APPLIED" -> applied++;
+                    case "UNCHANGED" -> unchanged++;
+                    default -> failed++;
+                }
+                this.consecutiveFailures = consecutiveFailures;
+                if (!"FAILED".equals(outcome)) lastSuccessEpochSec = System.currentTimeMillis() / 1000L;
+                if (!event.shouldCommit()) return;
+                event.feed = name;
+                event.outcome = outcome;
+                event.fetch = Math.max(0, pollFetchNanos);
+                event.bytes = pollBytes;
+                event.entities = pollEntities;
+                event.decode = Math.max(0, pollDecodeNanos);
+                event.apply = Math.max(0, pollApplyNanos);
+                event.dataAgeSec = getDataAgeSec();
+                event.endpoint = pollEndpoint;
+                event.hedged = pollHedged;
+            }
+            event.commit();
+        }
+
+        private static int bucket(long nanos) {
+            long ms = nanos / 1_000_000L;
+            for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) if (ms <= LATENCY_BUCKETS_MS[i]) return i;
+            return LATENCY_BUCKETS_MS.length;
+        }
+
+        // ---- lettura (JMX e interfaccia) ----------------------------------------------------------------------------
+
+        @Override public String getName() { return name; }
+        @Override public synchronized long getAppliedCount() { return applied; }
+        @Override public synchronized long getUnchangedCount() { return unchanged; }
+        @Override public synchronized long getFailedCount() { return failed; }
+        @Override public synchronized int getConsecutiveFailures() { return consecutiveFailures; }
+        @Override public synchronized long getLastSuccessEpochSec() { return lastSuccessEpochSec; }
+        @Override public synchronized long getLastHeaderTimestamp() { return lastHeaderTs; }
+
+        /** @return secondi trascorsi dal timestamp dell'header dell'ultimo feed applicato, -1 se non ancora applicato */
+        @Override
+        public synchronized long getDataAgeSec() {
+            long reference = lastHeaderTs > 0 ? lastHeaderTs : lastAppliedEpochSec;
+            if (reference <= 0) return -1;
+            return Math.max(0, System.currentTimeMillis() / 1000L - reference);
+        }
+
+        @Override public synchronized double getLastFetchMs() { return lastFetchNanos / 1e6; }
+        @Override public synchronized double getMeanFetchMs() { return fetches == 0 ? 0 : totalFetchNanos / 1e6 / fetches; }
+        @Override public synchronized double getMaxFetchMs() { return maxFetchNanos / 1e6; }
+
+        /** @return limite superiore del bucket che contiene il 95° percentile delle latenze (infinito oltre l'ultimo bucket) */
+        @Override
+        public synchronized double getFetchP95Ms() {
+            if (fetches == 0) return 0;
+            long threshold = (long) Math.ceil(fetches * 0.95);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= threshold) return i < LATENCY_BUCKETS_MS.length ? LATENCY_BUCKETS_MS[i] : Double.POSITIVE_INFINITY;
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override public long[] getFetchLatencyBucketsMs() { return LATENCY_BUCKETS_MS.clone(); }
+        @Override public synchronized long[] getFetchLatencyHistogram() { return histogram.clone(); }
+        @Override public synchronized long getLastPayloadBytes() { return lastBytes; }
+        @Override public synchronized long getTotalPayloadBytes() { return totalBytes; }
+        @Override public synchronized int getLastEntityCount() { return lastEntities; }
+        @Override public synchronized double getLastDecodeMs() { return lastDecodeNanos / 1e6; }
+        @Override public synchronized double getMeanDecodeMs() { return decodes == 0 ? 0 : totalDecodeNanos / 1e6 / decodes; }
+        @Override public synchronized double getLastApplyMs() { return lastApplyNanos / 1e6; }
+        @Override public synchronized double getMeanApplyMs() { return decodes == 0 ? 0 : totalApplyNanos / 1e6 / decodes; }
+        @Override public synchronized long getHedgedCount() { return hedged; }
+        @Override public synchronized long getHedgeWinCount() { return hedgeWins; }
+        @Override public synchronized String getServingEndpoint() { return servingEndpoint; }
+        @Override public String[] getEndpoints() { return endpoints.get(); }
+    }
+
+    // CONSEGNA AI LISTENER --------------------------------------------------------------------------------------------
+    /**
+     * Riepilogo delle statistiche del dispatcher: latenza tra pubblicazione e fine della consegna.
+     */
+    private static final class Listeners implements ListenersMXBean {
+        private final Supplier<List<GTFSRealtimeDispatcher.ListenerStats>> stats;
+
+        Listeners(Supplier<List<GTFSRealtimeDispatcher.ListenerStats>> stats) {
+            this.stats = stats;
+        }
+
+        @Override public int getListenerCount() { return stats.get().size(); }
+
+        @Override
+        public double getMeanFanOutMs() {
+            double max = 0;
+            for (GTFSRealtimeDispatcher.ListenerStats s : stats.get()) max = Math.max(max, s.meanLatencyMs);
+            return max;                                                                 // La consegna termina con il listener più lento.
+        }
+
+        @Override
+        public double getMaxFanOutMs() {
+            double max = 0;
+            for (GTFSRealtimeDispatcher.ListenerStats s : stats.get()) max = Math.max(max, s.maxLatencyMs);
+            return max;
+        }
+
+        @Override
+        public String getSlowestListener() {
+            GTFSRealtimeDispatcher.ListenerStats slowest = null;
+            for (GTFSRealtimeDispatcher.ListenerStats s : stats.get()) {
+                if (slowest == null || s.meanLatencyMs > slowest.meanLatencyMs) slowest = s;
+            }
+            return slowest != null ? slowest.name : "";
+        }
+
+        @Override
+        public long getDeliveryErrors() {
+            long errors = 0;
+            for (GTFSRealtimeDispatcher.ListenerStats s : stats.get()) errors += s.errors;
+            return errors;
+        }
+
+        @Override
+        public String[] getListenerSummaries() {
+            List<String> lines = new ArrayList<>();
+            for (GTFSRealtimeDispatcher.ListenerStats s : stats.get()) {
+                lines.add(String.format("%s: consegnati=%d fusi=%d errori=%d latenza media=%.1fms max=%.1fms durata media=%.1fms",
+                        s.name, s.delivered, s.coalesced, s.errors, s.meanLatencyMs, s.maxLatencyMs, s.meanHandlingMs));
+            }
+            return lines.toArray(new String[0]);
+        }
+    }
+
+    // EVENTO JFR ------------------------------------------------------------------------------------------------------
+    /**
+     * Evento JFR emesso alla fine di ogni poll di un feed.
+     */
+    @Name("damose.RealtimePoll")
+    @Label("Realtime Poll")
+    @Category({ "Damose", "Realtime" })
+    @StackTrace(false)
+    @Description("Poll di un feed GTFS-realtime: download, decodifica, applicazione ed età dei dati")
+    static class PollEvent extends Event {
+        @Label("Feed")
+        String feed;
+
+        @Label("Esito")
+        String outcome;
+
+        @Label("Download")
+        @Timespan(Timespan.NANOSECONDS)
+        long fetch;
+
+        @Label("Byte")
+        @DataAmount
+        long bytes;
+
+        @Label("Entità")
+        int entities;
+
+        @Label("Decodifica")
+        @Timespan(Timespan.NANOSECONDS)
+        long decode;
+
+        @Label("Applicazione")
+        @Timespan(Timespan.NANOSECONDS)
+        long apply;
+
+        @Label("Età dei dati (s)")
+        long dataAgeSec;
+
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Richiesta aggiuntiva")
+        boolean hedged;
+    }
+}
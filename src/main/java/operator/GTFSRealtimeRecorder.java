@@ -0,0 +1,120 @@
+package operator;
+
+// Altre classi.
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Archivia su disco i feed GTFS-realtime scaricati, per riprodurli in seguito con {@link GTFSRealtimeReplayServer}.
+ * <p>
+ * Ogni feed ha una cartella ({@link #TRIP_UPDATES}, {@link #VEHICLE_POSITIONS}, {@link #SERVICE_ALERTS}) e ogni risposta scaricata
+ * diventa un file {@code <istante del download in ms>-<timestamp dell'header>.pb} con il feed decompresso.
+ * I file vengono scritti su un thread dedicato, prima con un nome temporaneo e poi rinominati,
+ * così la registrazione non rallenta il polling e chi legge l'archivio non vede file incompleti.
+ * </p>
+ */
+public class GTFSRealtimeRecorder implements AutoCloseable {
+
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSRealtimeRecorder.class.getName());
+
+    // FEED ------------------------------------------------------------------------------------------------------------
+    public static final String TRIP_UPDATES = "trip_updates";                          // Cartella e percorso del feed TripUpdates.
+    public static final String VEHICLE_POSITIONS = "vehicle_positions";                // Cartella e percorso del feed VehiclePositions.
+    public static final String SERVICE_ALERTS = "service_alerts";                      // Cartella e percorso del feed degli avvisi.
+    public static final String EXTENSION = ".pb";
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final Path directory;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GTFSRealtimeRecorder");
+        t.setDaemon(true);
+        return t;                                                                       // Scrive i file senza bloccare il polling.
+    });
+    private final AtomicLong recordedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param directory cartella dell'archivio (creata se non esiste)
+     * @throws IOException se la cartella non può essere creata
+     */
+    public GTFSRealtimeRecorder(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory.resolve(TRIP_UPDATES));
+        Files.createDirectories(directory.resolve(VEHICLE_POSITIONS));
+        Files.createDirectories(directory.resolve(SERVICE_ALERTS));
+    }
+
+    // REGISTRAZIONE ---------------------------------------------------------------------------------------------------
+    /**
+     * Accoda la scrittura di un feed scaricato.
+     *
+     * @param feed         nome del feed ({@link #TRIP_UPDATES}, {@link #VEHICLE_POSITIONS} o {@link #SERVICE_ALERTS})
+     * @param fetchEpochMs istante del download (millisecondi epoch)
+     * @param headerTs     timestamp dell'header del feed (0 se assente)
+     * @param payload      feed serializzato e decompresso (non viene copiato)
+     */
+    public void record(String feed, long fetchEpochMs, long headerTs, byte[] payload) {
+        Path target = directory.resolve(feed).resolve(fileName(fetchEpochMs, headerTs));
+        try {
+            writer.execute(() -> write(target, payload));
+        } catch (RejectedExecutionException ex) {
+            failedCount.incrementAndGet();                                              // Registratore già chiuso.
+        }
+    }
+
+    private void write(Path target, byte[] payload) {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, payload);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recordedCount.incrementAndGet();
+        } catch (IOException ex) {
+            failedCount.incrementAndGet();
+            LOG.log(Level.WARNING, "Registrazione del feed fallita: " + target, ex);
+        }
+    }
+
+    /**
+     * Nome del file di un feed: istante del download con zeri iniziali (ordinabile) e timestamp dell'header.
+     */
+    static String fileName(long fetchEpochMs, long headerTs) {
+        return String.format("%013d-%d%s", fetchEpochMs, headerTs, EXTENSION);
+    }
+
+    // CONTATORI -------------------------------------------------------------------------------------------------------
+    /** @return feed scritti nell'archivio */
+    public long getRecordedCount() { return recordedCount.get(); }
+
+    /** @return feed non scritti per errore o perché il registratore era chiuso */
+    public long getFailedCount() { return failedCount.get(); }
+
+    /** @return cartella dell'archivio */
+    public Path getDirectory() { return directory; }
+
+    // CHIUSURA --------------------------------------------------------------------------------------------------------
+    /**
+     * Completa le scritture in coda (al massimo per qualche secondo) e chiude il registratore.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
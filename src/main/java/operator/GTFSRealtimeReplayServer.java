@@ -0,0 +1,277 @@
+package operator;
+
+// Protobuf GTFS-realtime.
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+// Server HTTP del JDK.
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Altre classi.
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Server HTTP locale che riproduce un archivio di feed registrato da {@link GTFSRealtimeRecorder}.
+ * <p>
+ * Il server ha un orologio virtuale che parte dal primo download dell'archivio e avanza alla velocità
+ * indicata (1 = tempo reale); ogni richiesta riceve l'ultimo feed scaricato prima dell'istante virtuale,
+ * quindi il {@link GTFSRealtimeManager} osserva le stesse pubblicazioni, nella stessa sequenza, della registrazione.
+ * Le risposte riportano un ETag per feed e onorano If-None-Match (risposta 304) e Accept-Encoding gzip,
+ * così anche le richieste condizionali e la decompressione vengono esercitate.
+ * </p>
+ * <p>
+ * A velocità diverse da 1 il timestamp dell'header viene riscritto sull'orologio reale (gli intervalli tra
+ * feed si accorciano in proporzione), così la stima della cadenza segue la riproduzione accelerata;
+ * gli orari delle entità restano quelli registrati. Finito l'archivio viene servito sempre l'ultimo feed.
+ * Il manager non interroga un feed più spesso della sua cadenza minima (5 secondi): con velocità tali
+ * da pubblicare più spesso, alcuni feed registrati vengono saltati come accadrebbe dal vivo.
+ * </p>
+ * <p>
+ * Può essere avviato dall'applicazione (proprietà {@code damose.realtime.replay}) oppure da solo:
+ * {@code java operator.GTFSRealtimeReplayServer <archivio> [velocità] [porta]}.
+ * </p>
+ */
+public final class GTFSRealtimeReplayServer {
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "GTFSRealtimeReplayServer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final double speed;
+    private final Map<String, Track> tracks = new HashMap<>();                         // Nome del feed → file registrati.
+    private final long archiveStartMs;                                                  // Primo download dell'archivio.
+    private volatile long startWallMs;                                                  // Avvio della riproduzione.
+
+    /**
+     * File registrati di un feed, ordinati per istante di download, e ultimo feed servito.
+     */
+    private static final class Track {
+        final long[] fetchMs;
+        final long[] headerTs;
+        final Path[] files;
+        int cachedIndex = -1;                                                           // Stato protetto dal lock della traccia.
+        byte[] cachedBody;
+        byte[] cachedGzip;
+
+        Track(long[] fetchMs, long[] headerTs, Path[] files) {
+            this.fetchMs = fetchMs;
+            this.headerTs = headerTs;
+            this.files = files;
+        }
+    }
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore: legge l'indice dell'archivio e prepara il server, senza avviarlo.
+     *
+     * @param archive cartella scritta da {@link GTFSRealtimeRecorder}
+     * @param speed   velocità di riproduzione (1 = tempo reale, 10 = dieci volte più veloce)
+     * @param port    porta locale (0 per una porta libera qualsiasi)
+     * @throws IOException se l'archivio è vuoto o il server non può essere creato
+     */
+    public GTFSRealtimeReplayServer(Path archive, double speed, int port) throws IOException {
+        if (speed <= 0) throw new IllegalArgumentException("Velocità non valida: " + speed);
+        this.speed = speed;
+
+        long start = Long.MAX_VALUE;
+        for (String feed : new String[]{ GTFSRealtimeRecorder.TRIP_UPDATES, GTFSRealtimeRecorder.VEHICLE_POSITIONS,
+                GTFSRealtimeRecorder.SERVICE_ALERTS }) {
+            Track track = readTrack(archive.resolve(feed));
+            if (track == null) continue;
+            tracks.put(feed, track);
+            start = Math.min(start, track.fetchMs[0]);
+        }
+        if (tracks.isEmpty()) throw new IOException("Archivio realtime vuoto: " + archive);
+        this.archiveStartMs = start;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Legge i file registrati di un feed, ordinati per nome (cioè per istante di download).
+     *
+     * @return traccia del feed, oppure null se la cartella manca o è vuota
+     */
+    private static Track readTrack(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return null;
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().endsWith(GTFSRealtimeRecorder.EXTENSION)).sorted().toList();
+        }
+        List<Path> valid = new ArrayList<>();
+        long[] fetch = new long[files.size()];
+        long[] header = new long[files.size()];
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            String[] parts = name.substring(0, name.length() - GTFSRealtimeRecorder.EXTENSION.length()).split("-");
+            if (parts.length != 2) continue;
+            try {
+                fetch[valid.size()] = Long.parseLong(parts[0]);
+                header[valid.size()] = Long.parseLong(parts[1]);
+            } catch (NumberFormatException ex) {
+                continue;                                                               // File estraneo all'archivio.
+            }
+            valid.add(p);
+        }
+        if (valid.isEmpty()) return null;
+        return new Track(Arrays.copyOf(fetch, valid.size()), Arrays.copyOf(header, valid.size()), valid.toArray(new Path[0]));
+    }
+
+    // AVVIO E ARRESTO -------------------------------------------------------------------------------------------------
+    /**
+     * Avvia il server e l'orologio virtuale.
+     */
+    public void start() {
+        startWallMs = System.currentTimeMillis();
+        server.start();
+    }
+
+    /**
+     * Arresta il server.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // URL -------------------------------------------------------------------------------------------------------------
+    /** @return URL di base del server (utile anche come URL di test della connessione) */
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /** @return URL del feed TripUpdates riprodotto */
+    public String getTripUpdatesUrl() { return getBaseUrl() + GTFSRealtimeRecorder.TRIP_UPDATES + GTFSRealtimeRecorder.EXTENSION; }
+
+    /** @return URL del feed VehiclePositions riprodotto */
+    public String getVehiclePositionsUrl() { return getBaseUrl() + GTFSRealtimeRecorder.VEHICLE_POSITIONS + GTFSRealtimeRecorder.EXTENSION; }
+
+    /** @return URL del feed degli avvisi riprodotto, oppure null se l'archivio non contiene avvisi */
+    public String getServiceAlertsUrl() {
+        return tracks.containsKey(GTFSRealtimeRecorder.SERVICE_ALERTS)
+                ? getBaseUrl() + GTFSRealtimeRecorder.SERVICE_ALERTS + GTFSRealtimeRecorder.EXTENSION : null;
+    }
+
+    // OROLOGIO VIRTUALE -----------------------------------------------------------------------------------------------
+    /** @return istante corrente della registrazione (millisecondi epoch) */
+    public long getVirtualTimeMs() {
+        return archiveStartMs + (long) ((System.currentTimeMillis() - startWallMs) * speed);
+    }
+
+    /** @return true se l'orologio virtuale ha superato l'ultimo feed registrato */
+    public boolean isFinished() {
+        long now = getVirtualTimeMs();
+        for (Track track : tracks.values()) if (track.fetchMs[track.fetchMs.length - 1] > now) return false;
+        return true;
+    }
+
+    // RICHIESTE -------------------------------------------------------------------------------------------------------
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String feed = path.startsWith("/") && path.endsWith(GTFSRealtimeRecorder.EXTENSION)
+                    ? path.substring(1, path.length() - GTFSRealtimeRecorder.EXTENSION.length()) : "";
+            Track track = tracks.get(feed);
+            if (track == null || !"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            int index = currentIndex(track);
+            String etag = "\"" + feed + "-" + index + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);                                  // Stesso feed della richiesta precedente.
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+            byte[] body = body(track, index, gzip);
+            exchange.getResponseHeaders().set("Content-Type", "application/x-protobuf");
+            if (gzip) exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Indice dell'ultimo feed scaricato prima dell'istante virtuale (il primo, se la traccia non è ancora iniziata).
+     */
+    private int currentIndex(Track track) {
+        int i = Arrays.binarySearch(track.fetchMs, getVirtualTimeMs());
+        if (i < 0) i = -i - 2;
+        return Math.max(0, i);
+    }
+
+    /**
+     * Corpo della risposta per un feed, letto dal disco una sola volta per feed.
+     */
+    private byte[] body(Track track, int index, boolean gzip) throws IOException {
+        synchronized (track) {
+            if (track.cachedIndex != index) {
+                byte[] bytes = Files.readAllBytes(track.files[index]);
+                if (speed != 1.0 && track.headerTs[index] > 0) bytes = rebaseHeader(bytes, track.headerTs[index]);
+                track.cachedBody = bytes;
+                track.cachedGzip = null;
+                track.cachedIndex = index;
+            }
+            if (!gzip) return track.cachedBody;
+            if (track.cachedGzip == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(track.cachedBody.length / 4);
+                try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+                    out.write(track.cachedBody);
+                }
+                track.cachedGzip = buffer.toByteArray();
+            }
+            return track.cachedGzip;
+        }
+    }
+
+    /**
+     * Riscrive il timestamp dell'header sull'orologio reale della riproduzione.
+     */
+    private byte[] rebaseHeader(byte[] bytes, long headerTs) throws IOException {
+        long wallSec = (startWallMs + (long) ((headerTs * 1000L - archiveStartMs) / speed)) / 1000L;
+        FeedMessage feed = FeedMessage.parseFrom(bytes);
+        return feed.toBuilder().setHeader(feed.getHeader().toBuilder().setTimestamp(wallSec)).build().toByteArray();
+    }
+
+    // AVVIO DA RIGA DI COMANDO ----------------------------------------------------------------------------------------
+    /**
+     * Avvia il server da riga di comando e stampa gli URL dei feed.
+     *
+     * @param args cartella dell'archivio, velocità (predefinita 1) e porta (predefinita 8089)
+     * @throws IOException se l'archivio non è valido
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: GTFSRealtimeReplayServer <archivio> [velocità] [porta]");
+            return;
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8089;
+        GTFSRealtimeReplayServer replay = new GTFSRealtimeReplayServer(Path.of(args[0]), speed, port);
+        replay.start();
+        System.out.println("TripUpdates:      " + replay.getTripUpdatesUrl());
+        System.out.println("VehiclePositions: " + replay.getVehiclePositionsUrl());
+    }
+}
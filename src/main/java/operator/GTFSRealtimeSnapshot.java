@@ -0,0 +1,258 @@
+package operator;
+
+// Model.
+import model.ServiceAlert;
+import model.TripState;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Stato realtime completo in un istante: posizioni dei veicoli, previsioni per corsa e per fermata,
+ * corse soppresse e aggiunte, stato consolidato di ogni corsa ({@link TripState}) e avvisi di servizio
+ * ({@link GTFSAlertIndex}). L'oggetto è immutabile.
+ * <p>
+ * Il {@link GTFSRealtimeIndexer} pubblica ogni nuovo stato sostituendo con un solo scambio atomico
+ * il riferimento allo snapshot corrente: chi legge uno snapshot vede veicoli e previsioni dello stesso
+ * istante, senza lock, anche mentre un feed viene applicato. Per letture coerenti su più chiamate
+ * conviene quindi leggere una volta lo snapshot e interrogare sempre quello.
+ * </p>
+ * <p>
+ * Le mappe non vengono mai modificate dopo la pubblicazione e sono copie immutabili compatte
+ * ({@link Map#copyOf}), pensate per la sola lettura. Veicoli e previsioni stanno in due parti separate:
+ * un feed ricostruisce solo la propria parte e riusa le altre (anche gli avvisi sono una parte a sé), e anche dentro una parte le liste e le mappe
+ * delle corse e delle fermate non cambiate vengono riusate. Gli stati delle corse vengono ricostruiti
+ * insieme alla parte cambiata, solo per le corse toccate dal feed.
+ * </p>
+ * <p>
+ * La {@link #getVersion() versione} cresce ad ogni pubblicazione e coincide con quella dei
+ * {@link GTFSRealtimeChangeEvent} prodotti: può essere usata come chiave di cache dai calcoli derivati.
+ * </p>
+ */
+public final class GTFSRealtimeSnapshot {
+
+    // SNAPSHOT VUOTO --------------------------------------------------------------------------------------------------
+    /** Snapshot iniziale, senza dati realtime. */
+    public static final GTFSRealtimeSnapshot EMPTY = new GTFSRealtimeSnapshot(0L, Vehicles.EMPTY, Predictions.EMPTY, Map.of(), GTFSAlertIndex.EMPTY);
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final long version;
+    final Vehicles vehicles;
+    final Predictions predictions;
+    final Map<String, TripState> tripStates;                                            // ID corsa -> stato consolidato.
+    final GTFSAlertIndex alerts;                                                        // Avvisi di servizio per linea, fermata e corsa.
+
+    // PARTE DEI VEICOLI -----------------------------------------------------------------------------------------------
+    /**
+     * Posizioni dei veicoli per corsa e per linea.
+     */
+    static final class Vehicles {
+        static final Vehicles EMPTY = new Vehicles(Map.of());
+
+        final Map<String, GTFSDataIndexer.VehiclePos> byTrip;                           // ID corsa -> posizione del veicolo.
+        final Map<String, List<GTFSDataIndexer.VehiclePos>> byRoute;                    // ID linea -> posizioni dei veicoli.
+
+        Vehicles(Map<String, GTFSDataIndexer.VehiclePos> byTrip) {
+            this.byTrip = Map.copyOf(byTrip);
+            Map<String, List<GTFSDataIndexer.VehiclePos>> routes = new HashMap<>();
+            for (GTFSDataIndexer.VehiclePos pos : this.byTrip.values()) {
+                if (pos.routeId != null) routes.computeIfAbsent(pos.routeId, k -> new ArrayList<>()).add(pos);
+            }
+            routes.replaceAll((k, list) -> List.copyOf(list));
+            this.byRoute = Map.copyOf(routes);
+        }
+    }
+
+    // PARTE DELLE PREVISIONI ------------------------------------------------------------------------------------------
+    /**
+     * Previsioni di arrivo per corsa e per fermata, corse soppresse e linea delle corse del feed.
+     */
+    static final class Predictions {
+        static final Predictions EMPTY = new Predictions(Map.of(), Map.of(), Set.of(), Set.of(), Map.of());
+
+        final Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> byTrip;        // ID corsa -> (ID fermata -> arrivo previsto).
+        final Map<String, List<GTFSDataIndexer.PredictedArrival>> byStop;               // ID fermata -> arrivi ordinati per orario.
+        final Set<String> cancelledTrips;                                               // Corse soppresse nel feed.
+        final Set<String> addedTrips;                                                   // Corse aggiunte rispetto all'orario.
+        final Map<String, String> routeByTrip;                                          // Linea delle corse nel feed.
+
+        Predictions(Map<String, Map<String, GTFSDataIndexer.PredictedArrival>> byTrip,
+                    Map<String, List<GTFSDataIndexer.PredictedArrival>> byStop,
+                    Set<String> cancelledTrips, Set<String> addedTrips, Map<String, String> routeByTrip) {
+            this.byTrip = Map.copyOf(byTrip);                                           // Mappe interne e liste già immutabili.
+            this.byStop = Map.copyOf(byStop);
+            this.cancelledTrips = Set.copyOf(cancelledTrips);
+            this.addedTrips = Set.copyOf(addedTrips);
+            this.routeByTrip = Map.copyOf(routeByTrip);
+        }
+    }
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    private GTFSRealtimeSnapshot(long version, Vehicles vehicles, Predictions predictions, Map<String, TripState> tripStates,
+                                 GTFSAlertIndex alerts) {
+        this.version = version;
+        this.vehicles = vehicles;
+        this.predictions = predictions;
+        this.tripStates = Map.copyOf(tripStates);
+        this.alerts = alerts;
+    }
+
+    /**
+     * Restituisce lo snapshot successivo con nuove posizioni dei veicoli, gli stati delle corse aggiornati
+     * e le stesse previsioni.
+     */
+    GTFSRealtimeSnapshot withVehicles(Vehicles vehicles, Map<String, TripState> tripStates) {
+        return new GTFSRealtimeSnapshot(version + 1, vehicles, predictions, tripStates, alerts);
+    }
+
+    /**
+     * Restituisce lo snapshot successivo con nuove previsioni, gli stati delle corse aggiornati
+     * e le stesse posizioni dei veicoli.
+     */
+    GTFSRealtimeSnapshot withPredictions(Predictions predictions, Map<String, TripState> tripStates) {
+        return new GTFSRealtimeSnapshot(version + 1, vehicles, predictions, tripStates, alerts);
+    }
+
+    /**
+     * Restituisce lo snapshot successivo con nuovi avvisi di servizio e lo stesso stato di veicoli e corse.
+     */
+    GTFSRealtimeSnapshot withAlerts(GTFSAlertIndex alerts) {
+        return new GTFSRealtimeSnapshot(version + 1, vehicles, predictions, tripStates, alerts);
+    }
+
+    /**
+     * Restituisce lo snapshot successivo senza dati realtime.
+     */
+    GTFSRealtimeSnapshot cleared() {
+        return new GTFSRealtimeSnapshot(version + 1, Vehicles.EMPTY, Predictions.EMPTY, Map.of(), GTFSAlertIndex.EMPTY);
+    }
+
+    // VERSIONE --------------------------------------------------------------------------------------------------------
+    /** @return versione dello stato realtime (0 prima del primo feed) */
+    public long getVersion() { return version; }
+
+    // VEICOLI ---------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce la posizione del veicolo che effettua una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       posizione del veicolo, oppure null se assente
+     */
+    public GTFSDataIndexer.VehiclePos getVehicleForTrip(String tripId) {
+        return tripId != null ? vehicles.byTrip.get(tripId) : null;
+    }
+
+    /**
+     * Restituisce le posizioni dei veicoli di una linea.
+     *
+     * @param routeId ID della linea
+     * @return        lista immutabile di posizioni (vuota se nessun veicolo)
+     */
+    public List<GTFSDataIndexer.VehiclePos> getVehiclesForRoute(String routeId) {
+        return routeId != null ? vehicles.byRoute.getOrDefault(routeId, List.of()) : List.of();
+    }
+
+    /** @return numero di veicoli con posizione */
+    public int getVehicleCount() { return vehicles.byTrip.size(); }
+
+    // PREVISIONI ------------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce le previsioni di arrivo di una corsa per fermata.
+     *
+     * @param tripId ID della corsa
+     * @return       mappa immutabile ID fermata → arrivo previsto (vuota se assenti)
+     */
+    public Map<String, GTFSDataIndexer.PredictedArrival> getTripPredictions(String tripId) {
+        return tripId != null ? predictions.byTrip.getOrDefault(tripId, Map.of()) : Map.of();
+    }
+
+    /**
+     * Restituisce l'arrivo previsto di una corsa a una fermata.
+     *
+     * @param tripId ID della corsa
+     * @param stopId ID della fermata
+     * @return       arrivo previsto (epoch second), oppure -1 se non disponibile
+     */
+    public long getPredictedArrivalEpoch(String tripId, String stopId) {
+        GTFSDataIndexer.PredictedArrival prediction = getTripPredictions(tripId).get(stopId);
+        return prediction != null ? prediction.arrivalEpochSec : -1L;
+    }
+
+    /**
+     * Restituisce gli arrivi previsti a una fermata.
+     *
+     * @param stopId ID della fermata
+     * @return       lista immutabile ordinata per orario di arrivo (vuota se assenti)
+     */
+    public List<GTFSDataIndexer.PredictedArrival> getPredictedArrivals(String stopId) {
+        return stopId != null ? predictions.byStop.getOrDefault(stopId, List.of()) : List.of();
+    }
+
+    /**
+     * Indica se una corsa è segnalata come soppressa.
+     *
+     * @param tripId ID della corsa
+     * @return       true se la corsa è soppressa
+     */
+    public boolean isTripCancelled(String tripId) {
+        return tripId != null && predictions.cancelledTrips.contains(tripId);
+    }
+
+    /**
+     * Restituisce la linea di una corsa presente nel feed delle previsioni.
+     *
+     * @param tripId ID della corsa
+     * @return       ID della linea, oppure null se la corsa non è nel feed
+     */
+    public String getRouteOfTrip(String tripId) {
+        return tripId != null ? predictions.routeByTrip.get(tripId) : null;
+    }
+
+    /**
+     * Indica se una corsa è segnalata come aggiunta rispetto all'orario programmato.
+     *
+     * @param tripId ID della corsa
+     * @return       true se la corsa è aggiunta
+     */
+    public boolean isTripAdded(String tripId) {
+        return tripId != null && predictions.addedTrips.contains(tripId);
+    }
+
+    /** @return numero di corse con previsioni o soppresse */
+    public int getTripCount() { return predictions.byTrip.size(); }
+
+    // STATO DELLE CORSE -----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce lo stato consolidato di una corsa: previsioni per fermata, ultima fermata superata,
+     * ritardo attuale e posizione del veicolo.
+     *
+     * @param tripId ID della corsa
+     * @return       stato della corsa, oppure null se la corsa non ha né previsioni né veicolo
+     */
+    public TripState getTripState(String tripId) {
+        return tripId != null ? tripStates.get(tripId) : null;
+    }
+
+    // AVVISI DI SERVIZIO ----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce l'indice degli avvisi di servizio, che valuta quali sono attivi solo quando viene letto.
+     *
+     * @return indice degli avvisi (vuoto senza feed degli avvisi)
+     */
+    public GTFSAlertIndex getAlertIndex() {
+        return alerts;
+    }
+
+    /**
+     * Restituisce gli avvisi attivi da mostrare in un pannello: rete, linea, fermata e corsa indicate.
+     *
+     * @param routeId  ID della linea (può essere null)
+     * @param stopId   ID della fermata (può essere null)
+     * @param tripId   ID della corsa (può essere null)
+     * @param epochSec istante di riferimento (epoch second)
+     * @return         lista di avvisi senza duplicati (vuota se assenti)
+     */
+    public List<ServiceAlert> getActiveAlerts(String routeId, String stopId, String tripId, long epochSec) {
+        return alerts.getActive(routeId, stopId, tripId, epochSec);
+    }
+}
@@ -0,0 +1,921 @@
+package operator;
+
+// Protobuf GTFS-realtime.
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime.Alert;
+import com.google.transit.realtime.GtfsRealtime.EntitySelector;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TimeRange;
+import com.google.transit.realtime.GtfsRealtime.TranslatedString;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+
+// Model.
+import model.ServiceAlert;
+
+// Altre classi.
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Decodifica i feed GTFS-realtime leggendo direttamente il formato protobuf, senza costruire un {@link FeedMessage}.
+ * <p>
+ * Vengono estratti solo i campi usati dall'applicazione (ID di corsa, linea, fermata e veicolo, orari,
+ * ritardi, relazioni di servizio e posizioni) in buffer di array primitivi riutilizzati tra un poll e l'altro:
+ * {@link TripUpdates} e {@link VehiclePositions}. Tutti gli altri campi vengono saltati senza decodificarli.
+ * Gli avvisi di servizio, pochi e ricchi di testo, diventano invece direttamente oggetti {@link ServiceAlert}
+ * ({@link Alerts}), con i testi nella lingua preferita.
+ * Il corpo della risposta viene copiato in un unico array riutilizzato e gli ID vengono letti da lì tramite
+ * un pool di stringhe: gli ID già visti nei poll precedenti non allocano nuove stringhe.
+ * </p>
+ * <p>
+ * Con un filtro di linee ({@link #setRouteFilter(Set)}) le entità delle altre linee vengono scartate
+ * durante la decodifica (gli avvisi, che possono riguardare più linee o tutta la rete, vengono sempre mantenuti); le entità cancellate (is_deleted) e quelle senza corsa o senza posizione
+ * non finiscono nei buffer.
+ * </p>
+ * <p>
+ * Per i feed aggiuntivi di una rete con più agenzie ogni ID letto (corse, linee, fermate, veicoli e avvisi)
+ * riceve il prefisso dello spazio dei nomi del feed ({@link GTFSFeed}) già nel pool di stringhe,
+ * così corrisponde agli ID prefissati dei dati statici senza costruire stringhe a ogni poll.
+ * </p>
+ * <p>
+ * La classe non è thread-safe: ogni feed usa la propria istanza, e i buffer restano validi
+ * fino alla decodifica successiva.
+ * </p>
+ */
+public class GTFSRealtimeStreamDecoder {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final int NO_VALUE = Integer.MIN_VALUE;                              // Ritardo non presente nel feed.
+    private static final int INITIAL_BODY_BYTES = 1 << 16;
+    private static final int MAX_BODY_BYTES = 1 << 28;                                 // Oltre 256 MB il feed è considerato non valido.
+    private static final String PREFERRED_LANGUAGE = "it";                              // Lingua preferita per i testi degli avvisi.
+
+    // CORPO DEL FEED --------------------------------------------------------------------------------------------------
+    private byte[] body = new byte[0];                                                  // Feed serializzato (riutilizzato).
+    private int bodyLength;
+
+    // BUFFER DECODIFICATI ---------------------------------------------------------------------------------------------
+    private final TripUpdates tripUpdates = new TripUpdates();
+    private final VehiclePositions vehiclePositions = new VehiclePositions();
+    private final Alerts alerts = new Alerts();
+    private final StringPool strings;                                                   // ID con il prefisso del feed.
+
+    // FILTRO DELLE LINEE ----------------------------------------------------------------------------------------------
+    private final Function<String, String> routeOfTrip;                                 // ID corsa → ID linea dai dati statici (null se assente).
+    private volatile Set<String> routeFilter;                                           // Null: tutte le linee.
+
+    // STATO DELL'ENTITÀ IN DECODIFICA ---------------------------------------------------------------------------------
+    private String entityTripId;
+    private String entityRouteId;                                                       // route_id del descrittore (null se assente).
+    private int entityStartDate;                                                        // start_date come aaaammgg (0 se assente).
+    private int entityRelationship;
+    private int entityIdOffset;                                                         // ID dell'entità nel corpo, letto solo per gli avvisi.
+    private int entityIdLength;                                                         // -1 se l'entità non ha ID.
+
+    // COSTRUTTORI -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore senza filtro di linee.
+     */
+    public GTFSRealtimeStreamDecoder() {
+        this(null);
+    }
+
+    /**
+     * Costruttore.
+     *
+     * @param routeOfTrip restituisce la linea di una corsa dai dati statici (null se sconosciuta);
+     *                    usato dal filtro quando il feed non riporta route_id
+     */
+    public GTFSRealtimeStreamDecoder(Function<String, String> routeOfTrip) {
+        this(routeOfTrip, "");
+    }
+
+    /**
+     * Costruttore per un feed con spazio dei nomi.
+     *
+     * @param routeOfTrip restituisce la linea di una corsa (ID prefissato) dai dati statici (null se sconosciuta)
+     * @param idPrefix    prefisso anteposto a ogni ID letto (vuoto per il feed principale)
+     */
+    public GTFSRealtimeStreamDecoder(Function<String, String> routeOfTrip, String idPrefix) {
+        this.routeOfTrip = routeOfTrip;
+        this.strings = new StringPool(idPrefix);
+    }
+
+    // FILTRO ----------------------------------------------------------------------------------------------------------
+    /**
+     * Imposta le linee da mantenere durante la decodifica.
+     *
+     * @param routeIds ID delle linee da mantenere; null o vuoto per mantenerle tutte
+     */
+    public void setRouteFilter(Set<String> routeIds) {
+        this.routeFilter = routeIds == null || routeIds.isEmpty() ? null : Set.copyOf(routeIds);
+    }
+
+    /** @return linee mantenute durante la decodifica, oppure null se non c'è filtro */
+    public Set<String> getRouteFilter() { return routeFilter; }
+
+    // LETTURA DEL CORPO -----------------------------------------------------------------------------------------------
+    /**
+     * Legge l'intero corpo del feed nel buffer riutilizzato e ne restituisce il timestamp dell'header,
+     * senza decodificare le entità.
+     *
+     * @param in stream del corpo (già decompresso)
+     * @return   timestamp dell'header, oppure 0 se assente
+     * @throws IOException se la lettura fallisce o il feed non è valido
+     */
+    public long readFrom(InputStream in) throws IOException {
+        if (body.length == 0) body = new byte[INITIAL_BODY_BYTES];
+        int length = 0;
+        int n;
+        while ((n = in.read(body, length, body.length - length)) >= 0) {
+            length += n;
+            if (length == body.length) {
+                if (body.length >= MAX_BODY_BYTES) throw new IOException("Feed troppo grande");
+                body = Arrays.copyOf(body, body.length * 2);
+            }
+        }
+        bodyLength = length;
+        return headerTimestamp();
+    }
+
+    /**
+     * Legge il timestamp dell'header del feed nel buffer, saltando le entità.
+     */
+    private long headerTimestamp() throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(body, 0, bodyLength);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(FeedMessage.HEADER_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                long ts = 0L;
+                while ((tag = in.readTag()) != 0) {
+                    if (tag == varint(FeedHeader.TIMESTAMP_FIELD_NUMBER)) ts = in.readUInt64();
+                    else if (!in.skipField(tag)) break;
+                }
+                in.popLimit(limit);
+                return ts;
+            }
+            if (!in.skipField(tag)) break;                                              // Salta le entità.
+        }
+        return 0L;
+    }
+
+    // DECODIFICA ------------------------------------------------------------------------------------------------------
+    /**
+     * Decodifica il feed letto da {@link #readFrom(InputStream)} nei buffer.
+     *
+     * @throws IOException se il feed non è valido
+     */
+    public void decode() throws IOException {
+        tripUpdates.reset();
+        vehiclePositions.reset();
+        alerts.reset();
+        CodedInputStream in = CodedInputStream.newInstance(body, 0, bodyLength);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(FeedMessage.HEADER_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readHeader(in);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(FeedMessage.ENTITY_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readEntity(in);
+                in.popLimit(limit);
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Decodifica un feed già serializzato nei buffer.
+     *
+     * @param bytes feed serializzato (copiato nel buffer interno)
+     * @throws IOException se il feed non è valido
+     */
+    public void decode(byte[] bytes) throws IOException {
+        if (body.length < bytes.length) body = new byte[Math.max(bytes.length, INITIAL_BODY_BYTES)];
+        System.arraycopy(bytes, 0, body, 0, bytes.length);
+        bodyLength = bytes.length;
+        decode();
+    }
+
+    /**
+     * Restituisce una copia del feed serializzato letto per ultimo (ad esempio per archiviarlo).
+     *
+     * @return feed serializzato e decompresso
+     */
+    public byte[] copyBody() {
+        return Arrays.copyOf(body, bodyLength);
+    }
+
+    /** @return byte del feed serializzato letto per ultimo */
+    public int getBodyLength() { return bodyLength; }
+
+    /** @return aggiornamenti delle corse dell'ultimo feed decodificato */
+    public TripUpdates getTripUpdates() { return tripUpdates; }
+
+    /** @return posizioni dei veicoli dell'ultimo feed decodificato */
+    public VehiclePositions getVehiclePositions() { return vehiclePositions; }
+
+    /** @return avvisi di servizio dell'ultimo feed decodificato */
+    public Alerts getAlerts() { return alerts; }
+
+    private void readHeader(CodedInputStream in) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == varint(FeedHeader.TIMESTAMP_FIELD_NUMBER)) {
+                long ts = in.readUInt64();
+                tripUpdates.headerTimestamp = ts;
+                vehiclePositions.headerTimestamp = ts;
+                alerts.headerTimestamp = ts;
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Decodifica un'entità; se risulta cancellata, senza corsa o di una linea esclusa dal filtro
+     * i buffer tornano allo stato precedente.
+     */
+    private void readEntity(CodedInputStream in) throws IOException {
+        int tripMark = tripUpdates.size;
+        int updateMark = tripUpdates.updateCount;
+        int vehicleMark = vehiclePositions.size;
+        boolean deleted = false;
+        AlertFields alert = null;
+        entityIdLength = -1;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == varint(FeedEntity.IS_DELETED_FIELD_NUMBER)) {
+                deleted = in.readBool();
+            } else if (tag == lengthDelimited(FeedEntity.ID_FIELD_NUMBER)) {
+                entityIdLength = in.readRawVarint32();                                 // Solo la posizione: la stringa serve agli avvisi.
+                entityIdOffset = in.getTotalBytesRead();
+                in.skipRawBytes(entityIdLength);
+            } else if (tag == lengthDelimited(FeedEntity.ALERT_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                alert = readAlert(in);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(FeedEntity.TRIP_UPDATE_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readTripUpdate(in);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(FeedEntity.VEHICLE_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readVehicle(in);
+                in.popLimit(limit);
+            } else if (!in.skipField(tag)) {                                            // Altri campi.
+                break;
+            }
+        }
+
+        if (deleted) {
+            tripUpdates.rollback(tripMark, updateMark);
+            vehiclePositions.size = vehicleMark;
+        } else if (alert != null) {
+            String id = entityIdLength >= 0 ? strings.intern(body, entityIdOffset, entityIdLength) : strings.prefix + "#" + alerts.size();
+            alerts.list.add(alert.toServiceAlert(id));
+        }
+    }
+
+    // TRIP UPDATE -----------------------------------------------------------------------------------------------------
+    private void readTripUpdate(CodedInputStream in) throws IOException {
+        TripUpdates b = tripUpdates;
+        int updateMark = b.updateCount;
+        clearDescriptor();
+        int delay = NO_VALUE;
+        long timestamp = 0L;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(TripUpdate.TRIP_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readTripDescriptor(in);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(TripUpdate.STOP_TIME_UPDATE_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readStopTimeUpdate(in);
+                in.popLimit(limit);
+            } else if (tag == varint(TripUpdate.TIMESTAMP_FIELD_NUMBER)) {
+                timestamp = in.readUInt64();
+            } else if (tag == varint(TripUpdate.DELAY_FIELD_NUMBER)) {
+                delay = in.readInt32();
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+
+        if (!accept(entityTripId, entityRouteId)) {
+            b.updateCount = updateMark;                                                 // Scarta gli aggiornamenti delle fermate già letti.
+            return;
+        }
+        b.ensureTrips(b.size + 1);
+        int k = b.size++;
+        b.tripId[k] = entityTripId;
+        b.routeId[k] = entityRouteId;
+        b.startDate[k] = entityStartDate;
+        b.relationship[k] = entityRelationship;
+        b.delay[k] = delay;
+        b.timestamp[k] = timestamp;
+        b.firstUpdate[k] = updateMark;
+        b.endUpdate[k] = b.updateCount;
+    }
+
+    /**
+     * Legge un TripDescriptor nei campi dell'entità in decodifica.
+     */
+    private void readTripDescriptor(CodedInputStream in) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(TripDescriptor.TRIP_ID_FIELD_NUMBER)) {
+                entityTripId = readString(in);
+            } else if (tag == lengthDelimited(TripDescriptor.ROUTE_ID_FIELD_NUMBER)) {
+                entityRouteId = readString(in);
+            } else if (tag == lengthDelimited(TripDescriptor.START_DATE_FIELD_NUMBER)) {
+                entityStartDate = readDate(in);
+            } else if (tag == varint(TripDescriptor.SCHEDULE_RELATIONSHIP_FIELD_NUMBER)) {
+                entityRelationship = in.readEnum();
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+    }
+
+    private void clearDescriptor() {
+        entityTripId = null;
+        entityRouteId = null;
+        entityStartDate = 0;
+        entityRelationship = TripDescriptor.ScheduleRelationship.SCHEDULED_VALUE;
+    }
+
+    private void readStopTimeUpdate(CodedInputStream in) throws IOException {
+        TripUpdates b = tripUpdates;
+        b.ensureUpdates(b.updateCount + 1);
+        int j = b.updateCount++;
+        b.sequence[j] = -1;
+        b.stopId[j] = null;
+        b.updateRelationship[j] = StopTimeUpdate.ScheduleRelationship.SCHEDULED_VALUE;
+        b.arrivalTime[j] = 0L;
+        b.arrivalDelay[j] = NO_VALUE;
+        b.departureTime[j] = 0L;
+        b.departureDelay[j] = NO_VALUE;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == varint(StopTimeUpdate.STOP_SEQUENCE_FIELD_NUMBER)) {
+                b.sequence[j] = in.readUInt32();
+            } else if (tag == lengthDelimited(StopTimeUpdate.STOP_ID_FIELD_NUMBER)) {
+                b.stopId[j] = readString(in);
+            } else if (tag == varint(StopTimeUpdate.SCHEDULE_RELATIONSHIP_FIELD_NUMBER)) {
+                b.updateRelationship[j] = in.readEnum();
+            } else if (tag == lengthDelimited(StopTimeUpdate.ARRIVAL_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readStopTimeEvent(in, b.arrivalTime, b.arrivalDelay, j);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(StopTimeUpdate.DEPARTURE_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readStopTimeEvent(in, b.departureTime, b.departureDelay, j);
+                in.popLimit(limit);
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Legge uno StopTimeEvent (arrivo o partenza) nella posizione j degli array indicati.
+     */
+    private static void readStopTimeEvent(CodedInputStream in, long[] times, int[] delays, int j) throws IOException {
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == varint(StopTimeEvent.DELAY_FIELD_NUMBER)) delays[j] = in.readInt32();
+            else if (tag == varint(StopTimeEvent.TIME_FIELD_NUMBER)) times[j] = in.readInt64();
+            else if (!in.skipField(tag)) break;
+        }
+    }
+
+    // POSIZIONE DI UN VEICOLO -----------------------------------------------------------------------------------------
+    private void readVehicle(CodedInputStream in) throws IOException {
+        clearDescriptor();
+        String vehicleId = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        long timestamp = 0L;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(VehiclePosition.TRIP_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readTripDescriptor(in);
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(VehiclePosition.POSITION_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while ((tag = in.readTag()) != 0) {
+                    if (tag == fixed32(Position.LATITUDE_FIELD_NUMBER)) lat = in.readFloat();
+                    else if (tag == fixed32(Position.LONGITUDE_FIELD_NUMBER)) lon = in.readFloat();
+                    else if (!in.skipField(tag)) break;
+                }
+                in.popLimit(limit);
+            } else if (tag == lengthDelimited(VehiclePosition.VEHICLE_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                while ((tag = in.readTag()) != 0) {
+                    if (tag == lengthDelimited(VehicleDescriptor.ID_FIELD_NUMBER)) vehicleId = readString(in);
+                    else if (!in.skipField(tag)) break;
+                }
+                in.popLimit(limit);
+            } else if (tag == varint(VehiclePosition.TIMESTAMP_FIELD_NUMBER)) {
+                timestamp = in.readUInt64();
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+
+        if (Double.isNaN(lat) || Double.isNaN(lon) || !accept(entityTripId, entityRouteId)) return;
+        VehiclePositions b = vehiclePositions;
+        b.ensure(b.size + 1);
+        int k = b.size++;
+        b.tripId[k] = entityTripId;
+        b.routeId[k] = entityRouteId;
+        b.vehicleId[k] = vehicleId;
+        b.latitude[k] = lat;
+        b.longitude[k] = lon;
+        b.timestamp[k] = timestamp;
+    }
+
+    // AVVISO DI SERVIZIO ----------------------------------------------------------------------------------------------
+    private AlertFields readAlert(CodedInputStream in) throws IOException {
+        AlertFields a = new AlertFields();
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(Alert.ACTIVE_PERIOD_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                long start = 0L;
+                long end = 0L;
+                while ((tag = in.readTag()) != 0) {
+                    if (tag == varint(TimeRange.START_FIELD_NUMBER)) start = in.readUInt64();
+                    else if (tag == varint(TimeRange.END_FIELD_NUMBER)) end = in.readUInt64();
+                    else if (!in.skipField(tag)) break;
+                }
+                in.popLimit(limit);
+                a.addPeriod(start, end);
+            } else if (tag == lengthDelimited(Alert.INFORMED_ENTITY_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readEntitySelector(in, a);
+                in.popLimit(limit);
+            } else if (tag == varint(Alert.CAUSE_FIELD_NUMBER)) {
+                a.cause = in.readEnum();
+            } else if (tag == varint(Alert.EFFECT_FIELD_NUMBER)) {
+                a.effect = in.readEnum();
+            } else if (tag == varint(Alert.SEVERITY_LEVEL_FIELD_NUMBER)) {
+                a.severity = in.readEnum();
+            } else if (tag == lengthDelimited(Alert.URL_FIELD_NUMBER)) {
+                a.url = readTranslatedString(in);
+            } else if (tag == lengthDelimited(Alert.HEADER_TEXT_FIELD_NUMBER)) {
+                a.headerText = readTranslatedString(in);
+            } else if (tag == lengthDelimited(Alert.DESCRIPTION_TEXT_FIELD_NUMBER)) {
+                a.descriptionText = readTranslatedString(in);
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Legge un EntitySelector: linea, fermata e corsa indicate vengono aggiunte all'avviso ciascuna per conto proprio;
+     * un selettore con la sola agenzia o il solo tipo di mezzo rende l'avviso valido su tutta la rete.
+     */
+    private void readEntitySelector(CodedInputStream in, AlertFields a) throws IOException {
+        clearDescriptor();
+        String routeId = null;
+        String stopId = null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(EntitySelector.ROUTE_ID_FIELD_NUMBER)) {
+                routeId = readString(in);
+            } else if (tag == lengthDelimited(EntitySelector.STOP_ID_FIELD_NUMBER)) {
+                stopId = readString(in);
+            } else if (tag == lengthDelimited(EntitySelector.TRIP_FIELD_NUMBER)) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                readTripDescriptor(in);
+                in.popLimit(limit);
+            } else if (!in.skipField(tag)) {                                            // Agenzia, tipo di mezzo e direzione.
+                break;
+            }
+        }
+
+        if (routeId == null && entityTripId == null) routeId = entityRouteId;           // Descrittore di corsa con la sola linea.
+        if (routeId != null) a.routeIds.add(routeId);
+        if (stopId != null) a.stopIds.add(stopId);
+        if (entityTripId != null) a.tripIds.add(entityTripId);
+        if (routeId == null && stopId == null && entityTripId == null) a.networkWide = true;
+    }
+
+    /**
+     * Legge un TranslatedString e restituisce il testo nella lingua preferita oppure, se manca, la prima traduzione.
+     */
+    private static String readTranslatedString(CodedInputStream in) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        String chosen = null;
+        boolean preferred = false;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == lengthDelimited(TranslatedString.TRANSLATION_FIELD_NUMBER)) {
+                int inner = in.pushLimit(in.readRawVarint32());
+                String text = null;
+                String language = null;
+                while ((tag = in.readTag()) != 0) {
+                    if (tag == lengthDelimited(TranslatedString.Translation.TEXT_FIELD_NUMBER)) text = in.readString();
+                    else if (tag == lengthDelimited(TranslatedString.Translation.LANGUAGE_FIELD_NUMBER)) language = in.readString();
+                    else if (!in.skipField(tag)) break;
+                }
+                in.popLimit(inner);
+                boolean match = language != null && language.toLowerCase(Locale.ROOT).startsWith(PREFERRED_LANGUAGE);
+                if (text != null && (chosen == null || match && !preferred)) {
+                    chosen = text;
+                    preferred = match;
+                }
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+        in.popLimit(limit);
+        return chosen;
+    }
+
+    /**
+     * Campi di un avviso in decodifica, convertiti in {@link ServiceAlert} quando l'entità è completa
+     * (l'ID dell'entità può seguire l'avviso).
+     */
+    private static final class AlertFields {
+        int cause = Alert.Cause.UNKNOWN_CAUSE_VALUE;
+        int effect = Alert.Effect.UNKNOWN_EFFECT_VALUE;
+        int severity = Alert.SeverityLevel.UNKNOWN_SEVERITY_VALUE;
+        String headerText;
+        String descriptionText;
+        String url;
+        long[] starts = new long[0];
+        long[] ends = new long[0];
+        final List<String> routeIds = new ArrayList<>();
+        final List<String> stopIds = new ArrayList<>();
+        final List<String> tripIds = new ArrayList<>();
+        boolean networkWide;
+
+        void addPeriod(long start, long end) {
+            starts = Arrays.copyOf(starts, starts.length + 1);
+            ends = Arrays.copyOf(ends, ends.length + 1);
+            starts[starts.length - 1] = start;
+            ends[ends.length - 1] = end;
+        }
+
+        ServiceAlert toServiceAlert(String id) {
+            Alert.Cause c = Alert.Cause.forNumber(cause);
+            Alert.Effect e = Alert.Effect.forNumber(effect);
+            Alert.SeverityLevel s = Alert.SeverityLevel.forNumber(severity);
+            return new ServiceAlert(id,
+                    (c != null ? c : Alert.Cause.UNKNOWN_CAUSE).name(),
+                    (e != null ? e : Alert.Effect.UNKNOWN_EFFECT).name(),
+                    (s != null ? s : Alert.SeverityLevel.UNKNOWN_SEVERITY).name(),
+                    headerText, descriptionText, url, starts, ends,
+                    routeIds.toArray(new String[0]), stopIds.toArray(new String[0]), tripIds.toArray(new String[0]),
+                    networkWide || routeIds.isEmpty() && stopIds.isEmpty() && tripIds.isEmpty());
+        }
+    }
+
+    // HELPER ----------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che un'entità abbia una corsa e, se c'è un filtro, che appartenga a una linea mantenuta.
+     */
+    private boolean accept(String tripId, String feedRouteId) {
+        if (tripId == null || tripId.isEmpty()) return false;
+        Set<String> filter = routeFilter;
+        if (filter == null) return true;
+        String routeId = routeOfTrip != null ? routeOfTrip.apply(tripId) : null;      // I dati statici prevalgono sul feed.
+        if (routeId == null) routeId = feedRouteId;
+        return routeId != null && filter.contains(routeId);
+    }
+
+    /**
+     * Legge una stringa dal buffer tramite il pool, senza copiarla se è già nota.
+     */
+    private String readString(CodedInputStream in) throws IOException {
+        int length = in.readRawVarint32();
+        int offset = in.getTotalBytesRead();
+        in.skipRawBytes(length);
+        return strings.intern(body, offset, length);
+    }
+
+    /**
+     * Legge una data aaaammgg come intero, senza creare stringhe (0 se non valida).
+     */
+    private int readDate(CodedInputStream in) throws IOException {
+        int length = in.readRawVarint32();
+        int offset = in.getTotalBytesRead();
+        in.skipRawBytes(length);
+        if (length != 8) return 0;
+        int date = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            int digit = body[i] - '0';
+            if (digit < 0 || digit > 9) return 0;
+            date = date * 10 + digit;
+        }
+        return date;
+    }
+
+    private static int varint(int field) { return (field << 3) | WireFormat.WIRETYPE_VARINT; }
+
+    private static int fixed32(int field) { return (field << 3) | WireFormat.WIRETYPE_FIXED32; }
+
+    private static int lengthDelimited(int field) { return (field << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED; }
+
+    // AGGIORNAMENTI DELLE CORSE ---------------------------------------------------------------------------------------
+    /**
+     * TripUpdate decodificati, in array paralleli.
+     * <p>
+     * Le corse sono indicizzate da 0 a {@link #size()} - 1; gli aggiornamenti delle fermate della corsa k
+     * occupano gli indici da {@link #getFirstUpdate(int)} a {@link #getEndUpdate(int)} (escluso).
+     * Orari assoluti assenti valgono 0, ritardi assenti {@link #NO_VALUE}, stop_sequence assente -1.
+     * </p>
+     */
+    public static final class TripUpdates {
+        private int size;
+        private long headerTimestamp;
+        private String[] tripId = new String[0];
+        private String[] routeId = new String[0];                                       // route_id del feed (null se assente).
+        private int[] startDate = new int[0];                                           // aaaammgg, 0 se assente.
+        private int[] relationship = new int[0];
+        private int[] delay = new int[0];
+        private long[] timestamp = new long[0];
+        private int[] firstUpdate = new int[0];
+        private int[] endUpdate = new int[0];
+
+        private int updateCount;
+        private int[] sequence = new int[0];
+        private String[] stopId = new String[0];
+        private int[] updateRelationship = new int[0];
+        private long[] arrivalTime = new long[0];
+        private int[] arrivalDelay = new int[0];
+        private long[] departureTime = new long[0];
+        private int[] departureDelay = new int[0];
+
+        void reset() {
+            size = 0;
+            updateCount = 0;
+            headerTimestamp = 0L;
+        }
+
+        void rollback(int tripMark, int updateMark) {
+            size = tripMark;
+            updateCount = updateMark;
+        }
+
+        void ensureTrips(int capacity) {
+            if (capacity <= tripId.length) return;
+            int n = Math.max(capacity, Math.max(16, tripId.length * 2));
+            tripId = Arrays.copyOf(tripId, n);
+            routeId = Arrays.copyOf(routeId, n);
+            startDate = Arrays.copyOf(startDate, n);
+            relationship = Arrays.copyOf(relationship, n);
+            delay = Arrays.copyOf(delay, n);
+            timestamp = Arrays.copyOf(timestamp, n);
+            firstUpdate = Arrays.copyOf(firstUpdate, n);
+            endUpdate = Arrays.copyOf(endUpdate, n);
+        }
+
+        void ensureUpdates(int capacity) {
+            if (capacity <= sequence.length) return;
+            int n = Math.max(capacity, Math.max(64, sequence.length * 2));
+            sequence = Arrays.copyOf(sequence, n);
+            stopId = Arrays.copyOf(stopId, n);
+            updateRelationship = Arrays.copyOf(updateRelationship, n);
+            arrivalTime = Arrays.copyOf(arrivalTime, n);
+            arrivalDelay = Arrays.copyOf(arrivalDelay, n);
+            departureTime = Arrays.copyOf(departureTime, n);
+            departureDelay = Arrays.copyOf(departureDelay, n);
+        }
+
+        /** @return numero di corse */
+        public int size() { return size; }
+
+        /** @return timestamp dell'header del feed (0 se assente) */
+        public long getHeaderTimestamp() { return headerTimestamp; }
+
+        public String getTripId(int k) { return tripId[k]; }
+
+        public String getRouteId(int k) { return routeId[k]; }
+
+        public int getStartDate(int k) { return startDate[k]; }
+
+        /** @return schedule_relationship della corsa (valore di TripDescriptor.ScheduleRelationship) */
+        public int getRelationship(int k) { return relationship[k]; }
+
+        public int getDelay(int k) { return delay[k]; }
+
+        public long getTimestamp(int k) { return timestamp[k]; }
+
+        public int getFirstUpdate(int k) { return firstUpdate[k]; }
+
+        public int getEndUpdate(int k) { return endUpdate[k]; }
+
+        public int getStopSequence(int j) { return sequence[j]; }
+
+        public String getStopId(int j) { return stopId[j]; }
+
+        /** @return schedule_relationship della fermata (valore di StopTimeUpdate.ScheduleRelationship) */
+        public int getUpdateRelationship(int j) { return updateRelationship[j]; }
+
+        public long getArrivalTime(int j) { return arrivalTime[j]; }
+
+        public int getArrivalDelay(int j) { return arrivalDelay[j]; }
+
+        public long getDepartureTime(int j) { return departureTime[j]; }
+
+        public int getDepartureDelay(int j) { return departureDelay[j]; }
+    }
+
+    // POSIZIONI DEI VEICOLI -------------------------------------------------------------------------------------------
+    /**
+     * Posizioni dei veicoli decodificate, in array paralleli indicizzati da 0 a {@link #size()} - 1.
+     * Timestamp assenti valgono 0.
+     */
+    public static final class VehiclePositions {
+        private int size;
+        private long headerTimestamp;
+        private String[] tripId = new String[0];
+        private String[] routeId = new String[0];                                       // route_id del feed (null se assente).
+        private String[] vehicleId = new String[0];
+        private double[] latitude = new double[0];
+        private double[] longitude = new double[0];
+        private long[] timestamp = new long[0];
+
+        void reset() {
+            size = 0;
+            headerTimestamp = 0L;
+        }
+
+        void ensure(int capacity) {
+            if (capacity <= tripId.length) return;
+            int n = Math.max(capacity, Math.max(16, tripId.length * 2));
+            tripId = Arrays.copyOf(tripId, n);
+            routeId = Arrays.copyOf(routeId, n);
+            vehicleId = Arrays.copyOf(vehicleId, n);
+            latitude = Arrays.copyOf(latitude, n);
+            longitude = Arrays.copyOf(longitude, n);
+            timestamp = Arrays.copyOf(timestamp, n);
+        }
+
+        /** @return numero di veicoli */
+        public int size() { return size; }
+
+        /** @return timestamp dell'header del feed (0 se assente) */
+        public long getHeaderTimestamp() { return headerTimestamp; }
+
+        public String getTripId(int k) { return tripId[k]; }
+
+        public String getRouteId(int k) { return routeId[k]; }
+
+        public String getVehicleId(int k) { return vehicleId[k]; }
+
+        public double getLatitude(int k) { return latitude[k]; }
+
+        public double getLongitude(int k) { return longitude[k]; }
+
+        public long getTimestamp(int k) { return timestamp[k]; }
+    }
+
+    // AVVISI DI SERVIZIO ----------------------------------------------------------------------------------------------
+    /**
+     * Avvisi di servizio decodificati, nell'ordine del feed. Gli avvisi sono immutabili e restano validi
+     * anche dopo la decodifica successiva, che svuota solo l'elenco.
+     */
+    public static final class Alerts {
+        private final List<ServiceAlert> list = new ArrayList<>();
+        private long headerTimestamp;
+
+        void reset() {
+            list.clear();
+            headerTimestamp = 0L;
+        }
+
+        /** @return numero di avvisi */
+        public int size() { return list.size(); }
+
+        /** @return timestamp dell'header del feed (0 se assente) */
+        public long getHeaderTimestamp() { return headerTimestamp; }
+
+        public ServiceAlert get(int k) { return list.get(k); }
+
+        /** @return vista non modificabile degli avvisi, valida fino alla decodifica successiva */
+        public List<ServiceAlert> asList() { return Collections.unmodifiableList(list); }
+    }
+
+    // POOL DI STRINGHE ------------------------------------------------------------------------------------------------
+    /**
+     * Tabella a indirizzamento aperto che restituisce la stessa istanza per gli stessi byte UTF-8.
+     * Oltre {@link #MAX_ENTRIES} stringhe viene svuotata, così gli ID dei giorni passati non si accumulano.
+     * Tutte le stringhe del pool iniziano con lo stesso prefisso, che il confronto con i byte salta.
+     */
+    private static final class StringPool {
+        private static final int MAX_ENTRIES = 1 << 17;
+
+        final String prefix;                                                            // Vuoto per il feed principale.
+        private String[] table = new String[1 << 12];
+        private int[] hashes = new int[1 << 12];
+        private int count;
+
+        StringPool(String prefix) {
+            this.prefix = prefix;
+        }
+
+        String intern(byte[] bytes, int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) hash = 31 * hash + bytes[i];
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            String s;
+            while ((s = table[slot]) != null) {
+                if (hashes[slot] == hash && matches(s, bytes, offset, length)) return s;
+                slot = (slot + 1) & mask;
+            }
+
+            s = decode(bytes, offset, length);
+            if (count >= MAX_ENTRIES) {
+                Arrays.fill(table, null);
+                count = 0;
+                slot = mix(hash) & mask;
+            } else if (2 * (count + 1) > table.length) {
+                grow();
+                mask = table.length - 1;
+                slot = mix(hash) & mask;
+                while (table[slot] != null) slot = (slot + 1) & mask;
+            }
+            table[slot] = s;
+            hashes[slot] = hash;
+            count++;
+            return s;
+        }
+
+        private void grow() {
+            String[] oldTable = table;
+            int[] oldHashes = hashes;
+            table = new String[oldTable.length * 2];
+            hashes = new int[oldTable.length * 2];
+            int mask = table.length - 1;
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldTable[i] == null) continue;
+                int slot = mix(oldHashes[i]) & mask;
+                while (table[slot] != null) slot = (slot + 1) & mask;
+                table[slot] = oldTable[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+
+        private String decode(byte[] bytes, int offset, int length) {
+            String s = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            return prefix.isEmpty() ? s : prefix + s;
+        }
+
+        /**
+         * Confronta una stringa del pool con i byte UTF-8, dopo il prefisso; per gli ID (ASCII) senza decodificare.
+         */
+        private boolean matches(String s, byte[] bytes, int offset, int length) {
+            int skip = prefix.length();
+            if (s.length() - skip != length) {
+                return s.length() - skip < length && s.equals(decode(bytes, offset, length));
+            }
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[offset + i];
+                if (b < 0) return s.equals(decode(bytes, offset, length));
+                if (s.charAt(skip + i) != b) return false;
+            }
+            return true;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package operator;
+
+// Model.
+import model.ShapePoint;
+
+// Altre classi.
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Geometria compatta di una shape GTFS, per proiettare e interpolare posizioni lungo il percorso.
+ * <p>
+ * I punti vengono convertiti una sola volta in coordinate piane locali (proiezione equirettangolare
+ * centrata sulla shape, più che precisa alla scala di una città) e per ogni punto viene precalcolata
+ * la distanza cumulativa in metri dall'inizio del percorso.
+ * {@link #pointAt(double, double[], int)} non alloca memoria e può essere chiamato ad ogni frame.
+ * </p>
+ * <p>
+ * Per la proiezione i segmenti sono indicizzati in una griglia di celle quadrate: ogni segmento è registrato
+ * nelle celle coperte dal suo rettangolo di ingombro e le celle non vuote sono memorizzate ordinate,
+ * così che una posizione venga confrontata solo con i segmenti delle celle vicine, trovate con ricerca binaria.
+ * L'oggetto è immutabile e può essere letto da più thread contemporaneamente.
+ * </p>
+ */
+public class GTFSShapeGeometry {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final double METERS_PER_DEGREE = 6_371_000.0 * Math.PI / 180.0;    // Metri per grado di latitudine.
+    public static final double MAX_MATCH_METERS = 150.0;                                // Oltre questa distanza la posizione non è sul percorso.
+    private static final double CELL_METERS = MAX_MATCH_METERS;                         // Lato delle celle dell'indice dei segmenti.
+    private static final double HINT_WEIGHT = 0.02;                                     // Metri di penalità per metro di distanza dalla posizione precedente.
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final double[] lat;
+    private final double[] lon;
+    private final double[] x;                                                           // Coordinate piane locali in metri.
+    private final double[] y;
+    private final double[] cumulative;                                                  // Distanza dall'inizio in metri.
+    private final double[] shapeDist;                                                   // shape_dist_traveled (NaN se assente).
+    private final double metersPerDegreeLon;                                            // Metri per grado di longitudine alla latitudine media.
+    private final boolean hasShapeDist;                                                 // shape_dist_traveled presente e crescente su tutti i punti.
+
+    // INDICE DEI SEGMENTI ---------------------------------------------------------------------------------------------
+    private int minCellX, minCellY, cellColumns;                                        // Griglia relativa al rettangolo della shape.
+    private int[] cellIds = new int[0];                                                 // Celle non vuote, ordinate.
+    private int[] cellStart = new int[1];                                               // Segmenti della cella k: [cellStart[k], cellStart[k+1]).
+    private int[] cellSegments = new int[0];                                            // Indice del primo punto di ogni segmento.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param points punti della shape ordinati per sequenza (quelli senza coordinate vengono ignorati)
+     */
+    public GTFSShapeGeometry(List<ShapePoint> points) {
+        int n = 0;
+        double latSum = 0;
+        for (ShapePoint p : points) {
+            if (p.getShapePtLat() == null || p.getShapePtLon() == null) continue;
+            latSum += p.getShapePtLat();
+            n++;
+        }
+        lat = new double[n];
+        lon = new double[n];
+        x = new double[n];
+        y = new double[n];
+        cumulative = new double[n];
+        shapeDist = new double[n];
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(n > 0 ? latSum / n : 0));
+
+        int i = 0;
+        for (ShapePoint p : points) {
+            if (p.getShapePtLat() == null || p.getShapePtLon() == null) continue;
+            lat[i] = p.getShapePtLat();
+            lon[i] = p.getShapePtLon();
+            x[i] = lon[i] * metersPerDegreeLon;
+            y[i] = lat[i] * METERS_PER_DEGREE;
+            shapeDist[i] = p.getShapeDistTraveled() != null ? p.getShapeDistTraveled() : Double.NaN;
+            if (i > 0) cumulative[i] = cumulative[i - 1] + Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+            i++;
+        }
+
+        boolean monotonic = n > 0;
+        for (int k = 0; k < n && monotonic; k++) {
+            monotonic = !Double.isNaN(shapeDist[k]) && (k == 0 || shapeDist[k] >= shapeDist[k - 1]);
+        }
+        hasShapeDist = monotonic;
+
+        if (n >= 2) buildSegmentIndex();
+    }
+
+    /**
+     * Costruisce l'indice: coppie (cella, segmento) ordinate e poi compattate per cella.
+     */
+    private void buildSegmentIndex() {
+        int n = lat.length;
+        int maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE;
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minCellX = Math.min(minCellX, cellOf(x[i]));
+            minCellY = Math.min(minCellY, cellOf(y[i]));
+            maxCellX = Math.max(maxCellX, cellOf(x[i]));
+            maxCellY = Math.max(maxCellY, cellOf(y[i]));
+        }
+        cellColumns = maxCellX - minCellX + 1;
+
+        // coppie (cella << 32 | segmento)
+        long[] pairs = new long[2 * n];
+        int count = 0;
+        for (int i = 0; i + 1 < n; i++) {
+            int x0 = cellOf(Math.min(x[i], x[i + 1])) - minCellX, x1 = cellOf(Math.max(x[i], x[i + 1])) - minCellX;
+            int y0 = cellOf(Math.min(y[i], y[i + 1])) - minCellY, y1 = cellOf(Math.max(y[i], y[i + 1])) - minCellY;
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cx = x0; cx <= x1; cx++) {
+                    if (count == pairs.length) pairs = Arrays.copyOf(pairs, 2 * count);
+                    pairs[count++] = ((long) (cy * cellColumns + cx) << 32) | i;
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+
+        // compattazione per cella
+        cellIds = new int[count];
+        cellStart = new int[count + 1];
+        cellSegments = new int[count];
+        int cells = 0;
+        for (int k = 0; k < count; k++) {
+            int cell = (int) (pairs[k] >>> 32);
+            if (cells == 0 || cellIds[cells - 1] != cell) {
+                cellIds[cells] = cell;
+                cellStart[cells++] = k;
+            }
+            cellSegments[k] = (int) pairs[k];
+        }
+        cellStart[cells] = count;
+        cellIds = Arrays.copyOf(cellIds, cells);
+        cellStart = Arrays.copyOf(cellStart, cells + 1);
+    }
+
+    private static int cellOf(double meters) {
+        return (int) Math.floor(meters / CELL_METERS);
+    }
+
+    // GETTER ----------------------------------------------------------------------------------------------------------
+    /** @return numero di punti */
+    public int size() { return lat.length; }
+
+    /** @return lunghezza del percorso in metri */
+    public double getLength() { return lat.length > 0 ? cumulative[lat.length - 1] : 0; }
+
+    /** @param i indice del punto @return distanza in metri dall'inizio del percorso */
+    public double getCumulativeDistance(int i) { return cumulative[i]; }
+
+    /** @param i indice del punto @return shape_dist_traveled del punto (NaN se assente) */
+    public double getShapeDistTraveled(int i) { return shapeDist[i]; }
+
+    /** @return true se tutti i punti hanno shape_dist_traveled e i valori sono crescenti */
+    public boolean hasShapeDistTraveled() { return hasShapeDist; }
+
+    // PROIEZIONE ------------------------------------------------------------------------------------------------------
+    /**
+     * Proietta una posizione sul segmento più vicino del percorso, entro {@link #MAX_MATCH_METERS}.
+     * <p>
+     * Vengono esaminati solo i segmenti della cella della posizione e dell'anello di celle intorno,
+     * sufficienti a trovare qualunque segmento entro la distanza massima.
+     * Se è nota la distanza lungo il percorso della posizione precedente, tra segmenti quasi equidistanti
+     * (capolinea, percorsi che ripassano sulla stessa strada) viene preferito quello più vicino ad essa.
+     * </p>
+     *
+     * @param latitude  latitudine
+     * @param longitude longitudine
+     * @param hintAlong distanza lungo il percorso della posizione precedente (NaN se non nota)
+     * @param out       array di almeno 4 elementi: distanza lungo il percorso in metri, latitudine e longitudine
+     *                  del punto proiettato, shape_dist_traveled interpolato (NaN se assente)
+     * @return          indice del primo punto del segmento, oppure -1 se nessun segmento è abbastanza vicino
+     */
+    public int project(double latitude, double longitude, double hintAlong, double[] out) {
+        if (lat.length < 2) return -1;
+        double px = longitude * metersPerDegreeLon;
+        double py = latitude * METERS_PER_DEGREE;
+        int cx = cellOf(px) - minCellX;
+        int cy = cellOf(py) - minCellY;
+
+        double bestScore = Double.MAX_VALUE;
+        double bestDistance = Double.MAX_VALUE;
+        int bestSegment = -1;
+        double bestT = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int gx = cx + dx, gy = cy + dy;
+                if (gx < 0 || gx >= cellColumns || gy < 0) continue;
+                int k = Arrays.binarySearch(cellIds, gy * cellColumns + gx);
+                if (k < 0) continue;
+                for (int j = cellStart[k]; j < cellStart[k + 1]; j++) {
+                    int i = cellSegments[j];
+                    double sx = x[i + 1] - x[i];
+                    double sy = y[i + 1] - y[i];
+                    double lengthSq = sx * sx + sy * sy;
+                    double t = lengthSq > 0 ? ((px - x[i]) * sx + (py - y[i]) * sy) / lengthSq : 0;
+                    t = Math.max(0, Math.min(1, t));
+                    double distance = Math.hypot(x[i] + t * sx - px, y[i] + t * sy - py);
+                    if (distance > MAX_MATCH_METERS) continue;
+                    double along = cumulative[i] + t * (cumulative[i + 1] - cumulative[i]);
+                    double score = Double.isNaN(hintAlong) ? distance : distance + HINT_WEIGHT * Math.abs(along - hintAlong);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestDistance = distance;
+                        bestSegment = i;
+                        bestT = t;
+                    }
+                }
+            }
+        }
+        if (bestSegment < 0 || bestDistance > MAX_MATCH_METERS) return -1;
+
+        int i = bestSegment;
+        out[0] = cumulative[i] + bestT * (cumulative[i + 1] - cumulative[i]);
+        out[1] = lat[i] + bestT * (lat[i + 1] - lat[i]);
+        out[2] = lon[i] + bestT * (lon[i + 1] - lon[i]);
+        out[3] = shapeDist[i] + bestT * (shapeDist[i + 1] - shapeDist[i]);                // NaN se uno dei due punti non ha il valore.
+        return i;
+    }
+
+    /**
+     * Converte un valore di shape_dist_traveled (unità del feed) nella distanza in metri lungo il percorso.
+     *
+     * @param shapeDistTraveled valore di shape_dist_traveled
+     * @return                  distanza in metri, oppure NaN se la shape non ha shape_dist_traveled
+     */
+    public double distanceAtShapeDist(double shapeDistTraveled) {
+        if (!hasShapeDist) return Double.NaN;
+        int n = shapeDist.length;
+        if (shapeDistTraveled <= shapeDist[0]) return 0;
+        if (shapeDistTraveled >= shapeDist[n - 1]) return cumulative[n - 1];
+        int lo = 0;
+        int hi = n - 1;                                                                 // Invariante: shapeDist[lo] <= valore < shapeDist[hi].
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (shapeDist[mid] <= shapeDistTraveled) lo = mid;
+            else hi = mid;
+        }
+        double span = shapeDist[hi] - shapeDist[lo];
+        double t = span > 0 ? (shapeDistTraveled - shapeDist[lo]) / span : 0;
+        return cumulative[lo] + t * (cumulative[hi] - cumulative[lo]);
+    }
+
+    // INTERPOLAZIONE --------------------------------------------------------------------------------------------------
+    /**
+     * Scrive latitudine e longitudine del punto a una certa distanza lungo il percorso, senza allocare memoria.
+     *
+     * @param distance distanza in metri dall'inizio (limitata alla lunghezza del percorso)
+     * @param out      array di destinazione
+     * @param offset   posizione in cui scrivere latitudine (offset) e longitudine (offset + 1)
+     */
+    public void pointAt(double distance, double[] out, int offset) {
+        int n = lat.length;
+        if (n == 0) return;
+        if (distance <= 0 || n == 1) {
+            out[offset] = lat[0];
+            out[offset + 1] = lon[0];
+            return;
+        }
+        if (distance >= cumulative[n - 1]) {
+            out[offset] = lat[n - 1];
+            out[offset + 1] = lon[n - 1];
+            return;
+        }
+
+        int lo = 0;
+        int hi = n - 1;                                                                 // Invariante: cumulative[lo] <= distance < cumulative[hi].
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] <= distance) lo = mid;
+            else hi = mid;
+        }
+        double segment = cumulative[hi] - cumulative[lo];
+        double t = segment > 0 ? (distance - cumulative[lo]) / segment : 0;
+        out[offset] = lat[lo] + t * (lat[hi] - lat[lo]);
+        out[offset + 1] = lon[lo] + t * (lon[hi] - lon[lo]);
+    }
+}
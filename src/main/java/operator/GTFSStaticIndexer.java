@@ -2,9 +2,12 @@ package operator;
 
 // Model.
 import model.*;
+import model.repository.CalendarDateRepository;
 
 // Altre classi.
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Classe responsabile della costruzione dell'indice dei dati GTFS statici in memoria.
@@ -24,6 +27,10 @@ public class GTFSStaticIndexer {
     private final Map<String, Map<Integer, List<Trip>>> tripsByRouteAndDirection = new HashMap<>();
     private final Map<String, List<StopTime>> stopTimesByTrip = new HashMap<>();
     private final Map<String, List<StopTime>> stopTimesByStop = new HashMap<>();
+    private final Map<String, GTFSShapeGeometry> geometryByShapeId = new ConcurrentHashMap<>();    // Costruite alla prima richiesta.
+
+    // CALENDARIO DI SERVIZIO ------------------------------------------------------------------------------------------
+    private final CalendarDateRepository calendarDateRepository;
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
@@ -36,6 +43,9 @@ public class GTFSStaticIndexer {
      */
     public GTFSStaticIndexer(GTFSStaticLoader loader) {
 
+        // calendario
+        this.calendarDateRepository = loader.getCalendarDateRepository();
+
         // shape points
         loader.getShapePointRepository().getAllShapePoints().forEach(sp ->
                 shapePointsByShapeId.computeIfAbsent(sp.getShapeId(), k -> new ArrayList<>()).add(sp)
@@ -56,7 +66,7 @@ public class GTFSStaticIndexer {
             tripsByRoute.computeIfAbsent(t.getRouteId(), k -> new ArrayList<>()).add(t);
             tripsByRouteAndDirection
                     .computeIfAbsent(t.getRouteId(), k -> new HashMap<>())
-                    .computeIfAbsent(t.getDirectionId(), k -> new ArrayList<>())
+                    .computeIfAbsent(t.getDirectionId() != null ? t.getDirectionId() : 0, k -> new ArrayList<>())    // Senza direction_id: direzione 0.
                     .add(t);
         });
 
@@ -85,6 +95,7 @@ public class GTFSStaticIndexer {
         tripsByRouteAndDirection.clear();
         stopTimesByTrip.clear();
         stopTimesByStop.clear();
+        geometryByShapeId.clear();
     }
 
     // GETTER PER LISTE COMPLETE ---------------------------------------------------------------------------------------
@@ -97,6 +108,27 @@ public class GTFSStaticIndexer {
         return Collections.unmodifiableCollection(stopsById.values());
     }
 
+    /**
+     * Restituisce tutte le corse disponibili.
+     *
+     * @return collezione di {@link Trip}
+     */
+    public Collection<Trip> getAllTrips() {
+        return Collections.unmodifiableCollection(tripsById.values());
+    }
+
+    /**
+     * Restituisce gli ID dei servizi attivi in una data.
+     *
+     * @param date data di servizio
+     * @return     insieme di ID di servizio (vuoto se il calendario non copre la data)
+     */
+    public Set<String> getActiveServicesOnDate(LocalDate date) {
+        if (calendarDateRepository == null || date == null) return Collections.emptySet();
+        Set<String> services = calendarDateRepository.getActiveServicesOnDate(date);
+        return services == null ? Collections.emptySet() : services;
+    }
+
     // GETTER PER LISTE DI ID ------------------------------------------------------------------------------------------
     /**
      * Restituisce tutti gli ID delle linee disponibili.
@@ -119,6 +151,17 @@ public class GTFSStaticIndexer {
                 : Collections.unmodifiableList(shapePointsByShapeId.getOrDefault(shapeId, Collections.emptyList()));
     }
 
+    /**
+     * Restituisce la geometria compatta di uno shape, costruendola alla prima richiesta.
+     *
+     * @param shapeId ID dello shape
+     * @return        {@link GTFSShapeGeometry}, oppure null se lo shape non esiste
+     */
+    public GTFSShapeGeometry getShapeGeometry(String shapeId) {
+        if (shapeId == null || !shapePointsByShapeId.containsKey(shapeId)) return null;
+        return geometryByShapeId.computeIfAbsent(shapeId, id -> new GTFSShapeGeometry(shapePointsByShapeId.get(id)));
+    }
+
     /**
      * Restituisce la linea i base all'ID.
      *
@@ -1,5 +1,8 @@
 package operator;
 
+// Model.
+import model.*;
+
 // Repository.
 import model.repository.*;
 
@@ -7,6 +10,14 @@ import model.repository.*;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileInputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Classe responsabile del caricamento dei dati GTFS statici.
@@ -17,9 +28,16 @@ import java.io.FileInputStream;
  * Senza {@link GTFSStaticLoader}, ogni chiamata alle Repository implicherebbe
  * una lettura e parsatura dei file da zero.
  * </p>
+ * <p>
+ * Più feed ({@link GTFSFeed}) vengono caricati in parallelo con {@link #loadFeeds(List)}: ogni feed in un
+ * proprio loader, con gli ID prefissati dal suo spazio dei nomi, e le repository unite alla fine.
+ * </p>
  */
 public class GTFSStaticLoader {
 
+    // LOGGER ----------------------------------------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(GTFSStaticLoader.class.getName());        // Messaggi debug.
+
     // REPOSITORY PER FILE GTFS ----------------------------------------------------------------------------------------
     private final AgencyRepository agencyRepository = new AgencyRepository();
     private final CalendarDateRepository calendarDateRepository = new CalendarDateRepository();
@@ -29,6 +47,9 @@ public class GTFSStaticLoader {
     private final StopRepository stopRepository = new StopRepository();
     private final StopTimeRepository stopTimeRepository = new StopTimeRepository();
 
+    // SPAZI DEI NOMI DEI FEED CARICATI --------------------------------------------------------------------------------
+    private final List<String> namespaces = new ArrayList<>();                          // Nell'ordine di caricamento.
+
     // CARICA TUTTI I FILE GTFS DALLA CACHE (LOCALE) -------------------------------------------------------------------
     /**
      * Carica tutti i file GTFS statici da una directory locale.
@@ -37,13 +58,138 @@ public class GTFSStaticLoader {
      * @throws IOException in caso di file non trovato o errore di lettura
      */
     public void loadAllFromDirectory(java.nio.file.Path dir) throws IOException {
+        loadAllFromDirectory(dir, "");
+    }
+
+    /**
+     * Carica i file GTFS statici di un feed da una directory locale, anteponendo a tutti gli ID
+     * (agenzie, linee, corse, servizi, shape, blocchi e fermate) il prefisso del suo spazio dei nomi.
+     * <p>
+     * Gli ID ripetuti nei file (ad esempio la fermata di ogni stop time) vengono prefissati una sola volta
+     * e condividono la stessa stringa.
+     * </p>
+     *
+     * @param dir          percorso della directory contenente i file GTFS
+     * @param namespace    spazio dei nomi del feed (vuoto per il feed principale, i cui ID restano invariati)
+     * @throws IOException in caso di file non trovato o errore di lettura
+     */
+    public void loadAllFromDirectory(java.nio.file.Path dir, String namespace) throws IOException {
+        String idPrefix = namespace.isEmpty() ? "" : namespace + GTFSFeed.SEPARATOR;
+        int agencies = agencyRepository.getAllAgencies().size();                        // Primi elementi di questo feed.
+        int routes = routeRepository.getAllRoutes().size();
+        int shapePoints = shapePointRepository.getAllShapePoints().size();
+        int trips = tripRepository.getAllTrips().size();
+        int stops = stopRepository.getAllStops().size();
+        int stopTimes = stopTimeRepository.getAllStopTimes().size();
+
         loadAgency(dir.resolve("agency.txt").toString());
-        loadCalendarDates(dir.resolve("calendar_dates.txt").toString());
+        loadCalendarDates(dir.resolve("calendar_dates.txt").toString(), idPrefix);      // Prefissati in lettura: sono chiavi della mappa per data.
         loadRoutes(dir.resolve("routes.txt").toString());
         loadShapePoints(dir.resolve("shapes.txt").toString());
         loadTrips(dir.resolve("trips.txt").toString());
         loadStops(dir.resolve("stops.txt").toString());
         loadStopTimes(dir.resolve("stop_times.txt").toString());
+        namespaces.add(namespace);
+        if (idPrefix.isEmpty()) return;
+
+        Map<String, String> qualified = new HashMap<>();                                // ID originale -> ID prefissato.
+        UnaryOperator<String> q = id -> id == null || id.isEmpty() ? id : qualified.computeIfAbsent(id, k -> idPrefix + k);
+        for (Agency a : agencyRepository.getAllAgencies().subList(agencies, agencyRepository.getAllAgencies().size())) {
+            a.setAgencyId(q.apply(a.getAgencyId()));
+        }
+        for (Route r : routeRepository.getAllRoutes().subList(routes, routeRepository.getAllRoutes().size())) {
+            r.setRouteId(q.apply(r.getRouteId()));
+            r.setAgencyId(q.apply(r.getAgencyId()));
+        }
+        for (ShapePoint sp : shapePointRepository.getAllShapePoints().subList(shapePoints, shapePointRepository.getAllShapePoints().size())) {
+            sp.setShapeId(q.apply(sp.getShapeId()));
+        }
+        for (Trip t : tripRepository.getAllTrips().subList(trips, tripRepository.getAllTrips().size())) {
+            t.setTripId(q.apply(t.getTripId()));
+            t.setRouteId(q.apply(t.getRouteId()));
+            t.setServiceId(q.apply(t.getServiceId()));
+            t.setShapeId(q.apply(t.getShapeId()));
+            t.setBlockId(q.apply(t.getBlockId()));
+        }
+        for (Stop st : stopRepository.getAllStops().subList(stops, stopRepository.getAllStops().size())) {
+            st.setStopId(q.apply(st.getStopId()));
+            st.setParentStation(q.apply(st.getParentStation()));
+        }
+        for (StopTime st : stopTimeRepository.getAllStopTimes().subList(stopTimes, stopTimeRepository.getAllStopTimes().size())) {
+            st.setTripId(q.apply(st.getTripId()));
+            st.setStopId(q.apply(st.getStopId()));
+        }
+    }
+
+    // CARICA PIÙ FEED IN PARALLELO ------------------------------------------------------------------------------------
+    /**
+     * Carica più feed dalle rispettive cache in parallelo, ciascuno in un proprio loader, e ne unisce le repository
+     * nell'ordine dei feed.
+     * <p>
+     * Ogni file viene letto una sola volta e l'unione copia solo i riferimenti agli oggetti:
+     * tempo di caricamento e memoria crescono linearmente con il numero di feed.
+     * </p>
+     * <p>
+     * Un errore sul feed principale viene propagato; un feed aggiuntivo che non si riesce a caricare viene
+     * registrato nel log e tralasciato (i feed caricati sono in {@link #getNamespaces()}).
+     * </p>
+     *
+     * @param feeds        feed da caricare, il principale per primo (almeno uno)
+     * @return             loader con i dati dei feed caricati
+     * @throws IOException se il caricamento del feed principale fallisce
+     */
+    public static GTFSStaticLoader loadFeeds(List<GTFSFeed> feeds) throws IOException {
+        if (feeds.size() == 1) {                                                        // Un solo feed: nessun thread aggiuntivo.
+            GTFSStaticLoader loader = new GTFSStaticLoader();
+            loader.loadAllFromDirectory(feeds.get(0).getCacheDirectory(), feeds.get(0).getNamespace());
+            return loader;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(feeds.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<GTFSStaticLoader>> loads = new ArrayList<>();
+            for (GTFSFeed feed : feeds) {
+                loads.add(pool.submit(() -> {
+                    GTFSStaticLoader loader = new GTFSStaticLoader();
+                    loader.loadAllFromDirectory(feed.getCacheDirectory(), feed.getNamespace());
+                    return loader;
+                }));
+            }
+            GTFSStaticLoader result = null;
+            for (int i = 0; i < loads.size(); i++) {
+                try {
+                    GTFSStaticLoader loader = loads.get(i).get();
+                    if (result == null) result = loader;
+                    else result.addAll(loader);
+                } catch (ExecutionException e) {
+                    if (feeds.get(i).isMain()) {
+                        throw new IOException("Caricamento del feed principale fallito", e.getCause());
+                    }
+                    LOG.log(Level.WARNING, "Caricamento del feed '" + feeds.get(i).getNamespace()
+                            + "' fallito: il feed viene tralasciato", e.getCause());
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Caricamento dei feed interrotto", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Aggiunge a questo loader le repository di un altro, caricato da un feed con un diverso spazio dei nomi.
+     */
+    private void addAll(GTFSStaticLoader other) {
+        agencyRepository.getAllAgencies().addAll(other.agencyRepository.getAllAgencies());
+        calendarDateRepository.addAll(other.calendarDateRepository);
+        routeRepository.getAllRoutes().addAll(other.routeRepository.getAllRoutes());
+        shapePointRepository.getAllShapePoints().addAll(other.shapePointRepository.getAllShapePoints());
+        tripRepository.getAllTrips().addAll(other.tripRepository.getAllTrips());
+        stopRepository.getAllStops().addAll(other.stopRepository.getAllStops());
+        stopTimeRepository.getAllStopTimes().addAll(other.stopTimeRepository.getAllStopTimes());
+        namespaces.addAll(other.namespaces);
     }
 
     // CARICAMENTO CONDIZIONATO DEI FILE GTFS --------------------------------------------------------------------------
@@ -56,12 +202,12 @@ public class GTFSStaticLoader {
         }
     }
 
-    private void loadCalendarDates(String resourcePath) throws IOException {
+    private void loadCalendarDates(String resourcePath, String idPrefix) throws IOException {
         try (InputStream is = resourcePath.startsWith("/") ?
                 getClass().getResourceAsStream(resourcePath) :
                 new FileInputStream(resourcePath)) {
             if (is == null) throw new IOException("Resource non trovata: " + resourcePath);
-            calendarDateRepository.loadCalendarDatesFromStream(is);
+            calendarDateRepository.loadCalendarDatesFromStream(is, idPrefix);
         }
     }
 
@@ -159,6 +305,13 @@ public class GTFSStaticLoader {
      * @return {@link StopTimeRepository}
      */
     public StopTimeRepository getStopTimeRepository() { return stopTimeRepository; }
+
+    /**
+     * Restituisce gli spazi dei nomi dei feed caricati
+     *
+     * @return spazi dei nomi nell'ordine di caricamento (vuoto per il feed principale)
+     */
+    public List<String> getNamespaces() { return List.copyOf(namespaces); }
 }
 
 
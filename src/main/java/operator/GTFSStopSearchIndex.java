@@ -0,0 +1,324 @@
+package operator;
+
+// Model.
+import model.Stop;
+import model.Trip;
+
+// Altre classi.
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Indice di ricerca testuale delle fermate.
+ * <p>
+ * Viene costruito una sola volta al caricamento dei dati statici: nomi, ID e codici delle fermate
+ * vengono normalizzati (minuscole, accenti rimossi, punteggiatura sostituita da spazi) e scomposti
+ * in trigrammi, ciascuno con la lista ordinata delle fermate che lo contengono.
+ * <ul>
+ *     <li>le query di almeno tre caratteri intersecano le liste dei propri trigrammi
+ *         e verificano poi la sottostringa sul testo normalizzato</li>
+ *     <li>le query di uno o due caratteri cercano solo le parole che iniziano con quei caratteri</li>
+ *     <li>i risultati sono ordinati per pertinenza (ID esatto, prefisso del nome, parole complete)
+ *         e per importanza della fermata (numero di linee servite), limitati ai primi K</li>
+ *     <li>se le corrispondenze esatte non bastano, i posti rimanenti vengono riempiti con una ricerca
+ *         approssimata ({@link GTFSFuzzyMatcher}) sulle parole dei nomi, che tollera errori di battitura</li>
+ * </ul>
+ * L'indice è immutabile dopo la costruzione e può essere letto da più thread contemporaneamente.
+ * </p>
+ */
+public class GTFSStopSearchIndex {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");        // Accenti dopo la decomposizione NFD.
+    private static final Pattern NON_ALNUM = Pattern.compile("[^\\p{L}\\p{N}]+");      // Separatori tra parole.
+    private static final int[] EMPTY = new int[0];
+
+    // PUNTEGGI --------------------------------------------------------------------------------------------------------
+    private static final int SCORE_EXACT_ID = 10_000;                                   // Query uguale a ID o codice.
+    private static final int SCORE_ID_PREFIX = 2_000;                                   // ID o codice che inizia con la query.
+    private static final int SCORE_NAME_PREFIX = 1_000;                                 // Nome che inizia con la query.
+    private static final int SCORE_WORD_PREFIX = 400;                                   // Ogni parola della query è inizio di una parola.
+    private static final int SCORE_WORD_EXACT = 50;                                     // Bonus per parola della query uguale a una parola.
+    private static final int SCORE_PER_ROUTE = 10;                                      // Bonus per linea servita.
+    private static final int MAX_ROUTES_SCORED = 30;                                    // Limite al bonus di importanza.
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final Stop[] stops;                                                         // Indice → fermata.
+    private final String[] names;                                                       // Nome normalizzato.
+    private final String[][] codes;                                                     // ID e codice normalizzati.
+    private final String[] texts;                                                       // Testo completo indicizzato (nome + ID + codice).
+    private final int[] routeCounts;                                                    // Linee servite da ogni fermata.
+    private final Map<String, int[]> postings;                                          // Gramma → indici ordinati delle fermate.
+    private final GTFSFuzzyMatcher<Integer> fuzzyMatcher;                               // Parola del nome → indici delle fermate.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param allStops         fermate da indicizzare
+     * @param routeCountByStop numero di linee servite per ID fermata (le fermate assenti valgono 0)
+     */
+    public GTFSStopSearchIndex(Collection<Stop> allStops, Map<String, Integer> routeCountByStop) {
+        int n = allStops.size();
+        this.stops = allStops.toArray(new Stop[0]);
+        this.names = new String[n];
+        this.codes = new String[n][];
+        this.texts = new String[n];
+        this.routeCounts = new int[n];
+
+        Map<String, IntList> building = new HashMap<>();
+        Map<String, Set<Integer>> stopsByWord = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Stop stop = stops[i];
+            names[i] = normalize(stop.getStopName());
+            String id = normalize(stop.getStopId());
+            String code = normalize(stop.getStopCode());
+            codes[i] = code.isEmpty() || code.equals(id) ? new String[] { id } : new String[] { id, code };
+            texts[i] = (names[i] + " " + String.join(" ", codes[i])).trim();
+            routeCounts[i] = routeCountByStop.getOrDefault(stop.getStopId(), 0);
+            for (String word : names[i].split(" ")) {
+                if (GTFSFuzzyMatcher.maxDistanceFor(word) > 0) {                        // Le parole corte non vengono corrette.
+                    stopsByWord.computeIfAbsent(word, _ -> new LinkedHashSet<>()).add(i);
+                }
+            }
+
+            for (String word : texts[i].split(" ")) {
+                if (word.isEmpty()) continue;
+                String padded = " " + word;                                             // Lo spazio iniziale marca l'inizio della parola.
+                addPosting(building, padded.substring(0, 2), i);                        // Prefisso di un carattere.
+                for (int g = 0; g + 3 <= padded.length(); g++) {
+                    addPosting(building, padded.substring(g, g + 3), i);                // Trigrammi, compreso " xy" come prefisso di due caratteri.
+                }
+            }
+        }
+
+        this.postings = new HashMap<>(building.size() * 2);
+        building.forEach((gram, list) -> postings.put(gram, list.toArray()));
+        this.fuzzyMatcher = new GTFSFuzzyMatcher<>(stopsByWord);
+    }
+
+    // COSTRUZIONE DAI DATI INDICIZZATI --------------------------------------------------------------------------------
+    /**
+     * Costruisce l'indice calcolando l'importanza di ogni fermata dall'orario compatto.
+     *
+     * @param staticIndexer  indicizzatore statico
+     * @param timetableIndex orario compatto
+     * @return               indice di ricerca
+     */
+    public static GTFSStopSearchIndex build(GTFSStaticIndexer staticIndexer, GTFSTimetableIndex timetableIndex) {
+        Map<String, Set<String>> routesByStop = new HashMap<>();
+        for (int t = 0; t < timetableIndex.getTripCount(); t++) {
+            Trip trip = staticIndexer.getTripById(timetableIndex.getTripId(t));
+            if (trip == null || trip.getRouteId() == null) continue;
+            for (int e = timetableIndex.getTripFirstEvent(t); e < timetableIndex.getTripEndEvent(t); e++) {
+                int s = timetableIndex.getEventStop(e);
+                if (s < 0) continue;                                                    // Fermata assente da stops.txt.
+                routesByStop.computeIfAbsent(timetableIndex.getStopId(s), _ -> new HashSet<>()).add(trip.getRouteId());
+            }
+        }
+
+        Map<String, Integer> routeCountByStop = new HashMap<>(routesByStop.size() * 2);
+        routesByStop.forEach((stopId, routes) -> routeCountByStop.put(stopId, routes.size()));
+        return new GTFSStopSearchIndex(staticIndexer.getAllStops(), routeCountByStop);
+    }
+
+    // RICERCA ---------------------------------------------------------------------------------------------------------
+    /**
+     * Cerca le fermate che corrispondono alla query, ordinate per pertinenza.
+     *
+     * @param query testo digitato dall'utente
+     * @param limit numero massimo di risultati
+     * @return      fermate trovate, al più {@code limit}
+     */
+    public List<Stop> search(String query, int limit) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) return List.of();
+        String[] words = q.split(" ");
+
+        // Candidati: intersezione delle liste di tutte le parole della query.
+        int[] candidates = null;
+        for (String word : words) {
+            int[] matches = candidatesForWord(word);
+            candidates = candidates == null ? matches : intersect(candidates, matches);
+            if (candidates.length == 0) break;
+        }
+
+        // Selezione dei migliori K con un heap di minimo.
+        PriorityQueue<long[]> best = new PriorityQueue<>(limit + 1, (a, b) ->
+                a[0] != b[0] ? Long.compare(a[0], b[0]) : compareNames((int) b[1], (int) a[1]));
+        for (int i : candidates) {
+            int score = score(i, q, words);
+            if (score < 0) continue;                                                    // Falso positivo dei trigrammi.
+            best.add(new long[] { score, i });
+            if (best.size() > limit) best.poll();
+        }
+
+        List<Stop> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) result.add(stops[(int) best.poll()[1]]);
+        Collections.reverse(result);
+
+        if (result.size() < limit) result.addAll(fuzzySearch(words, limit - result.size(), result));
+        return result;
+    }
+
+    // RICERCA APPROSSIMATA --------------------------------------------------------------------------------------------
+    /**
+     * Cerca le fermate tollerando errori di battitura nelle parole della query.
+     * <p>
+     * Ogni parola abbastanza lunga viene cercata nel vocabolario dei nomi entro la distanza consentita;
+     * le parole corte (o quella che l'utente sta ancora scrivendo) valgono anche come corrispondenza esatta.
+     * Le fermate devono corrispondere a tutte le parole e sono ordinate per somma delle distanze,
+     * poi per importanza.
+     * </p>
+     *
+     * @param words    parole normalizzate della query
+     * @param limit    numero massimo di risultati
+     * @param excluded fermate già restituite dalla ricerca esatta
+     * @return         fermate trovate
+     */
+    private List<Stop> fuzzySearch(String[] words, int limit, Collection<Stop> excluded) {
+        Map<Integer, Integer> totalDistance = null;                                     // Fermata → somma delle distanze.
+        for (String word : words) {
+            Map<Integer, Integer> distances = new HashMap<>();
+            for (int i : candidatesForWord(word)) distances.put(i, 0);
+            for (GTFSFuzzyMatcher.Match<Integer> match : fuzzyMatcher.search(word, GTFSFuzzyMatcher.maxDistanceFor(word))) {
+                for (Integer i : match.items) distances.merge(i, match.distance, Math::min);
+            }
+
+            if (totalDistance == null) {
+                totalDistance = distances;
+            } else {
+                Map<Integer, Integer> merged = new HashMap<>();
+                for (Map.Entry<Integer, Integer> e : totalDistance.entrySet()) {
+                    Integer d = distances.get(e.getKey());
+                    if (d != null) merged.put(e.getKey(), e.getValue() + d);
+                }
+                totalDistance = merged;
+            }
+            if (totalDistance.isEmpty()) return List.of();
+        }
+
+        Set<Stop> skip = Collections.newSetFromMap(new IdentityHashMap<>());
+        skip.addAll(excluded);
+        Map<Integer, Integer> distanceByStop = totalDistance;
+        return distanceByStop.keySet().stream()
+                .filter(i -> distanceByStop.get(i) > 0 && !skip.contains(stops[i]))
+                .sorted(Comparator.<Integer>comparingInt(distanceByStop::get)
+                        .thenComparingInt(i -> -routeCounts[i])
+                        .thenComparing(this::compareNames))
+                .limit(limit)
+                .map(i -> stops[i])
+                .toList();
+    }
+
+    /**
+     * Restituisce le fermate candidate per una parola della query.
+     */
+    private int[] candidatesForWord(String word) {
+        if (word.length() < 3) {
+            int[] list = postings.get(" " + word);                                      // Solo inizio di parola.
+            return list != null ? list : EMPTY;
+        }
+        int[] result = null;
+        for (int g = 0; g + 3 <= word.length(); g++) {
+            int[] list = postings.get(word.substring(g, g + 3));
+            if (list == null) return EMPTY;
+            result = result == null ? list : intersect(result, list);
+            if (result.length == 0) return EMPTY;
+        }
+        return result;
+    }
+
+    /**
+     * Calcola il punteggio di una fermata candidata, -1 se non corrisponde davvero alla query.
+     */
+    private int score(int i, String q, String[] words) {
+        String name = names[i];
+        String text = texts[i];
+        int score = 0;
+        boolean allWordPrefixes = true;
+
+        for (String word : words) {
+            int pos = text.indexOf(word);
+            if (pos < 0) return -1;                                                     // Ogni parola deve comparire nel testo.
+            boolean wordPrefix = false;
+            boolean wordExact = false;
+            for (int from = pos; from >= 0; from = text.indexOf(word, from + 1)) {
+                if (from == 0 || text.charAt(from - 1) == ' ') {
+                    wordPrefix = true;
+                    int end = from + word.length();
+                    if (end == text.length() || text.charAt(end) == ' ') wordExact = true;
+                }
+            }
+            if (word.length() < 3 && !wordPrefix) return -1;                          // Le parole corte valgono solo come prefisso.
+            if (!wordPrefix) allWordPrefixes = false;
+            if (wordExact) score += SCORE_WORD_EXACT;
+        }
+
+        for (String code : codes[i]) {
+            if (code.equals(q)) score += SCORE_EXACT_ID;
+            else if (code.startsWith(q)) score += SCORE_ID_PREFIX;
+        }
+        if (name.startsWith(q)) score += SCORE_NAME_PREFIX;
+        if (allWordPrefixes) score += SCORE_WORD_PREFIX;
+        score += Math.min(routeCounts[i], MAX_ROUTES_SCORED) * SCORE_PER_ROUTE;
+        return score;
+    }
+
+    /**
+     * Ordine alfabetico dei nomi, usato a parità di punteggio (nomi più corti prima).
+     */
+    private int compareNames(int a, int b) {
+        int cmp = Integer.compare(names[a].length(), names[b].length());
+        return cmp != 0 ? cmp : names[a].compareTo(names[b]);
+    }
+
+    // NORMALIZZAZIONE -------------------------------------------------------------------------------------------------
+    /**
+     * Normalizza un testo per la ricerca: minuscole, accenti rimossi, separatori ridotti a un solo spazio.
+     *
+     * @param text testo da normalizzare (può essere null)
+     * @return     testo normalizzato, stringa vuota se null
+     */
+    public static String normalize(String text) {
+        if (text == null) return "";
+        String folded = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return NON_ALNUM.matcher(folded.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    // UTILITY ---------------------------------------------------------------------------------------------------------
+    private static void addPosting(Map<String, IntList> building, String gram, int stopIndex) {
+        building.computeIfAbsent(gram, _ -> new IntList()).addIfLast(stopIndex);
+    }
+
+    /**
+     * Intersezione di due array ordinati.
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[k++] = a[i]; i++; j++; }
+        }
+        return k == out.length ? out : Arrays.copyOf(out, k);
+    }
+
+    /**
+     * Lista di interi crescente, usata solo durante la costruzione.
+     */
+    private static final class IntList {
+        private int[] data = new int[4];
+        private int size;
+
+        void addIfLast(int value) {
+            if (size > 0 && data[size - 1] == value) return;                            // Fermata già presente per questo gramma.
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        int[] toArray() { return Arrays.copyOf(data, size); }
+    }
+}
@@ -0,0 +1,335 @@
+package operator;
+
+// Model.
+import model.*;
+
+// Service.
+import service.TimetableService;
+
+// Altre classi.
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indice compatto dell'orario statico GTFS, pensato per gli algoritmi di ricerca sulla rete.
+ * <p>
+ * A differenza di {@link GTFSStaticIndexer}, che espone oggetti del model, questa classe
+ * converte fermate, corse e stop times in array di primitivi indicizzati per posizione:
+ * <ul>
+ *     <li>ogni fermata ha un indice intero con le relative coordinate</li>
+ *     <li>ogni corsa occupa un intervallo contiguo di "eventi" (stop times ordinati per sequenza)</li>
+ *     <li>le connessioni elementari (evento → evento successivo della stessa corsa) sono ordinate per partenza</li>
+ *     <li>per ogni fermata gli eventi sono ordinati per orario di partenza</li>
+ * </ul>
+ * Gli orari sono espressi in secondi dalla mezzanotte del giorno di servizio (possono superare 86400).
+ * L'indice è immutabile dopo la costruzione e può essere letto da più thread contemporaneamente.
+ * </p>
+ */
+public class GTFSTimetableIndex {
+
+    // FERMATE ---------------------------------------------------------------------------------------------------------
+    private final String[] stopIds;                                                     // Indice → ID fermata.
+    private final Map<String, Integer> stopIndexById;                                   // ID fermata → indice.
+    private final double[] stopLat;
+    private final double[] stopLon;
+
+    // CORSE -----------------------------------------------------------------------------------------------------------
+    private final String[] tripIds;                                                     // Indice → ID corsa.
+    private final String[] tripServiceIds;                                              // Indice → ID servizio.
+    private final Map<String, Integer> tripIndexById;                                   // ID corsa → indice.
+    private final int[] tripOffsets;                                                    // Eventi della corsa t: [tripOffsets[t], tripOffsets[t+1]).
+
+    // EVENTI (STOP TIMES) ---------------------------------------------------------------------------------------------
+    private final int[] eventStop;                                                      // Indice fermata dell'evento.
+    private final int[] eventTrip;                                                      // Indice corsa dell'evento.
+    private final int[] eventArrival;                                                   // Arrivo in secondi (-1 se assente).
+    private final int[] eventDeparture;                                                 // Partenza in secondi (-1 se assente).
+    private final int[] eventSequence;                                                  // stop_sequence GTFS (-1 se assente).
+
+    // CONNESSIONI E PARTENZE PER FERMATA ------------------------------------------------------------------------------
+    private final int[] connections;                                                    // Eventi di partenza delle connessioni, ordinati per partenza.
+    private final int[] stopDepartureOffsets;                                           // Partenze della fermata s: [offsets[s], offsets[s+1]).
+    private final int[] stopDepartureEvents;                                            // Eventi ordinati per partenza, raggruppati per fermata.
+
+    // CACHE SERVIZI ATTIVI --------------------------------------------------------------------------------------------
+    private final GTFSStaticIndexer staticIndexer;
+    private final Map<LocalDate, boolean[]> activeTripsByDate = new ConcurrentHashMap<>();
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     * <p>
+     * Costruisce tutti gli array a partire dalle mappe già presenti nell'indicizzatore statico.
+     * Gli stop times con orario non valido vengono mantenuti ma esclusi dalle connessioni.
+     * </p>
+     *
+     * @param staticIndexer indicizzatore statico già costruito
+     */
+    public GTFSTimetableIndex(GTFSStaticIndexer staticIndexer) {
+        this.staticIndexer = staticIndexer;
+
+        // fermate
+        Collection<Stop> stops = staticIndexer.getAllStops();
+        int stopCount = stops.size();
+        stopIds = new String[stopCount];
+        stopLat = new double[stopCount];
+        stopLon = new double[stopCount];
+        stopIndexById = new HashMap<>(stopCount * 2);
+        int s = 0;
+        for (Stop stop : stops) {
+            stopIds[s] = stop.getStopId();
+            stopLat[s] = stop.getStopLat() != null ? stop.getStopLat() : Double.NaN;
+            stopLon[s] = stop.getStopLon() != null ? stop.getStopLon() : Double.NaN;
+            stopIndexById.put(stop.getStopId(), s);
+            s++;
+        }
+
+        // corse (solo quelle con almeno uno stop time)
+        List<Trip> trips = new ArrayList<>();
+        int eventCount = 0;
+        for (Trip trip : staticIndexer.getAllTrips()) {
+            int n = staticIndexer.getStopTimesByTrip(trip.getTripId()).size();
+            if (n == 0) continue;
+            trips.add(trip);
+            eventCount += n;
+        }
+        int tripCount = trips.size();
+        tripIds = new String[tripCount];
+        tripServiceIds = new String[tripCount];
+        tripIndexById = new HashMap<>(tripCount * 2);
+        tripOffsets = new int[tripCount + 1];
+
+        // eventi
+        eventStop = new int[eventCount];
+        eventTrip = new int[eventCount];
+        eventArrival = new int[eventCount];
+        eventDeparture = new int[eventCount];
+        eventSequence = new int[eventCount];
+        int e = 0;
+        for (int t = 0; t < tripCount; t++) {
+            Trip trip = trips.get(t);
+            tripIds[t] = trip.getTripId();
+            tripServiceIds[t] = trip.getServiceId();
+            tripIndexById.put(trip.getTripId(), t);
+            tripOffsets[t] = e;
+            for (StopTime st : staticIndexer.getStopTimesByTrip(trip.getTripId())) {     // Già ordinati per stop_sequence.
+                Integer stopIndex = stopIndexById.get(st.getStopId());
+                int arr = TimetableService.parseSecondsSafe(st.getArrivalTime());
+                int dep = TimetableService.parseSecondsSafe(st.getDepartureTime());
+                if (arr < 0) arr = dep;                                                 // Orari mancanti: usa l'altro valore.
+                if (dep < 0) dep = arr;
+                eventStop[e] = stopIndex != null ? stopIndex : -1;
+                eventTrip[e] = t;
+                eventArrival[e] = arr;
+                eventDeparture[e] = dep;
+                eventSequence[e] = st.getStopSequence() != null ? st.getStopSequence() : -1;
+                e++;
+            }
+        }
+        tripOffsets[tripCount] = e;
+
+        // ordina tutti gli eventi validi per partenza (chiave: partenza << 32 | evento)
+        long[] keys = new long[eventCount];
+        int valid = 0;
+        for (int k = 0; k < eventCount; k++) {
+            if (eventDeparture[k] >= 0 && eventStop[k] >= 0) {
+                keys[valid++] = ((long) eventDeparture[k] << 32) | k;
+            }
+        }
+        keys = Arrays.copyOf(keys, valid);
+        Arrays.parallelSort(keys);
+
+        // connessioni: eventi seguiti da un altro evento valido della stessa corsa
+        int[] conn = new int[valid];
+        int c = 0;
+        for (long key : keys) {
+            int k = (int) key;
+            int next = k + 1;
+            if (next < eventCount && eventTrip[next] == eventTrip[k]
+                    && eventStop[next] >= 0 && eventArrival[next] >= eventDeparture[k]) {
+                conn[c++] = k;
+            }
+        }
+        connections = Arrays.copyOf(conn, c);
+
+        // partenze per fermata (counting sort stabile: resta l'ordine per orario)
+        stopDepartureOffsets = new int[stopCount + 1];
+        for (long key : keys) stopDepartureOffsets[eventStop[(int) key] + 1]++;
+        for (int i = 0; i < stopCount; i++) stopDepartureOffsets[i + 1] += stopDepartureOffsets[i];
+        stopDepartureEvents = new int[valid];
+        int[] cursor = Arrays.copyOf(stopDepartureOffsets, stopCount);
+        for (long key : keys) {
+            int k = (int) key;
+            stopDepartureEvents[cursor[eventStop[k]]++] = k;
+        }
+    }
+
+    // GETTER FERMATE --------------------------------------------------------------------------------------------------
+    /** @return numero di fermate indicizzate */
+    public int getStopCount() { return stopIds.length; }
+
+    /**
+     * Restituisce l'indice interno di una fermata.
+     *
+     * @param stopId ID della fermata
+     * @return       indice della fermata, oppure -1 se non presente
+     */
+    public int getStopIndex(String stopId) {
+        Integer idx = stopId == null ? null : stopIndexById.get(stopId);
+        return idx != null ? idx : -1;
+    }
+
+    /** @param stopIndex indice fermata @return ID della fermata */
+    public String getStopId(int stopIndex) { return stopIds[stopIndex]; }
+
+    /** @param stopIndex indice fermata @return latitudine (NaN se assente) */
+    public double getStopLat(int stopIndex) { return stopLat[stopIndex]; }
+
+    /** @param stopIndex indice fermata @return longitudine (NaN se assente) */
+    public double getStopLon(int stopIndex) { return stopLon[stopIndex]; }
+
+    // GETTER CORSE ----------------------------------------------------------------------------------------------------
+    /** @return numero di corse indicizzate */
+    public int getTripCount() { return tripIds.length; }
+
+    /**
+     * Restituisce l'indice interno di una corsa.
+     *
+     * @param tripId ID della corsa
+     * @return       indice della corsa, oppure -1 se non presente
+     */
+    public int getTripIndex(String tripId) {
+        Integer idx = tripId == null ? null : tripIndexById.get(tripId);
+        return idx != null ? idx : -1;
+    }
+
+    /** @param tripIndex indice corsa @return ID della corsa */
+    public String getTripId(int tripIndex) { return tripIds[tripIndex]; }
+
+    /** @param tripIndex indice corsa @return primo evento della corsa */
+    public int getTripFirstEvent(int tripIndex) { return tripOffsets[tripIndex]; }
+
+    /** @param tripIndex indice corsa @return evento successivo all'ultimo della corsa */
+    public int getTripEndEvent(int tripIndex) { return tripOffsets[tripIndex + 1]; }
+
+    // GETTER EVENTI ---------------------------------------------------------------------------------------------------
+    /** @return numero totale di eventi (stop times) */
+    public int getEventCount() { return eventStop.length; }
+
+    /** @param event indice evento @return indice della fermata (-1 se sconosciuta) */
+    public int getEventStop(int event) { return eventStop[event]; }
+
+    /** @param event indice evento @return indice della corsa */
+    public int getEventTrip(int event) { return eventTrip[event]; }
+
+    /** @param event indice evento @return arrivo in secondi dalla mezzanotte (-1 se assente) */
+    public int getEventArrival(int event) { return eventArrival[event]; }
+
+    /** @param event indice evento @return partenza in secondi dalla mezzanotte (-1 se assente) */
+    public int getEventDeparture(int event) { return eventDeparture[event]; }
+
+    /** @param event indice evento @return stop_sequence GTFS (-1 se assente) */
+    public int getEventSequence(int event) { return eventSequence[event]; }
+
+    // CONNESSIONI -----------------------------------------------------------------------------------------------------
+    /** @return numero di connessioni elementari */
+    public int getConnectionCount() { return connections.length; }
+
+    /**
+     * Restituisce l'evento di partenza della connessione i-esima; l'arrivo è l'evento successivo.
+     *
+     * @param i posizione nell'ordinamento per partenza
+     * @return  indice dell'evento di partenza
+     */
+    public int getConnectionEvent(int i) { return connections[i]; }
+
+    /**
+     * Trova la prima connessione con partenza non precedente all'orario indicato.
+     *
+     * @param departureSec orario in secondi dalla mezzanotte
+     * @return             posizione della prima connessione valida (può valere {@link #getConnectionCount()})
+     */
+    public int firstConnectionAtOrAfter(int departureSec) {
+        int lo = 0, hi = connections.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventDeparture[connections[mid]] < departureSec) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // PARTENZE PER FERMATA --------------------------------------------------------------------------------------------
+    /** @param stopIndex indice fermata @return inizio delle partenze della fermata */
+    public int getStopDeparturesStart(int stopIndex) { return stopDepartureOffsets[stopIndex]; }
+
+    /** @param stopIndex indice fermata @return fine (esclusa) delle partenze della fermata */
+    public int getStopDeparturesEnd(int stopIndex) { return stopDepartureOffsets[stopIndex + 1]; }
+
+    /** @param i posizione nelle partenze per fermata @return indice dell'evento */
+    public int getStopDepartureEvent(int i) { return stopDepartureEvents[i]; }
+
+    /**
+     * Trova la prima partenza di una fermata non precedente all'orario indicato.
+     *
+     * @param stopIndex    indice della fermata
+     * @param departureSec orario in secondi dalla mezzanotte
+     * @return             posizione nelle partenze per fermata
+     */
+    public int firstStopDepartureAtOrAfter(int stopIndex, int departureSec) {
+        int lo = stopDepartureOffsets[stopIndex], hi = stopDepartureOffsets[stopIndex + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventDeparture[stopDepartureEvents[mid]] < departureSec) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // CORSE IN SERVIZIO -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica se una corsa è in viaggio in un dato istante, cioè se è attiva nel giorno
+     * di servizio e l'istante cade tra la prima partenza e l'ultimo arrivo.
+     * Considera anche le corse del giorno precedente che proseguono oltre la mezzanotte.
+     *
+     * @param tripIndex indice della corsa
+     * @param date      data corrente
+     * @param secOfDay  secondi dalla mezzanotte della data corrente
+     * @return          true se la corsa è in viaggio
+     */
+    public boolean isTripRunning(int tripIndex, LocalDate date, int secOfDay) {
+        int first = tripOffsets[tripIndex];
+        int last = tripOffsets[tripIndex + 1] - 1;
+        if (last < first) return false;
+        int start = eventDeparture[first];
+        int end = eventArrival[last];
+        if (start < 0 || end < 0) return false;
+
+        if (getActiveTrips(date)[tripIndex] && start <= secOfDay && secOfDay <= end) return true;
+        int shifted = secOfDay + 86_400;                                                // Stesso istante nel giorno di servizio precedente.
+        return getActiveTrips(date.minusDays(1))[tripIndex] && start <= shifted && shifted <= end;
+    }
+
+    // SERVIZI ATTIVI --------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce, per ogni corsa, se il suo servizio è attivo nella data indicata.
+     * <p>
+     * Il risultato è memorizzato per data. Se il calendario non copre la data
+     * tutte le corse vengono considerate attive, per non restituire risultati vuoti.
+     * </p>
+     *
+     * @param date data di servizio
+     * @return     array condiviso (da non modificare) indicizzato per corsa
+     */
+    public boolean[] getActiveTrips(LocalDate date) {
+        return activeTripsByDate.computeIfAbsent(date, d -> {
+            Set<String> services = staticIndexer.getActiveServicesOnDate(d);
+            boolean[] active = new boolean[tripIds.length];
+            for (int t = 0; t < active.length; t++) {
+                active[t] = services.isEmpty() || services.contains(tripServiceIds[t]);
+            }
+            return active;
+        });
+    }
+}
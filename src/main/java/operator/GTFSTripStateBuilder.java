@@ -0,0 +1,134 @@
+package operator;
+
+// Model.
+import model.TripState;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Costruisce gli {@link TripState} delle corse a partire dalle previsioni e dalle posizioni dei veicoli.
+ * <p>
+ * Le fermate di una corsa vengono prese dall'{@link GTFSTimetableIndex}, nello stesso ordine usato dal
+ * {@link GTFSDelayPropagator}; per le corse assenti dall'orario statico sono le fermate previste, in ordine di arrivo.
+ * L'ultima fermata superata viene ricavata dalla prossima fermata del veicolo associato alla shape
+ * ({@link GTFSVehicleMatcher}) e, senza veicolo, dagli arrivi previsti già trascorsi all'istante del feed.
+ * Quando cambia solo il veicolo, il nuovo stato riusa le fermate e i vettori delle previsioni del precedente.
+ * </p>
+ */
+public class GTFSTripStateBuilder {
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final GTFSTimetableIndex timetable;
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param timetable indice compatto dell'orario
+     */
+    public GTFSTripStateBuilder(GTFSTimetableIndex timetable) {
+        this.timetable = timetable;
+    }
+
+    // COSTRUZIONE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruisce lo stato di una corsa.
+     *
+     * @param tripId      ID della corsa
+     * @param routeId     ID della linea (può essere null)
+     * @param predictions ID fermata → arrivo previsto (vuota se assenti)
+     * @param cancelled   true se la corsa è soppressa
+     * @param added       true se la corsa è aggiunta
+     * @param vehicle     posizione del veicolo (null se assente)
+     * @param nowEpochSec istante del feed, per l'avanzamento senza veicolo
+     * @return            stato della corsa
+     */
+    public TripState build(String tripId, String routeId, Map<String, GTFSDataIndexer.PredictedArrival> predictions,
+                           boolean cancelled, boolean added, GTFSDataIndexer.VehiclePos vehicle, long nowEpochSec) {
+        String[] stopIds = stopsOf(tripId, predictions);
+        long[] predicted = new long[stopIds.length];
+        int[] delay = new int[stopIds.length];
+        Arrays.fill(predicted, TripState.NO_TIME);
+        Arrays.fill(delay, TripState.NO_DELAY);
+
+        Set<String> assigned = new HashSet<>();                                         // Le previsioni valgono per il primo passaggio.
+        for (int i = 0; i < stopIds.length; i++) {
+            GTFSDataIndexer.PredictedArrival pa = stopIds[i] != null ? predictions.get(stopIds[i]) : null;
+            if (pa == null || !assigned.add(stopIds[i])) continue;
+            predicted[i] = pa.arrivalEpochSec;
+            if (pa.delaySec != null) delay[i] = pa.delaySec;
+        }
+        TripState base = new TripState(tripId, routeId, cancelled, added, stopIds, predicted, delay,
+                -1, TripState.NO_DELAY, false, null, 0.0, 0.0, 0L);
+        return withVehicle(base, vehicle, nowEpochSec);                                 // Avanzamento e ritardo attuale.
+    }
+
+    /**
+     * Restituisce lo stato di una corsa con una nuova posizione del veicolo e le stesse previsioni.
+     *
+     * @param state       stato precedente
+     * @param vehicle     posizione del veicolo (null se il veicolo non è più nel feed)
+     * @param nowEpochSec istante del feed, per l'avanzamento senza veicolo
+     * @return            nuovo stato della corsa, che condivide fermate e previsioni con il precedente
+     */
+    public TripState withVehicle(TripState state, GTFSDataIndexer.VehiclePos vehicle, long nowEpochSec) {
+        int lastPassed = lastPassed(state, vehicle, nowEpochSec);
+        if (vehicle == null) return state.withVehicle(false, null, 0.0, 0.0, 0L, lastPassed, currentDelay(state, lastPassed));
+        return state.withVehicle(true, vehicle.vehicleId, vehicle.lat, vehicle.lon, vehicle.ts,
+                lastPassed, currentDelay(state, lastPassed));
+    }
+
+    // FERMATE ---------------------------------------------------------------------------------------------------------
+    /**
+     * Fermate della corsa: dall'orario statico oppure, se la corsa non c'è, le fermate previste in ordine di arrivo.
+     */
+    private String[] stopsOf(String tripId, Map<String, GTFSDataIndexer.PredictedArrival> predictions) {
+        int t = timetable.getTripIndex(tripId);
+        if (t >= 0) {
+            int first = timetable.getTripFirstEvent(t);
+            String[] stopIds = new String[timetable.getTripEndEvent(t) - first];
+            for (int i = 0; i < stopIds.length; i++) {
+                int s = timetable.getEventStop(first + i);
+                stopIds[i] = s >= 0 ? timetable.getStopId(s) : null;
+            }
+            return stopIds;
+        }
+        List<Map.Entry<String, GTFSDataIndexer.PredictedArrival>> entries = new ArrayList<>(predictions.entrySet());
+        entries.sort(Comparator.comparingLong(en -> en.getValue().arrivalEpochSec));
+        String[] stopIds = new String[entries.size()];
+        for (int i = 0; i < stopIds.length; i++) stopIds[i] = entries.get(i).getKey();
+        return stopIds;
+    }
+
+    // AVANZAMENTO -----------------------------------------------------------------------------------------------------
+    /**
+     * Ultima fermata superata: quella prima della prossima fermata del veicolo oppure,
+     * senza veicolo, l'ultima con arrivo previsto già trascorso.
+     */
+    private static int lastPassed(TripState state, GTFSDataIndexer.VehiclePos vehicle, long nowEpochSec) {
+        if (vehicle != null && vehicle.nextStopId != null) {
+            int next = state.indexOfStop(vehicle.nextStopId);
+            if (next >= 0) return next - 1;
+        }
+        int last = -1;
+        for (int i = 0; i < state.getStopCount(); i++) {
+            long predicted = state.getPredictedEpochSec(i);
+            if (predicted != TripState.NO_TIME && predicted <= nowEpochSec) last = i;
+        }
+        return last;
+    }
+
+    /**
+     * Ritardo attuale: quello della prima fermata non ancora superata o, se mancano previsioni successive, l'ultimo noto.
+     */
+    private static int currentDelay(TripState state, int lastPassed) {
+        for (int i = lastPassed + 1; i < state.getStopCount(); i++) {
+            if (state.getDelaySec(i) != TripState.NO_DELAY) return state.getDelaySec(i);
+        }
+        for (int i = Math.min(lastPassed, state.getStopCount() - 1); i >= 0; i--) {
+            if (state.getDelaySec(i) != TripState.NO_DELAY) return state.getDelaySec(i);
+        }
+        return TripState.NO_DELAY;
+    }
+}
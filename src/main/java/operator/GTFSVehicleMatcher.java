@@ -0,0 +1,145 @@
+package operator;
+
+// Model.
+import model.Stop;
+import model.StopTime;
+import model.Trip;
+
+// Altre classi.
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Associa (map-matching) le posizioni realtime dei veicoli alla shape della corsa che effettuano.
+ * <p>
+ * Ogni posizione viene proiettata sul segmento più vicino della shape tramite l'indice a celle di
+ * {@link GTFSShapeGeometry}; ne derivano il punto sulla strada, la distanza lungo il percorso,
+ * lo shape_dist_traveled interpolato e la prossima fermata.
+ * Le fermate di ogni corsa vengono collocate sul percorso una sola volta: con lo shape_dist_traveled
+ * degli stop times quando shape e fermate lo riportano, altrimenti proiettandone le coordinate.
+ * La prossima fermata è quindi una ricerca binaria sulle loro distanze.
+ * </p>
+ * <p>
+ * La classe è thread-safe; la cache delle fermate contiene solo le corse presenti nell'ultimo feed.
+ * </p>
+ */
+public class GTFSVehicleMatcher {
+
+    // DATI ------------------------------------------------------------------------------------------------------------
+    private final GTFSStaticIndexer staticIndexer;
+    private final ConcurrentMap<String, TripStops> stopsByTrip = new ConcurrentHashMap<>();    // ID corsa → fermate sul percorso.
+
+    /**
+     * Shape di una corsa e posizione delle sue fermate lungo di essa.
+     */
+    private static final class TripStops {
+        final GTFSShapeGeometry shape;                                                  // Null se la corsa non ha shape.
+        final String[] stopIds;
+        final double[] along;                                                           // Distanze in metri, non decrescenti.
+
+        TripStops(GTFSShapeGeometry shape, String[] stopIds, double[] along) {
+            this.shape = shape;
+            this.stopIds = stopIds;
+            this.along = along;
+        }
+    }
+
+    private static final TripStops NO_SHAPE = new TripStops(null, new String[0], new double[0]);
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param staticIndexer riferimento all'indicizzatore statico GTFS
+     */
+    public GTFSVehicleMatcher(GTFSStaticIndexer staticIndexer) {
+        this.staticIndexer = staticIndexer;
+    }
+
+    // ASSOCIAZIONE ----------------------------------------------------------------------------------------------------
+    /**
+     * Associa una posizione alla shape della sua corsa.
+     *
+     * @param pos      posizione rilevata
+     * @param previous posizione precedente dello stesso veicolo (eventualmente null), usata nei tratti ambigui
+     * @return         copia associata della posizione, oppure la posizione stessa se la corsa non ha shape
+     *                 o il veicolo è troppo lontano dal percorso
+     */
+    public GTFSDataIndexer.VehiclePos match(GTFSDataIndexer.VehiclePos pos, GTFSDataIndexer.VehiclePos previous) {
+        if (pos.tripId == null) return pos;
+        TripStops trip = stopsByTrip.computeIfAbsent(pos.tripId, this::buildTripStops);
+        if (trip.shape == null) return pos;
+
+        double hint = previous != null && previous.isMatched() ? previous.distanceAlongShape : Double.NaN;
+        double[] out = new double[4];
+        if (trip.shape.project(pos.lat, pos.lon, hint, out) < 0) return pos;
+
+        int next = firstAtOrAfter(trip.along, out[0]);
+        String nextStopId = next < trip.stopIds.length ? trip.stopIds[next] : null;
+        return pos.withMatch(out[0], out[3], out[1], out[2], nextStopId);
+    }
+
+    /**
+     * Mantiene in cache solo le corse indicate.
+     *
+     * @param tripIds corse presenti nel feed corrente
+     */
+    public void retainTrips(Set<String> tripIds) {
+        stopsByTrip.keySet().retainAll(tripIds);
+    }
+
+    /**
+     * Svuota la cache delle fermate.
+     */
+    public void clear() {
+        stopsByTrip.clear();
+    }
+
+    // FERMATE SUL PERCORSO --------------------------------------------------------------------------------------------
+    /**
+     * Colloca le fermate di una corsa lungo la sua shape.
+     */
+    private TripStops buildTripStops(String tripId) {
+        Trip trip = staticIndexer.getTripById(tripId);
+        GTFSShapeGeometry shape = trip != null ? staticIndexer.getShapeGeometry(trip.getShapeId()) : null;
+        if (shape == null || shape.size() < 2) return NO_SHAPE;
+
+        List<StopTime> stopTimes = staticIndexer.getStopTimesByTrip(tripId);
+        String[] stopIds = new String[stopTimes.size()];
+        double[] along = new double[stopTimes.size()];
+        double[] out = new double[4];
+        double previous = 0;
+        for (int i = 0; i < stopTimes.size(); i++) {
+            StopTime st = stopTimes.get(i);
+            double d = Double.NaN;
+            if (shape.hasShapeDistTraveled() && st.getShapeDistTraveled() != null) {
+                d = shape.distanceAtShapeDist(st.getShapeDistTraveled());
+            } else {
+                Stop stop = staticIndexer.getStopById(st.getStopId());
+                if (stop != null && stop.getStopLat() != null && stop.getStopLon() != null
+                        && shape.project(stop.getStopLat(), stop.getStopLon(), previous, out) >= 0) {
+                    d = out[0];
+                }
+            }
+            previous = Double.isNaN(d) ? previous : Math.max(previous, d);             // Le fermate seguono l'ordine della corsa.
+            stopIds[i] = st.getStopId();
+            along[i] = previous;
+        }
+        return new TripStops(shape, stopIds, along);
+    }
+
+    /**
+     * Restituisce l'indice della prima fermata con distanza maggiore o uguale a quella indicata.
+     */
+    private static int firstAtOrAfter(double[] along, double distance) {
+        int lo = 0;
+        int hi = along.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (along[mid] < distance) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,182 @@
+package operator;
+
+// Altre classi.
+import java.util.*;
+
+/**
+ * Modello di moto dei veicoli tra un aggiornamento realtime e il successivo.
+ * <p>
+ * Ad ogni nuovo feed ogni veicolo parte dalla distanza lungo la shape calcolata dal map-matching
+ * ({@link GTFSVehicleMatcher}) e la sua velocità viene stimata dagli ultimi due rilevamenti (media esponenziale),
+ * partendo dalla velocità media programmata della corsa quando il veicolo compare per la prima volta. Tra un feed e l'altro la posizione
+ * avanza lungo la polilinea con questa velocità, per al massimo {@link #MAX_EXTRAPOLATION_SEC} secondi.
+ * Quando arriva un nuovo rilevamento lo scarto tra posizione mostrata e posizione rilevata viene
+ * assorbito gradualmente in {@link #CORRECTION_MS} millisecondi, così i marker non saltano.
+ * </p>
+ * <p>
+ * Lo stato è memorizzato in array paralleli: {@link #positionsAt(long, double[])} esegue per ogni veicolo
+ * solo qualche operazione aritmetica e una ricerca binaria, senza allocare memoria, e può essere chiamato
+ * ad ogni frame. La classe non è thread-safe: aggiornamenti e frame vanno eseguiti sullo stesso thread
+ * (quello di Swing per la mappa).
+ * </p>
+ */
+public class VehicleMotionModel {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final int MAX_EXTRAPOLATION_SEC = 90;                                 // Oltre questo tempo il veicolo si ferma.
+    public static final long CORRECTION_MS = 2_000;                                     // Durata dell'assorbimento dello scarto.
+    private static final double MAX_SPEED = 25.0;                                       // Velocità massima plausibile (m/s, 90 km/h).
+    private static final double SPEED_SMOOTHING = 0.5;                                  // Peso del nuovo rilevamento nella media.
+    private static final int MIN_FIX_INTERVAL_SEC = 5;                                  // Intervallo minimo per stimare la velocità.
+
+    // DIPENDENZE ------------------------------------------------------------------------------------------------------
+    private final GTFSDataIndexer dataIndexer;
+
+    // STATO DEI VEICOLI (ARRAY PARALLELI) -----------------------------------------------------------------------------
+    private int count;
+    private GTFSShapeGeometry[] shapes = new GTFSShapeGeometry[0];                     // Null se la corsa non ha shape.
+    private double[] fixLat = new double[0];                                            // Ultima posizione rilevata.
+    private double[] fixLon = new double[0];
+    private double[] fixAlong = new double[0];                                          // Distanza lungo la shape al rilevamento.
+    private long[] fixEpochSec = new long[0];                                           // Istante del rilevamento.
+    private double[] speed = new double[0];                                             // Velocità stimata (m/s).
+    private double[] correction = new double[0];                                        // Scarto da assorbire (m).
+    private long[] correctionStartMs = new long[0];
+    private final Map<String, Integer> indexByTrip = new HashMap<>();
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     *
+     * @param dataIndexer operator contenente i dati GTFS indicizzati
+     */
+    public VehicleMotionModel(GTFSDataIndexer dataIndexer) {
+        this.dataIndexer = dataIndexer;
+    }
+
+    // AGGIORNAMENTO DAL FEED ------------------------------------------------------------------------------------------
+    /**
+     * Sostituisce i veicoli del modello con quelli del nuovo feed, conservando la velocità stimata
+     * e la continuità della posizione mostrata per i veicoli già presenti.
+     *
+     * @param vehicles posizioni rilevate
+     * @param nowMs    istante corrente (millisecondi epoch)
+     */
+    public void update(List<GTFSDataIndexer.VehiclePos> vehicles, long nowMs) {
+        int n = vehicles.size();
+        String[] newTripIds = new String[n];
+        GTFSShapeGeometry[] newShapes = new GTFSShapeGeometry[n];
+        double[] newLat = new double[n];
+        double[] newLon = new double[n];
+        double[] newAlong = new double[n];
+        long[] newEpoch = new long[n];
+        double[] newSpeed = new double[n];
+        double[] newCorrection = new double[n];
+        long[] newCorrectionStart = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            GTFSDataIndexer.VehiclePos v = vehicles.get(i);
+            Integer old = v.tripId != null ? indexByTrip.get(v.tripId) : null;
+            GTFSShapeGeometry shape = !v.isMatched() ? null                             // Fuori percorso: resta fermo nella posizione rilevata.
+                    : old != null && shapes[old] != null ? shapes[old] : dataIndexer.getShapeGeometryForTrip(v.tripId);
+
+            newTripIds[i] = v.tripId;
+            newShapes[i] = shape;
+            newLat[i] = v.lat;
+            newLon[i] = v.lon;
+            newEpoch[i] = Math.min(v.ts, nowMs / 1000L);                               // Un orologio del feed in anticipo non fa saltare in avanti.
+            if (shape == null) continue;
+
+            double along = v.distanceAlongShape;
+            newAlong[i] = along;
+
+            if (old == null || shapes[old] == null) {
+                newSpeed[i] = scheduledSpeed(v.tripId, shape);
+                continue;
+            }
+
+            // Velocità dagli ultimi due rilevamenti, mediata con la stima precedente.
+            long dt = newEpoch[i] - fixEpochSec[old];
+            double s = speed[old];
+            if (dt >= MIN_FIX_INTERVAL_SEC) {
+                double observed = (along - fixAlong[old]) / dt;
+                s = observed >= 0 ? (1 - SPEED_SMOOTHING) * s + SPEED_SMOOTHING * Math.min(observed, MAX_SPEED)
+                        : (1 - SPEED_SMOOTHING) * s;                                    // Rumore GPS all'indietro: rallenta.
+            }
+            newSpeed[i] = s;
+
+            // Scarto tra la posizione mostrata ora e quella estrapolata dal nuovo rilevamento.
+            double shown = along(old, nowMs);
+            double target = extrapolate(along, newEpoch[i], s, nowMs, shape);
+            newCorrection[i] = shown - target;
+            newCorrectionStart[i] = nowMs;
+        }
+
+        count = n;
+        shapes = newShapes;
+        fixLat = newLat;
+        fixLon = newLon;
+        fixAlong = newAlong;
+        fixEpochSec = newEpoch;
+        speed = newSpeed;
+        correction = newCorrection;
+        correctionStartMs = newCorrectionStart;
+        indexByTrip.clear();
+        for (int i = 0; i < n; i++) if (newTripIds[i] != null) indexByTrip.put(newTripIds[i], i);
+    }
+
+    /**
+     * Svuota il modello.
+     */
+    public void clear() {
+        update(List.of(), System.currentTimeMillis());
+    }
+
+    // POSIZIONI AD OGNI FRAME -----------------------------------------------------------------------------------------
+    /**
+     * Scrive le posizioni stimate di tutti i veicoli all'istante indicato, senza allocare memoria.
+     *
+     * @param nowMs istante corrente (millisecondi epoch)
+     * @param out   array di almeno {@code 2 * size()} elementi: latitudine e longitudine di ogni veicolo
+     * @return      numero di veicoli scritti
+     */
+    public int positionsAt(long nowMs, double[] out) {
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == null) {
+                out[2 * i] = fixLat[i];
+                out[2 * i + 1] = fixLon[i];
+            } else {
+                shapes[i].pointAt(along(i, nowMs), out, 2 * i);
+            }
+        }
+        return count;
+    }
+
+    /** @return numero di veicoli nel modello */
+    public int size() { return count; }
+
+    /**
+     * Distanza lungo la shape mostrata per il veicolo i all'istante indicato, compreso lo scarto residuo.
+     */
+    private double along(int i, long nowMs) {
+        double along = extrapolate(fixAlong[i], fixEpochSec[i], speed[i], nowMs, shapes[i]);
+        long elapsed = nowMs - correctionStartMs[i];
+        if (correction[i] != 0 && elapsed < CORRECTION_MS) {
+            along += correction[i] * (1.0 - (double) elapsed / CORRECTION_MS);
+        }
+        return Math.max(0, Math.min(shapes[i].getLength(), along));
+    }
+
+    private static double extrapolate(double along, long fixEpochSec, double speed, long nowMs, GTFSShapeGeometry shape) {
+        double elapsed = Math.max(0, Math.min(MAX_EXTRAPOLATION_SEC, nowMs / 1000.0 - fixEpochSec));
+        return Math.min(shape.getLength(), along + speed * elapsed);
+    }
+
+    /**
+     * Velocità media programmata: lunghezza della shape divisa per la durata della corsa.
+     */
+    private double scheduledSpeed(String tripId, GTFSShapeGeometry shape) {
+        int duration = dataIndexer.getScheduledTripDurationSec(tripId);
+        return duration > 0 ? Math.min(MAX_SPEED, shape.getLength() / duration) : 0;
+    }
+}
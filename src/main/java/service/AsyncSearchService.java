@@ -0,0 +1,154 @@
+package service;
+
+// Altre classi.
+import javafx.application.Platform;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Classe service per l'esecuzione delle ricerche testuali fuori dal thread JavaFX.
+ * <p>
+ * Ogni campo di ricerca usa un proprio {@link SearchChannel}: le query vengono ritardate
+ * di pochi millisecondi (debounce) così che una digitazione veloce produca una sola ricerca,
+ * vengono eseguite su virtual thread e quelle superate da una query più recente vengono annullate.
+ * Il risultato viene consegnato alla UI tramite {@link Platform#runLater(Runnable)} solo se
+ * la query è ancora quella corrente, quindi un risultato vecchio non può sovrascriverne uno nuovo.
+ * </p>
+ */
+public class AsyncSearchService {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final long DEFAULT_DEBOUNCE_MS = 120;                     // Attesa dopo l'ultimo carattere digitato.
+
+    // THREAD ----------------------------------------------------------------------------------------------------------
+    private final ScheduledExecutorService debouncer;                       // Ritarda l'avvio delle ricerche.
+    private final ExecutorService searchExecutor;                           // Esegue le ricerche su virtual thread.
+
+    // ALTRO -----------------------------------------------------------------------------------------------------------
+    private final long debounceMillis;                                      // Attesa del debounce in millisecondi.
+    private volatile boolean stopped;                                       // Service arrestato: le query vengono ignorate.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore con il debounce predefinito.
+     */
+    public AsyncSearchService() {
+        this(DEFAULT_DEBOUNCE_MS);
+    }
+
+    /**
+     * Costruttore.
+     *
+     * @param debounceMillis attesa in millisecondi dopo l'ultima query prima di avviare la ricerca
+     */
+    public AsyncSearchService(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+        this.debouncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AsyncSearchService-Debouncer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.searchExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("AsyncSearchService-Search-", 0).factory());
+    }
+
+    // CREA UN CANALE DI RICERCA ---------------------------------------------------------------------------------------
+    /**
+     * Crea un canale di ricerca per un singolo campo di testo.
+     *
+     * @param search funzione di ricerca, eseguita fuori dal thread JavaFX
+     * @param <R>    tipo del risultato
+     * @return       canale su cui inviare le query del campo
+     */
+    public <R> SearchChannel<R> createChannel(Function<String, R> search) {
+        return new SearchChannel<>(search);
+    }
+
+    // ARRESTO ---------------------------------------------------------------------------------------------------------
+    /**
+     * Arresta i thread del service, annullando le ricerche in corso.
+     */
+    public void stop() {
+        stopped = true;
+        debouncer.shutdownNow();
+        searchExecutor.shutdownNow();
+    }
+
+    // CANALE DI RICERCA -----------------------------------------------------------------------------------------------
+    /**
+     * Canale di ricerca associato a un campo di testo.
+     * <p>
+     * Ogni query riceve un numero di generazione crescente: l'invio di una nuova query o
+     * la chiamata a {@link #cancel()} rendono obsolete tutte le precedenti.
+     * </p>
+     *
+     * @param <R> tipo del risultato
+     */
+    public final class SearchChannel<R> {
+
+        private final Function<String, R> search;                           // Funzione di ricerca.
+        private final AtomicLong generation = new AtomicLong();             // Generazione della query corrente.
+        private volatile Future<?> pending;                                 // Debounce o ricerca in corso.
+
+        private SearchChannel(Function<String, R> search) {
+            this.search = search;
+        }
+
+        /**
+         * Invia una nuova query, annullando quella precedente se non ancora completata.
+         * Va chiamato dal thread JavaFX.
+         *
+         * @param query    testo digitato dall'utente
+         * @param onResult callback eseguita sul thread JavaFX con il risultato, solo se la query è ancora corrente
+         */
+        public void submit(String query, Consumer<R> onResult) {
+            long current = generation.incrementAndGet();
+            cancelPending();
+            if (stopped) return;                                                            // Service arrestato: la query viene ignorata.
+            try {
+                pending = debouncer.schedule(() -> {
+                    if (generation.get() != current || stopped) return;                     // Superata durante il debounce.
+                    try {
+                        pending = searchExecutor.submit(() -> run(query, current, onResult));
+                    } catch (RejectedExecutionException e) {
+                        // Service arrestato durante il debounce: la query viene ignorata.
+                    }
+                }, debounceMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Service arrestato: la query viene ignorata.
+            }
+        }
+
+        /**
+         * Annulla la query corrente, ad esempio quando il campo viene svuotato.
+         */
+        public void cancel() {
+            generation.incrementAndGet();
+            cancelPending();
+        }
+
+        /**
+         * Esegue la ricerca e consegna il risultato se la query è ancora corrente.
+         */
+        private void run(String query, long current, Consumer<R> onResult) {
+            R result;
+            try {
+                result = search.apply(query);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (generation.get() != current) return;                                        // Superata durante la ricerca.
+            Platform.runLater(() -> {
+                if (generation.get() == current) onResult.accept(result);                   // Ricontrolla sul thread JavaFX.
+            });
+        }
+
+        private void cancelPending() {
+            Future<?> f = pending;
+            if (f != null) f.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package service;
+
+// Model.
+import model.Route;
+import model.Trip;
+
+// Operator.
+import operator.GTFSDataIndexer;
+import operator.GTFSNextDeparturesView;
+import operator.GTFSRealtimeChangeEvent;
+
+// Altre classi.
+import javafx.application.Platform;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Classe service per il cruscotto dei preferiti dell'utente.
+ * <p>
+ * Calcola in parallelo, fuori dal thread JavaFX, un riepilogo per ogni fermata preferita
+ * (prossime partenze) e per ogni linea preferita (corse in servizio nella direzione scelta).
+ * Il calcolo viene ripetuto solo agli aggiornamenti realtime che riguardano una fermata o una linea
+ * preferita; la UI viene notificata una sola volta per ciclo e solo se almeno un riepilogo è cambiato.
+ * </p>
+ */
+public final class FavoritesDashboardService {
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int DEPARTURES_PER_STOP = 3;                       // Partenze mostrate per fermata.
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");            // Fuso orario del feed.
+
+    // OPERATOR --------------------------------------------------------------------------------------------------------
+    private final GTFSDataIndexer dataIndexer;                              // GTFS indicizzati.
+
+    // THREAD ----------------------------------------------------------------------------------------------------------
+    private final ExecutorService workers;                                  // Calcolo parallelo dei riepiloghi.
+    private final ExecutorService coordinator;                              // Avvia i cicli di calcolo uno alla volta.
+    private final AtomicBoolean refreshPending = new AtomicBoolean();       // Evita cicli accodati inutilmente.
+
+    // STATO -----------------------------------------------------------------------------------------------------------
+    private volatile List<String> favoriteStopIds = List.of();               // Snapshot delle fermate preferite.
+    private volatile List<String> favoriteLineKeys = List.of();              // Snapshot delle linee preferite ("routeId_directionId").
+    private final Map<String, String> stopSummaries = new ConcurrentHashMap<>();
+    private final Map<String, String> lineSummaries = new ConcurrentHashMap<>();
+    private volatile Runnable onUpdate;                                     // Listener della UI.
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore.
+     * <p>
+     * Si registra sull'indicizzatore per ricalcolare il cruscotto quando un aggiornamento realtime
+     * riguarda i preferiti.
+     * </p>
+     *
+     * @param dataIndexer operator contenente i dati GTFS indicizzati
+     */
+    public FavoritesDashboardService(GTFSDataIndexer dataIndexer) {
+        this.dataIndexer = dataIndexer;
+        this.workers = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()), daemonFactory("FavoritesDashboard-Worker"));
+        this.coordinator = Executors.newSingleThreadExecutor(daemonFactory("FavoritesDashboard-Coordinator"));
+
+        dataIndexer.addRealtimeChangeListener("favorites-dashboard", this::affectsFavorites, _ -> refreshAsync());
+    }
+
+    // AGGIORNA I PREFERITI DA MONITORARE ------------------------------------------------------------------------------
+    /**
+     * Imposta i preferiti da monitorare e avvia un ricalcolo.
+     * <p>
+     * Va chiamato dal thread JavaFX: gli insiemi vengono copiati perché {@link FavoritesService}
+     * non è thread-safe.
+     * </p>
+     *
+     * @param stopIds  ID delle fermate preferite
+     * @param lineKeys chiavi delle linee preferite ("routeId_directionId")
+     */
+    public void setFavorites(Collection<String> stopIds, Collection<String> lineKeys) {
+        List<String> stops = List.copyOf(stopIds);
+        List<String> lines = List.copyOf(lineKeys);
+        boolean changed = !stops.equals(favoriteStopIds) || !lines.equals(favoriteLineKeys);
+        favoriteStopIds = stops;
+        favoriteLineKeys = lines;
+        stopSummaries.keySet().retainAll(stops);
+        lineSummaries.keySet().retainAll(lines);
+        if (changed) refreshAsync();
+    }
+
+    // FILTRO DEGLI AGGIORNAMENTI REALTIME -----------------------------------------------------------------------------
+    /**
+     * Indica se un aggiornamento realtime riguarda almeno una fermata o una linea preferita.
+     *
+     * @param event modifiche realtime
+     * @return      true se il cruscotto va ricalcolato
+     */
+    private boolean affectsFavorites(GTFSRealtimeChangeEvent event) {
+        if (event.affectsAnyStop(favoriteStopIds)) return true;
+        for (String key : favoriteLineKeys) {
+            int sep = key.lastIndexOf('_');
+            if (sep > 0 && event.affectsRoute(key.substring(0, sep))) return true;
+        }
+        return false;
+    }
+
+    // REGISTRA IL LISTENER DELLA UI -----------------------------------------------------------------------------------
+    /**
+     * Registra il listener eseguito sul thread JavaFX quando almeno un riepilogo cambia.
+     *
+     * @param listener callback della UI
+     */
+    public void setOnUpdate(Runnable listener) {
+        this.onUpdate = listener;
+    }
+
+    // RESTITUISCE I RIEPILOGHI ----------------------------------------------------------------------------------------
+    /**
+     * Restituisce il riepilogo di una fermata preferita.
+     *
+     * @param stopId ID della fermata
+     * @return       riepilogo delle prossime partenze, oppure null se non ancora calcolato
+     */
+    public String getStopSummary(String stopId) {
+        return stopSummaries.get(stopId);
+    }
+
+    /**
+     * Restituisce il riepilogo di una linea preferita.
+     *
+     * @param lineKey chiave della linea ("routeId_directionId")
+     * @return        riepilogo delle corse in servizio, oppure null se non ancora calcolato
+     */
+    public String getLineSummary(String lineKey) {
+        return lineSummaries.get(lineKey);
+    }
+
+    // RICALCOLO ASINCRONO ---------------------------------------------------------------------------------------------
+    /**
+     * Richiede un ricalcolo del cruscotto; le richieste ravvicinate vengono unite in un solo ciclo.
+     */
+    public void refreshAsync() {
+        if (!refreshPending.compareAndSet(false, true)) return;                         // Un ciclo è già in coda.
+        try {
+            coordinator.execute(() -> {
+                refreshPending.set(false);                                              // Le richieste successive accodano un nuovo ciclo.
+                refresh();
+            });
+        } catch (RejectedExecutionException e) {
+            refreshPending.set(false);                                                  // Service arrestato.
+        }
+    }
+
+    /**
+     * Calcola in parallelo tutti i riepiloghi e notifica la UI se qualcosa è cambiato.
+     */
+    private void refresh() {
+        List<String> stops = favoriteStopIds;
+        List<String> lines = favoriteLineKeys;
+        long nowEpochSec = System.currentTimeMillis() / 1000L;
+        LocalDateTime now = LocalDateTime.now(ZONE);
+
+        List<Callable<String[]>> tasks = new ArrayList<>(stops.size() + lines.size());
+        for (String stopId : stops) tasks.add(() -> new String[] { "S", stopId, summarizeStop(stopId, nowEpochSec) });
+        for (String key : lines) tasks.add(() -> new String[] { "L", key, summarizeLine(key, now) });
+
+        boolean changed = false;
+        try {
+            for (Future<String[]> future : workers.invokeAll(tasks)) {
+                try {
+                    String[] result = future.get();
+                    Map<String, String> target = result[0].equals("S") ? stopSummaries : lineSummaries;
+                    if (!result[2].equals(target.put(result[1], result[2]))) changed = true;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Runnable listener = onUpdate;
+        if (changed && listener != null) Platform.runLater(listener);
+    }
+
+    // RIEPILOGO DI UNA FERMATA ----------------------------------------------------------------------------------------
+    /**
+     * Riepiloga le prossime partenze di una fermata, ad esempio "64 3' · 75 7'".
+     * Il testo non contiene parentesi, così da non interferire con il parsing delle liste.
+     */
+    private String summarizeStop(String stopId, long nowEpochSec) {
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        for (GTFSNextDeparturesView.Departure d : dataIndexer.getNextDepartures(stopId)) {
+            Trip trip = dataIndexer.getTripById(d.tripId);
+            Route route = trip != null ? dataIndexer.getRouteById(trip.getRouteId()) : null;
+            if (route == null) continue;
+
+            long minutes = Math.max(0, (d.getEffectiveEpochSec() - nowEpochSec) / 60);
+            if (count > 0) sb.append(" · ");
+            sb.append(route.getRouteShortName()).append(' ').append(minutes).append('\'');
+            if (d.hasPrediction()) sb.append('*');                                      // Asterisco: orario realtime.
+            if (++count == DEPARTURES_PER_STOP) break;
+        }
+        return count == 0 ? "nessuna partenza" : sb.toString();
+    }
+
+    // RIEPILOGO DI UNA LINEA ------------------------------------------------------------------------------------------
+    /**
+     * Riepiloga le corse in servizio per una linea e direzione, ad esempio "4 in servizio".
+     */
+    private String summarizeLine(String lineKey, LocalDateTime now) {
+        String[] parts = lineKey.split("_");
+        if (parts.length != 2) return "";
+        int running = dataIndexer.getRunningTrips(parts[0], Integer.parseInt(parts[1]), now).size();
+        return running == 0 ? "nessuna corsa in servizio" : running + " in servizio";
+    }
+
+    // ARRESTO ---------------------------------------------------------------------------------------------------------
+    /**
+     * Arresta i thread del service.
+     */
+    public void stop() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // THREAD FACTORY --------------------------------------------------------------------------------------------------
+    private static ThreadFactory daemonFactory(String prefix) {
+        return new ThreadFactory() {
+            private int counter;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + (++counter));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
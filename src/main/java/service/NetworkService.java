@@ -9,11 +9,14 @@ import java.io.IOException;
  * Classe service per il controllo della connessione.
  * <p>
  * Tramite un test stabilisce se il dispositivo è online o offline.
+ * L'URL di test può essere cambiato con la proprietà di sistema {@code damose.network.probeUrl}
+ * o con {@link #setTestUrl(String)}, ad esempio per puntare a un server di riproduzione locale.
  * </p>
  */
 public class NetworkService {
 
-    private static final String TEST_URL = "https://www.google.com";    // URL utilizzato per testare la connessione.
+    private static final String DEFAULT_TEST_URL = "https://www.google.com";                        // URL predefinito per testare la connessione.
+    private static volatile String testUrl = System.getProperty("damose.network.probeUrl", DEFAULT_TEST_URL);  // URL utilizzato per testare la connessione.
     private static final int TIMEOUT_MS = 2000;                         // Timeout di 2000 millisecondi (2 secondi) per la connessione.
 
     // COSTRUTTORE PRIVATO ---------------------------------------------------------------------------------------------
@@ -22,6 +25,16 @@ public class NetworkService {
      */
     private NetworkService() {} // Evita istanziazione.
 
+    // URL DI TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Imposta l'URL usato per testare la connessione.
+     *
+     * @param url URL di test; null per tornare a quello predefinito
+     */
+    public static void setTestUrl(String url) {
+        testUrl = url != null ? url : DEFAULT_TEST_URL;
+    }
+
     // CONTROLLA LA CONNESSIONE ----------------------------------------------------------------------------------------
     /**
      * Verifica se il dispositivo è online provando a connettersi a un URL di test.
@@ -31,7 +44,7 @@ public class NetworkService {
     public static boolean isOnline() {
         try {
             // Crea una connessione HTTP all’URL per il test.
-            HttpURLConnection connection = (HttpURLConnection) new URL(TEST_URL).openConnection();
+            HttpURLConnection connection = (HttpURLConnection) new URL(testUrl).openConnection();
             connection.setConnectTimeout(TIMEOUT_MS);           // Imposta il timeout: se non si connette entro 2 secondi, fallisce.
             connection.connect();                               // Prova a connettersi.
             connection.disconnect();                            // Chiude la connessione.
@@ -0,0 +1,554 @@
+package service;
+
+// Operator.
+import operator.GTFSDataIndexer;
+import operator.GTFSRealtimeChangeEvent;
+import operator.GTFSRealtimeSnapshot;
+
+// Altre classi.
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Classe service per lo storico dei dati realtime su SQLite.
+ * <p>
+ * Ad ogni aggiornamento realtime vengono registrate le posizioni dei veicoli spostati e i ritardi
+ * per fermata delle corse modificate. La raccolta è un listener in linea dell'indicizzatore realtime:
+ * riceve ogni versione applicata, senza le fusioni del dispatcher, e legge i valori dallo snapshot
+ * prodotto da quella versione, con il timestamp dell'header del feed. Si limita a copiare i valori
+ * e ad accodarli con {@code offer}: se la coda è piena il lotto viene scartato e contato,
+ * quindi l'applicazione del feed non viene mai bloccata.
+ * </p>
+ * <p>
+ * Un unico thread di scrittura svuota la coda e inserisce i lotti con prepared statement in batch,
+ * in una sola transazione. Il database usa il journal WAL, così le letture non bloccano la scrittura,
+ * e una coppia di tabelle per giorno (posizioni e ritardi), indicizzate per linea (e i ritardi per fermata) e istante:
+ * la pulizia dei giorni oltre la retention è un semplice DROP TABLE.
+ * </p>
+ */
+public class RealtimeHistoryService {
+
+    private static final Logger LOG = Logger.getLogger(RealtimeHistoryService.class.getName());
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".damose_dionisi", "history");
+    public static final int DEFAULT_RETENTION_DAYS = 7;                     // Giorni di storico mantenuti.
+    private static final int QUEUE_CAPACITY = 256;                          // Lotti in attesa di scrittura.
+    private static final int MAX_BATCHES_PER_TRANSACTION = 32;              // Lotti scritti in una sola transazione.
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");            // Fuso orario dei giorni di partizione.
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final String VEHICLE_TABLE = "vehicle_positions_";       // Prefisso delle tabelle delle posizioni.
+    private static final String DELAY_TABLE = "stop_delays_";               // Prefisso delle tabelle dei ritardi.
+
+    // RIGHE DELLO STORICO ---------------------------------------------------------------------------------------------
+    /**
+     * Posizione di un veicolo in un istante.
+     */
+    public static final class VehicleSample {
+
+        /** Istante del campione (epoch second). */
+        public final long epochSec;
+
+        /** ID della corsa. */
+        public final String tripId;
+
+        /** ID della linea (eventualmente null). */
+        public final String routeId;
+
+        /** ID del veicolo (eventualmente null). */
+        public final String vehicleId;
+
+        /** Latitudine. */
+        public final double lat;
+
+        /** Longitudine. */
+        public final double lon;
+
+        VehicleSample(long epochSec, String tripId, String routeId, String vehicleId, double lat, double lon) {
+            this.epochSec = epochSec;
+            this.tripId = tripId;
+            this.routeId = routeId;
+            this.vehicleId = vehicleId;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+    /**
+     * Ritardo previsto di una corsa a una fermata in un istante.
+     */
+    public static final class DelaySample {
+
+        /** Istante del campione (epoch second). */
+        public final long epochSec;
+
+        /** ID della corsa. */
+        public final String tripId;
+
+        /** ID della linea (eventualmente null). */
+        public final String routeId;
+
+        /** ID della fermata. */
+        public final String stopId;
+
+        /** Arrivo previsto (epoch second). */
+        public final long predictedEpochSec;
+
+        /** Ritardo in secondi (null se non noto). */
+        public final Integer delaySec;
+
+        DelaySample(long epochSec, String tripId, String routeId, String stopId, long predictedEpochSec, Integer delaySec) {
+            this.epochSec = epochSec;
+            this.tripId = tripId;
+            this.routeId = routeId;
+            this.stopId = stopId;
+            this.predictedEpochSec = predictedEpochSec;
+            this.delaySec = delaySec;
+        }
+    }
+
+    /**
+     * Campioni raccolti da un singolo aggiornamento realtime.
+     */
+    private static final class Batch {
+        final List<VehicleSample> vehicles;
+        final List<DelaySample> delays;
+
+        Batch(List<VehicleSample> vehicles, List<DelaySample> delays) {
+            this.vehicles = vehicles;
+            this.delays = delays;
+        }
+    }
+
+    // DIPENDENZE ------------------------------------------------------------------------------------------------------
+    private final GTFSDataIndexer dataIndexer;
+
+    // DATABASE --------------------------------------------------------------------------------------------------------
+    private final String url;                                               // URL JDBC del database.
+    private final int retentionDays;
+    private final Connection writeConnection;                               // Usata solo dal thread di scrittura.
+    private final Set<LocalDate> createdDays = new HashSet<>();             // Giorni con tabelle già create (thread di scrittura).
+    private LocalDate lastRetentionDay;                                     // Ultimo giorno in cui è stata applicata la retention.
+
+    // CODA E THREAD ---------------------------------------------------------------------------------------------------
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final Runnable unsubscribe;                                     // Rimuove il listener dall'indicizzatore.
+    private volatile boolean running = true;
+
+    // STATISTICHE -----------------------------------------------------------------------------------------------------
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+
+    // COSTRUTTORE -----------------------------------------------------------------------------------------------------
+    /**
+     * Costruttore con directory e retention predefinite.
+     *
+     * @param dataIndexer operator contenente i dati GTFS indicizzati
+     * @throws SQLException se il database non può essere aperto
+     */
+    public RealtimeHistoryService(GTFSDataIndexer dataIndexer) throws SQLException {
+        this(dataIndexer, DEFAULT_DIRECTORY, DEFAULT_RETENTION_DAYS);
+    }
+
+    /**
+     * Costruttore.
+     * <p>
+     * Apre (o crea) il database, attiva il journal WAL, avvia il thread di scrittura
+     * e si registra sull'indicizzatore per ricevere ogni versione dei dati realtime.
+     * </p>
+     *
+     * @param dataIndexer   operator contenente i dati GTFS indicizzati
+     * @param directory     directory del database
+     * @param retentionDays giorni di storico da mantenere
+     * @throws SQLException se il database non può essere aperto
+     */
+    public RealtimeHistoryService(GTFSDataIndexer dataIndexer, Path directory, int retentionDays) throws SQLException {
+        this.dataIndexer = dataIndexer;
+        this.retentionDays = Math.max(1, retentionDays);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new SQLException("Impossibile creare la directory dello storico: " + directory, e);
+        }
+        this.url = "jdbc:sqlite:" + directory.resolve("realtime_history.db").toAbsolutePath();
+        this.writeConnection = DriverManager.getConnection(url);
+        try (Statement st = writeConnection.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL");
+            st.execute("PRAGMA synchronous=NORMAL");                        // Con WAL è sicuro e molto più veloce di FULL.
+        }
+        writeConnection.setAutoCommit(false);
+
+        this.writer = new Thread(this::writeLoop, "RealtimeHistoryService-Writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        this.unsubscribe = dataIndexer.addRealtimeIndexListener("realtime-history", this::record);
+    }
+
+    // RACCOLTA DEI CAMPIONI -------------------------------------------------------------------------------------------
+    /**
+     * Copia posizioni e ritardi toccati dall'aggiornamento e li accoda senza attendere.
+     * <p>
+     * I valori vengono letti dallo snapshot dell'evento, non da quello corrente, e i ritardi
+     * sono datati con il timestamp dell'header del feed.
+     * </p>
+     *
+     * @param event modifiche realtime, con lo snapshot prodotto
+     */
+    private void record(GTFSRealtimeChangeEvent event) {
+        if (!running) return;
+        GTFSRealtimeSnapshot snapshot = event.getSnapshot() != null ? event.getSnapshot() : dataIndexer.getRealtimeSnapshot();
+        long feedTs = event.getFeedTimestamp() > 0 ? event.getFeedTimestamp() : System.currentTimeMillis() / 1000L;
+        List<VehicleSample> vehicles = new ArrayList<>();
+        List<DelaySample> delays = new ArrayList<>();
+
+        for (GTFSRealtimeChangeEvent.Change change : event.getChanges()) {
+            switch (change.type) {
+                case VEHICLE_ADDED, VEHICLE_MOVED -> {
+                    GTFSDataIndexer.VehiclePos pos = snapshot.getVehicleForTrip(change.tripId);
+                    if (pos != null) {
+                        vehicles.add(new VehicleSample(pos.ts, change.tripId, pos.routeId, pos.vehicleId, pos.lat, pos.lon));
+                    }
+                }
+                case TRIP_ADDED, TRIP_DELAY_CHANGED -> {
+                    Map<String, GTFSDataIndexer.PredictedArrival> predictions = snapshot.getTripPredictions(change.tripId);
+                    for (String stopId : change.stopIds) {
+                        GTFSDataIndexer.PredictedArrival pa = predictions.get(stopId);
+                        if (pa != null) {
+                            delays.add(new DelaySample(feedTs, change.tripId, change.routeId, stopId, pa.arrivalEpochSec, pa.delaySec));
+                        }
+                    }
+                }
+                default -> { }                                              // Rimozioni e soppressioni non producono campioni.
+            }
+        }
+        if (vehicles.isEmpty() && delays.isEmpty()) return;
+
+        Batch batch = new Batch(vehicles, delays);
+        if (!queue.offer(batch)) droppedBatches.incrementAndGet();          // Coda piena: il lotto viene scartato.
+    }
+
+    // THREAD DI SCRITTURA ---------------------------------------------------------------------------------------------
+    /**
+     * Svuota la coda scrivendo più lotti per transazione, finché il service non viene arrestato.
+     */
+    private void writeLoop() {
+        List<Batch> pending = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Batch first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                pending.add(first);
+                queue.drainTo(pending, MAX_BATCHES_PER_TRANSACTION - 1);
+                write(pending);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Scrittura dello storico realtime fallita: " + pending.size() + " lotti persi", e);
+                try {
+                    writeConnection.rollback();
+                } catch (SQLException ignored) {
+                    // La connessione verrà chiusa all'arresto.
+                }
+            } finally {
+                pending.clear();
+            }
+        }
+        try {
+            writeConnection.close();
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Chiusura del database dello storico fallita", e);
+        }
+    }
+
+    /**
+     * Scrive i lotti in una transazione, raggruppando le righe per giorno.
+     * <p>
+     * Il giorno è quello dell'istante di ogni campione, lo stesso usato dalle interrogazioni:
+     * una posizione rilevata alle 23:59 e ricevuta dopo la mezzanotte resta nel giorno in cui è stata rilevata.
+     * </p>
+     *
+     * @param batches lotti da scrivere
+     * @throws SQLException in caso di errore di scrittura
+     */
+    private void write(List<Batch> batches) throws SQLException {
+        Map<LocalDate, List<VehicleSample>> vehiclesByDay = new TreeMap<>();            // Ogni campione va nel giorno del proprio istante.
+        Map<LocalDate, List<DelaySample>> delaysByDay = new TreeMap<>();
+        for (Batch b : batches) {
+            for (VehicleSample v : b.vehicles) vehiclesByDay.computeIfAbsent(dayOf(v.epochSec), _ -> new ArrayList<>()).add(v);
+            for (DelaySample d : b.delays) delaysByDay.computeIfAbsent(dayOf(d.epochSec), _ -> new ArrayList<>()).add(d);
+        }
+        Set<LocalDate> days = new TreeSet<>(vehiclesByDay.keySet());
+        days.addAll(delaysByDay.keySet());
+        Map<LocalDate, String> suffixes = new HashMap<>();
+        for (LocalDate day : days) suffixes.put(day, ensureTables(day));               // Tabelle confermate prima degli inserimenti.
+
+        long rows = 0;
+        for (LocalDate day : days) {
+            String suffix = suffixes.get(day);
+            List<VehicleSample> vehicles = vehiclesByDay.getOrDefault(day, List.of());
+            List<DelaySample> delays = delaysByDay.getOrDefault(day, List.of());
+            try (PreparedStatement vehicleInsert = writeConnection.prepareStatement(
+                         "INSERT INTO " + VEHICLE_TABLE + suffix + " VALUES (?, ?, ?, ?, ?, ?)");
+                 PreparedStatement delayInsert = writeConnection.prepareStatement(
+                         "INSERT INTO " + DELAY_TABLE + suffix + " VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (VehicleSample v : vehicles) {
+                    vehicleInsert.setLong(1, v.epochSec);
+                    vehicleInsert.setString(2, v.tripId);
+                    vehicleInsert.setString(3, v.routeId);
+                    vehicleInsert.setString(4, v.vehicleId);
+                    vehicleInsert.setDouble(5, v.lat);
+                    vehicleInsert.setDouble(6, v.lon);
+                    vehicleInsert.addBatch();
+                }
+                for (DelaySample d : delays) {
+                    delayInsert.setLong(1, d.epochSec);
+                    delayInsert.setString(2, d.tripId);
+                    delayInsert.setString(3, d.routeId);
+                    delayInsert.setString(4, d.stopId);
+                    delayInsert.setLong(5, d.predictedEpochSec);
+                    if (d.delaySec != null) delayInsert.setInt(6, d.delaySec);
+                    else delayInsert.setNull(6, Types.INTEGER);
+                    delayInsert.addBatch();
+                }
+                vehicleInsert.executeBatch();
+                delayInsert.executeBatch();
+            }
+            rows += vehicles.size() + delays.size();
+        }
+        writeConnection.commit();
+        writtenRows.addAndGet(rows);
+
+        LocalDate today = LocalDate.now(ZONE);
+        if (!today.equals(lastRetentionDay)) applyRetention(today);
+    }
+
+    /**
+     * Crea, se necessario, le tabelle del giorno con i relativi indici.
+     * <p>
+     * In SQLite anche la creazione delle tabelle fa parte della transazione: viene confermata subito,
+     * prima di ricordare il giorno, così il rollback di un inserimento fallito non la annulla.
+     * </p>
+     *
+     * @param day giorno della partizione
+     * @return    suffisso delle tabelle ("yyyyMMdd")
+     */
+    private String ensureTables(LocalDate day) throws SQLException {
+        String suffix = day.format(DAY);
+        if (createdDays.contains(day)) return suffix;
+        try (Statement st = writeConnection.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + VEHICLE_TABLE + suffix
+                    + " (ts INTEGER NOT NULL, trip_id TEXT NOT NULL, route_id TEXT, vehicle_id TEXT, lat REAL, lon REAL)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_" + VEHICLE_TABLE + suffix + "_route ON "
+                    + VEHICLE_TABLE + suffix + " (route_id, ts)");
+            st.execute("CREATE TABLE IF NOT EXISTS " + DELAY_TABLE + suffix
+                    + " (ts INTEGER NOT NULL, trip_id TEXT NOT NULL, route_id TEXT, stop_id TEXT NOT NULL,"
+                    + " predicted INTEGER NOT NULL, delay INTEGER)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_" + DELAY_TABLE + suffix + "_route ON "
+                    + DELAY_TABLE + suffix + " (route_id, ts)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_" + DELAY_TABLE + suffix + "_stop ON "
+                    + DELAY_TABLE + suffix + " (stop_id, ts)");
+        }
+        writeConnection.commit();
+        createdDays.add(day);
+        return suffix;
+    }
+
+    // RETENTION -------------------------------------------------------------------------------------------------------
+    /**
+     * Elimina le tabelle dei giorni precedenti alla finestra di retention.
+     *
+     * @param today giorno corrente
+     */
+    private void applyRetention(LocalDate today) throws SQLException {
+        String oldestKept = today.minusDays(retentionDays - 1L).format(DAY);
+        List<String> expired = new ArrayList<>();
+        try (Statement st = writeConnection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'")) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                String suffix = partitionSuffix(name);
+                if (suffix != null && suffix.compareTo(oldestKept) < 0) expired.add(name);
+            }
+        }
+        try (Statement st = writeConnection.createStatement()) {
+            for (String name : expired) st.execute("DROP TABLE IF EXISTS " + name);
+        }
+        writeConnection.commit();
+        createdDays.removeIf(day -> day.format(DAY).compareTo(oldestKept) < 0);
+        lastRetentionDay = today;
+    }
+
+    /**
+     * Restituisce il suffisso "yyyyMMdd" di una tabella di partizione, oppure null.
+     */
+    private static String partitionSuffix(String table) {
+        for (String prefix : new String[]{ VEHICLE_TABLE, DELAY_TABLE }) {
+            if (table.startsWith(prefix) && table.length() == prefix.length() + 8) return table.substring(prefix.length());
+        }
+        return null;
+    }
+
+    // INTERROGAZIONI --------------------------------------------------------------------------------------------------
+    /**
+     * Restituisce i ritardi registrati per una linea in un intervallo di tempo, ordinati per istante.
+     * <p>
+     * Interroga solo le tabelle dei giorni coinvolti, usando l'indice (route_id, ts).
+     * Può essere chiamato da qualsiasi thread: apre una connessione di sola lettura.
+     * </p>
+     *
+     * @param routeId      ID della linea
+     * @param fromEpochSec inizio dell'intervallo (epoch second, incluso)
+     * @param toEpochSec   fine dell'intervallo (epoch second, escluso)
+     * @return             lista dei ritardi
+     * @throws SQLException in caso di errore di lettura
+     */
+    public List<DelaySample> getRouteDelays(String routeId, long fromEpochSec, long toEpochSec) throws SQLException {
+        return getDelays("route_id", routeId, fromEpochSec, toEpochSec);
+    }
+
+    /**
+     * Restituisce i ritardi registrati a una fermata in un intervallo di tempo, ordinati per istante.
+     * <p>
+     * Come {@link #getRouteDelays}, ma usa l'indice (stop_id, ts).
+     * </p>
+     *
+     * @param stopId       ID della fermata
+     * @param fromEpochSec inizio dell'intervallo (epoch second, incluso)
+     * @param toEpochSec   fine dell'intervallo (epoch second, escluso)
+     * @return             lista dei ritardi
+     * @throws SQLException in caso di errore di lettura
+     */
+    public List<DelaySample> getStopDelays(String stopId, long fromEpochSec, long toEpochSec) throws SQLException {
+        return getDelays("stop_id", stopId, fromEpochSec, toEpochSec);
+    }
+
+    private List<DelaySample> getDelays(String column, String value, long fromEpochSec, long toEpochSec) throws SQLException {
+        List<DelaySample> result = new ArrayList<>();
+        try (Connection c = DriverManager.getConnection(url)) {
+            Set<String> tables = existingTables(c);
+            for (String suffix : daySuffixes(fromEpochSec, toEpochSec)) {
+                if (!tables.contains(DELAY_TABLE + suffix)) continue;
+                try (PreparedStatement ps = c.prepareStatement("SELECT ts, trip_id, route_id, stop_id, predicted, delay FROM "
+                        + DELAY_TABLE + suffix + " WHERE " + column + " = ? AND ts >= ? AND ts < ? ORDER BY ts")) {
+                    ps.setString(1, value);
+                    ps.setLong(2, fromEpochSec);
+                    ps.setLong(3, toEpochSec);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int delay = rs.getInt(6);
+                            result.add(new DelaySample(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                    rs.getString(4), rs.getLong(5), rs.wasNull() ? null : delay));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restituisce le posizioni registrate per i veicoli di una linea in un intervallo di tempo, ordinate per istante.
+     *
+     * @param routeId      ID della linea
+     * @param fromEpochSec inizio dell'intervallo (epoch second, incluso)
+     * @param toEpochSec   fine dell'intervallo (epoch second, escluso)
+     * @return             lista delle posizioni
+     * @throws SQLException in caso di errore di lettura
+     */
+    public List<VehicleSample> getRouteVehicles(String routeId, long fromEpochSec, long toEpochSec) throws SQLException {
+        List<VehicleSample> result = new ArrayList<>();
+        try (Connection c = DriverManager.getConnection(url)) {
+            Set<String> tables = existingTables(c);
+            for (String suffix : daySuffixes(fromEpochSec, toEpochSec)) {
+                if (!tables.contains(VEHICLE_TABLE + suffix)) continue;
+                try (PreparedStatement ps = c.prepareStatement("SELECT ts, trip_id, route_id, vehicle_id, lat, lon FROM "
+                        + VEHICLE_TABLE + suffix + " WHERE route_id = ? AND ts >= ? AND ts < ? ORDER BY ts")) {
+                    ps.setString(1, routeId);
+                    ps.setLong(2, fromEpochSec);
+                    ps.setLong(3, toEpochSec);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            result.add(new VehicleSample(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                    rs.getString(4), rs.getDouble(5), rs.getDouble(6)));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restituisce i ritardi registrati per una linea nella giornata odierna.
+     *
+     * @param routeId ID della linea
+     * @return        lista dei ritardi
+     * @throws SQLException in caso di errore di lettura
+     */
+    public List<DelaySample> getRouteDelaysToday(String routeId) throws SQLException {
+        LocalDate today = LocalDate.now(ZONE);
+        return getRouteDelays(routeId, today.atStartOfDay(ZONE).toEpochSecond(),
+                today.plusDays(1).atStartOfDay(ZONE).toEpochSecond());
+    }
+
+    private static Set<String> existingTables(Connection c) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'")) {
+            while (rs.next()) tables.add(rs.getString(1));
+        }
+        return tables;
+    }
+
+    private static List<String> daySuffixes(long fromEpochSec, long toEpochSec) {
+        List<String> suffixes = new ArrayList<>();
+        LocalDate day = dayOf(fromEpochSec);
+        LocalDate last = dayOf(Math.max(fromEpochSec, toEpochSec - 1));
+        for (; !day.isAfter(last); day = day.plusDays(1)) suffixes.add(day.format(DAY));
+        return suffixes;
+    }
+
+    /**
+     * Restituisce il giorno di partizione di un istante.
+     */
+    private static LocalDate dayOf(long epochSec) {
+        return Instant.ofEpochSecond(epochSec).atZone(ZONE).toLocalDate();
+    }
+
+    // STATISTICHE -----------------------------------------------------------------------------------------------------
+    /** @return righe scritte dall'avvio */
+    public long getWrittenRows() { return writtenRows.get(); }
+
+    /** @return lotti scartati perché la coda era piena */
+    public long getDroppedBatches() { return droppedBatches.get(); }
+
+    // ARRESTO ---------------------------------------------------------------------------------------------------------
+    /**
+     * Smette di raccogliere campioni, scrive quelli già in coda e chiude il database.
+     */
+    public void stop() {
+        unsubscribe.run();
+        running = false;
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -37,4 +37,39 @@ public class TimetableService {
             return null;
         }
     }
+
+    // CONVERTE GLI ORARI STOPTIMES IN SECONDI DALLA MEZZANOTTE --------------------------------------------------------
+    /**
+     * Converte un orario in formato HH:mm:ss o HH:mm nei secondi trascorsi dalla mezzanotte
+     * del giorno di servizio, senza riportare gli orari oltre le 24 al giorno successivo.
+     * <p>
+     * Evita la creazione di oggetti {@link LocalDateTime} ed è pensato per gli indici
+     * che devono convertire milioni di stop times.
+     * </p>
+     *
+     * @param time stringa orario
+     * @return     secondi dalla mezzanotte, oppure -1 se l'orario non è valido
+     */
+    public static int parseSecondsSafe(String time) {
+        if (time == null) return -1;
+        int len = time.length();
+        int value = 0;                                                                  // Valore del campo corrente.
+        int total = 0;                                                                  // Secondi accumulati.
+        int fields = 0;                                                                 // Numero di campi letti.
+        for (int i = 0; i <= len; i++) {
+            char c = i < len ? time.charAt(i) : ':';                                    // Il terminatore chiude l'ultimo campo.
+            if (c == ':') {
+                if (fields == 3) return -1;
+                total = total * 60 + value;
+                value = 0;
+                fields++;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (c != ' ') {
+                return -1;
+            }
+        }
+        if (fields == 2) total *= 60;                                                   // Formato HH:mm.
+        return fields >= 2 ? total : -1;
+    }
 }
@@ -19,7 +19,6 @@ import javafx.application.Platform;
 import javafx.geometry.Bounds;
 
 // Altre classi
-import java.util.List;
 
 /**
  * Classe view per la zona di ricerca delle linee.
@@ -81,32 +80,34 @@ public class FindLineView {
         // Ogni volta che il testo cambia, viene eseguito il blocco di codice.
         searchLineField.textProperty().addListener((obs, oldQuery, newQuery) -> {
             if (newQuery.isEmpty()) {                                                                                       // Se il campo è vuoto...
+                findLineController.cancelSearch();                                                                          // ...Annulla la ricerca in corso...
                 suggestionPopup.hide();                                                                                     // ...Nasconde il popup...
                 suggestionList.getItems().clear();                                                                          // ...E cancella tutti gli elementi suggeriti.
             } else {                                                                                                        // Se il campo non è vuoto...
-                List<String> items = findLineController.searchLines(newQuery);                                              // ...Chiama il metodo searchLines(newQuery) del controller, che restituisce una lista di stringhe "NOME LINEA - DIREZIONE [routeID|dirID]"...
-                suggestionList.getItems().setAll(items);                                                                    // ...Aggiorna la lista dei suggerimenti con i nomi trovati...
-                if (items.isEmpty()) {                                                                                      // ...Se non ci sono risultati...
-                    suggestionPopup.hide();                                                                                 // ...Nasconde il popup...
-                } else {                                                                                                    // ...Se ci sono risultati...
-                    // ...Aggiorna dimensioni dinamiche.
-                    int maxVisibleItems = 7;                                                                                // Massimo di righe visibili.
-                    int itemCount = Math.min(items.size(), maxVisibleItems);                                                // Righe attualmente visibili.
-                    double itemHeight = 25;                                                                                 // Altezza di ogni riga.
-                    double totalHeight = itemCount * itemHeight;                                                            // Altezza totale della tendina (numero righe x altezza righe).
-                    suggestionList.setPrefHeight(totalHeight);                                                              // Imposta l'altezza.
-                    suggestionList.setPrefWidth(searchLineField.getWidth());                                                // Imposta la larghezza (come la barra di ricerca)
-
-                    if (!suggestionPopup.isShowing()) {                                                                     // Se il popup al momento del click del bottone non è visibile...
-                        Bounds bounds = searchLineField.localToScreen(searchLineField.getBoundsInLocal());                  // ...Calcola le coordinate del campo sullo schermo.
-                        double popupX = bounds.getMinX();                                                                   // Allineato orizzontalmente al campo.
-                        double popupY = bounds.getMaxY() + 5;                                                               // Sotto al campo distanziato di 5 pixel.
-                        suggestionPopup.show(searchLineField, popupX, popupY);                                              // Mostra il popup alle coordinate scelte.
+                findLineController.searchLinesAsync(newQuery, items -> {                                                    // ...Avvia la ricerca in background; con i risultati, sul thread JavaFX:
+                    suggestionList.getItems().setAll(items);                                                                // ...Aggiorna la lista dei suggerimenti con i nomi trovati...
+                    if (items.isEmpty()) {                                                                                  // ...Se non ci sono risultati...
+                        suggestionPopup.hide();                                                                             // ...Nasconde il popup...
+                    } else {                                                                                                // ...Se ci sono risultati...
+                        // ...Aggiorna dimensioni dinamiche.
+                        int maxVisibleItems = 7;                                                                            // Massimo di righe visibili.
+                        int itemCount = Math.min(items.size(), maxVisibleItems);                                            // Righe attualmente visibili.
+                        double itemHeight = 25;                                                                             // Altezza di ogni riga.
+                        double totalHeight = itemCount * itemHeight;                                                        // Altezza totale della tendina (numero righe x altezza righe).
+                        suggestionList.setPrefHeight(totalHeight);                                                          // Imposta l'altezza.
+                        suggestionList.setPrefWidth(searchLineField.getWidth());                                            // Imposta la larghezza (come la barra di ricerca)
+
+                        if (!suggestionPopup.isShowing()) {                                                                 // Se il popup al momento del click del bottone non è visibile...
+                            Bounds bounds = searchLineField.localToScreen(searchLineField.getBoundsInLocal());              // ...Calcola le coordinate del campo sullo schermo.
+                            double popupX = bounds.getMinX();                                                               // Allineato orizzontalmente al campo.
+                            double popupY = bounds.getMaxY() + 5;                                                           // Sotto al campo distanziato di 5 pixel.
+                            suggestionPopup.show(searchLineField, popupX, popupY);                                          // Mostra il popup alle coordinate scelte.
+                        }
+
+                        // Toglie la barra di scorrimento verticale.
+                        removeScrollBar(suggestionList);
                     }
-
-                    // Toglie la barra di scorrimento verticale.
-                    removeScrollBar(suggestionList);
-                }
+                });
             }
         });
 
@@ -18,7 +18,6 @@ import javafx.geometry.Bounds;
 import javafx.stage.Popup;
 
 // Altre classi
-import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -81,32 +80,34 @@ public class FindStopView {
         // Ogni volta che il testo cambia, viene eseguito il blocco di codice.
         searchStopField.textProperty().addListener((obs, oldQuery, newQuery) -> {
             if (newQuery.isEmpty()) {                                                                                       // Se il campo è vuoto...
+                findStopController.cancelSearch();                                                                          // ...Annulla la ricerca in corso...
                 suggestionPopup.hide();                                                                                     // ...Nasconde il popup...
                 suggestionList.getItems().clear();                                                                          // ...E cancella tutti gli elementi suggeriti.
             } else {                                                                                                        // Se il campo non è vuoto...
-                List<String> items = findStopController.searchStops(newQuery);                                              // ...Chiama il metodo searchStops(newQuery) del controller, che restituisce la lista dei suggerimenti...
-                suggestionList.getItems().setAll(items);                                                                    // Aggiorna la lista dei suggerimenti con i nomi trovati...
-                if (items.isEmpty()) {                                                                                      // ...Se non ci sono risultati...
-                    suggestionPopup.hide();                                                                                 // ...Nasconde il popup...
-                } else {                                                                                                    // ...Se ci sono risultati...
-                    // ...Aggiorna dimensioni dinamiche.
-                    int maxVisibleItems = 7;                                                                                // Massimo di righe visibili.
-                    int itemCount = Math.min(items.size(), maxVisibleItems);                                                // Righe attualmente visibili.
-                    double itemHeight = 25;                                                                                 // Altezza di ogni riga.
-                    double totalHeight = itemCount * itemHeight;                                                            // Altezza totale della tendina (numero righe x altezza righe).
-                    suggestionList.setPrefHeight(totalHeight);                                                              // Imposta l'altezza.
-                    suggestionList.setPrefWidth(searchStopField.getWidth());                                                // Imposta la larghezza (come la barra di ricerca)
-
-                    if (!suggestionPopup.isShowing()) {                                                                     // Se il popup non è visibile...
-                        Bounds bounds = searchStopField.localToScreen(searchStopField.getBoundsInLocal());                  // ...Calcola le coordinate del campo sullo schermo.
-                        double popupX = bounds.getMinX();                                                                   // Allineato orizzontalmente al campo.
-                        double popupY = bounds.getMaxY() + 5;                                                               // Sotto al campo distanziato di 5 pixel.
-                        suggestionPopup.show(searchStopField, popupX, popupY);                                              // Mostra il popup alle coordinate scelte.
+                findStopController.searchStopsAsync(newQuery, items -> {                                                    // ...Avvia la ricerca in background; con i risultati, sul thread JavaFX:
+                    suggestionList.getItems().setAll(items);                                                                // Aggiorna la lista dei suggerimenti con i nomi trovati...
+                    if (items.isEmpty()) {                                                                                  // ...Se non ci sono risultati...
+                        suggestionPopup.hide();                                                                             // ...Nasconde il popup...
+                    } else {                                                                                                // ...Se ci sono risultati...
+                        // ...Aggiorna dimensioni dinamiche.
+                        int maxVisibleItems = 7;                                                                            // Massimo di righe visibili.
+                        int itemCount = Math.min(items.size(), maxVisibleItems);                                            // Righe attualmente visibili.
+                        double itemHeight = 25;                                                                             // Altezza di ogni riga.
+                        double totalHeight = itemCount * itemHeight;                                                        // Altezza totale della tendina (numero righe x altezza righe).
+                        suggestionList.setPrefHeight(totalHeight);                                                          // Imposta l'altezza.
+                        suggestionList.setPrefWidth(searchStopField.getWidth());                                            // Imposta la larghezza (come la barra di ricerca)
+
+                        if (!suggestionPopup.isShowing()) {                                                                 // Se il popup non è visibile...
+                            Bounds bounds = searchStopField.localToScreen(searchStopField.getBoundsInLocal());              // ...Calcola le coordinate del campo sullo schermo.
+                            double popupX = bounds.getMinX();                                                               // Allineato orizzontalmente al campo.
+                            double popupY = bounds.getMaxY() + 5;                                                           // Sotto al campo distanziato di 5 pixel.
+                            suggestionPopup.show(searchStopField, popupX, popupY);                                          // Mostra il popup alle coordinate scelte.
+                        }
+
+                        // Toglie la barra di scorrimento verticale.
+                        removeScrollBar(suggestionList);
                     }
-
-                    // Toglie la barra di scorrimento verticale.
-                    removeScrollBar(suggestionList);
-                }
+                });
             }
         });
 
@@ -87,6 +87,9 @@ public class LineInfoView {
         // Bottone per il tipo di linea
         Button routeTypeButton = lineInfoNode.createRouteTypeButton();
 
+        // Etichetta per gli avvisi di servizio attivi.
+        Label alertsLabel = lineInfoNode.createAlertsLabel();
+
         // Lista delle fermate della linea (ora Arrival invece di String).
         ListView<Arrival> stopsList = lineInfoNode.createStopsList();
         stopsList.setOnMouseClicked(_ -> {                                                                       // Quando si seleziona una riga della listView.
@@ -161,7 +164,7 @@ public class LineInfoView {
 
         HBox lineTitleBox = lineInfoLayout.createLineTitleBox(favoriteButton, lineNameLabel, routeTypeButton);
         HBox selectionTimeBox = lineInfoLayout.createSelectionTimeBox(selectionTimeButton, nowButton);
-        VBox topBox = lineInfoLayout.createTopBox(lineTitleBox, selectionTimeBox);
+        VBox topBox = lineInfoLayout.createTopBox(lineTitleBox, selectionTimeBox, alertsLabel);
 
         lineInfoRoot = lineInfoLayout.createLineInfoRoot();
         lineInfoRoot.setTop(topBox);
@@ -195,9 +198,10 @@ public class LineInfoView {
         Button routeTypeButton = (Button) titleHBox.getChildren().get(2);                       // Recupera il bottone per il tipo di linea.
         Label lineNameLabel = (Label) titleHBox.getChildren().get(1);                           // Recupera l'etichetta del nome della linea.
         Button favoriteButton = (Button) titleHBox.getChildren().get(0);                        // Recupera il bottone dei preferiti.
+        Label alertsLabel = (Label) topBox.getChildren().get(2);                                // Recupera l'etichetta degli avvisi di servizio.
         ListView<Arrival> stopsList = (ListView<Arrival>) lineInfoRoot.getCenter();             // Recupera la lista delle fermate della linea.
 
-        lineInfoController.selectLine(route, trip, lineNameLabel, stopsList);                   // Chiama il controller per aggiornare la lista delle fermate della linea.
+        lineInfoController.selectLine(route, trip, lineNameLabel, alertsLabel, stopsList);      // Chiama il controller per aggiornare la lista delle fermate della linea e gli avvisi.
         boolean isFav = lineInfoController.isCurrentLineFavorite();                             // Chiama il controller per vedere se la linea è tra i preferiti (true) o no (false).
         lineInfoNode.setFavoriteButtonState(favoriteButton, isFav);                             // Cambia il colore del bottone dei preferiti in base a isFav.
         lineInfoNode.setRouteTypeButtonState(routeTypeButton, route.getRouteType());            // Cambia lo stato del bottone del tipo di linea (bus, metro, tram).
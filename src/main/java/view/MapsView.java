@@ -7,7 +7,7 @@ import model.Stop;
 import model.Trip;
 
 // Operator.
-import operator.GTFSDataIndexer;
+import operator.GTFSIsochroneEngine;
 import operator.TilesManager;
 
 // Controller.
@@ -23,8 +23,10 @@ import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 
 // Altre classi.
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Classe view per la mappa.
@@ -48,7 +50,8 @@ public class MapsView {
     private Pane overlay;                                       // Overlay trasparente per modalità non fullscreen.
 
     // ALTRO -----------------------------------------------------------------------------------------------------------
-    private Trip currentTrip;                                   // Trip attualmente visualizzato
+    private volatile Trip currentTrip;                          // Trip attualmente visualizzato (letto anche dai thread realtime).
+    private final AtomicInteger isochroneRequest = new AtomicInteger();     // Ultima richiesta di isocrona (scarta i risultati superati).
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
@@ -167,18 +170,10 @@ public class MapsView {
         Route route = mapsController.getRouteById(trip.getRouteId());
         map.drawShapes(shapeCoords, route);
 
-        List<GTFSDataIndexer.VehiclePos> vehicles =
-                mapsController.getVehiclesForRoute(trip.getRouteId());
-
-        if (vehicles != null && !vehicles.isEmpty()) {
-            List<double[]> vehCoords = new ArrayList<>();
-            for (GTFSDataIndexer.VehiclePos v : vehicles) {
-                vehCoords.add(new double[]{v.lat, v.lon});
-            }
-            map.drawVehicles(vehCoords);
-        } else {
-            map.clearVehicles();
-        }
+        String routeId = trip.getRouteId();
+        javax.swing.SwingUtilities.invokeLater(() ->
+                map.animateVehicles(mapsController.updateVehicleMotion(routeId))
+        );
 
         double[] first = shapeCoords.get(0);
 
@@ -205,29 +200,69 @@ public class MapsView {
         }
     }
 
+    // LINEA VISUALIZZATA ----------------------------------------------------------------------------------------------
+    /**
+     * Restituisce l'ID della linea attualmente visualizzata.
+     *
+     * @return ID della linea, oppure null se nessuna corsa è visualizzata
+     */
+    public String getCurrentRouteId() {
+        Trip trip = currentTrip;
+        return trip != null ? trip.getRouteId() : null;
+    }
+
     // MOSTRA I VEICOLI ------------------------------------------------------------------------------------------------
     /**
      * Mostra i veicoli sulla mappa.
+     * <p>
+     * Le posizioni vengono passate al modello di moto, che la mappa interroga ad ogni frame
+     * per far avanzare i veicoli lungo il percorso tra un aggiornamento realtime e il successivo.
+     * </p>
      */
     public void refreshVehiclesLayer() {
         if (map == null || currentTrip == null) return;
 
         String routeId = currentTrip.getRouteId();
 
-        List<GTFSDataIndexer.VehiclePos> vehicles =
-                mapsController.getVehiclesForRoute(routeId);
+        javax.swing.SwingUtilities.invokeLater(() ->
+                map.animateVehicles(mapsController.updateVehicleMotion(routeId))
+        );
+    }
 
-        javax.swing.SwingUtilities.invokeLater(() -> {
-            if (vehicles != null && !vehicles.isEmpty()) {
-                List<double[]> vehCoords = new ArrayList<>();
-                for (GTFSDataIndexer.VehiclePos v : vehicles) {
-                    vehCoords.add(new double[]{v.lat, v.lon});
-                }
-                map.drawVehicles(vehCoords);
-            } else {
-                map.clearVehicles();
-            }
-        });
+    // MOSTRA L'ISOCRONA DI UNA FERMATA --------------------------------------------------------------------------------
+    /**
+     * Calcola in background l'isocrona di una fermata e la disegna sulla mappa.
+     *
+     * @param stop          fermata di partenza.
+     * @param departure     data e ora di partenza.
+     * @param budgetMinutes tempo massimo di viaggio in minuti.
+     */
+    public void showIsochrone(Stop stop, LocalDateTime departure, int budgetMinutes) {
+        if (map == null) getView();
+
+        int request = isochroneRequest.incrementAndGet();
+
+        Thread worker = new Thread(() -> {
+            GTFSIsochroneEngine.IsochroneResult result =
+                    mapsController.computeIsochrone(stop.getStopId(), departure, budgetMinutes);
+
+            javax.swing.SwingUtilities.invokeLater(() -> {
+                if (request != isochroneRequest.get()) return;          // Nel frattempo è arrivata un'altra richiesta.
+                map.drawIsochrone(result != null ? result.raster : null);
+            });
+        }, "MapsView-Isochrone");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // CANCELLA L'ISOCRONA ---------------------------------------------------------------------------------------------
+    /**
+     * Rimuove l'isocrona dalla mappa.
+     */
+    public void clearIsochrone() {
+        isochroneRequest.incrementAndGet();
+        if (map == null) return;
+        javax.swing.SwingUtilities.invokeLater(() -> map.clearIsochrone());
     }
 
     // CALCOLA LA DISTANZA TRA DUE PUNTI SULLA MAPPA -------------------------------------------------------------------
@@ -26,6 +26,8 @@ import javafx.geometry.Bounds;
 import javafx.application.Platform;
 
 // Altre classi.
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -38,6 +40,9 @@ import java.util.List;
  */
 public class StopInfoView {
 
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int ISOCHRONE_MINUTES = 30;           // Budget dell'isocrona mostrata sulla mappa.
+
     // ROOT ------------------------------------------------------------------------------------------------------------
     private BorderPane stopInfoRoot;                            // Layout del pannello di informazione delle fermate.
 
@@ -52,6 +57,9 @@ public class StopInfoView {
     private LineInfoView lineInfoView;                          // Riferimento al pannello informativo delle linee.
     private MapsView mapsView;                                  // Riferimento alla mappa.
 
+    // ALTRO -----------------------------------------------------------------------------------------------------------
+    private boolean isochroneVisible;                           // True se l'isocrona della fermata è mostrata.
+
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
      * Costruttore.
@@ -82,6 +90,24 @@ public class StopInfoView {
             stopInfoNode.setFavoriteButtonState(favoriteButton, isFav);                                                     // Aggiorna l’icona (colore).
         });
 
+        // Bottone per mostrare l'isocrona della fermata.
+        Button isochroneButton = stopInfoNode.createIsochroneButton();
+        isochroneButton.setOnAction(_ -> {
+            Stop current = stopInfoController.getCurrentStop();                                                             // Fermata attualmente visualizzata.
+            if (mapsView == null || current == null) return;
+            isochroneVisible = !isochroneVisible;                                                                           // Inverte lo stato.
+            if (isochroneVisible) {
+                LocalDateTime departure = LocalDateTime.of(LocalDate.now(), stopInfoController.getSelectedTime());         // Partenza all'orario selezionato.
+                mapsView.showIsochrone(current, departure, ISOCHRONE_MINUTES);                                              // Calcola e disegna l'isocrona.
+            } else {
+                mapsView.clearIsochrone();                                                                                  // Rimuove l'isocrona dalla mappa.
+            }
+            stopInfoNode.setIsochroneButtonState(isochroneButton, isochroneVisible);                                        // Aggiorna l'icona (colore).
+        });
+
+        // Etichetta per gli avvisi di servizio attivi.
+        Label alertsLabel = stopInfoNode.createAlertsLabel();
+
         // Lista delle corse in arrivo alla fermata (Arrival).
         ListView<Arrival> arrivalsList = stopInfoNode.createArrivalsList();
         arrivalsList.setOnMouseClicked(_ -> {                                                                    // Quando si seleziona una riga della listView.
@@ -159,9 +185,9 @@ public class StopInfoView {
         });
 
         // ASSEMBLAGGIO DEL LAYOUT ------------------------------------------------------------------------------------
-        HBox stopTitleBox = stopInfoLayout.createStopTitleBox(favoriteButton, stopNameLabel);
+        HBox stopTitleBox = stopInfoLayout.createStopTitleBox(favoriteButton, stopNameLabel, isochroneButton);
         HBox selectionTimeBox = stopInfoLayout.createSelectionTimeBox(selectionTimeButton, nowButton);
-        VBox topBox = stopInfoLayout.createTopBox(stopTitleBox, selectionTimeBox);
+        VBox topBox = stopInfoLayout.createTopBox(stopTitleBox, selectionTimeBox, alertsLabel);
 
         stopInfoRoot = stopInfoLayout.createStopInfoRoot();
         stopInfoRoot.setTop(topBox);
@@ -193,11 +219,19 @@ public class StopInfoView {
         HBox titleHBox = (HBox) topBox.getChildren().get(0);                                    // Recupera il layout della zona del nome della fermata.
         Label stopNameLabel = (Label) titleHBox.getChildren().get(1);                           // Recupera l'etichetta del nome della fermata.
         Button favoriteButton = (Button) titleHBox.getChildren().get(0);                        // Recupera il bottone dei preferiti.
+        Button isochroneButton = (Button) titleHBox.getChildren().get(2);                       // Recupera il bottone dell'isocrona.
+        Label alertsLabel = (Label) topBox.getChildren().get(2);                                // Recupera l'etichetta degli avvisi di servizio.
         ListView<Arrival> arrivalsList = (ListView<Arrival>) stopInfoRoot.getCenter();          // Recupera la lista delle fermate della linea.
 
-        stopInfoController.selectStop(stop, stopNameLabel, arrivalsList);                       // Chiama il controller per aggiornare la lista delle corse in arrivo.
+        stopInfoController.selectStop(stop, stopNameLabel, alertsLabel, arrivalsList);          // Chiama il controller per aggiornare la lista delle corse in arrivo e gli avvisi.
         boolean isFav = stopInfoController.isCurrentStopFavorite();                             // Chiama il controller per vedere se la fermata è tra i preferiti (true) o no (false).
         stopInfoNode.setFavoriteButtonState(favoriteButton, isFav);                             // Cambia il colore del bottone dei preferiti in base a isFav.
+
+        if (isochroneVisible && mapsView != null) {                                             // L'isocrona mostrata si riferisce alla fermata o all'orario precedente...
+            mapsView.clearIsochrone();                                                          // ...Viene rimossa dalla mappa.
+        }
+        isochroneVisible = false;
+        stopInfoNode.setIsochroneButtonState(isochroneButton, false);
     }
 
     // AGGIORNAMENTO DEL PANNELLO QUANDO SI CAMBIA LA FERMATA ----------------------------------------------------------
@@ -1,7 +1,10 @@
 package view;
 
 // Model.
+import javafx.animation.KeyFrame;
 import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.scene.paint.Color;
 import javafx.util.Duration;
 import model.Stop;
 import model.Route;
@@ -46,6 +49,12 @@ public class ToolBarView {
     private StopInfoView stopInfoView;
     private MapsView mapsView;
 
+    // ANIMAZIONI ------------------------------------------------------------------------------------------------------
+    private Timeline dataAgeTimeline;                           // Aggiornamento periodico dell'età dei dati realtime.
+
+    // COSTANTI --------------------------------------------------------------------------------------------------------
+    private static final int DATA_AGE_REFRESH_SECONDS = 5;     // Intervallo di aggiornamento dell'età dei dati realtime.
+
     // RUNNABLE --------------------------------------------------------------------------------------------------------
     private Runnable onLogout;                                  // Runnable nel Main per funzione di logout.
 
@@ -75,6 +84,13 @@ public class ToolBarView {
                 )
         );
 
+        // Bottone per l'età dei dati realtime, aggiornato periodicamente.
+        Button dataAgeButton = toolBarNode.createDataAgeButton();
+        refreshDataAge(dataAgeButton);
+        dataAgeTimeline = new Timeline(new KeyFrame(Duration.seconds(DATA_AGE_REFRESH_SECONDS), _ -> refreshDataAge(dataAgeButton)));
+        dataAgeTimeline.setCycleCount(Timeline.INDEFINITE);
+        dataAgeTimeline.play();
+
         // Bottone per la lista dei preferiti.
         Button favoritesListButton = toolBarNode.createFavoriteListButton();
 
@@ -107,6 +123,15 @@ public class ToolBarView {
             }
         });
 
+        // Aggiorna la lista visibile quando cambiano i riepiloghi live dei preferiti.
+        toolBarController.setOnFavoritesDashboardUpdate(() -> {
+            if (favoritesPopup.getContent().contains(stopFavoritesList)) {
+                stopFavoritesList.getItems().setAll(toolBarController.updateStopFavoritesList());
+            } else if (favoritesPopup.getContent().contains(lineFavoritesList)) {
+                lineFavoritesList.getItems().setAll(toolBarController.updateLineFavoritesList());
+            }
+        });
+
         // Azione per il bottone "Fermate".
         stopChoiseButton.setOnAction(_ -> {
             stopFavoritesList.getItems().setAll(toolBarController.updateStopFavoritesList());                               // Aggiorna la lista delle fermate preferite.
@@ -185,13 +210,31 @@ public class ToolBarView {
         // Bottone per il logout.
         Button logoutButton = toolBarNode.createLogoutButton();
         logoutButton.setOnAction(_ -> {
+            dataAgeTimeline.stop();                         // La home viene ricreata al prossimo login.
             if (onLogout != null) {
                 onLogout.run();   // Esegue la callback definita dal Main.
             }
         });
 
         // Assembla il layout principale della barra degli strumenti.
-        toolBarRoot = toolBarLayout.createToolBarRoot(favoritesListButton, connectivityButton, legendButton, logoutButton);
+        toolBarRoot = toolBarLayout.createToolBarRoot(favoritesListButton, connectivityButton, dataAgeButton, legendButton, logoutButton);
+    }
+
+    // ETÀ DEI DATI REALTIME -------------------------------------------------------------------------------------------
+    /**
+     * Aggiorna il bottone dell'età dei dati realtime (eseguito sul thread JavaFX).
+     *
+     * @param dataAgeButton bottone da aggiornare
+     */
+    private void refreshDataAge(Button dataAgeButton) {
+        long age = toolBarController.getRealtimeDataAgeSeconds();
+        Color color = switch (toolBarController.getRealtimeFreshness(age)) {
+            case FRESH -> Color.LIGHTGREEN;
+            case STALE -> Color.ORANGE;
+            case EXPIRED -> Color.RED;
+            case NONE -> Color.GRAY;
+        };
+        toolBarNode.setDataAgeButtonState(dataAgeButton, color, age);
     }
 
     // SHOW DELLA FINESTRA ---------------------------------------------------------------------------------------------
@@ -41,12 +41,14 @@ public class LineInfoLayout {
      *
      * @param lineTitleBox     HBox con il nome della linea e pulsanti correlati
      * @param selectionTimeBox HBox per la selezione dell'orario
-     * @return                 VBox contenente le due HBox superiori
+     * @param alertsLabel      Label con gli avvisi di servizio attivi
+     * @return                 VBox contenente le zone superiori
      */
     public VBox createTopBox(HBox lineTitleBox,
-                             HBox selectionTimeBox) {
+                             HBox selectionTimeBox,
+                             Label alertsLabel) {
         VBox topBox = new VBox();
-        topBox.getChildren().addAll(lineTitleBox, selectionTimeBox);
+        topBox.getChildren().addAll(lineTitleBox, selectionTimeBox, alertsLabel);
         return topBox;
     }
 
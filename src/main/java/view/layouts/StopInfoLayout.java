@@ -41,13 +41,15 @@ public class StopInfoLayout {
      *
      * @param stopTitleBox     HBox contenente il nome e pulsanti della fermata
      * @param selectionTimeBox HBox contenente i pulsanti per la selezione dell'orario
-     * @return                 VBox contenente le due zone superiori
+     * @param alertsLabel      Label con gli avvisi di servizio attivi
+     * @return                 VBox contenente le zone superiori
      */
     public VBox createTopBox(HBox stopTitleBox,
-                             HBox selectionTimeBox) {
+                             HBox selectionTimeBox,
+                             Label alertsLabel) {
         VBox topBox = new VBox();
         // Compone il layout con i rispettivi bottoni.
-        topBox.getChildren().addAll(stopTitleBox, selectionTimeBox);
+        topBox.getChildren().addAll(stopTitleBox, selectionTimeBox, alertsLabel);
         return topBox;
     }
 
@@ -56,17 +58,19 @@ public class StopInfoLayout {
      *
      * @param favoriteButton Bottone per aggiungere la fermata ai preferiti
      * @param stopNameLabel  Label con il nome della fermata
-     * @return               HBox contenente il nome della fermata e il bottone dei preferiti
+     * @param isochroneButton Bottone per mostrare l'isocrona della fermata
+     * @return               HBox contenente il nome della fermata e i bottoni
      */
     public HBox createStopTitleBox(Button favoriteButton,
-                                   Label stopNameLabel) {
+                                   Label stopNameLabel,
+                                   Button isochroneButton) {
         HBox stopTitleBox = new HBox();
         stopTitleBox.setStyle(
                 "-fx-alignment: CENTER_LEFT;"
         );
 
         // Compone il layout con i rispettivi bottoni.
-        stopTitleBox.getChildren().addAll(favoriteButton, stopNameLabel);
+        stopTitleBox.getChildren().addAll(favoriteButton, stopNameLabel, isochroneButton);
         return stopTitleBox;
     }
 
@@ -10,7 +10,7 @@ import javafx.scene.layout.VBox;
  * <p>
  * Gestisce la disposizone dei nodi della barra degli strumenti,
  * con sezione di scelta rapida tra fermate e linee preferite
- * e indicatore di connessione.
+ * e indicatori di connessione e di età dei dati realtime.
  */
 public class ToolBarLayout {
 
@@ -19,12 +19,14 @@ public class ToolBarLayout {
      *
      * @param favoriteListButton Bottone per accedere alla lista dei preferiti
      * @param connectivityButton Bottone per la gestione della connettività
+     * @param dataAgeButton      Bottone con l'età dei dati realtime
      * @param legendButton       Bottone per la legenda
      * @param logoutButton       Bottone per il logout
      * @return                   VBox contenente i bottoni principali della toolbar
      */
     public VBox createToolBarRoot(Button favoriteListButton,
                                   Button connectivityButton,
+                                  Button dataAgeButton,
                                   Button legendButton,
                                   Button logoutButton) {
         VBox toolBar = new VBox();
@@ -35,7 +37,7 @@ public class ToolBarLayout {
                         "-fx-background-color: TRANSPARENT;"
         );
         // Compone il layout con i rispettivi bottoni.
-        toolBar.getChildren().addAll(favoriteListButton, connectivityButton, legendButton, logoutButton);
+        toolBar.getChildren().addAll(favoriteListButton, connectivityButton, dataAgeButton, legendButton, logoutButton);
         return toolBar;
     }
 
@@ -36,6 +36,16 @@ public class LineInfoNode {
         return lineNameLabel;
     }
 
+    /**
+     * Crea l'etichetta per gli avvisi di servizio attivi della linea.
+     *
+     * @return Label per gli avvisi, nascosta quando è vuota
+     */
+    public Label createAlertsLabel() {
+        Label alertsLabel = stopInfoNode.createAlertsLabel();
+        return alertsLabel;
+    }
+
     /**
      * Crea il bottone per aggiungere/rimuovere la linea dai preferiti.
      *
@@ -4,7 +4,9 @@ package view.nodes;
 import model.Route;
 
 // Operator.
+import operator.GTFSIsochroneEngine.IsochroneRaster;
 import operator.TilesManager;
+import operator.VehicleMotionModel;
 
 // Swing.
 import org.kordamp.ikonli.swing.FontIcon;
@@ -18,6 +20,7 @@ import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Pannello Swing che visualizza una mappa a tiles con supporto a:
@@ -25,6 +28,7 @@ import java.util.List;
  * - disegno di linee di percorso (shapes)
  * - fermate
  * - veicoli
+ * - isocrone
  *
  * Tutta la logica di rendering è contenuta qui.
  */
@@ -46,6 +50,19 @@ public class MapPanel extends JPanel {
     private List<double[]> stopsOverlay    = new ArrayList<>();
     private List<double[]> shapesOverlay   = new ArrayList<>();
     private List<double[]> vehiclesOverlay = new ArrayList<>();
+    private BufferedImage isochroneImage;                           // Raster dell'isocrona già colorato.
+    private double[] isochroneBounds;                               // minLat, maxLat, minLon, maxLon del raster.
+
+    // ANIMAZIONE VEICOLI ----------------------------------------------------------------------------------------------
+    private static final int VEHICLE_FRAME_MS = 33;                 // Circa 30 frame al secondo.
+    private static final int VEHICLE_DIRTY_RADIUS = 32;             // Mezzo lato dell'area ridisegnata attorno a un veicolo.
+    private Timer vehicleTimer;                                     // Creato alla prima animazione.
+    private VehicleMotionModel vehicleMotion;                       // Modello interrogato ad ogni frame.
+    private double[] vehicleFrame = new double[0];                  // lat/lon dei veicoli nel frame corrente (riutilizzato).
+    private double[] vehicleSpareFrame = new double[0];             // Frame precedente, riutilizzato per il successivo.
+    private int vehicleFrameCount;                                  // Veicoli validi nel buffer.
+    private Integer vehicleIconsType;                               // Tipo di linea delle icone in cache.
+    private Icon iconVehicle, borderVehicle, backgroundVehicle;     // Icone dei veicoli in cache.
 
     // COSTRUTTORE -----------------------------------------------------------------------------------------------------
     /**
@@ -214,6 +231,7 @@ public class MapPanel extends JPanel {
         int offsetY = (int) Math.round(getHeight() / 2.0 - fracY * tileSize * scale);
 
         drawTiles(g, zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
+        drawIsochrone(g, zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
         drawShapes(g, zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
         drawStops(g, zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
         drawVehicles(g, zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
@@ -272,6 +290,31 @@ public class MapPanel extends JPanel {
         }
     }
 
+    // ISOCRONA --------------------------------------------------------------------------------------------------------
+    private void drawIsochrone(Graphics2D g,
+                               int zoomLevel,
+                               double scale,
+                               int baseTileX,
+                               int baseTileY,
+                               int offsetX,
+                               int offsetY) {
+
+        if (isochroneImage == null) return;
+
+        int tileSize = TilesManager.getTileSize();
+
+        double[] tl = TilesManager.latLonToTile(isochroneBounds[1], isochroneBounds[2], zoomLevel);
+        double[] br = TilesManager.latLonToTile(isochroneBounds[0], isochroneBounds[3], zoomLevel);
+
+        int x0 = (int) Math.round(offsetX + (tl[0] - baseTileX) * tileSize * scale);
+        int y0 = (int) Math.round(offsetY + (tl[1] - baseTileY) * tileSize * scale);
+        int x1 = (int) Math.round(offsetX + (br[0] - baseTileX) * tileSize * scale);
+        int y1 = (int) Math.round(offsetY + (br[1] - baseTileY) * tileSize * scale);
+
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(isochroneImage, x0, y0, x1 - x0, y1 - y0, null);
+    }
+
     // SHAPES ----------------------------------------------------------------------------------------------------------
     private void drawShapes(Graphics2D g,
                             int zoomLevel,
@@ -442,40 +485,47 @@ public class MapPanel extends JPanel {
                               int offsetX,
                               int offsetY) {
 
-        if (currentRoute == null || vehiclesOverlay.isEmpty()) return;
+        if (currentRoute == null || (vehiclesOverlay.isEmpty() && vehicleFrameCount == 0)) return;
 
-        Icon iconVehicle = FontIcon.of(
-                getIconForRouteType(currentRoute.getRouteType()),
-                29,
-                getColorForRouteType(currentRoute.getRouteType())
-        );
+        // Le icone vengono ricreate solo se cambia il tipo di linea, non ad ogni frame.
+        Integer routeType = currentRoute.getRouteType();
+        if (iconVehicle == null || !Objects.equals(routeType, vehicleIconsType)) {
+            iconVehicle = FontIcon.of(getIconForRouteType(routeType), 29, getColorForRouteType(routeType));
+            borderVehicle = FontIcon.of(getIconForRouteType(routeType), 32, Color.BLACK);
+            backgroundVehicle = FontIcon.of(FontAwesomeSolid.SQUARE_FULL, 22, Color.WHITE);
+            vehicleIconsType = routeType;
+        }
 
-        Icon borderVehicle = FontIcon.of(
-                getIconForRouteType(currentRoute.getRouteType()),
-                32,
-                Color.BLACK
-        );
+        for (double[] latlon : vehiclesOverlay) {
+            drawVehicle(g, latlon[0], latlon[1], zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
+        }
+        for (int i = 0; i < vehicleFrameCount; i++) {
+            drawVehicle(g, vehicleFrame[2 * i], vehicleFrame[2 * i + 1], zoomLevel, scale, baseTileX, baseTileY, offsetX, offsetY);
+        }
+    }
 
-        Icon backgroundVehicle = FontIcon.of(
-                FontAwesomeSolid.SQUARE_FULL, 22, Color.WHITE
-        );
+    private void drawVehicle(Graphics2D g,
+                             double lat,
+                             double lon,
+                             int zoomLevel,
+                             double scale,
+                             int baseTileX,
+                             int baseTileY,
+                             int offsetX,
+                             int offsetY) {
 
         int tileSize = TilesManager.getTileSize();
+        double[] tile = TilesManager.latLonToTile(lat, lon, zoomLevel);
 
-        for (double[] latlon : vehiclesOverlay) {
-
-            double[] tile = TilesManager.latLonToTile(latlon[0], latlon[1], zoomLevel);
-
-            double px = offsetX + (tile[0] - baseTileX) * tileSize * scale;
-            double py = offsetY + (tile[1] - baseTileY) * tileSize * scale;
+        double px = offsetX + (tile[0] - baseTileX) * tileSize * scale;
+        double py = offsetY + (tile[1] - baseTileY) * tileSize * scale;
 
-            int x = (int) Math.round(px - backgroundVehicle.getIconWidth()  / 2.0);
-            int y = (int) Math.round(py - borderVehicle.getIconHeight() / 2.0);
+        int x = (int) Math.round(px - backgroundVehicle.getIconWidth()  / 2.0);
+        int y = (int) Math.round(py - borderVehicle.getIconHeight() / 2.0);
 
-            borderVehicle.paintIcon(this, g, x, y);
-            backgroundVehicle.paintIcon(this, g, x + 2, y + 2);
-            iconVehicle.paintIcon(this, g, x, y);
-        }
+        borderVehicle.paintIcon(this, g, x, y);
+        backgroundVehicle.paintIcon(this, g, x + 2, y + 2);
+        iconVehicle.paintIcon(this, g, x, y);
     }
 
     // RITORNA IL COLORE IN BASE AL TIPO DI LINEA ----------------------------------------------------------------------
@@ -538,19 +588,169 @@ public class MapPanel extends JPanel {
      * @param vehicles lista di coordinate lat/lon dei veicoli.
      */
     public void drawVehicles(List<double[]> vehicles) {
+        stopVehicleAnimation();
         vehiclesOverlay = new ArrayList<>(vehicles);
         repaint();
     }
 
+    // API PUBBLICA PER ANIMARE I VEICOLI ------------------------------------------------------------------------------
+    /**
+     * Anima i veicoli sulla mappa lungo il percorso, interrogando il modello di moto ad ogni frame.
+     * <p>
+     * Va chiamato dal thread di Swing. Se il modello è vuoto i veicoli vengono cancellati.
+     * </p>
+     *
+     * @param motion modello di moto dei veicoli.
+     */
+    public void animateVehicles(VehicleMotionModel motion) {
+        if (motion == null || motion.size() == 0) {
+            clearVehicles();
+            return;
+        }
+        if (!vehiclesOverlay.isEmpty()) {
+            vehiclesOverlay.clear();
+            repaint();
+        }
+        vehicleMotion = motion;
+        advanceVehicles();
+        startVehicleTimer();
+    }
+
+    /**
+     * Avvia il timer dei frame, creandolo alla prima animazione insieme al listener
+     * che lo fa ripartire quando il pannello torna visibile.
+     */
+    private void startVehicleTimer() {
+        if (vehicleTimer == null) {
+            vehicleTimer = new Timer(VEHICLE_FRAME_MS, _ -> advanceVehicles());
+            addHierarchyListener(e -> {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing() && vehicleMotion != null) {
+                    advanceVehicles();
+                    startVehicleTimer();
+                }
+            });
+        }
+        if (isShowing() && !vehicleTimer.isRunning()) vehicleTimer.start();
+    }
+
+    /**
+     * Calcola le posizioni del frame corrente nel buffer riutilizzato e ridisegna solo l'area dei veicoli spostati.
+     * <p>
+     * Il timer si ferma se il pannello non è visibile o se nessun veicolo si è mosso (ad esempio perché tutti
+     * hanno raggiunto il limite di estrapolazione): riparte al prossimo feed o quando il pannello torna visibile.
+     * </p>
+     */
+    private void advanceVehicles() {
+        if (vehicleMotion == null || !isShowing()) {
+            if (vehicleTimer != null) vehicleTimer.stop();
+            return;
+        }
+        int needed = 2 * vehicleMotion.size();
+        double[] previous = vehicleFrame;
+        int previousCount = vehicleFrameCount;
+        double[] frame = vehicleSpareFrame.length >= needed ? vehicleSpareFrame
+                : new double[Math.max(needed, 2 * vehicleSpareFrame.length)];
+        vehicleFrameCount = vehicleMotion.positionsAt(System.currentTimeMillis(), frame);
+        vehicleFrame = frame;
+        vehicleSpareFrame = previous;
+
+        if (!repaintMovedVehicles(previous, previousCount) && vehicleTimer != null) vehicleTimer.stop();
+    }
+
+    /**
+     * Ridisegna la posizione precedente e quella nuova dei veicoli che si sono spostati.
+     *
+     * @param previous      lat/lon dei veicoli nel frame precedente
+     * @param previousCount veicoli validi nel frame precedente
+     * @return              true se almeno un veicolo si è spostato
+     */
+    private boolean repaintMovedVehicles(double[] previous, int previousCount) {
+        if (previousCount != vehicleFrameCount) {                   // Veicoli aggiunti o rimossi: ridisegna tutto.
+            repaint();
+            return true;
+        }
+        boolean moved = false;
+        for (int i = 0; i < 2 * vehicleFrameCount; i += 2) {
+            if (previous[i] == vehicleFrame[i] && previous[i + 1] == vehicleFrame[i + 1]) continue;
+            repaint(vehicleBounds(previous[i], previous[i + 1]));
+            repaint(vehicleBounds(vehicleFrame[i], vehicleFrame[i + 1]));
+            moved = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Area del pannello occupata dall'icona di un veicolo, con la vista corrente.
+     */
+    private Rectangle vehicleBounds(double lat, double lon) {
+        int zoomLevel = (int) Math.floor(zoom);
+        double scale = Math.pow(2, zoom - zoomLevel);
+        double[] tile = TilesManager.latLonToTile(lat, lon, zoomLevel);
+        int px = (int) Math.round(getWidth()  / 2.0 + (tile[0] - centerX) * TilesManager.getTileSize() * scale);
+        int py = (int) Math.round(getHeight() / 2.0 + (tile[1] - centerY) * TilesManager.getTileSize() * scale);
+        return new Rectangle(px - VEHICLE_DIRTY_RADIUS, py - VEHICLE_DIRTY_RADIUS, 2 * VEHICLE_DIRTY_RADIUS, 2 * VEHICLE_DIRTY_RADIUS);
+    }
+
+    private void stopVehicleAnimation() {
+        if (vehicleTimer != null) vehicleTimer.stop();
+        vehicleMotion = null;
+        vehicleFrameCount = 0;
+    }
+
     // CANCELLA I VEICOLI ----------------------------------------------------------------------------------------------
     /**
      * Cancella tutti i veicoli dalla mappa.
      */
     public void clearVehicles() {
+        stopVehicleAnimation();
         vehiclesOverlay.clear();
         repaint();
     }
 
+    // API PUBBLICA PER DISEGNARE L'ISOCRONA ---------------------------------------------------------------------------
+    /**
+     * Disegna un'isocrona sulla mappa.
+     * <p>
+     * Il raster viene convertito una sola volta in un'immagine semitrasparente
+     * (verde per i tempi brevi, rosso vicino al budget) e poi scalato ad ogni repaint.
+     * </p>
+     *
+     * @param raster griglia dell'isocrona (null per cancellarla).
+     */
+    public void drawIsochrone(IsochroneRaster raster) {
+        if (raster == null) {
+            clearIsochrone();
+            return;
+        }
+
+        BufferedImage image = new BufferedImage(raster.cols, raster.rows, BufferedImage.TYPE_INT_ARGB);
+        for (int r = 0; r < raster.rows; r++) {
+            for (int c = 0; c < raster.cols; c++) {
+                float minutes = raster.minutes[r * raster.cols + c];
+                if (Float.isNaN(minutes)) continue;
+
+                float t = Math.min(1f, minutes / Math.max(1, raster.budgetMinutes));
+                int red   = (int) (255 * Math.min(1f, 2f * t));
+                int green = (int) (255 * Math.min(1f, 2f * (1f - t)));
+                image.setRGB(c, r, (110 << 24) | (red << 16) | (green << 8));
+            }
+        }
+
+        isochroneImage = image;
+        isochroneBounds = new double[] { raster.minLat, raster.maxLat, raster.minLon, raster.maxLon };
+        repaint();
+    }
+
+    // CANCELLA L'ISOCRONA ---------------------------------------------------------------------------------------------
+    /**
+     * Cancella l'isocrona dalla mappa.
+     */
+    public void clearIsochrone() {
+        isochroneImage = null;
+        isochroneBounds = null;
+        repaint();
+    }
+
     // RESTITUISCE IL CENTRO DELLA LATITUDINE ATTUALE ------------------------------------------------------------------
     /**
      * Restituisce la latitudine del centro della mappa.
@@ -34,6 +34,28 @@ public class StopInfoNode {
         return stopNameLabel;
     }
 
+    /**
+     * Crea l'etichetta per gli avvisi di servizio attivi, visibile solo quando ha un testo.
+     *
+     * @return Label con icona di avviso
+     */
+    public Label createAlertsLabel() {
+        Label alertsLabel = new Label();
+        FontIcon alertIcon = new FontIcon(Feather.ALERT_TRIANGLE);
+        alertIcon.setIconColor(Color.ORANGE);
+        alertIcon.setIconSize(16);
+        alertsLabel.setGraphic(alertIcon);
+        alertsLabel.setWrapText(true);
+        alertsLabel.setStyle(
+                "-fx-text-fill: #ffa31a;"+
+                        "-fx-font-size: 12;"+
+                        "-fx-padding: 4 8 4 8;"
+        );
+        alertsLabel.visibleProperty().bind(alertsLabel.textProperty().isNotEmpty());  // Nascosta senza avvisi...
+        alertsLabel.managedProperty().bind(alertsLabel.visibleProperty());            // ...E senza occupare spazio.
+        return alertsLabel;
+    }
+
     /**
      * Crea il bottone per aggiungere o rimuovere la fermata dai preferiti.
      *
@@ -63,6 +85,36 @@ public class StopInfoNode {
         icon.setIconColor(active ? Color.ORANGE : Color.GRAY);
     }
 
+    /**
+     * Crea il bottone per mostrare sulla mappa l'isocrona della fermata.
+     *
+     * @return Button con icona a bersaglio
+     */
+    public Button createIsochroneButton() {
+        Button isochroneButton = new Button();
+        FontIcon targetIcon = new FontIcon(Feather.TARGET);
+        targetIcon.setIconColor(Color.GRAY); // Colore iniziale
+        targetIcon.setIconSize(20);
+        isochroneButton.setGraphic(targetIcon);
+        isochroneButton.setTooltip(new Tooltip("Raggiungibile in 30 minuti"));
+        isochroneButton.setStyle(
+                "-fx-background-color: TRANSPARENT;"+
+                        "-fx-cursor: hand;"
+        );
+        return isochroneButton;
+    }
+
+    /**
+     * Modifica lo stato del bottone dell'isocrona cambiando il colore.
+     *
+     * @param button Button da aggiornare
+     * @param active true se l'isocrona è visibile, false altrimenti
+     */
+    public void setIsochroneButtonState(Button button, boolean active) {
+        FontIcon icon = (FontIcon) button.getGraphic();
+        icon.setIconColor(active ? Color.ORANGE : Color.GRAY);
+    }
+
     /**
      * Crea il bottone per selezionare l'orario di partenza.
      *
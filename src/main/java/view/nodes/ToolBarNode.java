@@ -57,6 +57,41 @@ public class ToolBarNode {
         }
     }
 
+    /**
+     * Crea il bottone che mostra l'età dei dati realtime.
+     *
+     * @return Button vuoto, pronto per essere configurato con l'età dei dati
+     */
+    public Button createDataAgeButton() {
+        Button dataAgeButton = new Button();
+        dataAgeButton.setStyle(
+                "-fx-background-color: rgba(0, 0, 0, 0.7);"+
+                        "-fx-background-radius: 15;"
+        );
+        dataAgeButton.setTooltip(new Tooltip());
+        return dataAgeButton;
+    }
+
+    /**
+     * Setta lo stato del bottone dell'età dei dati realtime: verde se recenti, arancione se vecchi,
+     * rosso se non più attendibili, grigio se non ancora ricevuti.
+     *
+     * @param button     Bottone da aggiornare
+     * @param color      Colore dell'icona
+     * @param ageSeconds Età dei dati in secondi, -1 se non disponibile
+     */
+    public void setDataAgeButtonState(Button button, Color color, long ageSeconds) {
+        FontIcon clockIcon = new FontIcon(Feather.CLOCK);
+        clockIcon.setIconColor(color);
+        clockIcon.setIconSize(30);
+        button.setGraphic(clockIcon);
+        String text;
+        if (ageSeconds < 0) text = "Dati realtime non ancora ricevuti";
+        else if (ageSeconds < 120) text = "Dati realtime di " + ageSeconds + " s fa";
+        else text = "Dati realtime di " + (ageSeconds / 60) + " min fa";
+        button.getTooltip().setText(text);
+    }
+
     /**
      * Crea il bottone per visualizzare la lista dei preferiti.
      *
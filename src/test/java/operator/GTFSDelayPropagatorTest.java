@@ -0,0 +1,155 @@
+package operator;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSDelayPropagator.
+ *
+ * La corsa di prova ferma in A, B (con due minuti di sosta), C, D ed E a dieci minuti l'una dall'altra.
+ * I TripUpdate vengono costruiti con protobuf-java e decodificati con GTFSRealtimeStreamDecoder,
+ * come nel polling.
+ */
+public class GTFSDelayPropagatorTest {
+
+    private static final long MIDNIGHT = LocalDate.of(2099, 1, 12).atStartOfDay(ZoneId.of("Europe/Rome")).toEpochSecond();
+    private static final long FEED_TIME = MIDNIGHT + 8 * 3600;
+
+    private static final GTFSDelayPropagator PROPAGATOR = new GTFSDelayPropagator(new GTFSTimetableIndex(new GTFSTestNetwork()
+            .stop("A", 41.90, 12.50)
+            .stop("B", 41.91, 12.50)
+            .stop("C", 41.92, 12.50)
+            .stop("D", 41.93, 12.50)
+            .stop("E", 41.94, 12.50)
+            .route("R1")
+            .trip("T", "R1", null, "A@08:00:00", "B@08:10:00-08:12:00", "C@08:20:00", "D@08:30:00", "E@08:40:00")
+            .staticIndexer()));
+
+    private static long at(int hour, int minute) {
+        return MIDNIGHT + hour * 3600L + minute * 60L;
+    }
+
+    private static StopTimeUpdate.Builder arrivalDelay(int sequence, int delaySec) {
+        return StopTimeUpdate.newBuilder().setStopSequence(sequence).setArrival(StopTimeEvent.newBuilder().setDelay(delaySec));
+    }
+
+    private static StopTimeUpdate.Builder relationship(int sequence, StopTimeUpdate.ScheduleRelationship relationship) {
+        return StopTimeUpdate.newBuilder().setStopSequence(sequence).setScheduleRelationship(relationship);
+    }
+
+    /**
+     * Decodifica un TripUpdate e restituisce i minuti di ritardo previsti per fermata.
+     */
+    private static Map<String, Integer> predict(TripUpdate.Builder update) throws IOException {
+        Map<String, Integer> delays = new HashMap<>();
+        for (Map.Entry<String, GTFSDataIndexer.PredictedArrival> en : predictArrivals(update).entrySet()) {
+            delays.put(en.getKey(), en.getValue().delaySec / 60);
+        }
+        return delays;
+    }
+
+    private static Map<String, GTFSDataIndexer.PredictedArrival> predictArrivals(TripUpdate.Builder update) throws IOException {
+        FeedMessage feed = FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(FEED_TIME))
+                .addEntity(FeedEntity.newBuilder().setId("1").setTripUpdate(update))
+                .build();
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(feed.toByteArray());
+        return PROPAGATOR.predictArrivals(decoder.getTripUpdates(), 0, FEED_TIME);
+    }
+
+    private static TripUpdate.Builder trip(String tripId) {
+        return TripUpdate.newBuilder().setTrip(TripDescriptor.newBuilder().setTripId(tripId));
+    }
+
+    // PROPAGATION TEST ------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che il ritardo si propaghi a tutte le fermate successive fino al prossimo aggiornamento.
+     */
+    @Test
+    void testDelayPropagatesDownstream() throws IOException {
+        assertEquals(Map.of("A", 2, "B", 2, "C", 2, "D", 2, "E", 2), predict(trip("T").addStopTimeUpdate(arrivalDelay(1, 120))));
+
+        Map<String, GTFSDataIndexer.PredictedArrival> arrivals = predictArrivals(trip("T")
+                .addStopTimeUpdate(arrivalDelay(1, 120))
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopId("C")                      // Associato per stop_id.
+                        .setArrival(StopTimeEvent.newBuilder().setTime(at(8, 25)))));
+        assertEquals(at(8, 12), arrivals.get("B").arrivalEpochSec);
+        assertEquals(at(8, 25), arrivals.get("C").arrivalEpochSec);
+        assertEquals(at(8, 45), arrivals.get("E").arrivalEpochSec, "il nuovo ritardo sostituisce il precedente");
+    }
+
+    // BEFORE FIRST UPDATE TEST ----------------------------------------------------------------------------------------
+    /**
+     * Verifica che le fermate precedenti al primo aggiornamento non ricevano previsioni,
+     * mentre il ritardo di corsa vale dalla prima fermata.
+     */
+    @Test
+    void testStopsBeforeFirstUpdate() throws IOException {
+        assertEquals(Map.of("C", 3, "D", 3, "E", 3), predict(trip("T").addStopTimeUpdate(arrivalDelay(3, 180))));
+        assertEquals(Map.of("A", 4, "B", 4, "C", 4, "D", 4, "E", 4), predict(trip("T").setDelay(240)));
+    }
+
+    // SKIPPED AND NO DATA TEST ----------------------------------------------------------------------------------------
+    /**
+     * Verifica che SKIPPED salti la fermata senza interrompere il ritardo e che NO_DATA lo interrompa.
+     */
+    @Test
+    void testSkippedAndNoData() throws IOException {
+        assertEquals(Map.of("A", 2, "C", 2, "D", 2, "E", 2), predict(trip("T")
+                .addStopTimeUpdate(arrivalDelay(1, 120))
+                .addStopTimeUpdate(relationship(2, StopTimeUpdate.ScheduleRelationship.SKIPPED))));
+
+        assertEquals(Map.of("A", 2, "B", 2, "E", 1), predict(trip("T")
+                .addStopTimeUpdate(arrivalDelay(1, 120))
+                .addStopTimeUpdate(relationship(3, StopTimeUpdate.ScheduleRelationship.NO_DATA))
+                .addStopTimeUpdate(arrivalDelay(5, 60))));
+    }
+
+    // MONOTONIC TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che un arrivo previsto non preceda la partenza prevista dalla fermata precedente
+     * e che alle fermate successive si propaghi l'anticipo residuo.
+     */
+    @Test
+    void testPredictionsNeverGoBackInTime() throws IOException {
+        Map<String, GTFSDataIndexer.PredictedArrival> arrivals = predictArrivals(trip("T")
+                .addStopTimeUpdate(arrivalDelay(1, 600))
+                .addStopTimeUpdate(arrivalDelay(2, -300)));
+
+        assertEquals(at(8, 10), arrivals.get("A").arrivalEpochSec);
+        assertEquals(at(8, 10), arrivals.get("B").arrivalEpochSec, "non prima della partenza da A");
+        assertEquals(at(8, 18), arrivals.get("C").arrivalEpochSec, "partenza da B alle 8:10, due minuti in anticipo");
+    }
+
+    // UNKNOWN TRIP TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che per una corsa assente dall'orario si usino solo gli orari assoluti del feed.
+     */
+    @Test
+    void testTripNotInTimetable() throws IOException {
+        Map<String, GTFSDataIndexer.PredictedArrival> arrivals = predictArrivals(trip("EXTRA")
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopId("B")
+                        .setArrival(StopTimeEvent.newBuilder().setTime(at(9, 0))))
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopId("C")
+                        .setArrival(StopTimeEvent.newBuilder().setDelay(60))));
+
+        assertEquals(1, arrivals.size(), "un ritardo senza orario statico non dà una previsione");
+        assertEquals(at(9, 0), arrivals.get("B").arrivalEpochSec);
+        assertNull(arrivals.get("B").delaySec);
+    }
+}
@@ -0,0 +1,124 @@
+package operator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSFeedCadence.
+ *
+ * L'intervallo iniziale è di 30 secondi e l'attesa massima di 120. Il feed di prova viene pubblicato
+ * ogni 10 secondi e ricevuto mezzo secondo dopo. Ai ritardi si aggiunge un jitter casuale
+ * fino a 1,5 secondi, per cui vengono verificati come intervalli.
+ */
+public class GTFSFeedCadenceTest {
+
+    private static final double MAX_JITTER_SEC = 1.5;
+    private static final long FIRST_PUBLISH = 1_000;
+
+    /**
+     * Verifica che il ritardo sia quello atteso a meno del jitter.
+     */
+    private static void assertDelay(double expectedSec, long delayMs) {
+        assertTrue(delayMs >= Math.round(expectedSec * 1000) && delayMs <= Math.round((expectedSec + MAX_JITTER_SEC) * 1000),
+                "atteso " + expectedSec + " s più il jitter, ottenuto " + delayMs + " ms");
+    }
+
+    /**
+     * Crea una cadenza che ha già misurato tre pubblicazioni a 10 secondi l'una dall'altra.
+     */
+    private static GTFSFeedCadence learned() {
+        GTFSFeedCadence cadence = new GTFSFeedCadence(30, 120);
+        for (int i = 0; i < 3; i++) cadence.onNewFeed(FIRST_PUBLISH + 10L * i, FIRST_PUBLISH + 10L * i + 0.5);
+        return cadence;
+    }
+
+    // LEARNING TEST ---------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che i primi poll siano ravvicinati e che, misurata la cadenza, il poll cada subito
+     * dopo la pubblicazione successiva.
+     */
+    @Test
+    void testLearnsCadence() {
+        GTFSFeedCadence cadence = new GTFSFeedCadence(30, 120);
+
+        assertDelay(2.0, cadence.onNewFeed(FIRST_PUBLISH, FIRST_PUBLISH + 0.5));
+        assertDelay(2.0, cadence.onNewFeed(FIRST_PUBLISH + 10, FIRST_PUBLISH + 10.5));
+        assertEquals(10.0, cadence.getCadenceSec(), 1e-9);
+
+        // Scarto 0.5 s ridotto tre volte di 0.2 s: pubblicazione attesa a 1029.9, più un secondo di margine.
+        assertDelay(10.4, cadence.onNewFeed(FIRST_PUBLISH + 20, FIRST_PUBLISH + 20.5));
+        assertEquals(10.0, cadence.getCadenceSec(), 1e-9);
+    }
+
+    // EWMA TEST -------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica la media esponenziale degli intervalli, il limite agli intervalli anomali e la cadenza minima.
+     */
+    @Test
+    void testExponentialMovingAverage() {
+        GTFSFeedCadence cadence = learned();
+
+        cadence.onNewFeed(FIRST_PUBLISH + 40, FIRST_PUBLISH + 40.5);
+        assertEquals(0.7 * 10 + 0.3 * 20, cadence.getCadenceSec(), 1e-9);
+
+        cadence.onNewFeed(FIRST_PUBLISH + 140, FIRST_PUBLISH + 140.5);                 // Interruzione: l'intervallo vale al massimo il doppio.
+        assertEquals(0.7 * 13 + 0.3 * 26, cadence.getCadenceSec(), 1e-9);
+
+        GTFSFeedCadence fast = new GTFSFeedCadence(30, 120);
+        fast.onNewFeed(FIRST_PUBLISH, FIRST_PUBLISH);
+        fast.onNewFeed(FIRST_PUBLISH + 2, FIRST_PUBLISH + 2);
+        assertEquals(5.0, fast.getCadenceSec(), 1e-9, "cadenza minima plausibile");
+    }
+
+    // UNCHANGED TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che dopo un feed invariato i tentativi raddoppino fino alla cadenza
+     * e che un feed nuovo li azzeri.
+     */
+    @Test
+    void testUnchangedFeedRetries() {
+        GTFSFeedCadence cadence = learned();
+
+        assertDelay(2.0, cadence.onUnchanged(FIRST_PUBLISH + 30.5));
+        assertDelay(4.0, cadence.onUnchanged(FIRST_PUBLISH + 33));
+        assertDelay(8.0, cadence.onUnchanged(FIRST_PUBLISH + 38));
+        assertDelay(10.0, cadence.onUnchanged(FIRST_PUBLISH + 47));                     // Non oltre la cadenza.
+
+        cadence.onNewFeed(FIRST_PUBLISH + 50, FIRST_PUBLISH + 57.5);
+        assertDelay(2.0, cadence.onUnchanged(FIRST_PUBLISH + 60));
+
+        GTFSFeedCadence fresh = new GTFSFeedCadence(30, 120);
+        assertDelay(30.0, fresh.onUnchanged(FIRST_PUBLISH));                            // Nessun feed ricevuto: intervallo iniziale.
+    }
+
+    // BACKOFF TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica il backoff esponenziale, limitato all'attesa massima e azzerato dal primo feed valido.
+     */
+    @Test
+    void testFailureBackoff() {
+        GTFSFeedCadence cadence = new GTFSFeedCadence(30, 120);
+
+        assertDelay(60.0, cadence.onFailure());
+        assertDelay(120.0, cadence.onFailure());
+        assertDelay(120.0, cadence.onFailure());
+        assertEquals(3, cadence.getConsecutiveFailures());
+
+        cadence.onNewFeed(FIRST_PUBLISH, FIRST_PUBLISH + 0.5);
+        assertEquals(0, cadence.getConsecutiveFailures());
+    }
+
+    // NO TIMESTAMP TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che i feed senza timestamp vengano interrogati all'intervallo iniziale.
+     */
+    @Test
+    void testFeedWithoutTimestamp() {
+        GTFSFeedCadence cadence = new GTFSFeedCadence(30, 120);
+
+        assertDelay(30.0, cadence.onNewFeed(0, FIRST_PUBLISH));
+        assertDelay(30.0, cadence.onNewFeed(0, FIRST_PUBLISH + 30));
+        assertEquals(30.0, cadence.getCadenceSec(), 1e-9);
+    }
+}
@@ -0,0 +1,94 @@
+package operator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSFootpathIndex.
+ *
+ * Le fermate P e Q distano circa 200 m, R è a circa 1 km da entrambe;
+ * S non ha coordinate e non deve avere trasbordi.
+ */
+public class GTFSFootpathIndexTest {
+
+    private static final GTFSTimetableIndex TIMETABLE = new GTFSTimetableIndex(new GTFSTestNetwork()
+            .stop("P", 41.9000, 12.5)
+            .stop("Q", 41.9018, 12.5)
+            .stop("R", 41.9090, 12.5)
+            .stop("S", Double.NaN, Double.NaN)
+            .staticIndexer());
+
+    /**
+     * Trasbordi di una fermata come mappa ID destinazione -> secondi di cammino.
+     */
+    private static Map<String, Integer> edges(GTFSFootpathIndex index, String stopId) {
+        int s = TIMETABLE.getStopIndex(stopId);
+        Map<String, Integer> result = new HashMap<>();
+        for (int i = index.getStart(s); i < index.getEnd(s); i++) {
+            result.put(TIMETABLE.getStopId(index.getTarget(i)), index.getWalkSeconds(i));
+        }
+        return result;
+    }
+
+    // RADIUS TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che siano collegate solo le fermate entro il raggio, in entrambe le direzioni.
+     */
+    @Test
+    void testEdgesWithinRadius() {
+        GTFSFootpathIndex index = GTFSFootpathIndex.build(TIMETABLE, 400);
+
+        assertEquals(Map.of("Q", 217), edges(index, "P"), "200 m * 1.3 / 1.2 m/s, per eccesso");
+        assertEquals(Map.of("P", 217), edges(index, "Q"));
+        assertTrue(edges(index, "R").isEmpty());
+        assertTrue(edges(index, "S").isEmpty(), "le fermate senza coordinate non hanno trasbordi");
+
+        GTFSFootpathIndex wide = GTFSFootpathIndex.build(TIMETABLE, 1200);
+        assertEquals(Map.of("Q", 217, "R", 1085), edges(wide, "P"));
+        assertEquals(2, edges(wide, "R").size());
+    }
+
+    // CSR TEST --------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che gli intervalli CSR siano contigui e coprano tutti i trasbordi.
+     */
+    @Test
+    void testCompactLayout() {
+        GTFSFootpathIndex index = GTFSFootpathIndex.build(TIMETABLE, 1200);
+
+        assertEquals(0, index.getStart(0));
+        for (int s = 0; s < TIMETABLE.getStopCount() - 1; s++) {
+            assertEquals(index.getEnd(s), index.getStart(s + 1));
+        }
+        assertEquals(6, index.getEnd(TIMETABLE.getStopCount() - 1), "tre coppie di fermate, due direzioni");
+    }
+
+    // CACHE TEST ------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che il grafo salvato in cache venga riletto identico e ignorato se cambia il raggio.
+     */
+    @Test
+    void testCacheRoundTrip(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("stops.txt"), "stop_id,stop_lat,stop_lon\n");     // Firma del feed.
+
+        GTFSFootpathIndex built = GTFSFootpathIndex.loadOrBuild(TIMETABLE, dir, 400);
+        assertTrue(Files.exists(dir.resolve("footpaths.bin")));
+
+        GTFSFootpathIndex cached = GTFSFootpathIndex.loadOrBuild(TIMETABLE, dir, 400);
+        for (String stopId : new String[]{ "P", "Q", "R", "S" }) {
+            assertEquals(edges(built, stopId), edges(cached, stopId));
+        }
+
+        GTFSFootpathIndex rebuilt = GTFSFootpathIndex.loadOrBuild(TIMETABLE, dir, 1200);
+        assertEquals(1200, rebuilt.getRadiusMeters());
+        assertEquals(2, edges(rebuilt, "P").size());
+    }
+}
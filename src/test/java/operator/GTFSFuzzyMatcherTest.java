@@ -0,0 +1,94 @@
+package operator;
+
+import model.Stop;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSFuzzyMatcher.
+ *
+ * La classe testa la distanza di Levenshtein, la ricerca sul BK-tree
+ * e la ricerca approssimata delle fermate tramite GTFSStopSearchIndex.
+ */
+public class GTFSFuzzyMatcherTest {
+
+    private static final GTFSFuzzyMatcher<String> MATCHER = new GTFSFuzzyMatcher<>(Map.of(
+            "termini", List.of("T"),
+            "piramide", List.of("P"),
+            "flaminio", List.of("F"),
+            "terminal", List.of("TL"),
+            "tiburtina", List.of("TB")));
+
+    // DISTANCE TEST ---------------------------------------------------------------------------------------------------
+    /**
+     * Verifica la distanza di Levenshtein e il limite di calcolo.
+     */
+    @Test
+    void testDistance() {
+        assertEquals(0, GTFSFuzzyMatcher.distance("termini", "termini", 2));
+        assertEquals(1, GTFSFuzzyMatcher.distance("termni", "termini", 2));
+        assertEquals(1, GTFSFuzzyMatcher.distance("piramde", "piramide", Integer.MAX_VALUE));
+        assertEquals(3, GTFSFuzzyMatcher.distance("abc", "xyz", Integer.MAX_VALUE));
+        assertEquals(2, GTFSFuzzyMatcher.distance("abcdef", "uvwxyz", 1), "Oltre il limite restituisce limit + 1");
+    }
+
+    // BK-TREE TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la ricerca trovi i termini entro la distanza, ordinati per distanza.
+     */
+    @Test
+    void testSearch() {
+        List<GTFSFuzzyMatcher.Match<String>> matches = MATCHER.search("termni", 2);
+        assertEquals("termini", matches.get(0).term);
+        assertEquals(1, matches.get(0).distance);
+        assertEquals(List.of("T"), matches.get(0).items);
+        assertEquals(List.of("termini", "terminal"), MATCHER.search("termin", 2).stream().map(m -> m.term).toList());
+
+        assertEquals("piramide", MATCHER.search("piramde", 1).get(0).term);
+        assertTrue(MATCHER.search("roma", 2).isEmpty());
+        assertEquals(5, MATCHER.size());
+    }
+
+    // MAX DISTANCE TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le parole corte tollerino meno errori.
+     */
+    @Test
+    void testMaxDistanceFor() {
+        assertEquals(0, GTFSFuzzyMatcher.maxDistanceFor("abc"));
+        assertEquals(1, GTFSFuzzyMatcher.maxDistanceFor("abcde"));
+        assertEquals(2, GTFSFuzzyMatcher.maxDistanceFor("termini"));
+    }
+
+    // STOP SEARCH TEST ------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la ricerca delle fermate corregga gli errori e metta prima le corrispondenze esatte.
+     */
+    @Test
+    void testStopSearchWithTypos() {
+        GTFSStopSearchIndex index = new GTFSStopSearchIndex(List.of(
+                stop("1", "Termini"),
+                stop("2", "Piramide"),
+                stop("3", "Via Terminillo")), Map.of());
+
+        assertEquals(List.of("1"), ids(index.search("Termni", 10)));
+        assertEquals(List.of("2"), ids(index.search("piramde", 10)));
+        assertEquals("1", index.search("termini", 10).get(0).getStopId(), "La corrispondenza esatta viene prima");
+        assertTrue(index.search("qwertyu", 10).isEmpty());
+    }
+
+    private static Stop stop(String id, String name) {
+        Stop stop = new Stop();
+        stop.setStopId(id);
+        stop.setStopName(name);
+        return stop;
+    }
+
+    private static List<String> ids(List<Stop> stops) {
+        return stops.stream().map(Stop::getStopId).toList();
+    }
+}
@@ -0,0 +1,100 @@
+package operator;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSIsochroneEngine.
+ *
+ * La rete di prova ha una corsa lenta A-B-C, una corsa diretta A-C mezz'ora dopo
+ * e una fermata D a circa 280 m da C, raggiungibile solo a piedi.
+ */
+public class GTFSIsochroneEngineTest {
+
+    private static final LocalDateTime DEPARTURE = LocalDateTime.of(2026, 10, 19, 8, 0);
+    private static final int WALK_C_TO_D_SEC = 302;                                     // 278 m * 1.3 / 1.2 m/s, per eccesso.
+
+    private static final GTFSIsochroneEngine ENGINE = engine();
+
+    private static GTFSIsochroneEngine engine() {
+        GTFSTestNetwork network = new GTFSTestNetwork()
+                .stop("A", 41.9000, 12.5)
+                .stop("B", 41.9100, 12.5)
+                .stop("C", 41.9200, 12.5)
+                .stop("D", 41.9225, 12.5)
+                .route("R1")
+                .trip("LENTA", "R1", null, "A@08:00:00", "B@08:10:00", "C@08:20:00")
+                .trip("DIRETTA", "R1", null, "A@08:30:00", "C@08:35:00");
+        GTFSTimetableIndex timetable = new GTFSTimetableIndex(network.staticIndexer());
+        return new GTFSIsochroneEngine(timetable, GTFSFootpathIndex.build(timetable, GTFSFootpathIndex.DEFAULT_RADIUS_METERS));
+    }
+
+    // EARLIEST ARRIVAL TEST -------------------------------------------------------------------------------------------
+    /**
+     * Verifica gli arrivi più precoci partendo all'orario richiesto, compreso il tratto a piedi finale.
+     */
+    @Test
+    void testEarliestArrival() {
+        GTFSIsochroneEngine.IsochroneResult result = ENGINE.computeIsochrone("A", DEPARTURE, 60, 60);
+
+        assertEquals(DEPARTURE.plusMinutes(10), result.getEarliestArrival("B"));
+        assertEquals(DEPARTURE.plusMinutes(20), result.getEarliestArrival("C"), "la corsa diretta arriva dopo quella lenta");
+        assertEquals(DEPARTURE.plusMinutes(20).plusSeconds(WALK_C_TO_D_SEC), result.getEarliestArrival("D"));
+    }
+
+    // PROFILE TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la ricerca a profilo conservi il tempo di viaggio migliore tra le partenze nella finestra.
+     */
+    @Test
+    void testProfileKeepsBestTravelTime() {
+        Map<String, Integer> minutes = ENGINE.computeIsochrone("A", DEPARTURE, 60, 60).getTravelMinutesByStop();
+
+        assertEquals(0, minutes.get("A"));
+        assertEquals(10, minutes.get("B"));
+        assertEquals(5, minutes.get("C"), "partendo alle 8:30 con la corsa diretta");
+        assertEquals((5 * 60 + WALK_C_TO_D_SEC) / 60, minutes.get("D"));
+    }
+
+    // WINDOW TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che senza finestra si consideri solo la partenza all'orario richiesto.
+     */
+    @Test
+    void testZeroWindowUsesRequestedDepartureOnly() {
+        Map<String, Integer> minutes = ENGINE.computeIsochrone("A", DEPARTURE, 60, 0).getTravelMinutesByStop();
+
+        assertEquals(20, minutes.get("C"));
+        assertEquals((20 * 60 + WALK_C_TO_D_SEC) / 60, minutes.get("D"));
+    }
+
+    // BUDGET TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le fermate oltre il budget non siano raggiunte, salvo partenze successive più rapide.
+     */
+    @Test
+    void testBudget() {
+        GTFSIsochroneEngine.IsochroneResult direct = ENGINE.computeIsochrone("A", DEPARTURE, 15, 0);
+        assertEquals(10, direct.getTravelMinutesByStop().get("B"));
+        assertFalse(direct.getTravelMinutesByStop().containsKey("C"));
+        assertNull(direct.getEarliestArrival("C"));
+
+        GTFSIsochroneEngine.IsochroneResult profile = ENGINE.computeIsochrone("A", DEPARTURE, 15, 60);
+        assertEquals(5, profile.getTravelMinutesByStop().get("C"));
+        assertNotNull(profile.raster);
+        assertEquals(15, profile.raster.budgetMinutes);
+    }
+
+    // UNKNOWN STOP TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che una fermata assente dall'orario non produca risultati.
+     */
+    @Test
+    void testUnknownStop() {
+        assertNull(ENGINE.computeIsochrone("Z", DEPARTURE, 60, 60));
+    }
+}
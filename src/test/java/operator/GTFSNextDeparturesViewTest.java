@@ -0,0 +1,165 @@
+package operator;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSNextDeparturesView.
+ *
+ * La vista viene portata a istanti precisi con advance(). Il giorno di prova è nel futuro:
+ * gli aggiornamenti realtime, che la vista applica all'istante corrente, non scartano
+ * così nessuna partenza del giorno di prova.
+ */
+public class GTFSNextDeparturesViewTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Rome");
+    private static final long MIDNIGHT = LocalDate.of(2099, 1, 12).atStartOfDay(ZONE).toEpochSecond();
+
+    private static long at(int hour, int minute) {
+        return MIDNIGHT + hour * 3600L + minute * 60L;
+    }
+
+    private final GTFSStaticIndexer staticIndexer = new GTFSTestNetwork()
+            .stop("X", 41.90, 12.50)
+            .stop("Y", 41.91, 12.50)
+            .route("R1")
+            .trip("T1", "R1", null, "X@08:00:00", "Y@08:05:00")
+            .trip("T2", "R1", null, "X@08:30:00", "Y@08:35:00")
+            .trip("T3", "R1", null, "X@09:00:00", "Y@09:05:00")
+            .trip("T4", "R1", null, "X@10:00:00", "Y@10:05:00")
+            .trip("NOTTE", "R1", null, "X@24:30:00", "Y@24:35:00")
+            .staticIndexer();
+    private final GTFSTimetableIndex timetable = new GTFSTimetableIndex(staticIndexer);
+    private final GTFSRealtimeIndexer realtimeIndexer = new GTFSRealtimeIndexer(staticIndexer, timetable);
+
+    /**
+     * Crea la vista con l'avanzamento periodico già arrestato.
+     */
+    private GTFSNextDeparturesView view() {
+        GTFSNextDeparturesView view = new GTFSNextDeparturesView(timetable, realtimeIndexer,
+                GTFSNextDeparturesView.DEFAULT_HORIZON_MINUTES);
+        view.stop();
+        return view;
+    }
+
+    private static List<String> trips(GTFSNextDeparturesView view) {
+        return view.getDepartures("X").stream().map(d -> d.tripId).toList();
+    }
+
+    private static StopTimeUpdate.Builder delayAtFirstStop(int delaySec) {
+        return StopTimeUpdate.newBuilder().setStopSequence(1).setArrival(StopTimeEvent.newBuilder().setDelay(delaySec));
+    }
+
+    private static FeedEntity cancelled(String tripId) {
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId)
+                        .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED))).build();
+    }
+
+    private static FeedMessage feed(long timestamp, FeedEntity... entities) {
+        FeedMessage.Builder feed = FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(timestamp));
+        for (FeedEntity e : entities) feed.addEntity(e);
+        return feed.build();
+    }
+
+    private static FeedEntity delayed(String tripId, int delaySec) {
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId))
+                .addStopTimeUpdate(delayAtFirstStop(delaySec))).build();
+    }
+
+    // HORIZON TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la lista copra la finestra di tempo e venga completata avanzando.
+     */
+    @Test
+    void testBoardCoversHorizon() {
+        GTFSNextDeparturesView view = view();
+
+        view.advance(at(7, 55));
+        assertEquals(List.of("T1", "T2", "T3"), trips(view), "la corsa delle 10:00 è oltre i 90 minuti");
+
+        view.advance(at(9, 40));
+        assertEquals(List.of("T4"), trips(view));
+        assertEquals(at(10, 0), view.getDepartures("X").get(0).scheduledEpochSec);
+        assertTrue(view.getDepartures("Z").isEmpty());
+    }
+
+    // AFTER MIDNIGHT TEST ---------------------------------------------------------------------------------------------
+    /**
+     * Verifica che dopo la mezzanotte compaiano le corse del giorno di servizio precedente.
+     */
+    @Test
+    void testTripsAfterMidnightFromPreviousServiceDay() {
+        GTFSNextDeparturesView view = view();
+
+        view.advance(at(0, 20));
+        assertEquals(List.of("NOTTE"), trips(view));
+        assertEquals(at(0, 30), view.getDepartures("X").get(0).scheduledEpochSec);
+    }
+
+    // LATE TRIP TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che una corsa scartata all'orario programmato torni nella lista con la previsione
+     * e che le previsioni riordinino le partenze.
+     */
+    @Test
+    void testLateTripReturnsWithPrediction() {
+        GTFSNextDeparturesView view = view();
+        view.advance(at(8, 2));
+        assertEquals(List.of("T2", "T3"), trips(view), "la corsa delle 8:00 senza previsione è passata");
+
+        realtimeIndexer.applyTripUpdates(FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(at(8, 2)))
+                .addEntity(delayed("T1", 600))
+                .addEntity(delayed("T2", 2400))
+                .build());
+
+        List<GTFSNextDeparturesView.Departure> board = view.getDepartures("X");
+        assertEquals(List.of("T1", "T3", "T2"), trips(view));
+        assertEquals(at(8, 0), board.get(0).scheduledEpochSec);
+        assertEquals(at(8, 10), board.get(0).predictedEpochSec);
+        assertEquals(at(9, 10), board.get(2).getEffectiveEpochSec());
+
+        view.advance(at(8, 12));
+        assertEquals(List.of("T3", "T2"), trips(view), "la previsione delle 8:10 è passata");
+    }
+
+    // CANCELLED TRIP TEST ---------------------------------------------------------------------------------------------
+    /**
+     * Verifica che una corsa soppressa esca dalla lista, non venga aggiunta avanzando
+     * e torni quando la soppressione viene revocata.
+     */
+    @Test
+    void testCancelledTripLeavesBoard() {
+        GTFSNextDeparturesView view = view();
+        view.advance(at(7, 55));
+
+        realtimeIndexer.applyTripUpdates(feed(at(7, 55), cancelled("T2")));
+        assertEquals(List.of("T1", "T3"), trips(view));
+
+        realtimeIndexer.applyTripUpdates(feed(at(7, 56)));
+        assertEquals(List.of("T1", "T2", "T3"), trips(view), "soppressione revocata");
+        assertFalse(view.getDepartures("X").get(1).hasPrediction());
+
+        realtimeIndexer.applyTripUpdates(feed(at(7, 57), cancelled("T4")));
+        view.advance(at(9, 40));
+        assertTrue(trips(view).isEmpty(), "la corsa delle 10:00 soppressa non entra nella finestra");
+
+        realtimeIndexer.applyTripUpdates(feed(at(9, 40)));
+        assertEquals(List.of("T4"), trips(view));
+    }
+}
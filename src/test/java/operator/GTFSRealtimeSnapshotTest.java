@@ -0,0 +1,207 @@
+package operator;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per la pubblicazione degli snapshot di GTFSRealtimeIndexer.
+ *
+ * Ogni feed applicato pubblica un nuovo GTFSRealtimeSnapshot immutabile con un solo scambio atomico:
+ * gli snapshot già letti non cambiano, le parti non toccate dal feed vengono riusate e gli eventi
+ * degli indici derivati portano lo snapshot della propria versione.
+ */
+public class GTFSRealtimeSnapshotTest {
+
+    private static final long MIDNIGHT = LocalDate.of(2099, 1, 12).atStartOfDay(ZoneId.of("Europe/Rome")).toEpochSecond();
+    private static final long FEED_TIME = MIDNIGHT + 8 * 3600;
+
+    private final GTFSStaticIndexer staticIndexer = new GTFSTestNetwork()
+            .stop("A", 41.90, 12.50)
+            .stop("B", 41.91, 12.50)
+            .stop("C", 41.92, 12.50)
+            .route("R1")
+            .trip("T1", "R1", null, "A@08:00:00", "B@08:10:00", "C@08:20:00")
+            .trip("T2", "R1", null, "A@08:30:00", "B@08:40:00", "C@08:50:00")
+            .staticIndexer();
+    private final GTFSRealtimeIndexer indexer = new GTFSRealtimeIndexer(staticIndexer, new GTFSTimetableIndex(staticIndexer));
+
+    private static FeedHeader.Builder header(long timestamp) {
+        return FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(timestamp);
+    }
+
+    private static FeedEntity delayed(String tripId, int delaySec) {
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId))
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(1)
+                        .setArrival(StopTimeEvent.newBuilder().setDelay(delaySec)))).build();
+    }
+
+    private static FeedEntity cancelled(String tripId) {
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId)
+                        .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED))).build();
+    }
+
+    private static FeedMessage trips(long timestamp, FeedEntity... entities) {
+        FeedMessage.Builder feed = FeedMessage.newBuilder().setHeader(header(timestamp));
+        for (FeedEntity e : entities) feed.addEntity(e);
+        return feed.build();
+    }
+
+    private static FeedMessage vehicle(long timestamp, String tripId, float lat) {
+        return FeedMessage.newBuilder().setHeader(header(timestamp))
+                .addEntity(FeedEntity.newBuilder().setId("v-" + tripId).setVehicle(VehiclePosition.newBuilder()
+                        .setTrip(TripDescriptor.newBuilder().setTripId(tripId))
+                        .setPosition(Position.newBuilder().setLatitude(lat).setLongitude(12.5f))))
+                .build();
+    }
+
+    private static GTFSRealtimeStreamDecoder.TripUpdates decoded(FeedMessage feed) throws IOException {
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(feed.toByteArray());
+        return decoder.getTripUpdates();
+    }
+
+    // VERSION TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che ogni feed con modifiche pubblichi una versione successiva, riusando la parte non toccata,
+     * e che l'evento degli indici porti lo snapshot e il timestamp di quella versione.
+     */
+    @Test
+    void testEachFeedPublishesNextVersion() {
+        List<GTFSRealtimeChangeEvent> events = new ArrayList<>();
+        indexer.addIndexListener("eventi", events::add);
+        assertEquals(0, indexer.getSnapshot().getVersion());
+
+        indexer.applyTripUpdates(trips(FEED_TIME, delayed("T1", 120)));
+        GTFSRealtimeSnapshot first = indexer.getSnapshot();
+        assertEquals(1, first.getVersion());
+        assertEquals(FEED_TIME + 12 * 60, first.getPredictedArrivalEpoch("T1", "B"));
+
+        indexer.applyVehiclePositions(vehicle(FEED_TIME + 30, "T1", 41.905f));
+        GTFSRealtimeSnapshot second = indexer.getSnapshot();
+        assertEquals(2, second.getVersion());
+        assertEquals(1, second.getVehicleCount());
+        assertSame(first.predictions, second.predictions, "le previsioni non toccate dal feed vengono riusate");
+
+        assertEquals(2, events.size());
+        assertSame(first, events.get(0).getSnapshot());
+        assertEquals(1, events.get(0).getVersion());
+        assertEquals(FEED_TIME, events.get(0).getFeedTimestamp());
+        assertSame(second, events.get(1).getSnapshot());
+        assertEquals(FEED_TIME + 30, events.get(1).getFeedTimestamp());
+    }
+
+    // IMMUTABILITY TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che uno snapshot già letto non cambi quando vengono applicati altri feed o i dati vengono svuotati.
+     */
+    @Test
+    void testPublishedSnapshotNeverChanges() {
+        indexer.applyTripUpdates(trips(FEED_TIME, delayed("T1", 120)));
+        indexer.applyVehiclePositions(vehicle(FEED_TIME, "T1", 41.905f));
+        GTFSRealtimeSnapshot old = indexer.getSnapshot();
+
+        indexer.applyTripUpdates(trips(FEED_TIME + 30, delayed("T1", 300), cancelled("T2")));
+        indexer.applyVehiclePositions(vehicle(FEED_TIME + 30, "T1", 41.915f));
+        GTFSRealtimeSnapshot current = indexer.getSnapshot();
+        assertEquals(FEED_TIME + 15 * 60, current.getPredictedArrivalEpoch("T1", "B"));
+        assertTrue(current.isTripCancelled("T2"));
+
+        assertEquals(FEED_TIME + 12 * 60, old.getPredictedArrivalEpoch("T1", "B"));
+        assertFalse(old.isTripCancelled("T2"));
+        assertEquals(41.905f, old.getVehicleForTrip("T1").lat);
+        assertEquals(1, old.getPredictedArrivals("B").size());
+
+        indexer.clear();
+        GTFSRealtimeSnapshot cleared = indexer.getSnapshot();
+        assertTrue(cleared.getVersion() > current.getVersion());
+        assertEquals(0, cleared.getVehicleCount());
+        assertEquals(0, cleared.getTripCount());
+        assertEquals(1, current.getVehicleCount(), "lo svuotamento pubblica un nuovo snapshot");
+        assertTrue(current.isTripCancelled("T2"));
+    }
+
+    // UNCHANGED FEED TEST ---------------------------------------------------------------------------------------------
+    /**
+     * Verifica che un feed senza modifiche non pubblichi un nuovo snapshot né eventi.
+     */
+    @Test
+    void testUnchangedFeedKeepsSnapshot() {
+        List<GTFSRealtimeChangeEvent> events = new ArrayList<>();
+        indexer.addIndexListener("eventi", events::add);
+
+        indexer.applyTripUpdates(trips(FEED_TIME, delayed("T1", 120)));
+        GTFSRealtimeSnapshot published = indexer.getSnapshot();
+        indexer.applyTripUpdates(trips(FEED_TIME + 30, delayed("T1", 120)));
+
+        assertSame(published, indexer.getSnapshot());
+        assertEquals(1, events.size());
+    }
+
+    // NAMESPACE TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che ogni feed sostituisca solo la propria parte dello snapshot.
+     */
+    @Test
+    void testFeedReplacesOnlyItsOwnTrips() throws IOException {
+        indexer.applyTripUpdates("", decoded(trips(FEED_TIME, delayed("T1", 120))));
+        indexer.applyTripUpdates("B", decoded(trips(FEED_TIME, delayed("T2", 60))));
+        assertEquals(2, indexer.getSnapshot().getTripCount());
+
+        indexer.applyTripUpdates("", decoded(trips(FEED_TIME + 30)));
+        GTFSRealtimeSnapshot snapshot = indexer.getSnapshot();
+        assertEquals(1, snapshot.getTripCount());
+        assertTrue(snapshot.getTripPredictions("T1").isEmpty());
+        assertEquals(FEED_TIME + 41 * 60, snapshot.getPredictedArrivalEpoch("T2", "B"));
+    }
+
+    // CONCURRENT READ TEST --------------------------------------------------------------------------------------------
+    /**
+     * Verifica che chi legge mentre i feed vengono applicati veda sempre snapshot completi:
+     * versioni crescenti e previsioni per corsa e per fermata della stessa versione.
+     */
+    @Test
+    void testReadersSeeConsistentSnapshots() throws InterruptedException {
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            long lastVersion = -1;
+            while (!Thread.currentThread().isInterrupted() && failure.get() == null) {
+                GTFSRealtimeSnapshot s = indexer.getSnapshot();
+                if (s.getVersion() < lastVersion) failure.set("versione decrescente " + s.getVersion());
+                lastVersion = s.getVersion();
+                long byTrip = s.getPredictedArrivalEpoch("T1", "B");
+                List<GTFSDataIndexer.PredictedArrival> byStop = s.getPredictedArrivals("B");
+                long fromStop = byStop.isEmpty() ? -1 : byStop.get(0).arrivalEpochSec;
+                if (byTrip != fromStop) failure.set("versione " + s.getVersion() + ": " + byTrip + " != " + fromStop);
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 300; i++) {
+            indexer.applyTripUpdates(trips(FEED_TIME + i, delayed("T1", i * 10)));
+        }
+        reader.interrupt();
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(300, indexer.getSnapshot().getVersion());
+        assertEquals(FEED_TIME + 10 * 60 + 3000, indexer.getSnapshot().getPredictedArrivalEpoch("T1", "B"));
+    }
+}
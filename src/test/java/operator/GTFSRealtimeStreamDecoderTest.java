@@ -0,0 +1,301 @@
+package operator;
+
+import com.google.transit.realtime.GtfsRealtime.Alert;
+import com.google.transit.realtime.GtfsRealtime.EntitySelector;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TimeRange;
+import com.google.transit.realtime.GtfsRealtime.TranslatedString;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import model.ServiceAlert;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSRealtimeStreamDecoder.
+ *
+ * Il feed di prova viene costruito e serializzato con protobuf-java; gli stessi byte vengono poi
+ * letti sia con FeedMessage.parseFrom sia con il decoder, e i campi usati dall'applicazione devono coincidere.
+ * Il feed contiene anche campi che il decoder salta, un'entità cancellata e un veicolo senza corsa.
+ */
+public class GTFSRealtimeStreamDecoderTest {
+
+    private static final long HEADER_TS = 1_700_000_000L;
+
+    private static final FeedMessage FEED = FeedMessage.newBuilder()
+            .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0")
+                    .setIncrementality(FeedHeader.Incrementality.FULL_DATASET).setTimestamp(HEADER_TS))
+            .addEntity(FeedEntity.newBuilder().setId("tu1").setTripUpdate(TripUpdate.newBuilder()
+                    .setTrip(TripDescriptor.newBuilder().setTripId("T1").setRouteId("R1").setStartDate("20991012")
+                            .setStartTime("08:00:00").setDirectionId(1))
+                    .setVehicle(VehicleDescriptor.newBuilder().setId("V1"))
+                    .setTimestamp(HEADER_TS - 20)
+                    .setDelay(60)
+                    .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(1).setStopId("S1")
+                            .setArrival(StopTimeEvent.newBuilder().setDelay(30).setTime(HEADER_TS + 100))
+                            .setDeparture(StopTimeEvent.newBuilder().setDelay(45).setUncertainty(10)))
+                    .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(2)
+                            .setScheduleRelationship(StopTimeUpdate.ScheduleRelationship.SKIPPED))
+                    .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopId("S3")
+                            .setDeparture(StopTimeEvent.newBuilder().setTime(HEADER_TS + 400)))
+                    .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(4)
+                            .setArrival(StopTimeEvent.newBuilder().setDelay(-90)))))
+            .addEntity(FeedEntity.newBuilder().setId("tu2").setTripUpdate(TripUpdate.newBuilder()
+                    .setTrip(TripDescriptor.newBuilder().setTripId("T2")
+                            .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED))))
+            .addEntity(FeedEntity.newBuilder().setId("veh1").setVehicle(VehiclePosition.newBuilder()
+                    .setTrip(TripDescriptor.newBuilder().setTripId("T1").setRouteId("R1"))
+                    .setVehicle(VehicleDescriptor.newBuilder().setId("V1").setLabel("Bus 1"))
+                    .setPosition(Position.newBuilder().setLatitude(41.9028f).setLongitude(12.4964f).setBearing(90f).setSpeed(8f))
+                    .setCurrentStopSequence(2)
+                    .setTimestamp(HEADER_TS - 5)))
+            .addEntity(FeedEntity.newBuilder().setId("veh2").setVehicle(VehiclePosition.newBuilder()
+                    .setTrip(TripDescriptor.newBuilder().setTripId("T9").setRouteId("R2"))
+                    .setPosition(Position.newBuilder().setLatitude(-33.5f).setLongitude(-70.25f))))
+            .addEntity(FeedEntity.newBuilder().setId("cancellata").setIsDeleted(true).setTripUpdate(TripUpdate.newBuilder()
+                    .setTrip(TripDescriptor.newBuilder().setTripId("T3"))
+                    .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(1))))
+            .addEntity(FeedEntity.newBuilder().setId("senza_corsa").setVehicle(VehiclePosition.newBuilder()
+                    .setPosition(Position.newBuilder().setLatitude(41f).setLongitude(12f))))
+            .addEntity(FeedEntity.newBuilder().setId("avviso1").setAlert(Alert.newBuilder()
+                    .addActivePeriod(TimeRange.newBuilder().setStart(HEADER_TS).setEnd(HEADER_TS + 3600))
+                    .addActivePeriod(TimeRange.newBuilder().setStart(HEADER_TS + 7200))
+                    .addInformedEntity(EntitySelector.newBuilder().setRouteId("R1"))
+                    .addInformedEntity(EntitySelector.newBuilder().setStopId("S2"))
+                    .addInformedEntity(EntitySelector.newBuilder().setTrip(TripDescriptor.newBuilder().setTripId("T1")))
+                    .setCause(Alert.Cause.STRIKE)
+                    .setEffect(Alert.Effect.REDUCED_SERVICE)
+                    .setSeverityLevel(Alert.SeverityLevel.WARNING)
+                    .setHeaderText(translated("Strike", "en", "Sciopero", "it"))
+                    .setDescriptionText(translated("Servizio ridotto", null))
+                    .setUrl(translated("https://example.org/sciopero", "it"))))
+            .addEntity(FeedEntity.newBuilder().setId("avviso2").setAlert(Alert.newBuilder()
+                    .addInformedEntity(EntitySelector.newBuilder().setAgencyId("AG"))
+                    .setHeaderText(translated("Maintenance", "en"))))
+            .build();
+
+    private static final byte[] BYTES = FEED.toByteArray();
+
+    /**
+     * Costruisce un TranslatedString da coppie testo, lingua (lingua eventualmente null).
+     */
+    private static TranslatedString translated(String... textAndLanguage) {
+        TranslatedString.Builder builder = TranslatedString.newBuilder();
+        for (int i = 0; i < textAndLanguage.length; i += 2) {
+            TranslatedString.Translation.Builder t = TranslatedString.Translation.newBuilder().setText(textAndLanguage[i]);
+            if (textAndLanguage[i + 1] != null) t.setLanguage(textAndLanguage[i + 1]);
+            builder.addTranslation(t);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Testo nella lingua preferita (italiano) oppure la prima traduzione, come nell'applicazione.
+     */
+    private static String preferredText(TranslatedString text) {
+        for (TranslatedString.Translation t : text.getTranslationList()) {
+            if (t.getLanguage().startsWith("it")) return t.getText();
+        }
+        return text.getTranslationCount() > 0 ? text.getTranslation(0).getText() : null;
+    }
+
+    private static List<FeedEntity> kept(FeedMessage feed) {
+        List<FeedEntity> kept = new ArrayList<>();
+        for (FeedEntity e : feed.getEntityList()) if (!e.getIsDeleted()) kept.add(e);
+        return kept;
+    }
+
+    private static String nullIfAbsent(boolean present, String value) {
+        return present ? value : null;
+    }
+
+    // TRIP UPDATES TEST -----------------------------------------------------------------------------------------------
+    /**
+     * Verifica che i TripUpdate decodificati coincidano con quelli di protobuf-java.
+     */
+    @Test
+    void testTripUpdatesMatchProtobuf() throws IOException {
+        FeedMessage parsed = FeedMessage.parseFrom(BYTES);
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(BYTES);
+        GTFSRealtimeStreamDecoder.TripUpdates updates = decoder.getTripUpdates();
+
+        assertEquals(parsed.getHeader().getTimestamp(), updates.getHeaderTimestamp());
+        int k = 0;
+        for (FeedEntity e : kept(parsed)) {
+            if (!e.hasTripUpdate()) continue;
+            TripUpdate tu = e.getTripUpdate();
+            TripDescriptor trip = tu.getTrip();
+            assertEquals(trip.getTripId(), updates.getTripId(k));
+            assertEquals(nullIfAbsent(trip.hasRouteId(), trip.getRouteId()), updates.getRouteId(k));
+            assertEquals(trip.hasStartDate() ? Integer.parseInt(trip.getStartDate()) : 0, updates.getStartDate(k));
+            assertEquals(trip.getScheduleRelationship().getNumber(), updates.getRelationship(k));
+            assertEquals(tu.hasDelay() ? tu.getDelay() : GTFSRealtimeStreamDecoder.NO_VALUE, updates.getDelay(k));
+            assertEquals(tu.getTimestamp(), updates.getTimestamp(k));
+            assertEquals(tu.getStopTimeUpdateCount(), updates.getEndUpdate(k) - updates.getFirstUpdate(k));
+
+            int j = updates.getFirstUpdate(k);
+            for (StopTimeUpdate stu : tu.getStopTimeUpdateList()) {
+                assertEquals(stu.hasStopSequence() ? stu.getStopSequence() : -1, updates.getStopSequence(j));
+                assertEquals(nullIfAbsent(stu.hasStopId(), stu.getStopId()), updates.getStopId(j));
+                assertEquals(stu.getScheduleRelationship().getNumber(), updates.getUpdateRelationship(j));
+                assertEquals(stu.getArrival().getTime(), updates.getArrivalTime(j));
+                assertEquals(stu.getArrival().hasDelay() ? stu.getArrival().getDelay() : GTFSRealtimeStreamDecoder.NO_VALUE,
+                        updates.getArrivalDelay(j));
+                assertEquals(stu.getDeparture().getTime(), updates.getDepartureTime(j));
+                assertEquals(stu.getDeparture().hasDelay() ? stu.getDeparture().getDelay() : GTFSRealtimeStreamDecoder.NO_VALUE,
+                        updates.getDepartureDelay(j));
+                j++;
+            }
+            k++;
+        }
+        assertEquals(2, k);
+        assertEquals(k, updates.size(), "l'entità cancellata non viene decodificata");
+    }
+
+    // VEHICLE POSITIONS TEST ------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le posizioni decodificate coincidano con quelle di protobuf-java,
+     * escluse quelle senza corsa.
+     */
+    @Test
+    void testVehiclePositionsMatchProtobuf() throws IOException {
+        FeedMessage parsed = FeedMessage.parseFrom(BYTES);
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(BYTES);
+        GTFSRealtimeStreamDecoder.VehiclePositions vehicles = decoder.getVehiclePositions();
+
+        assertEquals(parsed.getHeader().getTimestamp(), vehicles.getHeaderTimestamp());
+        int k = 0;
+        for (FeedEntity e : kept(parsed)) {
+            if (!e.hasVehicle() || !e.getVehicle().getTrip().hasTripId()) continue;
+            VehiclePosition vp = e.getVehicle();
+            assertEquals(vp.getTrip().getTripId(), vehicles.getTripId(k));
+            assertEquals(nullIfAbsent(vp.getTrip().hasRouteId(), vp.getTrip().getRouteId()), vehicles.getRouteId(k));
+            assertEquals(nullIfAbsent(vp.getVehicle().hasId(), vp.getVehicle().getId()), vehicles.getVehicleId(k));
+            assertEquals(vp.getPosition().getLatitude(), vehicles.getLatitude(k));
+            assertEquals(vp.getPosition().getLongitude(), vehicles.getLongitude(k));
+            assertEquals(vp.getTimestamp(), vehicles.getTimestamp(k));
+            k++;
+        }
+        assertEquals(2, k);
+        assertEquals(k, vehicles.size(), "il veicolo senza corsa non viene decodificato");
+    }
+
+    // ALERTS TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che gli avvisi decodificati coincidano con quelli di protobuf-java,
+     * con i testi nella lingua preferita.
+     */
+    @Test
+    void testAlertsMatchProtobuf() throws IOException {
+        FeedMessage parsed = FeedMessage.parseFrom(BYTES);
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        decoder.decode(BYTES);
+        GTFSRealtimeStreamDecoder.Alerts alerts = decoder.getAlerts();
+
+        int k = 0;
+        for (FeedEntity e : kept(parsed)) {
+            if (!e.hasAlert()) continue;
+            Alert alert = e.getAlert();
+            ServiceAlert decoded = alerts.get(k++);
+            assertEquals(e.getId(), decoded.getAlertId());
+            assertEquals(alert.getCause().name(), decoded.getCause());
+            assertEquals(alert.getEffect().name(), decoded.getEffect());
+            assertEquals(alert.getSeverityLevel().name(), decoded.getSeverity());
+            assertEquals(preferredText(alert.getHeaderText()), decoded.getHeaderText());
+            assertEquals(preferredText(alert.getDescriptionText()), decoded.getDescriptionText());
+            assertEquals(preferredText(alert.getUrl()), decoded.getUrl());
+
+            assertEquals(alert.getActivePeriodCount(), decoded.getPeriodCount());
+            for (int p = 0; p < alert.getActivePeriodCount(); p++) {
+                assertEquals(alert.getActivePeriod(p).getStart(), decoded.getPeriodStart(p));
+                assertEquals(alert.getActivePeriod(p).getEnd(), decoded.getPeriodEnd(p));
+            }
+
+            List<String> routes = new ArrayList<>();
+            List<String> stops = new ArrayList<>();
+            List<String> trips = new ArrayList<>();
+            for (EntitySelector selector : alert.getInformedEntityList()) {
+                if (selector.hasRouteId()) routes.add(selector.getRouteId());
+                if (selector.hasStopId()) stops.add(selector.getStopId());
+                if (selector.getTrip().hasTripId()) trips.add(selector.getTrip().getTripId());
+            }
+            assertEquals(routes, List.of(decoded.getRouteIds()));
+            assertEquals(stops, List.of(decoded.getStopIds()));
+            assertEquals(trips, List.of(decoded.getTripIds()));
+            assertEquals(routes.isEmpty() && stops.isEmpty() && trips.isEmpty(), decoded.isNetworkWide());
+        }
+        assertEquals(2, k);
+        assertEquals(k, alerts.size());
+        assertEquals("Sciopero", alerts.get(0).getHeaderText());
+    }
+
+    // STREAM AND REUSE TEST -------------------------------------------------------------------------------------------
+    /**
+     * Verifica la lettura da stream con il solo timestamp dell'header e che i buffer riutilizzati
+     * contengano solo il feed decodificato per ultimo.
+     */
+    @Test
+    void testReadFromStreamAndBufferReuse() throws IOException {
+        GTFSRealtimeStreamDecoder decoder = new GTFSRealtimeStreamDecoder();
+        assertEquals(HEADER_TS, decoder.readFrom(new ByteArrayInputStream(BYTES)));
+        assertEquals(BYTES.length, decoder.getBodyLength());
+        assertArrayEquals(BYTES, decoder.copyBody());
+        decoder.decode();
+        assertEquals(2, decoder.getTripUpdates().size());
+
+        FeedMessage small = FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(HEADER_TS + 30))
+                .addEntity(FeedEntity.newBuilder().setId("tu").setTripUpdate(TripUpdate.newBuilder()
+                        .setTrip(TripDescriptor.newBuilder().setTripId("T5"))))
+                .build();
+        decoder.decode(small.toByteArray());
+
+        GTFSRealtimeStreamDecoder.TripUpdates updates = decoder.getTripUpdates();
+        assertEquals(1, updates.size());
+        assertEquals("T5", updates.getTripId(0));
+        assertEquals(0, updates.getEndUpdate(0) - updates.getFirstUpdate(0));
+        assertEquals(HEADER_TS + 30, updates.getHeaderTimestamp());
+        assertEquals(0, decoder.getVehiclePositions().size());
+        assertEquals(0, decoder.getAlerts().size());
+    }
+
+    // PREFIX AND FILTER TEST ------------------------------------------------------------------------------------------
+    /**
+     * Verifica il prefisso dello spazio dei nomi sugli ID e il filtro delle linee,
+     * che si basa sui dati statici quando disponibili e non scarta gli avvisi.
+     */
+    @Test
+    void testNamespacePrefixAndRouteFilter() throws IOException {
+        GTFSRealtimeStreamDecoder prefixed = new GTFSRealtimeStreamDecoder(null, "B:");
+        prefixed.decode(BYTES);
+        assertEquals("B:T1", prefixed.getTripUpdates().getTripId(0));
+        assertEquals("B:S1", prefixed.getTripUpdates().getStopId(prefixed.getTripUpdates().getFirstUpdate(0)));
+        assertEquals("B:V1", prefixed.getVehiclePositions().getVehicleId(0));
+        assertEquals("B:avviso1", prefixed.getAlerts().get(0).getAlertId());
+        assertArrayEquals(new String[]{ "B:R1" }, prefixed.getAlerts().get(0).getRouteIds());
+
+        GTFSRealtimeStreamDecoder filtered = new GTFSRealtimeStreamDecoder(tripId -> tripId.equals("T2") ? "R1" : null);
+        filtered.setRouteFilter(Set.of("R1"));
+        filtered.decode(BYTES);
+        assertEquals(2, filtered.getTripUpdates().size(), "T2 appartiene a R1 secondo i dati statici");
+        assertEquals(1, filtered.getVehiclePositions().size());
+        assertEquals("T1", filtered.getVehiclePositions().getTripId(0));
+        assertEquals(2, filtered.getAlerts().size());
+    }
+}
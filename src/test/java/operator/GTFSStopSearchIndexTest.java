@@ -0,0 +1,105 @@
+package operator;
+
+import model.Stop;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSStopSearchIndex.
+ *
+ * La classe testa normalizzazione, filtro e ordinamento dei risultati
+ * su un piccolo insieme di fermate costruito a mano.
+ */
+public class GTFSStopSearchIndexTest {
+
+    private static Stop stop(String id, String code, String name) {
+        Stop stop = new Stop();
+        stop.setStopId(id);
+        stop.setStopCode(code);
+        stop.setStopName(name);
+        return stop;
+    }
+
+    private static final List<Stop> STOPS = List.of(
+            stop("70001", "70001", "Termini (MA-MB-FS)"),
+            stop("70002", "70002", "Piazza dei Cinquecento"),
+            stop("70003", "70003", "Piazzale Flaminio"),
+            stop("70004", "70004", "Santa Maria Maggiore"),
+            stop("80001", "80001", "Largo Argentina"),
+            stop("80002", "80002", "Via Nazionale/Palazzo delle Esposizioni"),
+            stop("80003", "80003", "Città Universitaria"));
+
+    private static final GTFSStopSearchIndex INDEX = new GTFSStopSearchIndex(STOPS,
+            Map.of("70002", 25, "70003", 3));
+
+    private static List<String> ids(List<Stop> stops) {
+        return stops.stream().map(Stop::getStopId).toList();
+    }
+
+    // NORMALIZE TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la normalizzazione rimuova accenti, maiuscole e punteggiatura.
+     */
+    @Test
+    void testNormalize() {
+        assertEquals("citta universitaria", GTFSStopSearchIndex.normalize("  Città  Universitaria "));
+        assertEquals("via nazionale palazzo", GTFSStopSearchIndex.normalize("Via Nazionale/Palazzo"));
+        assertEquals("", GTFSStopSearchIndex.normalize(null));
+    }
+
+    // ACCENT TEST -----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la ricerca ignori gli accenti sia nella query che nei nomi.
+     */
+    @Test
+    void testAccentFolding() {
+        assertEquals(List.of("80003"), ids(INDEX.search("citta", 10)));
+        assertEquals(List.of("80003"), ids(INDEX.search("CITTÀ univ", 10)));
+    }
+
+    // SUBSTRING TEST --------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le query lunghe trovino anche sottostringhe interne alle parole.
+     */
+    @Test
+    void testSubstringMatch() {
+        assertEquals(List.of("80001"), ids(INDEX.search("gentin", 10)));
+        assertTrue(INDEX.search("xyz", 10).isEmpty());
+    }
+
+    // SHORT QUERY TEST ------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le query corte trovino solo le parole che iniziano con la query.
+     */
+    @Test
+    void testShortQueryMatchesWordPrefixOnly() {
+        List<String> result = ids(INDEX.search("ma", 10));
+        assertTrue(result.containsAll(List.of("70001", "70004")));
+        assertEquals(2, result.size(), "\"ma\" non deve trovare parole che contengono solo la sottostringa");
+    }
+
+    // RANKING TEST ----------------------------------------------------------------------------------------------------
+    /**
+     * Verifica l'ordinamento: ID esatto prima di tutto, poi prefisso del nome e importanza.
+     */
+    @Test
+    void testRanking() {
+        assertEquals("70003", INDEX.search("70003", 10).get(0).getStopId());
+        assertEquals(List.of("70002", "70003"), ids(INDEX.search("piazza", 10)));
+        assertEquals(List.of("70002", "70003"), ids(INDEX.search("pia", 10)));
+    }
+
+    // LIMIT TEST ------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che i risultati siano limitati ai primi K.
+     */
+    @Test
+    void testLimit() {
+        assertEquals(4, INDEX.search("7", 100).size());
+        assertEquals(List.of("70002"), ids(INDEX.search("pia", 1)));
+    }
+}
@@ -0,0 +1,95 @@
+package operator;
+
+import model.Route;
+import model.ShapePoint;
+import model.Stop;
+import model.StopTime;
+import model.Trip;
+
+/**
+ * Piccola rete GTFS costruita in memoria per i test degli indici.
+ *
+ * Fermate, linee, corse e shape vengono aggiunte direttamente alle repository
+ * di un {@link GTFSStaticLoader}, senza leggere file. Senza calendario
+ * tutte le corse sono considerate attive in ogni giorno.
+ */
+final class GTFSTestNetwork {
+
+    static final String SERVICE_ID = "FERIALE";
+
+    final GTFSStaticLoader loader = new GTFSStaticLoader();
+
+    // FERMATE ---------------------------------------------------------------------------------------------------------
+    GTFSTestNetwork stop(String id, double lat, double lon) {
+        Stop stop = new Stop();
+        stop.setStopId(id);
+        stop.setStopCode(id);
+        stop.setStopName("Fermata " + id);
+        stop.setStopLat(lat);
+        stop.setStopLon(lon);
+        loader.getStopRepository().getAllStops().add(stop);
+        return this;
+    }
+
+    // LINEE -----------------------------------------------------------------------------------------------------------
+    GTFSTestNetwork route(String id) {
+        Route route = new Route();
+        route.setRouteId(id);
+        route.setRouteShortName(id);
+        route.setRouteType(3);
+        loader.getRouteRepository().getAllRoutes().add(route);
+        return this;
+    }
+
+    // CORSE -----------------------------------------------------------------------------------------------------------
+    /**
+     * Aggiunge una corsa con i suoi stop times.
+     *
+     * @param stopTimes fermate e orari nella forma "ID@HH:MM:SS" oppure "ID@arrivo-partenza", nell'ordine di percorrenza
+     */
+    GTFSTestNetwork trip(String id, String routeId, String shapeId, String... stopTimes) {
+        Trip trip = new Trip();
+        trip.setTripId(id);
+        trip.setRouteId(routeId);
+        trip.setServiceId(SERVICE_ID);
+        trip.setDirectionId(0);
+        trip.setShapeId(shapeId);
+        loader.getTripRepository().getAllTrips().add(trip);
+
+        for (int i = 0; i < stopTimes.length; i++) {
+            String[] parts = stopTimes[i].split("@");
+            String[] times = parts[1].split("-");
+            StopTime st = new StopTime();
+            st.setTripId(id);
+            st.setStopId(parts[0]);
+            st.setArrivalTime(times[0]);
+            st.setDepartureTime(times[times.length - 1]);
+            st.setStopSequence(i + 1);
+            loader.getStopTimeRepository().getAllStopTimes().add(st);
+        }
+        return this;
+    }
+
+    // SHAPE -----------------------------------------------------------------------------------------------------------
+    /**
+     * Aggiunge una shape.
+     *
+     * @param latLon coppie latitudine, longitudine dei punti, nell'ordine di percorrenza
+     */
+    GTFSTestNetwork shape(String id, double... latLon) {
+        for (int i = 0; i < latLon.length / 2; i++) {
+            ShapePoint point = new ShapePoint();
+            point.setShapeId(id);
+            point.setShapePtLat(latLon[2 * i]);
+            point.setShapePtLon(latLon[2 * i + 1]);
+            point.setShapePtSequence(i + 1);
+            loader.getShapePointRepository().getAllShapePoints().add(point);
+        }
+        return this;
+    }
+
+    // INDICI ----------------------------------------------------------------------------------------------------------
+    GTFSStaticIndexer staticIndexer() {
+        return new GTFSStaticIndexer(loader);
+    }
+}
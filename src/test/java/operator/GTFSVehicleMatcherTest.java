@@ -0,0 +1,131 @@
+package operator;
+
+import model.ShapePoint;
+import model.StopTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test unitari per GTFSVehicleMatcher.
+ *
+ * La shape DRITTA sale verso nord per circa 1112 m lungo la longitudine 12.5; la shape ANDATA_RITORNO
+ * sale e ridiscende su una strada parallela a circa 83 m, così che a metà strada le due direzioni
+ * siano equidistanti e decida la posizione precedente del veicolo.
+ */
+public class GTFSVehicleMatcherTest {
+
+    private static final double TOLERANCE_METERS = 1.0;
+
+    /**
+     * Crea una posizione non ancora associata.
+     */
+    private static GTFSDataIndexer.VehiclePos position(String tripId, double lat, double lon) {
+        return new GTFSDataIndexer.VehiclePos(tripId, "V1", lat, lon, 0, "R1", 3);
+    }
+
+    /**
+     * Crea una posizione già associata a una certa distanza lungo la shape.
+     */
+    private static GTFSDataIndexer.VehiclePos matchedAt(String tripId, double along) {
+        return position(tripId, 0, 0).withMatch(along, Double.NaN, 0, 0, null);
+    }
+
+    private static GTFSTestNetwork network() {
+        return new GTFSTestNetwork()
+                .stop("A", 41.900, 12.5002)
+                .stop("B", 41.905, 12.5002)
+                .stop("C", 41.910, 12.5002)
+                .stop("D", 41.902, 12.5010)
+                .route("R1")
+                .shape("DRITTA", 41.900, 12.500, 41.905, 12.500, 41.910, 12.500)
+                .shape("ANDATA_RITORNO", 41.900, 12.500, 41.910, 12.500, 41.910, 12.501, 41.900, 12.501)
+                .trip("T", "R1", "DRITTA", "A@08:00:00", "B@08:05:00", "C@08:10:00")
+                .trip("GIRO", "R1", "ANDATA_RITORNO", "A@08:00:00", "C@08:05:00", "D@08:10:00")
+                .trip("SENZA_SHAPE", "R1", null, "A@08:00:00", "C@08:10:00");
+    }
+
+    private static final GTFSVehicleMatcher MATCHER = new GTFSVehicleMatcher(network().staticIndexer());
+
+    // SNAP TEST -------------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che la posizione venga proiettata sulla shape, con distanza percorsa e prossima fermata.
+     */
+    @Test
+    void testSnapsOntoShape() {
+        GTFSDataIndexer.VehiclePos pos = position("T", 41.9025, 12.5003);
+        GTFSDataIndexer.VehiclePos matched = MATCHER.match(pos, null);
+
+        assertTrue(matched.isMatched());
+        assertEquals(278.0, matched.distanceAlongShape, TOLERANCE_METERS);
+        assertEquals(41.9025, matched.snappedLat, 1e-9);
+        assertEquals(12.5, matched.snappedLon, 1e-9);
+        assertEquals(pos.lat, matched.lat, "la posizione rilevata resta invariata");
+        assertEquals("B", matched.nextStopId);
+        assertTrue(Double.isNaN(matched.shapeDistTraveled), "la shape non ha shape_dist_traveled");
+
+        assertEquals("C", MATCHER.match(position("T", 41.9075, 12.5), null).nextStopId);
+        assertEquals("C", MATCHER.match(position("T", 41.9110, 12.5), null).nextStopId, "oltre il capolinea resta l'ultima fermata");
+    }
+
+    // NOT MATCHED TEST ------------------------------------------------------------------------------------------------
+    /**
+     * Verifica che le posizioni lontane dal percorso o di corse senza shape restino invariate.
+     */
+    @Test
+    void testPositionsNotMatched() {
+        GTFSDataIndexer.VehiclePos far = position("T", 41.905, 12.510);                 // Circa 830 m dalla shape.
+        assertSame(far, MATCHER.match(far, null));
+
+        GTFSDataIndexer.VehiclePos noShape = position("SENZA_SHAPE", 41.905, 12.500);
+        assertSame(noShape, MATCHER.match(noShape, null));
+
+        GTFSDataIndexer.VehiclePos unknown = position("ALTRA", 41.905, 12.500);
+        assertSame(unknown, MATCHER.match(unknown, null));
+
+        GTFSDataIndexer.VehiclePos noTrip = position(null, 41.905, 12.500);
+        assertSame(noTrip, MATCHER.match(noTrip, null));
+        assertFalse(noTrip.isMatched());
+    }
+
+    // PREVIOUS POSITION TEST ------------------------------------------------------------------------------------------
+    /**
+     * Verifica che tra due tratti equidistanti venga scelto quello più vicino alla posizione precedente.
+     */
+    @Test
+    void testPreviousPositionResolvesAmbiguity() {
+        GTFSDataIndexer.VehiclePos between = position("GIRO", 41.905, 12.5005);
+
+        GTFSDataIndexer.VehiclePos outbound = MATCHER.match(between, matchedAt("GIRO", 400));
+        assertEquals(556.0, outbound.distanceAlongShape, TOLERANCE_METERS);
+        assertEquals(12.500, outbound.snappedLon, 1e-9);
+        assertEquals("C", outbound.nextStopId);
+
+        GTFSDataIndexer.VehiclePos inbound = MATCHER.match(between, matchedAt("GIRO", 1700));
+        assertEquals(1751.0, inbound.distanceAlongShape, TOLERANCE_METERS);
+        assertEquals(12.501, inbound.snappedLon, 1e-9);
+        assertEquals("D", inbound.nextStopId, "la fermata D è sulla strada del ritorno");
+    }
+
+    // SHAPE DIST TRAVELED TEST ----------------------------------------------------------------------------------------
+    /**
+     * Verifica che con shape_dist_traveled le fermate vengano collocate con il valore del feed
+     * anche se le coordinate sono lontane dal percorso, e che il valore venga interpolato.
+     */
+    @Test
+    void testShapeDistTraveled() {
+        GTFSTestNetwork network = network().stop("LONTANA", 41.905, 12.520);
+        network.trip("KM", "R1", "DRITTA", "A@08:00:00", "LONTANA@08:05:00", "C@08:10:00");
+        for (ShapePoint point : network.loader.getShapePointRepository().getAllShapePoints()) {
+            if (point.getShapeId().equals("DRITTA")) point.setShapeDistTraveled((point.getShapePtSequence() - 1) * 0.5);
+        }
+        for (StopTime st : network.loader.getStopTimeRepository().getAllStopTimes()) {
+            if (st.getTripId().equals("KM")) st.setShapeDistTraveled((st.getStopSequence() - 1) * 0.5);
+        }
+        GTFSVehicleMatcher matcher = new GTFSVehicleMatcher(network.staticIndexer());
+
+        GTFSDataIndexer.VehiclePos matched = matcher.match(position("KM", 41.9025, 12.500), null);
+        assertEquals(0.25, matched.shapeDistTraveled, 1e-6);
+        assertEquals("LONTANA", matched.nextStopId);
+    }
+}